@@ -0,0 +1,232 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Interval index over the altitude ranges of airspace records, for showing
+ * only the airspaces that meet a band of altitudes such as 3,000 to 5,000
+ * feet. The records are kept twice, sorted by floor and by ceiling, so the
+ * records meeting a band are a prefix of one order checked against the
+ * other, and moving a band only visits the records with a floor or ceiling
+ * in the ground it swept.
+ * <p>
+ * Terrain conforming floors and ceilings are taken over the ground at the
+ * airspace's center or first location, or over sea level without terrain.
+ * Spheres span their radius above and below their center. The index is not
+ * updated as records change; build a new one.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceAltitudeIndex {
+
+	protected final AirspaceRecord[] byFloor, byCeiling;
+	// Floors ascending, with the ceilings of the same records, and ceilings
+	// ascending, with their floors.
+	protected final double[] floors, floorCeilings;
+	protected final double[] ceilings, ceilingFloors;
+
+	public AirspaceAltitudeIndex(Collection<AirspaceRecord> records,
+			TerrainTileCache terrain) {
+		int n = records.size();
+		final double[] lower = new double[n], upper = new double[n];
+		AirspaceRecord[] all = records.toArray(new AirspaceRecord[n]);
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			double ground = groundOf(all[i], terrain);
+			lower[i] = floorOf(all[i], ground);
+			upper[i] = ceilingOf(all[i], ground);
+			order[i] = i;
+		}
+
+		this.byFloor = new AirspaceRecord[n];
+		this.floors = new double[n];
+		this.floorCeilings = new double[n];
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(lower[a], lower[b]);
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			this.byFloor[i] = all[order[i]];
+			this.floors[i] = lower[order[i]];
+			this.floorCeilings[i] = upper[order[i]];
+		}
+
+		this.byCeiling = new AirspaceRecord[n];
+		this.ceilings = new double[n];
+		this.ceilingFloors = new double[n];
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(upper[a], upper[b]);
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			this.byCeiling[i] = all[order[i]];
+			this.ceilings[i] = upper[order[i]];
+			this.ceilingFloors[i] = lower[order[i]];
+		}
+	}
+
+	public int size() {
+		return this.byFloor.length;
+	}
+
+	/**
+	 * @return the ground elevation a record's terrain conforming altitudes
+	 *         are taken over: the terrain at its center or first location, or
+	 *         sea level.
+	 */
+	public static double groundOf(AirspaceRecord record,
+			TerrainTileCache terrain) {
+		if (terrain == null
+				|| !(record.isLowerTerrainConforming() || record
+						.isUpperTerrainConforming()))
+			return 0.0;
+		switch (record.getShape()) {
+		case CAPPED_CYLINDER:
+		case PARTIAL_CAPPED_CYLINDER:
+		case SPHERE:
+			return terrain.getElevation(record.getCenterLatitude(),
+					record.getCenterLongitude());
+		default:
+			return record.getLocationCount() > 0 ? terrain.getElevation(
+					record.getLatitude(0), record.getLongitude(0)) : 0.0;
+		}
+	}
+
+	/**
+	 * @return the lowest altitude of a record above mean sea level, meters.
+	 */
+	public static double floorOf(AirspaceRecord record, double ground) {
+		double floor = record.getLowerAltitude()
+				+ (record.isLowerTerrainConforming() ? ground : 0.0);
+		if (record.getShape() == AirspaceRecord.Shape.SPHERE)
+			floor -= record.getOuterRadius();
+		return floor;
+	}
+
+	public static double ceilingOf(AirspaceRecord record, double ground) {
+		if (record.getShape() == AirspaceRecord.Shape.SPHERE)
+			return floorOf(record, ground) + 2.0 * record.getOuterRadius();
+		return record.getUpperAltitude()
+				+ (record.isUpperTerrainConforming() ? ground : 0.0);
+	}
+
+	/**
+	 * @return true if an altitude range meets a band; either may be
+	 *         unbounded.
+	 */
+	public static boolean intersects(double floor, double ceiling,
+			double minAltitude, double maxAltitude) {
+		return floor <= maxAltitude && ceiling >= minAltitude;
+	}
+
+	/**
+	 * Collects the records meeting a band of altitudes, visiting the records
+	 * with floors below the band's top.
+	 *
+	 * @return the number of records found.
+	 */
+	public int find(double minAltitude, double maxAltitude,
+			Collection<AirspaceRecord> found) {
+		int end = upperBound(this.floors, maxAltitude);
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			if (this.floorCeilings[i] >= minAltitude) {
+				found.add(this.byFloor[i]);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Collects the records that enter or leave as a band moves from one
+	 * range to another. Only records whose floor lies between the two tops,
+	 * or whose ceiling lies between the two bottoms, are visited.
+	 *
+	 * @return the number of records entering or leaving.
+	 */
+	public int findChanges(double minAltitude0, double maxAltitude0,
+			double minAltitude1, double maxAltitude1,
+			Collection<AirspaceRecord> entered, Collection<AirspaceRecord> left) {
+		int count = 0;
+		// Floors in (low, high] of the tops.
+		double low = Math.min(maxAltitude0, maxAltitude1);
+		double high = Math.max(maxAltitude0, maxAltitude1);
+		if (low < high) {
+			int end = upperBound(this.floors, high);
+			for (int i = upperBound(this.floors, low); i < end; i++) {
+				count += this.classify(this.byFloor[i], this.floors[i],
+						this.floorCeilings[i], minAltitude0, maxAltitude0,
+						minAltitude1, maxAltitude1, entered, left);
+			}
+		}
+
+		// Ceilings in [low, high) of the bottoms, skipping records already
+		// visited for their floors.
+		double floorLow = low, floorHigh = high;
+		low = Math.min(minAltitude0, minAltitude1);
+		high = Math.max(minAltitude0, minAltitude1);
+		if (low < high) {
+			int end = lowerBound(this.ceilings, high);
+			for (int i = lowerBound(this.ceilings, low); i < end; i++) {
+				double floor = this.ceilingFloors[i];
+				if (floor > floorLow && floor <= floorHigh)
+					continue;
+				count += this.classify(this.byCeiling[i], floor,
+						this.ceilings[i], minAltitude0, maxAltitude0,
+						minAltitude1, maxAltitude1, entered, left);
+			}
+		}
+		return count;
+	}
+
+	protected int classify(AirspaceRecord record, double floor,
+			double ceiling, double minAltitude0, double maxAltitude0,
+			double minAltitude1, double maxAltitude1,
+			Collection<AirspaceRecord> entered, Collection<AirspaceRecord> left) {
+		boolean was = intersects(floor, ceiling, minAltitude0, maxAltitude0);
+		boolean is = intersects(floor, ceiling, minAltitude1, maxAltitude1);
+		if (was == is)
+			return 0;
+		if (is)
+			entered.add(record);
+		else
+			left.add(record);
+		return 1;
+	}
+
+	// First index whose value is at least the key.
+	protected static int lowerBound(double[] values, double key) {
+		int lo = 0, hi = values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	// First index whose value is greater than the key.
+	protected static int upperBound(double[] values, double key) {
+		int lo = 0, hi = values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] <= key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,1076 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.layers.AirspaceLayer;
+import gov.nasa.worldwind.render.airspaces.Airspace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Micro benchmarks for the airspace hot paths: layer updates for catalogs of
+ * 10, 1,000 and 10,000 airspaces, group toggling and removal, rollover
+ * highlighting, coordinate conversion, bearings and point containment. Runs
+ * headless, without a window or GL context:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true gov.nasa.worldwindx.applications.airvis.AirspaceBenchmark [-csv results.csv] [-footprint] [-check] [name ...]
+ * </pre>
+ *
+ * Names select benchmarks by prefix. Each benchmark is warmed up, then timed
+ * in batches sized to take about {@link #BATCH_NANOS}; the median and 90th
+ * percentile of the per-operation batch times are reported, so results from
+ * different releases can be compared from the CSV output. With -footprint
+ * the heap taken by airspace locations held as LatLon lists, as arrays and
+ * in an {@link AirspaceCoordinateStore} is reported first. With -check the
+ * raster is compared point by point with exact containment, and the
+ * bundled IAD Class B shelves, which only share borders, are checked for
+ * overlaps, and profiles of random routes over the bundled airspaces are
+ * compared with exact containment along them, exiting with status 1 on any
+ * failure.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceBenchmark {
+
+	protected static final long WARMUP_NANOS = 2000000000L;
+	protected static final long MEASURE_NANOS = 3000000000L;
+	protected static final long BATCH_NANOS = 10000000L;
+	protected static final int[] CATALOG_SIZES = { 10, 1000, 10000 };
+	protected static final int GROUP_SIZE = 50;
+	protected static final long SEED = 20140601L;
+
+	// Written by every benchmark so the JIT cannot drop the work.
+	protected static volatile long sink;
+
+	protected abstract static class Benchmark {
+
+		protected final String name;
+
+		public Benchmark(String name) {
+			this.name = name;
+		}
+
+		public void setUp() {
+		}
+
+		/**
+		 * Runs one operation. The argument counts operations since setUp.
+		 */
+		public abstract long run(int i);
+	}
+
+	public static class Result {
+
+		protected final String name;
+		protected final long operations;
+		protected final double median;
+		protected final double p90;
+
+		public Result(String name, long operations, double median, double p90) {
+			this.name = name;
+			this.operations = operations;
+			this.median = median;
+			this.p90 = p90;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-32s %14.1f %14.1f %12d", this.name,
+					this.median, this.p90, this.operations);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+
+		String csv = null;
+		List<String> filters = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-csv") && i + 1 < args.length)
+				csv = args[++i];
+			else if (args[i].equals("-footprint"))
+				footprint();
+			else if (args[i].equals("-check")) {
+				if (checkRaster() + checkOverlaps() + checkProfiles() > 0)
+					System.exit(1);
+			}
+			else
+				filters.add(args[i]);
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		System.out.println(String.format("%-32s %14s %14s %12s", "benchmark",
+				"median ns/op", "p90 ns/op", "ops"));
+		for (Benchmark b : makeBenchmarks()) {
+			if (!selected(b.name, filters))
+				continue;
+			Result result = measure(b);
+			results.add(result);
+			System.out.println(result);
+		}
+
+		if (csv != null) {
+			PrintWriter out = new PrintWriter(new FileWriter(csv));
+			try {
+				out.println("benchmark,median_ns,p90_ns,operations");
+				for (Result r : results) {
+					out.println(r.name + "," + r.median + "," + r.p90 + ","
+							+ r.operations);
+				}
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	protected static boolean selected(String name, List<String> filters) {
+		if (filters.isEmpty())
+			return true;
+		for (String f : filters) {
+			if (name.startsWith(f))
+				return true;
+		}
+		return false;
+	}
+
+	public static Result measure(Benchmark b) {
+		b.setUp();
+		int op = 0;
+		long acc = 0;
+
+		// Warm up, growing the batch until one takes about BATCH_NANOS.
+		int batch = 1;
+		long end = System.nanoTime() + WARMUP_NANOS;
+		while (System.nanoTime() < end) {
+			long start = System.nanoTime();
+			for (int i = 0; i < batch; i++)
+				acc += b.run(op++);
+			long elapsed = System.nanoTime() - start;
+			if (elapsed < BATCH_NANOS && batch < (1 << 30))
+				batch <<= 1;
+		}
+
+		double[] times = new double[256];
+		int count = 0;
+		long operations = 0;
+		end = System.nanoTime() + MEASURE_NANOS;
+		while (System.nanoTime() < end) {
+			long start = System.nanoTime();
+			for (int i = 0; i < batch; i++)
+				acc += b.run(op++);
+			long elapsed = System.nanoTime() - start;
+			if (count == times.length)
+				times = Arrays.copyOf(times, count * 2);
+			times[count++] = (double) elapsed / batch;
+			operations += batch;
+		}
+		sink += acc;
+
+		Arrays.sort(times, 0, count);
+		return new Result(b.name, operations, times[count / 2],
+				times[Math.min(count - 1, (int) (count * 0.9))]);
+	}
+
+	protected static List<Benchmark> makeBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int size : CATALOG_SIZES) {
+			benchmarks.add(setAirspaces(size));
+		}
+		benchmarks.add(groupToggle(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(groupRemove(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(scheduleScrub(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(bandScrub(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(highlight());
+		benchmarks.add(makeLatLon());
+		benchmarks.add(bearing());
+		benchmarks.add(bearings());
+		benchmarks.add(locations(CATALOG_SIZES[CATALOG_SIZES.length - 1], false));
+		benchmarks.add(locations(CATALOG_SIZES[CATALOG_SIZES.length - 1], true));
+		benchmarks.add(containment(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(rasterGroups(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(nearest(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(profile(CATALOG_SIZES[CATALOG_SIZES.length - 1]));
+		benchmarks.add(terrainTrack(1024));
+		return benchmarks;
+	}
+
+	/**
+	 * Alternates the layers between the whole catalog and every other
+	 * airspace, as a view or filter change would.
+	 */
+	protected static Benchmark setAirspaces(final int size) {
+		return new Benchmark("setAirspaces/" + size) {
+
+			protected AirspaceLayers layers;
+			protected List<Airspace> all;
+			protected List<Airspace> half;
+
+			@Override
+			public void setUp() {
+				this.layers = new AirspaceLayers(new AirspaceLayer(),
+						new AirspaceLayer());
+				this.all = makeShapes(makeRecords(size, new Random(SEED)));
+				this.half = new ArrayList<Airspace>();
+				for (int i = 0; i < this.all.size(); i += 2)
+					this.half.add(this.all.get(i));
+			}
+
+			@Override
+			public long run(int i) {
+				this.layers.setAirspaces((i & 1) == 0 ? this.all : this.half);
+				return this.layers.size();
+			}
+		};
+	}
+
+	/**
+	 * Shows the model's airspaces the way the application controller does,
+	 * minus the view culling.
+	 */
+	protected static class Display implements AirspaceModel.Listener {
+
+		protected final AirspaceCatalog catalog = new AirspaceCatalog(
+				AirspaceCatalog.DEFAULT_BUDGET);
+		protected final AirspaceLayers layers = new AirspaceLayers(
+				new AirspaceLayer(), new AirspaceLayer());
+
+		@Override
+		public void airspacesChanged(Collection<AirspaceRecord> added,
+				Collection<AirspaceRecord> removed) {
+			List<Airspace> shapes = new ArrayList<Airspace>(removed.size());
+			for (AirspaceRecord record : removed)
+				shapes.add(this.catalog.remove(record.getId()));
+			this.layers.removeAirspaces(shapes);
+		}
+
+		@Override
+		public void visibilityChanged(Collection<AirspaceRecord> shown,
+				Collection<AirspaceRecord> hidden) {
+			List<Airspace> shapes = new ArrayList<Airspace>(hidden.size());
+			for (AirspaceRecord record : hidden)
+				shapes.add(this.catalog.release(record.getId()));
+			this.layers.removeAirspaces(shapes);
+			shapes.clear();
+			for (AirspaceRecord record : shown)
+				shapes.add(this.catalog.acquire(record));
+			this.layers.addAirspaces(shapes);
+		}
+	}
+
+	/**
+	 * Enables and disables one group at a time, as the group checkboxes do.
+	 */
+	protected static Benchmark groupToggle(final int size) {
+		return new Benchmark("groupToggle/" + size) {
+
+			protected AirspaceModel model;
+			protected Display display;
+			protected String[] groupIds;
+
+			@Override
+			public void setUp() {
+				this.model = new AirspaceModel();
+				this.display = new Display();
+				this.model.addListener(this.display);
+				this.model.registerAirspaces(
+						makeRecords(size, new Random(SEED)), false);
+				this.groupIds = groupIds(this.model);
+			}
+
+			@Override
+			public long run(int i) {
+				this.model.setGroupEnabled(
+						this.groupIds[(i >> 1) % this.groupIds.length],
+						(i & 1) == 0);
+				return this.display.layers.size();
+			}
+		};
+	}
+
+	/**
+	 * Removes a shown group and registers it again.
+	 */
+	protected static Benchmark groupRemove(final int size) {
+		return new Benchmark("groupRemove/" + size) {
+
+			protected AirspaceModel model;
+			protected Display display;
+			protected String[] groupIds;
+
+			@Override
+			public void setUp() {
+				this.model = new AirspaceModel();
+				this.display = new Display();
+				this.model.addListener(this.display);
+				this.model.registerAirspaces(
+						makeRecords(size, new Random(SEED)), true);
+				this.groupIds = groupIds(this.model);
+			}
+
+			@Override
+			public long run(int i) {
+				Collection<AirspaceRecord> removed = this.model
+						.removeGroup(this.groupIds[i % this.groupIds.length]);
+				this.model.registerAirspaces(removed, true);
+				return this.display.layers.size();
+			}
+		};
+	}
+
+	/**
+	 * Steps a minute at a time through a day in which every other airspace is
+	 * active for a few random periods, as dragging the timeline does.
+	 */
+	protected static Benchmark scheduleScrub(final int size) {
+		return new Benchmark("scheduleScrub/" + size) {
+
+			protected AirspaceModel model;
+			protected Display display;
+
+			@Override
+			public void setUp() {
+				Random random = new Random(SEED);
+				List<AirspaceRecord> records = makeRecords(size, random);
+				List<AirspaceSchedule.Period> periods = new ArrayList<AirspaceSchedule.Period>();
+				for (int i = 0; i < records.size(); i += 2) {
+					for (int k = 0; k < 3; k++) {
+						long start = 60000L * random.nextInt(24 * 60);
+						periods.add(new AirspaceSchedule.Period(records.get(i)
+								.getId(), start, start + 60000L
+								* (15 + random.nextInt(240))));
+					}
+				}
+				this.model = new AirspaceModel();
+				this.display = new Display();
+				this.model.addListener(this.display);
+				this.model.registerAirspaces(records, true);
+				this.model.setSchedule(new AirspaceSchedule(periods));
+			}
+
+			@Override
+			public long run(int i) {
+				this.model.setTime(60000L * (i % (24 * 60)));
+				return this.display.layers.size();
+			}
+		};
+	}
+
+	/**
+	 * Drags a 2,000 foot altitude band up and back down between the surface
+	 * and 18,000 feet in 500 foot steps, as the band sliders do.
+	 */
+	protected static Benchmark bandScrub(final int size) {
+		return new Benchmark("bandScrub/" + size) {
+
+			protected AirspaceModel model;
+			protected Display display;
+
+			@Override
+			public void setUp() {
+				this.model = new AirspaceModel();
+				this.display = new Display();
+				this.model.addListener(this.display);
+				this.model.registerAirspaces(makeRecords(size, new Random(SEED)),
+						true);
+			}
+
+			@Override
+			public long run(int i) {
+				int step = i % 64;
+				double floor = 500.0 * (step < 32 ? step : 63 - step)
+						* AirspaceRecord.FEET_TO_METERS;
+				this.model.setAltitudeBand(floor, floor + 2000.0
+						* AirspaceRecord.FEET_TO_METERS);
+				return this.display.layers.size();
+			}
+		};
+	}
+
+	/**
+	 * Rolls over a sequence of airspaces, with an empty pick every so often.
+	 */
+	protected static Benchmark highlight() {
+		return new Benchmark("highlight") {
+
+			protected AirspaceHighlighter highlighter;
+			protected List<Airspace> shapes;
+
+			@Override
+			public void setUp() {
+				this.highlighter = new AirspaceHighlighter();
+				this.shapes = makeShapes(makeRecords(64, new Random(SEED)));
+			}
+
+			@Override
+			public long run(int i) {
+				Object o = i % 8 == 7 ? null : this.shapes.get(i
+						% this.shapes.size());
+				return this.highlighter.highlight(o) ? 1 : 0;
+			}
+		};
+	}
+
+	protected static Benchmark makeLatLon() {
+		return new Benchmark("makeLatLon/64") {
+
+			protected double[] coords;
+
+			@Override
+			public void setUp() {
+				Random random = new Random(SEED);
+				this.coords = new double[128];
+				for (int i = 0; i < this.coords.length; i += 2) {
+					this.coords[i] = -77.0 + random.nextDouble();
+					this.coords[i + 1] = 38.5 + random.nextDouble();
+				}
+			}
+
+			@Override
+			public long run(int i) {
+				long n = 0;
+				for (Object o : AirspacesGA.makeLatLon(this.coords)) {
+					if (o != null)
+						n++;
+				}
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Reads every location of a catalog through the record accessors, held
+	 * in the records or in a coordinate store.
+	 */
+	protected static Benchmark locations(final int size, final boolean stored) {
+		return new Benchmark((stored ? "locationsStored/" : "locations/")
+				+ size) {
+
+			protected List<AirspaceRecord> records;
+
+			@Override
+			public void setUp() {
+				this.records = makeRecords(size, new Random(SEED));
+				if (stored) {
+					AirspaceCoordinateStore store = new AirspaceCoordinateStore();
+					for (AirspaceRecord record : this.records)
+						record.storeLocations(store);
+				}
+			}
+
+			@Override
+			public long run(int i) {
+				double sum = 0.0;
+				for (AirspaceRecord record : this.records) {
+					for (int k = 0; k < record.getLocationCount(); k++)
+						sum += record.getLatitude(k) + record.getLongitude(k);
+				}
+				return (long) sum;
+			}
+		};
+	}
+
+	/**
+	 * Prints the estimated heap taken by the locations of the bundled
+	 * airspaces and of a synthetic catalog held three ways, and the heap
+	 * measured for the catalog.
+	 */
+	protected static void footprint() throws IOException {
+		URL url = AirspacesGA.class.getResource(AirspacesGA.DEFAULT_AIRSPACES);
+		if (url != null) {
+			final List<AirspaceRecord> bundled = new ArrayList<AirspaceRecord>();
+			AirspaceLoader.load(url, AirspaceLoader.Format.CSV,
+					new AirspaceLoader.Listener() {
+						@Override
+						public void airspaceLoaded(AirspaceRecord record) {
+							bundled.add(record);
+						}
+					});
+			AirspaceCoordinateStore store = new AirspaceCoordinateStore();
+			for (AirspaceRecord record : bundled)
+				record.storeLocations(store);
+			System.out.println("bundled:  "
+					+ AirspaceCoordinateStore.Footprint.of(bundled, store));
+		}
+
+		int size = CATALOG_SIZES[CATALOG_SIZES.length - 1];
+		List<AirspaceRecord> records = makeRecords(size, new Random(SEED));
+		long before = usedHeap();
+		List<List<LatLon>> lists = new ArrayList<List<LatLon>>(size);
+		for (AirspaceRecord record : records) {
+			List<LatLon> list = new ArrayList<LatLon>(record.getLocationCount());
+			for (int k = 0; k < record.getLocationCount(); k++)
+				list.add(LatLon.fromDegrees(record.getLatitude(k),
+						record.getLongitude(k)));
+			lists.add(list);
+		}
+		long latLonHeap = usedHeap() - before;
+
+		before = usedHeap();
+		AirspaceCoordinateStore store = new AirspaceCoordinateStore();
+		for (AirspaceRecord record : records)
+			record.storeLocations(store);
+		// The records drop their arrays, so the heap shrinks by about
+		// their size.
+		long arrayHeap = before - usedHeap();
+		sink += lists.size();
+
+		System.out.println("catalog:  "
+				+ AirspaceCoordinateStore.Footprint.of(records, store));
+		System.out.println(String.format(
+				"measured: LatLon lists %,d KB, arrays %,d KB, store %,d KB off heap allocated",
+				latLonHeap / 1024, arrayHeap / 1024,
+				store.getOffHeapBytes() / 1024));
+	}
+
+	protected static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	protected static Benchmark bearing() {
+		return new Benchmark("makeAngle") {
+
+			protected double[] lats, lons;
+
+			@Override
+			public void setUp() {
+				this.lats = new double[1024];
+				this.lons = new double[1024];
+				fillPoints(this.lats, this.lons, new Random(SEED));
+			}
+
+			@Override
+			public long run(int i) {
+				int j = i & 1023;
+				return (long) AirspacesGA.makeAngle(38.934722, -77.466667,
+						this.lats[j], this.lons[j]);
+			}
+		};
+	}
+
+	protected static Benchmark bearings() {
+		return new Benchmark("bearings/1024") {
+
+			protected double[] lats, lons, result;
+
+			@Override
+			public void setUp() {
+				this.lats = new double[1024];
+				this.lons = new double[1024];
+				this.result = new double[1024];
+				fillPoints(this.lats, this.lons, new Random(SEED));
+			}
+
+			@Override
+			public long run(int i) {
+				Geodesy.bearings(38.934722, -77.466667, this.lats, this.lons,
+						this.result, this.result.length);
+				return (long) this.result[i & 1023];
+			}
+		};
+	}
+
+	protected static Benchmark containment(final int size) {
+		return new Benchmark("findContaining/" + size) {
+
+			protected AirspaceIndex index;
+			protected AirspaceIndex.Hits hits;
+			protected double[] lats, lons;
+
+			@Override
+			public void setUp() {
+				List<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>();
+				for (AirspaceRecord record : makeRecords(size, new Random(SEED)))
+					volumes.add(new AirspaceVolume(record));
+				this.index = new AirspaceIndex(volumes);
+				this.hits = new AirspaceIndex.Hits();
+				this.lats = new double[4096];
+				this.lons = new double[4096];
+				fillPoints(this.lats, this.lons, new Random(SEED + 1));
+			}
+
+			@Override
+			public long run(int i) {
+				int j = i & 4095;
+				return this.index.findContaining(this.lats[j], this.lons[j],
+						1500.0, this.hits);
+			}
+		};
+	}
+
+	/**
+	 * Finds the three airspaces nearest the same points as findContaining,
+	 * within 50 nautical miles.
+	 */
+	protected static Benchmark nearest(final int size) {
+		return new Benchmark("findNearest/" + size) {
+
+			protected AirspaceIndex index;
+			protected AirspaceIndex.Nearest nearest;
+			protected double[] lats, lons;
+
+			@Override
+			public void setUp() {
+				List<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>();
+				for (AirspaceRecord record : makeRecords(size, new Random(SEED)))
+					volumes.add(new AirspaceVolume(record));
+				this.index = new AirspaceIndex(volumes);
+				this.nearest = new AirspaceIndex.Nearest();
+				this.lats = new double[4096];
+				this.lons = new double[4096];
+				fillPoints(this.lats, this.lons, new Random(SEED + 1));
+			}
+
+			@Override
+			public long run(int i) {
+				int j = i & 4095;
+				return this.index.findNearest(this.lats[j], this.lons[j],
+						1500.0, 0.0, 3,
+						50.0 * AirspaceRecord.NAUTICAL_MILES_TO_METERS, null,
+						this.nearest);
+			}
+		};
+	}
+
+	/**
+	 * Profiles a cross-country route of four legs, Seattle to Atlanta by
+	 * way of Minneapolis, Chicago and Dulles.
+	 */
+	protected static Benchmark profile(final int size) {
+		return new Benchmark("profileRoute/" + size) {
+
+			protected AirspaceProfiler profiler;
+			protected final double[] lats = { 47.45, 44.88, 41.98, 38.95, 33.64 };
+			protected final double[] lons = { -122.31, -93.22, -87.90, -77.46,
+					-84.43 };
+
+			@Override
+			public void setUp() {
+				List<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>();
+				for (AirspaceRecord record : makeRecords(size, new Random(SEED)))
+					volumes.add(new AirspaceVolume(record));
+				this.profiler = new AirspaceProfiler(new AirspaceIndex(volumes));
+			}
+
+			@Override
+			public long run(int i) {
+				return this.profiler.profile(this.lats, this.lons, null).size();
+			}
+		};
+	}
+
+	/**
+	 * Classifies the same points as findContaining against an occupancy
+	 * raster of the continental United States.
+	 */
+	protected static Benchmark rasterGroups(final int size) {
+		return new Benchmark("rasterGroups/" + size) {
+
+			protected AirspaceRaster raster;
+			protected BitSet groups;
+			protected double[] lats, lons;
+
+			@Override
+			public void setUp() {
+				List<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>();
+				for (AirspaceRecord record : makeRecords(size, new Random(SEED)))
+					volumes.add(new AirspaceVolume(record));
+				this.raster = new AirspaceRaster(new AirspaceRaster.Region(
+						24.0, 50.0, -126.0, -66.0, 0.0, 8000.0, 0.1, 500.0),
+						volumes, new ForkJoinPool());
+				this.groups = new BitSet();
+				this.lats = new double[4096];
+				this.lons = new double[4096];
+				fillPoints(this.lats, this.lons, new Random(SEED + 1));
+			}
+
+			@Override
+			public long run(int i) {
+				int j = i & 4095;
+				this.groups.clear();
+				this.raster.findGroups(this.lats[j], this.lons[j], 1500.0,
+						this.groups);
+				return this.groups.cardinality();
+			}
+		};
+	}
+
+	/**
+	 * Compares {@link AirspaceRaster#findGroups} with
+	 * {@link AirspaceVolume#contains} at random points over the synthetic
+	 * catalog, and over a fine raster around a sphere and cylinders with
+	 * holes, whose inside cells the raster must settle with care.
+	 *
+	 * @return the number of points where they disagree.
+	 */
+	protected static int checkRaster() {
+		List<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>();
+		for (AirspaceRecord record : makeRecords(1000, new Random(SEED)))
+			volumes.add(new AirspaceVolume(record));
+		Random random = new Random(SEED + 2);
+		int mismatches = checkRaster(new AirspaceRaster.Region(24.0, 50.0,
+				-126.0, -66.0, 0.0, 8000.0, 0.1, 500.0), volumes, 100000,
+				random);
+
+		double lat = 38.934722, lon = -77.466667;
+		AirspaceRecord sphere = new AirspaceRecord("CHECK-SPHERE",
+				"CHECK-SPHERE", AirspaceClass.OTHER,
+				AirspaceRecord.Shape.SPHERE);
+		sphere.setCenter(lat, lon);
+		sphere.setRadius(5000.0);
+		sphere.setAltitudes(6000.0, 6000.0);
+		AirspaceRecord ring = new AirspaceRecord("CHECK-RING", "CHECK-RING",
+				AirspaceClass.OTHER, AirspaceRecord.Shape.CAPPED_CYLINDER);
+		ring.setCenter(lat + 0.2, lon);
+		ring.setRadii(4000.0, 8000.0);
+		ring.setAltitudes(0.0, 3000.0);
+		AirspaceRecord partial = new AirspaceRecord("CHECK-PARTIAL",
+				"CHECK-PARTIAL", AirspaceClass.OTHER,
+				AirspaceRecord.Shape.PARTIAL_CAPPED_CYLINDER);
+		partial.setCenter(lat - 0.2, lon);
+		partial.setRadii(2000.0, 6000.0);
+		partial.setAzimuths(90.0, 90.0);
+		partial.setAltitudes(0.0, 3000.0);
+		volumes.clear();
+		volumes.add(new AirspaceVolume(sphere));
+		volumes.add(new AirspaceVolume(ring));
+		volumes.add(new AirspaceVolume(partial));
+		mismatches += checkRaster(new AirspaceRaster.Region(lat - 0.35,
+				lat + 0.35, lon - 0.15, lon + 0.15, 0.0, 12000.0, 0.005, 250.0),
+				volumes, 1000000, random);
+		return mismatches;
+	}
+
+	/**
+	 * Checks that the shelves of the bundled IAD Class B, which meet along
+	 * shared arcs and radials, do not overlap one another.
+	 *
+	 * @return the number of overlaps found.
+	 */
+	/**
+	 * @return the volumes of the bundled airspaces of a group, or of all
+	 *         groups with null, or null if they are not on the class path.
+	 */
+	protected static List<AirspaceVolume> loadBundled(final String groupId)
+			throws IOException {
+		URL url = AirspacesGA.class.getResource(AirspacesGA.DEFAULT_AIRSPACES);
+		if (url == null)
+			return null;
+		final List<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>();
+		AirspaceLoader.load(url, AirspaceLoader.Format.CSV,
+				new AirspaceLoader.Listener() {
+					@Override
+					public void airspaceLoaded(AirspaceRecord record) {
+						if (groupId == null
+								|| groupId.equals(record.getGroupId()))
+							volumes.add(new AirspaceVolume(record));
+					}
+				});
+		return volumes;
+	}
+
+	protected static int checkOverlaps() throws IOException {
+		List<AirspaceVolume> shelves = loadBundled(AirspacesGA.GROUP_IAD_CLASS_B);
+		if (shelves == null) {
+			System.out.println("overlap check: no bundled airspaces");
+			return 1;
+		}
+		AirspaceOverlapDetector.Result result = new AirspaceOverlapDetector()
+				.detect(shelves);
+		for (AirspaceOverlapDetector.Overlap o : result.getOverlaps())
+			System.out.println("unexpected overlap " + o);
+		System.out.println("overlap check: " + result);
+		return result.getOverlaps().size();
+	}
+
+	/**
+	 * Profiles random routes across the bundled airspaces and tests points
+	 * every 20 m along them: each point inside a footprint must lie in one of
+	 * its intervals, short cuts across corners included.
+	 */
+	protected static int checkProfiles() throws IOException {
+		List<AirspaceVolume> volumes = loadBundled(null);
+		if (volumes == null) {
+			System.out.println("profile check: no bundled airspaces");
+			return 1;
+		}
+		AirspaceIndex index = new AirspaceIndex(volumes);
+		AirspaceProfiler profiler = new AirspaceProfiler(index);
+		Random random = new Random(23);
+		double[] point = new double[2];
+		int misses = 0, points = 0;
+		for (int r = 0; r < 500; r++) {
+			double[] lats = { 38.4 + 0.9 * random.nextDouble(),
+					38.4 + 0.9 * random.nextDouble() };
+			double[] lons = { -78.0 + 1.2 * random.nextDouble(),
+					-78.0 + 1.2 * random.nextDouble() };
+			AirspaceProfiler.Profile profile = profiler.profile(lats, lons,
+					null);
+			double bearing = Geodesy.bearing(lats[0], lons[0], lats[1],
+					lons[1]);
+			double length = profile.getWaypointDistances()[1];
+			for (double s = 0.0; s < length; s += 20.0) {
+				Geodesy.destination(lats[0], lons[0], bearing, s, point);
+				for (int v = 0; v < index.getVolumes().size(); v++) {
+					if (!AirspaceProfiler.inside(index.getVolume(v), point[0],
+							point[1]))
+						continue;
+					points++;
+					boolean found = false;
+					for (int k = 0; k < profile.size() && !found; k++) {
+						// Ends are refined to a meter.
+						found = profile.getVolume(k) == v
+								&& s >= profile.getStart(k) - 2.0
+								&& s <= profile.getEnd(k) + 2.0;
+					}
+					if (!found) {
+						if (misses < 10)
+							System.out.println(String.format(
+									"profile miss: %s at %.0f m of route %d",
+									index.getVolume(v).getRecord().getId(), s,
+									r));
+						misses++;
+					}
+				}
+			}
+		}
+		System.out.println(String.format(
+				"profile check: %,d of %,d points inside missed", misses,
+				points));
+		return misses;
+	}
+
+	protected static int checkRaster(AirspaceRaster.Region region,
+			List<AirspaceVolume> volumes, int points, Random random) {
+		AirspaceRaster raster = new AirspaceRaster(region, volumes,
+				new ForkJoinPool());
+		BitSet found = new BitSet(), expected = new BitSet();
+		int mismatches = 0;
+		for (int i = 0; i < points; i++) {
+			double lat = region.minLat + (region.maxLat - region.minLat)
+					* random.nextDouble();
+			double lon = region.minLon + (region.maxLon - region.minLon)
+					* random.nextDouble();
+			double altitude = region.minAltitude
+					+ (region.maxAltitude - region.minAltitude)
+					* random.nextDouble();
+			found.clear();
+			expected.clear();
+			raster.findGroups(lat, lon, altitude, found);
+			for (AirspaceVolume v : volumes) {
+				if (v.contains(lat, lon, altitude))
+					expected.set(raster.getGroupIndex(v.getRecord()
+							.getGroupId()));
+			}
+			if (!found.equals(expected)) {
+				if (mismatches < 10)
+					System.out.println(String.format(
+							"raster mismatch at %.6f, %.6f, %.0f m: %s, expected %s",
+							lat, lon, altitude, found, expected));
+				mismatches++;
+			}
+		}
+		System.out.println(String.format(
+				"raster check %s: %,d of %,d points differ", region,
+				mismatches, points));
+		return mismatches;
+	}
+
+	/**
+	 * Resolves the ground under a track wandering over four synthetic 3 arc
+	 * second tiles, in bulk.
+	 */
+	protected static Benchmark terrainTrack(final int length) {
+		return new Benchmark("terrainTrack/" + length) {
+
+			protected TerrainTileCache terrain;
+			protected double[][] lats, lons;
+			protected double[] elevations;
+
+			@Override
+			public void setUp() {
+				try {
+					File directory = File.createTempFile("terrain", "");
+					directory.delete();
+					directory.mkdir();
+					directory.deleteOnExit();
+					for (int south = 38; south <= 39; south++) {
+						for (int west = -78; west <= -77; west++)
+							writeTile(new File(directory, TerrainTileCache
+									.tileName(south, west)), 1201);
+					}
+					this.terrain = new TerrainTileCache(directory);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+
+				Random random = new Random(SEED);
+				this.lats = new double[16][length];
+				this.lons = new double[16][length];
+				for (int t = 0; t < 16; t++) {
+					double lat = 38.0 + 2.0 * random.nextDouble();
+					double lon = -78.0 + 2.0 * random.nextDouble();
+					for (int i = 0; i < length; i++) {
+						lat = Math.max(38.0, Math.min(40.0, lat + 0.002
+								* random.nextGaussian()));
+						lon = Math.max(-78.0, Math.min(-76.0, lon + 0.002
+								* random.nextGaussian()));
+						this.lats[t][i] = lat;
+						this.lons[t][i] = lon;
+					}
+				}
+				this.elevations = new double[length];
+			}
+
+			@Override
+			public long run(int i) {
+				int t = i & 15;
+				this.terrain.getElevations(this.lats[t], this.lons[t], 0,
+						length, this.elevations);
+				return (long) this.elevations[i % length];
+			}
+		};
+	}
+
+	protected static void writeTile(File file, int size) throws IOException {
+		file.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			for (int row = 0; row < size; row++) {
+				for (int col = 0; col < size; col++)
+					out.writeShort((int) (300.0 + 200.0 * Math.sin(row * 0.01)
+							* Math.cos(col * 0.013)));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Fills points over the continental United States, where
+	 * {@link #makeRecords(int, Random)} places its airspaces.
+	 */
+	protected static void fillPoints(double[] lats, double[] lons,
+			Random random) {
+		for (int i = 0; i < lats.length; i++) {
+			lats[i] = 25.0 + 24.0 * random.nextDouble();
+			lons[i] = -125.0 + 58.0 * random.nextDouble();
+		}
+	}
+
+	/**
+	 * Makes a reproducible mix of cylinders, partial cylinders, PolyArcs and
+	 * polygons with the sizes of terminal airspaces, in groups of
+	 * {@link #GROUP_SIZE}.
+	 */
+	public static List<AirspaceRecord> makeRecords(int count, Random random) {
+		AirspaceClass[] classes = AirspaceClass.values();
+		List<AirspaceRecord> records = new ArrayList<AirspaceRecord>(count);
+		double[] point = new double[2];
+		for (int i = 0; i < count; i++) {
+			int group = i / GROUP_SIZE;
+			AirspaceRecord record = new AirspaceRecord();
+			record.setId("BENCH-" + i);
+			record.setGroupId("BENCH-G" + group);
+			record.setAirspaceClass(classes[group % classes.length]);
+			record.setColor(record.getAirspaceClass().getDefaultColor());
+
+			double lat = 25.0 + 24.0 * random.nextDouble();
+			double lon = -125.0 + 58.0 * random.nextDouble();
+			double radius = (3.0 + 27.0 * random.nextDouble())
+					* AirspaceRecord.NAUTICAL_MILES_TO_METERS;
+			double lower = 1000.0 * random.nextInt(8)
+					* AirspaceRecord.FEET_TO_METERS;
+			record.setAltitudes(lower, lower + 2500.0 * (1 + random.nextInt(6))
+					* AirspaceRecord.FEET_TO_METERS);
+			boolean agl = random.nextInt(4) == 0;
+			record.setTerrainConforming(agl, agl);
+
+			switch (i % 4) {
+			case 0:
+				record.setShape(AirspaceRecord.Shape.CAPPED_CYLINDER);
+				record.setCenter(lat, lon);
+				record.setRadii(0.0, radius);
+				break;
+			case 1: {
+				record.setShape(AirspaceRecord.Shape.PARTIAL_CAPPED_CYLINDER);
+				record.setCenter(lat, lon);
+				record.setRadii(radius / 2.0, radius);
+				double left = 360.0 * random.nextDouble();
+				record.setAzimuths(left, Geodesy.normalizeAzimuth(left + 30.0
+						+ 240.0 * random.nextDouble()));
+				break;
+			}
+			case 2: {
+				record.setShape(AirspaceRecord.Shape.POLY_ARC);
+				double[] locations = new double[6];
+				locations[0] = lat;
+				locations[1] = lon;
+				double left = 360.0 * random.nextDouble();
+				double right = left + 60.0 + 120.0 * random.nextDouble();
+				Geodesy.destination(lat, lon, right, radius * 1.5, point);
+				locations[2] = point[0];
+				locations[3] = point[1];
+				Geodesy.destination(lat, lon, left, radius * 1.5, point);
+				locations[4] = point[0];
+				locations[5] = point[1];
+				record.setLocations(locations);
+				record.setRadius(radius);
+				AirspaceLoader.deriveAzimuths(record);
+				break;
+			}
+			default: {
+				record.setShape(AirspaceRecord.Shape.POLYGON);
+				int n = 4 + random.nextInt(12);
+				double[] locations = new double[2 * n];
+				for (int k = 0; k < n; k++) {
+					Geodesy.destination(lat, lon, 360.0 * k / n, radius
+							* (0.6 + 0.4 * random.nextDouble()), point);
+					locations[2 * k] = point[0];
+					locations[2 * k + 1] = point[1];
+				}
+				record.setLocations(locations);
+				break;
+			}
+			}
+			records.add(record);
+		}
+		return records;
+	}
+
+	protected static List<Airspace> makeShapes(List<AirspaceRecord> records) {
+		List<Airspace> shapes = new ArrayList<Airspace>(records.size());
+		for (AirspaceRecord record : records)
+			shapes.add(AirspaceFactory.createAirspace(record));
+		return shapes;
+	}
+
+	protected static String[] groupIds(AirspaceModel model) {
+		List<String> ids = new ArrayList<String>();
+		for (AirspaceRegistry.Group<AirspaceRecord> group : model.getRegistry()
+				.getGroups())
+			ids.add(group.getId());
+		return ids.toArray(new String[ids.size()]);
+	}
+}
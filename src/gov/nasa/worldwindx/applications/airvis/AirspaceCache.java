@@ -0,0 +1,425 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compact binary copy of a loaded airspace data set, read back through a
+ * memory-mapped file. The data is stored in columns: one primitive array per
+ * record field, one shared array of location coordinates and a string table
+ * for ids, groups and names. Records are only decoded when asked for, so
+ * opening a nationwide cache touches little more than the group column.
+ * <p>
+ * Layout, big endian:
+ *
+ * <pre>
+ * header   int magic, int version, long fingerprint, int count,
+ *          int locationDoubles, int stringCount, int stringBytes
+ * double   centerLat, centerLon, innerRadius, outerRadius, leftAzimuth,
+ *          rightAzimuth, lowerAltitude, upperAltitude   [count each]
+ * double   locations                                    [locationDoubles]
+ * int      locationOffsets                              [count + 1]
+ * int      id, group, name, color                       [count each]
+ * int      stringOffsets                                [stringCount + 1]
+ * byte     shape, class, flags                          [count each]
+ * byte     UTF-8 strings                                [stringBytes]
+ * </pre>
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceCache {
+
+	protected static final int MAGIC = 0x41564331; // "AVC1"
+	protected static final int VERSION = 1;
+	protected static final int HEADER_BYTES = 32;
+	protected static final int DOUBLE_COLUMNS = 8;
+	protected static final int FLAG_LOWER_AGL = 1;
+	protected static final int FLAG_UPPER_AGL = 2;
+	protected static final int FLAG_RHUMB_LINE = 4;
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	protected static final Logger logger = Logger.getLogger(AirspaceCache.class
+			.getName());
+
+	protected final MappedByteBuffer buffer;
+	protected final int count;
+	protected final DoubleBuffer[] doubleColumns = new DoubleBuffer[DOUBLE_COLUMNS];
+	protected final DoubleBuffer locations;
+	protected final IntBuffer locationOffsets;
+	protected final IntBuffer ids, groups, names, colors;
+	protected final IntBuffer stringOffsets;
+	protected final int shapeStart, classStart, flagStart, stringStart;
+	protected final String[] strings;
+	protected final Map<String, int[]> groupIndices = new LinkedHashMap<String, int[]>();
+
+	protected AirspaceCache(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+		this.count = buffer.getInt(16);
+		int locationDoubles = buffer.getInt(20);
+		int stringCount = buffer.getInt(24);
+
+		int offset = HEADER_BYTES;
+		for (int c = 0; c < DOUBLE_COLUMNS; c++) {
+			this.doubleColumns[c] = this.slice(offset, this.count * 8)
+					.asDoubleBuffer();
+			offset += this.count * 8;
+		}
+		this.locations = this.slice(offset, locationDoubles * 8)
+				.asDoubleBuffer();
+		offset += locationDoubles * 8;
+		this.locationOffsets = this.slice(offset, (this.count + 1) * 4)
+				.asIntBuffer();
+		offset += (this.count + 1) * 4;
+		this.ids = this.slice(offset, this.count * 4).asIntBuffer();
+		offset += this.count * 4;
+		this.groups = this.slice(offset, this.count * 4).asIntBuffer();
+		offset += this.count * 4;
+		this.names = this.slice(offset, this.count * 4).asIntBuffer();
+		offset += this.count * 4;
+		this.colors = this.slice(offset, this.count * 4).asIntBuffer();
+		offset += this.count * 4;
+		this.stringOffsets = this.slice(offset, (stringCount + 1) * 4)
+				.asIntBuffer();
+		offset += (stringCount + 1) * 4;
+		this.shapeStart = offset;
+		this.classStart = offset + this.count;
+		this.flagStart = offset + 2 * this.count;
+		this.stringStart = offset + 3 * this.count;
+		this.strings = new String[stringCount];
+
+		this.indexGroups(stringCount);
+	}
+
+	protected ByteBuffer slice(int offset, int length) {
+		ByteBuffer b = this.buffer.duplicate();
+		b.position(offset);
+		b.limit(offset + length);
+		return b.slice();
+	}
+
+	protected void indexGroups(int stringCount) {
+		int[] sizes = new int[stringCount];
+		for (int i = 0; i < this.count; i++) {
+			sizes[this.groups.get(i)]++;
+		}
+		int[][] members = new int[stringCount][];
+		int[] fill = new int[stringCount];
+		for (int i = 0; i < this.count; i++) {
+			int g = this.groups.get(i);
+			if (members[g] == null) {
+				members[g] = new int[sizes[g]];
+				this.groupIndices.put(this.getString(g), members[g]);
+			}
+			members[g][fill[g]++] = i;
+		}
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	public Set<String> getGroupIds() {
+		return Collections.unmodifiableSet(this.groupIndices.keySet());
+	}
+
+	public AirspaceClass getGroupClass(String groupId) {
+		int[] members = this.groupIndices.get(groupId);
+		return members != null ? this.getAirspaceClass(members[0])
+				: AirspaceClass.OTHER;
+	}
+
+	public int[] getGroupIndices(String groupId) {
+		int[] members = this.groupIndices.get(groupId);
+		return members != null ? members.clone() : new int[0];
+	}
+
+	public List<AirspaceRecord> getGroupRecords(String groupId) {
+		int[] members = this.groupIndices.get(groupId);
+		if (members == null)
+			return Collections.emptyList();
+
+		List<AirspaceRecord> records = new ArrayList<AirspaceRecord>(
+				members.length);
+		for (int i : members) {
+			records.add(this.getRecord(i));
+		}
+		return records;
+	}
+
+	public String getId(int index) {
+		return this.getString(this.ids.get(index));
+	}
+
+	public String getGroupId(int index) {
+		return this.getString(this.groups.get(index));
+	}
+
+	public AirspaceClass getAirspaceClass(int index) {
+		return AirspaceClass.values()[this.buffer.get(this.classStart + index)];
+	}
+
+	/**
+	 * Decodes one record from the mapped columns.
+	 */
+	public AirspaceRecord getRecord(int index) {
+		AirspaceRecord r = new AirspaceRecord();
+		r.setId(this.getId(index));
+		r.setGroupId(this.getGroupId(index));
+		r.setName(this.getString(this.names.get(index)));
+		r.setAirspaceClass(this.getAirspaceClass(index));
+		r.setShape(AirspaceRecord.Shape.values()[this.buffer
+				.get(this.shapeStart + index)]);
+		r.setColor(this.colors.get(index));
+		r.setCenter(this.doubleColumns[0].get(index),
+				this.doubleColumns[1].get(index));
+		r.setRadii(this.doubleColumns[2].get(index),
+				this.doubleColumns[3].get(index));
+		r.setAzimuths(this.doubleColumns[4].get(index),
+				this.doubleColumns[5].get(index));
+		r.setAltitudes(this.doubleColumns[6].get(index),
+				this.doubleColumns[7].get(index));
+
+		int flags = this.buffer.get(this.flagStart + index);
+		r.setTerrainConforming((flags & FLAG_LOWER_AGL) != 0,
+				(flags & FLAG_UPPER_AGL) != 0);
+		r.setRhumbLine((flags & FLAG_RHUMB_LINE) != 0);
+
+		int start = this.locationOffsets.get(index);
+		int end = this.locationOffsets.get(index + 1);
+		if (end > start) {
+			double[] locs = new double[end - start];
+			DoubleBuffer view = this.locations.duplicate();
+			view.position(start);
+			view.get(locs);
+			r.setLocations(locs);
+		}
+		return r;
+	}
+
+	protected String getString(int index) {
+		if (index < 0)
+			return null;
+
+		String s = this.strings[index];
+		if (s == null) {
+			int start = this.stringOffsets.get(index);
+			int end = this.stringOffsets.get(index + 1);
+			byte[] bytes = new byte[end - start];
+			ByteBuffer view = this.buffer.duplicate();
+			view.position(this.stringStart + start);
+			view.get(bytes);
+			s = new String(bytes, UTF8);
+			this.strings[index] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Maps a cache file.
+	 *
+	 * @return the cache, or null if the file is missing, damaged or was built
+	 *         from a different source.
+	 */
+	public static AirspaceCache open(File file, long fingerprint) {
+		if (!file.isFile())
+			return null;
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (buffer.capacity() < HEADER_BYTES
+						|| buffer.getInt(0) != MAGIC
+						|| buffer.getInt(4) != VERSION
+						|| buffer.getLong(8) != fingerprint)
+					return null;
+
+				return new AirspaceCache(buffer);
+			} finally {
+				// The mapping stays valid after the channel is closed.
+				raf.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Ignoring airspace cache " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes records to a cache file, replacing it atomically.
+	 */
+	public static void write(File file, Collection<AirspaceRecord> records,
+			long fingerprint) throws IOException {
+		List<AirspaceRecord> list = new ArrayList<AirspaceRecord>(records);
+		int count = list.size();
+
+		Map<String, Integer> stringIndex = new LinkedHashMap<String, Integer>();
+		List<byte[]> stringBytes = new ArrayList<byte[]>();
+		int[][] stringColumns = new int[3][count];
+		int locationDoubles = 0;
+		int totalStringBytes = 0;
+		for (int i = 0; i < count; i++) {
+			AirspaceRecord r = list.get(i);
+			String[] values = { r.getId(), r.getGroupId(), r.getName() };
+			for (int c = 0; c < 3; c++) {
+				if (values[c] == null) {
+					stringColumns[c][i] = -1;
+					continue;
+				}
+				Integer index = stringIndex.get(values[c]);
+				if (index == null) {
+					index = stringIndex.size();
+					stringIndex.put(values[c], index);
+					byte[] bytes = values[c].getBytes(UTF8);
+					stringBytes.add(bytes);
+					totalStringBytes += bytes.length;
+				}
+				stringColumns[c][i] = index;
+			}
+			locationDoubles += 2 * r.getLocationCount();
+		}
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeInt(count);
+			out.writeInt(locationDoubles);
+			out.writeInt(stringBytes.size());
+			out.writeInt(totalStringBytes);
+
+			for (int c = 0; c < DOUBLE_COLUMNS; c++) {
+				for (AirspaceRecord r : list) {
+					out.writeDouble(doubleColumn(r, c));
+				}
+			}
+			for (AirspaceRecord r : list) {
+				for (int k = 0; k < r.getLocationCount(); k++) {
+					out.writeDouble(r.getLatitude(k));
+					out.writeDouble(r.getLongitude(k));
+				}
+			}
+			int offset = 0;
+			out.writeInt(0);
+			for (AirspaceRecord r : list) {
+				offset += 2 * r.getLocationCount();
+				out.writeInt(offset);
+			}
+			for (int c = 0; c < 3; c++) {
+				for (int i = 0; i < count; i++) {
+					out.writeInt(stringColumns[c][i]);
+				}
+			}
+			for (AirspaceRecord r : list) {
+				out.writeInt(r.getColor());
+			}
+			offset = 0;
+			out.writeInt(0);
+			for (byte[] bytes : stringBytes) {
+				offset += bytes.length;
+				out.writeInt(offset);
+			}
+			for (AirspaceRecord r : list) {
+				out.writeByte(r.getShape().ordinal());
+			}
+			for (AirspaceRecord r : list) {
+				out.writeByte(r.getAirspaceClass().ordinal());
+			}
+			for (AirspaceRecord r : list) {
+				out.writeByte((r.isLowerTerrainConforming() ? FLAG_LOWER_AGL : 0)
+						| (r.isUpperTerrainConforming() ? FLAG_UPPER_AGL : 0)
+						| (r.isRhumbLine() ? FLAG_RHUMB_LINE : 0));
+			}
+			for (byte[] bytes : stringBytes) {
+				out.write(bytes);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Cannot replace " + file);
+		if (!temp.renameTo(file))
+			throw new IOException("Cannot rename " + temp + " to " + file);
+	}
+
+	protected static double doubleColumn(AirspaceRecord r, int column) {
+		switch (column) {
+		case 0:
+			return r.getCenterLatitude();
+		case 1:
+			return r.getCenterLongitude();
+		case 2:
+			return r.getInnerRadius();
+		case 3:
+			return r.getOuterRadius();
+		case 4:
+			return r.getLeftAzimuth();
+		case 5:
+			return r.getRightAzimuth();
+		case 6:
+			return r.getLowerAltitude();
+		default:
+			return r.getUpperAltitude();
+		}
+	}
+
+	/**
+	 * Identifies a source by location, size and modification time, so a cache
+	 * is rebuilt whenever its source changes.
+	 */
+	public static long fingerprint(URL url) throws IOException {
+		URLConnection connection = url.openConnection();
+		try {
+			long h = url.toExternalForm().hashCode();
+			h = h * 31 + connection.getLastModified();
+			h = h * 31 + connection.getContentLengthLong();
+			return h * 31 + VERSION;
+		} finally {
+			connection.getInputStream().close();
+		}
+	}
+
+	/**
+	 * @return the cache file for a source, under ~/.airvis.
+	 */
+	public static File getCacheFile(URL url) {
+		String path = url.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1).replaceAll(
+				"[^A-Za-z0-9._-]", "_");
+		String hash = Integer.toHexString(url.toExternalForm().hashCode());
+		return new File(new File(System.getProperty("user.home"), ".airvis"),
+				name + "-" + hash + ".avc");
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.render.airspaces.Airspace;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Holds the World Wind shapes built from {@link AirspaceRecord}s under a
+ * memory budget. Shapes on screen are acquired and cannot be evicted. A
+ * released shape is kept idle, in case it comes back into view. When the
+ * estimated size of all shapes exceeds the budget, the idle shapes released
+ * longest ago are evicted; they are rebuilt from their record when next
+ * acquired.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceCatalog {
+
+	public static final long DEFAULT_BUDGET = 64L * 1024L * 1024L;
+
+	// Rough heap cost of a shape, its attributes and each of its locations.
+	protected static final long SHAPE_BYTES = 2048;
+	protected static final long LOCATION_BYTES = 96;
+
+	protected static class Entry {
+
+		protected final AirspaceRecord record;
+		protected final Airspace airspace;
+		protected final long bytes;
+
+		public Entry(AirspaceRecord record, Airspace airspace) {
+			this.record = record;
+			this.airspace = airspace;
+			this.bytes = estimateBytes(record);
+		}
+	}
+
+	protected long budget;
+	protected long bytes;
+	protected final HashMap<String, Entry> acquired = new HashMap<String, Entry>();
+	// Released shapes, least recently released first.
+	protected final LinkedHashMap<String, Entry> idle = new LinkedHashMap<String, Entry>();
+
+	protected long hits;
+	protected long misses;
+	protected long evictions;
+
+	public AirspaceCatalog(long budget) {
+		this.budget = budget;
+	}
+
+	public static long estimateBytes(AirspaceRecord record) {
+		return SHAPE_BYTES + LOCATION_BYTES * record.getLocationCount();
+	}
+
+	/**
+	 * Returns the shape for a record, building it if it was never built or
+	 * was evicted, and pins it until released. A shape built from an older
+	 * record with the same id is replaced.
+	 */
+	public Airspace acquire(AirspaceRecord record) {
+		String id = record.getId();
+		Entry entry = this.acquired.get(id);
+		if (entry != null && entry.record == record) {
+			this.hits++;
+			return entry.airspace;
+		}
+		if (entry == null)
+			entry = this.idle.remove(id);
+
+		if (entry != null && entry.record == record) {
+			this.hits++;
+		} else {
+			if (entry != null)
+				this.bytes -= entry.bytes;
+			this.misses++;
+			long start = System.nanoTime();
+			entry = new Entry(record, AirspaceFactory.createAirspace(record));
+			Metrics.getDefault().histogram("shapes.build").recordSince(start);
+			this.bytes += entry.bytes;
+		}
+		this.acquired.put(id, entry);
+		this.trim();
+		return entry.airspace;
+	}
+
+	/**
+	 * Unpins a shape, leaving it idle.
+	 *
+	 * @return the shape, or null if it was not acquired.
+	 */
+	public Airspace release(String id) {
+		Entry entry = this.acquired.remove(id);
+		if (entry == null)
+			return null;
+		this.idle.put(id, entry);
+		this.trim();
+		return entry.airspace;
+	}
+
+	/**
+	 * Adds a shape built elsewhere as idle, so acquiring its record does not
+	 * rebuild it.
+	 */
+	public void put(AirspaceRecord record, Airspace airspace) {
+		this.remove(record.getId());
+		Entry entry = new Entry(record, airspace);
+		this.idle.put(record.getId(), entry);
+		this.bytes += entry.bytes;
+		this.trim();
+	}
+
+	/**
+	 * Drops a shape whether acquired or idle.
+	 *
+	 * @return the shape, or null if none was held.
+	 */
+	public Airspace remove(String id) {
+		Entry entry = this.acquired.remove(id);
+		if (entry == null)
+			entry = this.idle.remove(id);
+		if (entry == null)
+			return null;
+		this.bytes -= entry.bytes;
+		return entry.airspace;
+	}
+
+	/**
+	 * @return true if a shape built from this very record is held, acquired
+	 *         or idle, so acquiring it will not build one.
+	 */
+	public boolean contains(AirspaceRecord record) {
+		Entry entry = this.acquired.get(record.getId());
+		if (entry == null)
+			entry = this.idle.get(record.getId());
+		return entry != null && entry.record == record;
+	}
+
+	/**
+	 * @return the acquired shape for an id, or null.
+	 */
+	public Airspace getAcquired(String id) {
+		Entry entry = this.acquired.get(id);
+		return entry != null ? entry.airspace : null;
+	}
+
+	public void setBudget(long budget) {
+		this.budget = budget;
+		this.trim();
+	}
+
+	protected void trim() {
+		for (Iterator<Entry> it = this.idle.values().iterator(); it.hasNext()
+				&& this.bytes > this.budget;) {
+			this.bytes -= it.next().bytes;
+			it.remove();
+			this.evictions++;
+		}
+	}
+
+	public long getBudget() {
+		return this.budget;
+	}
+
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	public int getAcquiredCount() {
+		return this.acquired.size();
+	}
+
+	public int getIdleCount() {
+		return this.idle.size();
+	}
+
+	public long getHits() {
+		return this.hits;
+	}
+
+	public long getMisses() {
+		return this.misses;
+	}
+
+	public long getEvictions() {
+		return this.evictions;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d acquired, %d idle, %.1f of %.1f MB, %d hits, %d misses, %d evictions",
+				this.acquired.size(), this.idle.size(), this.bytes / 1048576.0,
+				this.budget / 1048576.0, this.hits, this.misses,
+				this.evictions);
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+/**
+ * Classification used to group airspaces in an {@link AirspaceRegistry}. Each
+ * class carries the display color used when a data source does not give one.
+ *
+ * @author mmatarazzo
+ */
+public enum AirspaceClass {
+	CLASS_B(0x0000FF), CLASS_C(0xFF00FF), CLASS_D(0x4B0082), SFRA(0xFF0000), SUA(
+			0xFFA500), TFR(0xFF4500), OTHER(0x808080);
+
+	private final int defaultColor;
+
+	private AirspaceClass(int defaultColor) {
+		this.defaultColor = defaultColor;
+	}
+
+	/**
+	 * @return the default display color as 0xRRGGBB.
+	 */
+	public int getDefaultColor() {
+		return this.defaultColor;
+	}
+
+	/**
+	 * Parses a class name such as "CLASS_B", "B", "SFRA" or "R" (restricted,
+	 * treated as SUA). Unknown names map to OTHER.
+	 */
+	public static AirspaceClass parse(String name) {
+		if (name == null)
+			return OTHER;
+
+		String s = name.trim().toUpperCase();
+		if (s.startsWith("CLASS_") || s.startsWith("CLASS "))
+			s = s.substring(6);
+
+		if (s.equals("B"))
+			return CLASS_B;
+		if (s.equals("C"))
+			return CLASS_C;
+		if (s.equals("D"))
+			return CLASS_D;
+		if (s.equals("SFRA"))
+			return SFRA;
+		if (s.equals("TFR"))
+			return TFR;
+		if (s.equals("SUA") || s.equals("R") || s.equals("P")
+				|| s.equals("Q") || s.equals("W") || s.equals("MOA")
+				|| s.equals("RESTRICTED") || s.equals("PROHIBITED"))
+			return SUA;
+		return OTHER;
+	}
+}
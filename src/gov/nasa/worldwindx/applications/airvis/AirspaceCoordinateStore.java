@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Collection;
+
+/**
+ * Off heap store of airspace locations, each distinct latitude/longitude
+ * pair kept once. Rings that share a boundary, such as the shelves of a
+ * Class B or neighbouring sectors, reference the same vertices, and the
+ * coordinates live in direct buffers outside the Java heap.
+ * <p>
+ * Vertices are numbered in the order they are first seen and matched on
+ * their exact values. A record's locations are a run of vertex numbers in
+ * the list buffer, found by its offset and count. The store only grows:
+ * runs of removed records are not reclaimed, so a display that reloads its
+ * data many times should start a new store. Adding is synchronized; reading
+ * is not, and is safe from any thread that sees the record holding the run.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceCoordinateStore {
+
+	protected static final int INITIAL_CAPACITY = 1024;
+	protected static final int EMPTY = -1;
+
+	// Latitude/longitude pairs by vertex number. Replaced, never changed in
+	// place below the count, when they grow.
+	protected volatile DoubleBuffer vertices;
+	protected int vertexCount;
+	// Open addressing table of vertex numbers, at most half full.
+	protected IntBuffer slots;
+	protected int slotMask;
+	// Vertex numbers of every stored run, back to back.
+	protected volatile IntBuffer lists;
+	protected int listSize;
+
+	public AirspaceCoordinateStore() {
+		this.vertices = allocateDoubles(2 * INITIAL_CAPACITY);
+		this.lists = allocateInts(INITIAL_CAPACITY);
+		this.slots = makeSlots(2 * INITIAL_CAPACITY);
+		this.slotMask = 2 * INITIAL_CAPACITY - 1;
+	}
+
+	/**
+	 * Adds interleaved latitude/longitude pairs as a run of vertices.
+	 *
+	 * @return the offset of the run.
+	 */
+	public synchronized int add(double[] locations) {
+		int count = locations.length / 2;
+		if (this.listSize + count > this.lists.capacity())
+			this.lists = grow(this.lists, this.listSize, this.listSize + count);
+		int offset = this.listSize;
+		IntBuffer lists = this.lists;
+		for (int i = 0; i < count; i++)
+			lists.put(offset + i, this.intern(locations[2 * i],
+					locations[2 * i + 1]));
+		this.listSize += count;
+		return offset;
+	}
+
+	/**
+	 * @return the number of a vertex, adding it if it is new.
+	 */
+	public synchronized int intern(double latitude, double longitude) {
+		// Folds negative zero into zero so both share a vertex.
+		latitude += 0.0;
+		longitude += 0.0;
+		long latBits = Double.doubleToLongBits(latitude);
+		long lonBits = Double.doubleToLongBits(longitude);
+		DoubleBuffer vertices = this.vertices;
+		int slot = hash(latBits, lonBits) & this.slotMask;
+		for (;; slot = (slot + 1) & this.slotMask) {
+			int vertex = this.slots.get(slot);
+			if (vertex == EMPTY)
+				break;
+			if (Double.doubleToLongBits(vertices.get(2 * vertex)) == latBits
+					&& Double.doubleToLongBits(vertices.get(2 * vertex + 1)) == lonBits)
+				return vertex;
+		}
+
+		int vertex = this.vertexCount;
+		if (2 * (vertex + 1) > vertices.capacity()) {
+			this.vertices = vertices = grow(vertices, 2 * vertex,
+					2 * (vertex + 1));
+		}
+		vertices.put(2 * vertex, latitude);
+		vertices.put(2 * vertex + 1, longitude);
+		this.slots.put(slot, vertex);
+		this.vertexCount++;
+		if (2 * this.vertexCount > this.slotMask + 1)
+			this.rehash(2 * (this.slotMask + 1));
+		return vertex;
+	}
+
+	public int getVertex(int offset, int index) {
+		return this.lists.get(offset + index);
+	}
+
+	public double getLatitude(int vertex) {
+		return this.vertices.get(2 * vertex);
+	}
+
+	public double getLongitude(int vertex) {
+		return this.vertices.get(2 * vertex + 1);
+	}
+
+	/**
+	 * Copies a run back into interleaved latitude/longitude pairs.
+	 */
+	public double[] getLocations(int offset, int count) {
+		IntBuffer lists = this.lists;
+		DoubleBuffer vertices = this.vertices;
+		double[] locations = new double[2 * count];
+		for (int i = 0; i < count; i++) {
+			int vertex = lists.get(offset + i);
+			locations[2 * i] = vertices.get(2 * vertex);
+			locations[2 * i + 1] = vertices.get(2 * vertex + 1);
+		}
+		return locations;
+	}
+
+	/**
+	 * @return the number of distinct vertices.
+	 */
+	public synchronized int getVertexCount() {
+		return this.vertexCount;
+	}
+
+	/**
+	 * @return the number of vertex references in all runs.
+	 */
+	public synchronized int getReferenceCount() {
+		return this.listSize;
+	}
+
+	/**
+	 * @return the bytes of direct buffer the store has allocated.
+	 */
+	public synchronized long getOffHeapBytes() {
+		return 8L * this.vertices.capacity() + 4L * this.lists.capacity()
+				+ 4L * this.slots.capacity();
+	}
+
+	/**
+	 * @return the bytes of direct buffer holding vertices, runs and the
+	 *         table, without the room left for growth.
+	 */
+	public synchronized long getUsedBytes() {
+		return 16L * this.vertexCount + 4L * this.listSize + 4L
+				* this.slots.capacity();
+	}
+
+	protected void rehash(int capacity) {
+		this.slots = makeSlots(capacity);
+		this.slotMask = capacity - 1;
+		DoubleBuffer vertices = this.vertices;
+		for (int vertex = 0; vertex < this.vertexCount; vertex++) {
+			int slot = hash(Double.doubleToLongBits(vertices.get(2 * vertex)),
+					Double.doubleToLongBits(vertices.get(2 * vertex + 1)))
+					& this.slotMask;
+			while (this.slots.get(slot) != EMPTY)
+				slot = (slot + 1) & this.slotMask;
+			this.slots.put(slot, vertex);
+		}
+	}
+
+	protected static int hash(long latBits, long lonBits) {
+		long h = latBits * 31 + lonBits;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	protected static IntBuffer makeSlots(int capacity) {
+		IntBuffer slots = allocateInts(capacity);
+		for (int i = 0; i < capacity; i++)
+			slots.put(i, EMPTY);
+		return slots;
+	}
+
+	protected static DoubleBuffer allocateDoubles(int capacity) {
+		return ByteBuffer.allocateDirect(8 * capacity)
+				.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+	protected static IntBuffer allocateInts(int capacity) {
+		return ByteBuffer.allocateDirect(4 * capacity)
+				.order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	// Copies the used part of a buffer into one at least twice as large.
+	protected static DoubleBuffer grow(DoubleBuffer buffer, int used,
+			int needed) {
+		DoubleBuffer grown = allocateDoubles(Math.max(needed,
+				2 * buffer.capacity()));
+		DoubleBuffer view = buffer.duplicate();
+		view.position(0);
+		view.limit(used);
+		grown.put(view);
+		grown.clear();
+		return grown;
+	}
+
+	protected static IntBuffer grow(IntBuffer buffer, int used, int needed) {
+		IntBuffer grown = allocateInts(Math.max(needed, 2 * buffer.capacity()));
+		IntBuffer view = buffer.duplicate();
+		view.position(0);
+		view.limit(used);
+		grown.put(view);
+		grown.clear();
+		return grown;
+	}
+
+	/**
+	 * Estimated bytes of some records' locations held three ways: as World
+	 * Wind LatLon lists, as a double array per record, and as runs in a
+	 * store. Sizes are those of a 64-bit JVM with compressed references.
+	 */
+	public static class Footprint {
+
+		// A LatLon and its two Angles, plus the list slot referencing it.
+		public static final int LATLON_BYTES = 24 + 2 * 32 + 4;
+		// An ArrayList and its array header.
+		public static final int LIST_BYTES = 24 + 16;
+		public static final int ARRAY_BYTES = 16;
+		// The store reference and run offset and count in a record.
+		public static final int RUN_BYTES = 4 + 4 + 4;
+
+		protected int records;
+		protected long references;
+		protected int vertices;
+		protected long latLonBytes;
+		protected long arrayBytes;
+		protected long storeHeapBytes;
+		protected long storeOffHeapBytes;
+
+		/**
+		 * Sizes the locations of records, with the vertex count and used
+		 * buffers of the store they are kept in.
+		 */
+		public static Footprint of(Collection<AirspaceRecord> records,
+				AirspaceCoordinateStore store) {
+			Footprint f = new Footprint();
+			for (AirspaceRecord record : records) {
+				int n = record.getLocationCount();
+				if (n == 0)
+					continue;
+				f.records++;
+				f.references += n;
+			}
+			f.latLonBytes = f.records * (long) LIST_BYTES + f.references
+					* LATLON_BYTES;
+			f.arrayBytes = f.records * (long) ARRAY_BYTES + f.references * 16;
+			f.storeHeapBytes = f.records * (long) RUN_BYTES;
+			if (store != null) {
+				f.vertices = store.getVertexCount();
+				f.storeOffHeapBytes = store.getUsedBytes();
+			}
+			return f;
+		}
+
+		public long getLatLonBytes() {
+			return this.latLonBytes;
+		}
+
+		public long getArrayBytes() {
+			return this.arrayBytes;
+		}
+
+		public long getStoreHeapBytes() {
+			return this.storeHeapBytes;
+		}
+
+		public long getStoreOffHeapBytes() {
+			return this.storeOffHeapBytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%,d rings, %,d locations, %,d vertices: "
+					+ "LatLon lists %,d KB, arrays %,d KB, "
+					+ "store %,d KB heap + %,d KB off heap", this.records,
+					this.references, this.vertices, this.latLonBytes / 1024,
+					this.arrayBytes / 1024, this.storeHeapBytes / 1024,
+					this.storeOffHeapBytes / 1024);
+		}
+	}
+}
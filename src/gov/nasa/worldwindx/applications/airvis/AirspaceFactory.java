@@ -0,0 +1,208 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.render.airspaces.Airspace;
+import gov.nasa.worldwind.render.airspaces.CappedCylinder;
+import gov.nasa.worldwind.render.airspaces.Curtain;
+import gov.nasa.worldwind.render.airspaces.PartialCappedCylinder;
+import gov.nasa.worldwind.render.airspaces.PolyArc;
+import gov.nasa.worldwind.render.airspaces.Polygon;
+import gov.nasa.worldwind.render.airspaces.SphereAirspace;
+import gov.nasa.worldwind.util.WWUtil;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds World Wind airspace shapes from {@link AirspaceRecord}s, styled the
+ * same way as the hand-built demo airspaces.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceFactory {
+
+	public static final String AIRSPACE_ID = "gov.nasa.worldwindx.applications.airvis.AirspaceId";
+	public static final String AIRSPACE_RECORD = "gov.nasa.worldwindx.applications.airvis.AirspaceRecord";
+
+	public static Airspace createAirspace(AirspaceRecord record) {
+		Airspace airspace;
+		switch (record.getShape()) {
+		case CAPPED_CYLINDER: {
+			CappedCylinder cyl = new CappedCylinder();
+			cyl.setCenter(LatLon.fromDegrees(record.getCenterLatitude(),
+					record.getCenterLongitude()));
+			cyl.setRadii(record.getInnerRadius(), record.getOuterRadius());
+			airspace = cyl;
+			break;
+		}
+		case PARTIAL_CAPPED_CYLINDER: {
+			PartialCappedCylinder partCyl = new PartialCappedCylinder();
+			partCyl.setCenter(LatLon.fromDegrees(record.getCenterLatitude(),
+					record.getCenterLongitude()));
+			partCyl.setRadii(record.getInnerRadius(), record.getOuterRadius());
+			partCyl.setAzimuths(Angle.fromDegrees(record.getLeftAzimuth()),
+					Angle.fromDegrees(record.getRightAzimuth()));
+			airspace = partCyl;
+			break;
+		}
+		case POLY_ARC: {
+			PolyArc polyArc = new PolyArc();
+			polyArc.setLocations(makeLocations(record));
+			polyArc.setRadius(record.getOuterRadius());
+			polyArc.setAzimuths(Angle.fromDegrees(record.getLeftAzimuth()),
+					Angle.fromDegrees(record.getRightAzimuth()));
+			airspace = polyArc;
+			break;
+		}
+		case POLYGON: {
+			Polygon polygon = new Polygon();
+			polygon.setLocations(makeLocations(record));
+			airspace = polygon;
+			break;
+		}
+		case CURTAIN: {
+			Curtain curtain = new Curtain();
+			curtain.setLocations(makeLocations(record));
+			if (record.isRhumbLine())
+				curtain.setPathType(AVKey.RHUMB_LINE);
+			airspace = curtain;
+			break;
+		}
+		case SPHERE: {
+			SphereAirspace sphere = new SphereAirspace();
+			sphere.setLocation(LatLon.fromDegrees(record.getCenterLatitude(),
+					record.getCenterLongitude()));
+			sphere.setRadius(record.getOuterRadius());
+			sphere.setAltitude(record.getLowerAltitude());
+			sphere.setTerrainConforming(record.isLowerTerrainConforming());
+			airspace = sphere;
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Unsupported shape "
+					+ record.getShape());
+		}
+
+		if (record.getShape() != AirspaceRecord.Shape.SPHERE) {
+			airspace.setAltitudes(record.getLowerAltitude(),
+					record.getUpperAltitude());
+			airspace.setTerrainConforming(record.isLowerTerrainConforming(),
+					record.isUpperTerrainConforming());
+		}
+		if (record.getName() != null)
+			airspace.setValue(AVKey.DISPLAY_NAME, record.getName());
+		airspace.setValue(AIRSPACE_ID, record.getId());
+		airspace.setValue(AIRSPACE_RECORD, record);
+		applyDefaultMaterial(airspace, new Color(record.getColor()));
+		return airspace;
+	}
+
+	/**
+	 * Describes an existing airspace shape as a record, so shapes built by
+	 * hand can be indexed and saved alongside loaded ones.
+	 */
+	public static AirspaceRecord createRecord(Airspace airspace, String id,
+			String groupId, AirspaceClass airspaceClass) {
+		AirspaceRecord record = new AirspaceRecord();
+		record.setId(id);
+		record.setGroupId(groupId);
+		record.setAirspaceClass(airspaceClass);
+		record.setName(airspace.getStringValue(AVKey.DISPLAY_NAME));
+		record.setColor(airspaceClass.getDefaultColor());
+		if (airspace.getAttributes() != null
+				&& airspace.getAttributes().getMaterial() != null)
+			record.setColor(airspace.getAttributes().getMaterial().getDiffuse()
+					.getRGB() & 0xFFFFFF);
+
+		// Check subclasses before the shapes they extend.
+		if (airspace instanceof PartialCappedCylinder) {
+			PartialCappedCylinder partCyl = (PartialCappedCylinder) airspace;
+			record.setShape(AirspaceRecord.Shape.PARTIAL_CAPPED_CYLINDER);
+			setCenter(record, partCyl.getCenter());
+			double[] radii = partCyl.getRadii();
+			record.setRadii(radii[0], radii[1]);
+			Angle[] azimuths = partCyl.getAzimuths();
+			record.setAzimuths(azimuths[0].degrees, azimuths[1].degrees);
+		} else if (airspace instanceof CappedCylinder) {
+			CappedCylinder cyl = (CappedCylinder) airspace;
+			record.setShape(AirspaceRecord.Shape.CAPPED_CYLINDER);
+			setCenter(record, cyl.getCenter());
+			double[] radii = cyl.getRadii();
+			record.setRadii(radii[0], radii[1]);
+		} else if (airspace instanceof PolyArc) {
+			PolyArc polyArc = (PolyArc) airspace;
+			record.setShape(AirspaceRecord.Shape.POLY_ARC);
+			record.setLocations(toDegrees(polyArc.getLocations()));
+			record.setRadius(polyArc.getRadius());
+			Angle[] azimuths = polyArc.getAzimuths();
+			record.setAzimuths(azimuths[0].degrees, azimuths[1].degrees);
+		} else if (airspace instanceof Polygon) {
+			record.setShape(AirspaceRecord.Shape.POLYGON);
+			record.setLocations(toDegrees(((Polygon) airspace).getLocations()));
+		} else if (airspace instanceof Curtain) {
+			Curtain curtain = (Curtain) airspace;
+			record.setShape(AirspaceRecord.Shape.CURTAIN);
+			record.setLocations(toDegrees(curtain.getLocations()));
+			record.setRhumbLine(AVKey.RHUMB_LINE.equals(curtain.getPathType()));
+		} else if (airspace instanceof SphereAirspace) {
+			SphereAirspace sphere = (SphereAirspace) airspace;
+			record.setShape(AirspaceRecord.Shape.SPHERE);
+			setCenter(record, sphere.getLocation());
+			record.setRadius(sphere.getRadius());
+		} else {
+			throw new IllegalArgumentException("Unsupported airspace "
+					+ airspace.getClass().getName());
+		}
+
+		double[] altitudes = airspace.getAltitudes();
+		boolean[] terrain = airspace.isTerrainConforming();
+		record.setAltitudes(altitudes[0], altitudes[1]);
+		record.setTerrainConforming(terrain[0], terrain[1]);
+		return record;
+	}
+
+	protected static void setCenter(AirspaceRecord record, LatLon center) {
+		record.setCenter(center.getLatitude().degrees,
+				center.getLongitude().degrees);
+	}
+
+	protected static double[] toDegrees(Iterable<? extends LatLon> locations) {
+		ArrayList<LatLon> list = new ArrayList<LatLon>();
+		for (LatLon ll : locations)
+			list.add(ll);
+		double[] degrees = new double[list.size() * 2];
+		for (int i = 0; i < list.size(); i++) {
+			degrees[2 * i] = list.get(i).getLatitude().degrees;
+			degrees[2 * i + 1] = list.get(i).getLongitude().degrees;
+		}
+		return degrees;
+	}
+
+	public static List<LatLon> makeLocations(AirspaceRecord record) {
+		int count = record.getLocationCount();
+		List<LatLon> locations = new ArrayList<LatLon>(count);
+		for (int i = 0; i < count; i++) {
+			locations.add(LatLon.fromDegrees(record.getLatitude(i),
+					record.getLongitude(i)));
+		}
+		return locations;
+	}
+
+	public static void applyDefaultMaterial(Airspace a, Color color) {
+		a.getAttributes().setDrawOutline(true);
+		a.getAttributes().setMaterial(new Material(color));
+		a.getAttributes().setOutlineMaterial(
+				new Material(WWUtil.makeColorBrighter(color)));
+		// Down from 0.8/0.9 for better vis
+		a.getAttributes().setOpacity(0.4);
+		a.getAttributes().setOutlineOpacity(0.8);
+		a.getAttributes().setOutlineWidth(3.0);
+	}
+}
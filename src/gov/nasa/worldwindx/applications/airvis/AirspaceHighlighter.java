@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.render.airspaces.Airspace;
+import gov.nasa.worldwind.render.airspaces.AirspaceAttributes;
+import gov.nasa.worldwind.render.airspaces.BasicAirspaceAttributes;
+
+/**
+ * Highlights at most one airspace at a time by swapping in a white copy of
+ * its attributes, restoring the original attributes when the highlight moves.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceHighlighter {
+
+	protected Airspace lastHighlit;
+	protected AirspaceAttributes lastAttrs;
+
+	/**
+	 * Moves the highlight to an object, or clears it if the object is not an
+	 * airspace.
+	 *
+	 * @return true if the highlight changed.
+	 */
+	public boolean highlight(Object o) {
+		if (this.lastHighlit == o)
+			return false; // Same thing selected
+
+		// Turn off highlight if on.
+		if (this.lastHighlit != null) {
+			this.lastHighlit.setAttributes(this.lastAttrs);
+			this.lastHighlit = null;
+			this.lastAttrs = null;
+		}
+
+		// Turn on highlight if selected object is an airspace.
+		if (o instanceof Airspace) {
+			this.lastHighlit = (Airspace) o;
+			this.lastAttrs = this.lastHighlit.getAttributes();
+			BasicAirspaceAttributes highlitAttrs = new BasicAirspaceAttributes(
+					this.lastAttrs);
+			highlitAttrs.setMaterial(Material.WHITE);
+			this.lastHighlit.setAttributes(highlitAttrs);
+		}
+
+		return true;
+	}
+
+	public Airspace getHighlighted() {
+		return this.lastHighlit;
+	}
+}
@@ -0,0 +1,567 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Static R-tree over the latitude, longitude and altitude bounds of a set of
+ * {@link AirspaceVolume}s, bulk loaded with Sort-Tile-Recursive packing. Node
+ * bounds and child lists are held in primitive arrays, so a query touches no
+ * objects other than the caller's {@link Hits} buffer and the volumes whose
+ * bounds it passes.
+ * <p>
+ * A volume crossing the dateline contributes one entry per side. The index is
+ * immutable once built and may be queried from several threads, each using
+ * its own {@link Hits} or {@link Nearest}.
+ * <p>
+ * Nearest-volume queries search the tree best first, ordering nodes by a
+ * lower bound on the great-circle and vertical distance to their bounds.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceIndex {
+
+	protected static final int NODE_CAPACITY = 16;
+
+	// Bounds layout, six doubles per entry or node.
+	protected static final int MIN_LAT = 0, MAX_LAT = 1, MIN_LON = 2,
+			MAX_LON = 3, MIN_ALT = 4, MAX_ALT = 5;
+
+	protected final AirspaceVolume[] volumes;
+
+	protected double[] entryBounds;
+	protected int[] entryVolume;
+
+	protected double[] nodeBounds;
+	protected int[] nodeStart, nodeCount;
+	protected boolean[] nodeLeaf;
+	protected int[] children;
+	protected int nodes;
+	protected int childCount;
+	protected int root = -1;
+
+	public AirspaceIndex(Collection<AirspaceVolume> volumes) {
+		this.volumes = volumes.toArray(new AirspaceVolume[volumes.size()]);
+
+		int entries = 0;
+		for (AirspaceVolume v : this.volumes)
+			entries += v.getBoxCount();
+
+		this.entryBounds = new double[entries * 6];
+		this.entryVolume = new int[entries];
+		int e = 0;
+		for (int i = 0; i < this.volumes.length; i++) {
+			AirspaceVolume v = this.volumes[i];
+			double[] boxes = v.getBoxes();
+			for (int b = 0; b < boxes.length; b += 4) {
+				int o = e * 6;
+				this.entryBounds[o + MIN_LAT] = boxes[b];
+				this.entryBounds[o + MAX_LAT] = boxes[b + 1];
+				this.entryBounds[o + MIN_LON] = boxes[b + 2];
+				this.entryBounds[o + MAX_LON] = boxes[b + 3];
+				this.entryBounds[o + MIN_ALT] = v.getMinAltitude();
+				this.entryBounds[o + MAX_ALT] = v.getMaxAltitude();
+				this.entryVolume[e++] = i;
+			}
+		}
+
+		if (entries > 0)
+			this.build(entries);
+	}
+
+	public int size() {
+		return this.volumes.length;
+	}
+
+	public AirspaceVolume getVolume(int index) {
+		return this.volumes[index];
+	}
+
+	public List<AirspaceVolume> getVolumes() {
+		return Collections.unmodifiableList(Arrays.asList(this.volumes));
+	}
+
+	/**
+	 * @return the highest altitude any volume may reach, terrain included, or
+	 *         negative infinity if the index is empty.
+	 */
+	public double getMaxAltitude() {
+		return this.root >= 0 ? this.nodeBounds[this.root * 6 + MAX_ALT]
+				: Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Collects the volumes containing a point, with terrain conforming
+	 * altitudes taken relative to sea level.
+	 *
+	 * @return the number of volumes found.
+	 */
+	public int findContaining(double lat, double lon, double altitude,
+			Hits hits) {
+		return this.findContaining(lat, lon, altitude, 0.0, hits);
+	}
+
+	/**
+	 * Collects the indices of the volumes containing a point into
+	 * <code>hits</code>, which is cleared first.
+	 *
+	 * @return the number of volumes found.
+	 */
+	public int findContaining(double lat, double lon, double altitude,
+			double groundElevation, Hits hits) {
+		this.search(lat, lat, lon, lon, altitude, altitude, hits);
+		int kept = 0;
+		for (int i = 0; i < hits.size; i++) {
+			int v = hits.items[i];
+			if (this.volumes[v].contains(lat, lon, altitude, groundElevation))
+				hits.items[kept++] = v;
+		}
+		hits.size = kept;
+		return kept;
+	}
+
+	public List<AirspaceVolume> findContaining(double lat, double lon,
+			double altitude) {
+		Hits hits = new Hits();
+		this.findContaining(lat, lon, altitude, hits);
+		List<AirspaceVolume> result = new ArrayList<AirspaceVolume>(hits.size);
+		for (int i = 0; i < hits.size; i++)
+			result.add(this.volumes[hits.items[i]]);
+		return result;
+	}
+
+	/**
+	 * Collects the indices of volumes whose bounds intersect a box into
+	 * <code>hits</code>, which is cleared first. A box with
+	 * <code>minLon &gt; maxLon</code> is taken to cross the dateline.
+	 */
+	public void search(double minLat, double maxLat, double minLon,
+			double maxLon, double minAlt, double maxAlt, Hits hits) {
+		hits.clear();
+		if (this.root < 0)
+			return;
+		if (minLon > maxLon) {
+			this.searchTree(minLat, maxLat, minLon, 180.0, minAlt, maxAlt, hits);
+			this.searchTree(minLat, maxLat, -180.0, maxLon, minAlt, maxAlt,
+					hits);
+		} else {
+			this.searchTree(minLat, maxLat, minLon, maxLon, minAlt, maxAlt,
+					hits);
+		}
+	}
+
+	protected void searchTree(double minLat, double maxLat, double minLon,
+			double maxLon, double minAlt, double maxAlt, Hits hits) {
+		int[] stack = hits.stack;
+		int top = 0;
+		stack[top++] = this.root;
+		while (top > 0) {
+			int node = stack[--top];
+			int start = this.nodeStart[node];
+			int end = start + this.nodeCount[node];
+			if (this.nodeLeaf[node]) {
+				for (int c = start; c < end; c++) {
+					int entry = this.children[c];
+					if (intersects(this.entryBounds, entry * 6, minLat, maxLat,
+							minLon, maxLon, minAlt, maxAlt)) {
+						int v = this.entryVolume[entry];
+						// Only dateline volumes have more than one entry.
+						if (this.volumes[v].getBoxCount() > 1)
+							hits.addUnique(v);
+						else
+							hits.add(v);
+					}
+				}
+			} else {
+				for (int c = start; c < end; c++) {
+					int child = this.children[c];
+					if (intersects(this.nodeBounds, child * 6, minLat, maxLat,
+							minLon, maxLon, minAlt, maxAlt)) {
+						if (top == stack.length)
+							hits.stack = stack = Arrays.copyOf(stack, top * 2);
+						stack[top++] = child;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects up to k volumes nearest a point into <code>nearest</code>,
+	 * which is cleared first, nearest first. Volumes containing the point
+	 * come first, the deepest inside first.
+	 *
+	 * @param maxDistance
+	 *            farthest distance in meters to look.
+	 * @param classes
+	 *            classes of the volumes to consider, or null for all.
+	 * @return the number of volumes found.
+	 */
+	public int findNearest(double lat, double lon, double altitude,
+			double groundElevation, int k, double maxDistance,
+			Set<AirspaceClass> classes, Nearest nearest) {
+		nearest.clear();
+		if (this.root < 0 || k <= 0)
+			return 0;
+
+		double cosLat = Math.cos(Math.toRadians(lat));
+		nearest.push(this.root, 0.0);
+		while (nearest.queued > 0) {
+			double limit = nearest.size == k ? Math.max(0.0,
+					nearest.distances[k - 1]) : maxDistance;
+			if (nearest.keys[0] > limit)
+				break;
+			int node = nearest.pop();
+
+			int start = this.nodeStart[node];
+			int end = start + this.nodeCount[node];
+			if (this.nodeLeaf[node]) {
+				for (int c = start; c < end; c++) {
+					int entry = this.children[c];
+					if (lowerBound(this.entryBounds, entry * 6, lat, lon,
+							altitude, cosLat) > limit)
+						continue;
+					int v = this.entryVolume[entry];
+					AirspaceVolume volume = this.volumes[v];
+					if (classes != null
+							&& !classes.contains(volume.getRecord()
+									.getAirspaceClass()))
+						continue;
+					if (volume.getBoxCount() > 1 && nearest.contains(v))
+						continue;
+					double lateral = volume.lateralDistance(lat, lon);
+					double vertical = volume.verticalDistance(altitude,
+							groundElevation);
+					double distance = volume.getShape() == AirspaceRecord.Shape.SPHERE ? volume
+							.distance(lat, lon, altitude, groundElevation)
+							: AirspaceVolume.combine(lateral, vertical);
+					if (distance <= maxDistance)
+						nearest.insert(v, distance, lateral, vertical, k);
+					limit = nearest.size == k ? Math.max(0.0,
+							nearest.distances[k - 1]) : maxDistance;
+				}
+			} else {
+				for (int c = start; c < end; c++) {
+					int child = this.children[c];
+					double bound = lowerBound(this.nodeBounds, child * 6, lat,
+							lon, altitude, cosLat);
+					if (bound <= limit)
+						nearest.push(child, bound);
+				}
+			}
+		}
+		return nearest.size;
+	}
+
+	/**
+	 * @return a lower bound in meters on the distance from a point to any
+	 *         volume within bounds: the larger of the latitude gap and the
+	 *         distance to the plane of the nearer bounding meridian, combined
+	 *         with the altitude gap.
+	 */
+	protected static double lowerBound(double[] b, int o, double lat,
+			double lon, double altitude, double cosLat) {
+		double dLat = lat < b[o + MIN_LAT] ? b[o + MIN_LAT] - lat
+				: lat > b[o + MAX_LAT] ? lat - b[o + MAX_LAT] : 0.0;
+		double horizontal = Geodesy.EARTH_RADIUS * Math.toRadians(dLat);
+
+		if (lon < b[o + MIN_LON] || lon > b[o + MAX_LON]) {
+			double east = b[o + MIN_LON] - lon;
+			if (east < 0.0)
+				east += 360.0;
+			double west = lon - b[o + MAX_LON];
+			if (west < 0.0)
+				west += 360.0;
+			double dLon = Math.min(east, west);
+			// The meridian plane separates the point from the bounds only if
+			// they lie within 180 degrees beyond it.
+			if (dLon < 90.0
+					&& dLon + b[o + MAX_LON] - b[o + MIN_LON] <= 180.0)
+				horizontal = Math.max(horizontal, Geodesy.EARTH_RADIUS
+						* Math.asin(cosLat * Math.sin(Math.toRadians(dLon))));
+		}
+
+		double vertical = altitude < b[o + MIN_ALT] ? b[o + MIN_ALT] - altitude
+				: altitude > b[o + MAX_ALT] ? altitude - b[o + MAX_ALT] : 0.0;
+		return Math.sqrt(horizontal * horizontal + vertical * vertical);
+	}
+
+	protected static boolean intersects(double[] b, int o, double minLat,
+			double maxLat, double minLon, double maxLon, double minAlt,
+			double maxAlt) {
+		return b[o + MIN_LAT] <= maxLat && b[o + MAX_LAT] >= minLat
+				&& b[o + MIN_LON] <= maxLon && b[o + MAX_LON] >= minLon
+				&& b[o + MIN_ALT] <= maxAlt && b[o + MAX_ALT] >= minAlt;
+	}
+
+	protected void build(int entries) {
+		int capacity = entries;
+		for (int level = entries; level > 1; level = (level + NODE_CAPACITY - 1)
+				/ NODE_CAPACITY)
+			capacity += level;
+		this.nodeBounds = new double[capacity * 6];
+		this.nodeStart = new int[capacity];
+		this.nodeCount = new int[capacity];
+		this.nodeLeaf = new boolean[capacity];
+		this.children = new int[capacity + entries];
+
+		int[] level = new int[entries];
+		for (int i = 0; i < entries; i++)
+			level[i] = i;
+		level = this.pack(level, this.entryBounds, true);
+		while (level.length > 1)
+			level = this.pack(level, this.nodeBounds, false);
+		this.root = level[0];
+	}
+
+	/**
+	 * Sorts items into STR order and groups them into parent nodes.
+	 *
+	 * @return the new nodes.
+	 */
+	protected int[] pack(int[] items, double[] bounds, boolean leaf) {
+		int n = items.length;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = items[i];
+
+		int parents = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		int slices = (int) Math.ceil(Math.sqrt(parents));
+		int sliceSize = slices * NODE_CAPACITY;
+
+		Arrays.sort(order, new CenterComparator(bounds, MIN_LON, MAX_LON));
+		Comparator<Integer> byLat = new CenterComparator(bounds, MIN_LAT,
+				MAX_LAT);
+		for (int s = 0; s < n; s += sliceSize)
+			Arrays.sort(order, s, Math.min(n, s + sliceSize), byLat);
+
+		int[] result = new int[parents];
+		for (int p = 0; p < parents; p++) {
+			int node = this.nodes++;
+			int first = p * NODE_CAPACITY;
+			int count = Math.min(NODE_CAPACITY, n - first);
+			this.nodeStart[node] = this.childCount;
+			this.nodeCount[node] = count;
+			this.nodeLeaf[node] = leaf;
+
+			int o = node * 6;
+			this.nodeBounds[o + MIN_LAT] = this.nodeBounds[o + MIN_LON] = this.nodeBounds[o
+					+ MIN_ALT] = Double.MAX_VALUE;
+			this.nodeBounds[o + MAX_LAT] = this.nodeBounds[o + MAX_LON] = this.nodeBounds[o
+					+ MAX_ALT] = -Double.MAX_VALUE;
+			for (int c = first; c < first + count; c++) {
+				int item = order[c];
+				this.children[this.childCount++] = item;
+				int io = item * 6;
+				for (int k = 0; k < 6; k += 2) {
+					this.nodeBounds[o + k] = Math.min(this.nodeBounds[o + k],
+							bounds[io + k]);
+					this.nodeBounds[o + k + 1] = Math.max(
+							this.nodeBounds[o + k + 1], bounds[io + k + 1]);
+				}
+			}
+			result[p] = node;
+		}
+		return result;
+	}
+
+	protected static class CenterComparator implements Comparator<Integer> {
+
+		protected final double[] bounds;
+		protected final int min, max;
+
+		public CenterComparator(double[] bounds, int min, int max) {
+			this.bounds = bounds;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public int compare(Integer a, Integer b) {
+			int oa = a * 6, ob = b * 6;
+			return Double.compare(
+					this.bounds[oa + this.min] + this.bounds[oa + this.max],
+					this.bounds[ob + this.min] + this.bounds[ob + this.max]);
+		}
+	}
+
+	/**
+	 * Reusable result buffer of volume indices. Not thread safe; give each
+	 * querying thread its own.
+	 */
+	public static class Hits {
+
+		protected int[] items = new int[16];
+		protected int size;
+		protected int[] stack = new int[64];
+
+		public int size() {
+			return this.size;
+		}
+
+		public int get(int i) {
+			return this.items[i];
+		}
+
+		public void clear() {
+			this.size = 0;
+		}
+
+		protected void add(int item) {
+			if (this.size == this.items.length)
+				this.items = Arrays.copyOf(this.items, this.size * 2);
+			this.items[this.size++] = item;
+		}
+
+		protected void addUnique(int item) {
+			for (int i = 0; i < this.size; i++) {
+				if (this.items[i] == item)
+					return;
+			}
+			this.add(item);
+		}
+	}
+
+	/**
+	 * Reusable result buffer of the volumes nearest a point, with their
+	 * signed distances in meters, negative inside. Not thread safe; give
+	 * each querying thread its own.
+	 */
+	public static class Nearest {
+
+		protected int[] items = new int[8];
+		protected double[] distances = new double[8];
+		protected double[] laterals = new double[8];
+		protected double[] verticals = new double[8];
+		protected int size;
+		// Nodes to visit, a binary min-heap on their lower bounds.
+		protected int[] queue = new int[64];
+		protected double[] keys = new double[64];
+		protected int queued;
+
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * @return the index of the i-th nearest volume.
+		 */
+		public int get(int i) {
+			return this.items[i];
+		}
+
+		/**
+		 * @return the distance to the nearest face of the i-th volume.
+		 */
+		public double getDistance(int i) {
+			return this.distances[i];
+		}
+
+		/**
+		 * @return the horizontal distance to the i-th volume's footprint
+		 *         boundary.
+		 */
+		public double getLateralDistance(int i) {
+			return this.laterals[i];
+		}
+
+		/**
+		 * @return the vertical distance to the i-th volume's floor or
+		 *         ceiling.
+		 */
+		public double getVerticalDistance(int i) {
+			return this.verticals[i];
+		}
+
+		public void clear() {
+			this.size = 0;
+			this.queued = 0;
+		}
+
+		protected boolean contains(int item) {
+			for (int i = 0; i < this.size; i++) {
+				if (this.items[i] == item)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Inserts a volume in distance order, keeping at most k.
+		 */
+		protected void insert(int item, double distance, double lateral,
+				double vertical, int k) {
+			if (this.size == k && distance >= this.distances[k - 1])
+				return;
+			if (k > this.items.length) {
+				this.items = Arrays.copyOf(this.items, k);
+				this.distances = Arrays.copyOf(this.distances, k);
+				this.laterals = Arrays.copyOf(this.laterals, k);
+				this.verticals = Arrays.copyOf(this.verticals, k);
+			}
+			int i = Math.min(this.size, k - 1);
+			while (i > 0 && this.distances[i - 1] > distance) {
+				this.items[i] = this.items[i - 1];
+				this.distances[i] = this.distances[i - 1];
+				this.laterals[i] = this.laterals[i - 1];
+				this.verticals[i] = this.verticals[i - 1];
+				i--;
+			}
+			this.items[i] = item;
+			this.distances[i] = distance;
+			this.laterals[i] = lateral;
+			this.verticals[i] = vertical;
+			if (this.size < k)
+				this.size++;
+		}
+
+		protected void push(int node, double key) {
+			if (this.queued == this.queue.length) {
+				this.queue = Arrays.copyOf(this.queue, this.queued * 2);
+				this.keys = Arrays.copyOf(this.keys, this.queued * 2);
+			}
+			int i = this.queued++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (this.keys[parent] <= key)
+					break;
+				this.queue[i] = this.queue[parent];
+				this.keys[i] = this.keys[parent];
+				i = parent;
+			}
+			this.queue[i] = node;
+			this.keys[i] = key;
+		}
+
+		protected int pop() {
+			int top = this.queue[0];
+			int node = this.queue[--this.queued];
+			double key = this.keys[this.queued];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= this.queued)
+					break;
+				if (child + 1 < this.queued
+						&& this.keys[child + 1] < this.keys[child])
+					child++;
+				if (this.keys[child] >= key)
+					break;
+				this.queue[i] = this.queue[child];
+				this.keys[i] = this.keys[child];
+				i = child;
+			}
+			this.queue[i] = node;
+			this.keys[i] = key;
+			return top;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.layers.AirspaceLayer;
+import gov.nasa.worldwind.render.airspaces.Airspace;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps an AGL and an AMSL AirspaceLayer in sync with a set of airspaces.
+ * Updates are applied as differences, so airspaces that stay visible are never
+ * removed from their layer and keep their cached geometry.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceLayers {
+
+	protected AirspaceLayer aglLayer;
+	protected AirspaceLayer amslLayer;
+
+	// Backing collections handed to the layers. Concurrent sets give O(1)
+	// add/remove and can be iterated by the renderer while they change.
+	protected Set<Airspace> aglAirspaces = Collections
+			.newSetFromMap(new ConcurrentHashMap<Airspace, Boolean>());
+	protected Set<Airspace> amslAirspaces = Collections
+			.newSetFromMap(new ConcurrentHashMap<Airspace, Boolean>());
+
+	public AirspaceLayers(AirspaceLayer aglLayer, AirspaceLayer amslLayer) {
+		this.aglLayer = aglLayer;
+		this.amslLayer = amslLayer;
+		this.aglLayer.setAirspaces(this.aglAirspaces);
+		this.amslLayer.setAirspaces(this.amslAirspaces);
+	}
+
+	public AirspaceLayer getAglLayer() {
+		return this.aglLayer;
+	}
+
+	public AirspaceLayer getAmslLayer() {
+		return this.amslLayer;
+	}
+
+	public int getAglCount() {
+		return this.aglAirspaces.size();
+	}
+
+	public int getAmslCount() {
+		return this.amslAirspaces.size();
+	}
+
+	public int size() {
+		return this.aglAirspaces.size() + this.amslAirspaces.size();
+	}
+
+	public boolean contains(Airspace airspace) {
+		return this.aglAirspaces.contains(airspace)
+				|| this.amslAirspaces.contains(airspace);
+	}
+
+	/**
+	 * Makes the layers show exactly the given airspaces, adding and removing
+	 * only those whose membership changed.
+	 *
+	 * @return true if either layer changed.
+	 */
+	public boolean setAirspaces(Collection<Airspace> airspaces) {
+		Set<Airspace> target = Collections
+				.newSetFromMap(new IdentityHashMap<Airspace, Boolean>());
+		if (airspaces != null) {
+			for (Airspace a : airspaces) {
+				if (a != null)
+					target.add(a);
+			}
+		}
+
+		boolean changed = retain(this.aglAirspaces, target);
+		changed |= retain(this.amslAirspaces, target);
+		changed |= this.addAirspaces(target);
+		return changed;
+	}
+
+	/**
+	 * Adds airspaces not already shown. The altitude datum is inspected once,
+	 * when the airspace is routed to its layer.
+	 *
+	 * @return true if either layer changed.
+	 */
+	public boolean addAirspaces(Iterable<Airspace> airspaces) {
+		if (airspaces == null)
+			return false;
+
+		boolean changed = false;
+		for (Airspace a : airspaces) {
+			if (a == null || this.contains(a))
+				continue;
+
+			if (isAmsl(a)) {
+				changed |= this.amslAirspaces.add(a);
+			} else {
+				changed |= this.aglAirspaces.add(a);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Removes the given airspaces from whichever layer holds them.
+	 *
+	 * @return true if either layer changed.
+	 */
+	public boolean removeAirspaces(Iterable<Airspace> airspaces) {
+		if (airspaces == null)
+			return false;
+
+		boolean changed = false;
+		for (Airspace a : airspaces) {
+			if (a == null)
+				continue;
+
+			changed |= this.aglAirspaces.remove(a)
+					|| this.amslAirspaces.remove(a);
+		}
+		return changed;
+	}
+
+	public void clear() {
+		this.aglAirspaces.clear();
+		this.amslAirspaces.clear();
+	}
+
+	public static boolean isAmsl(Airspace a) {
+		String[] datum = a.getAltitudeDatum();
+		return AVKey.ABOVE_MEAN_SEA_LEVEL.equals(datum[0])
+				&& AVKey.ABOVE_MEAN_SEA_LEVEL.equals(datum[1]);
+	}
+
+	protected static boolean retain(Set<Airspace> shown, Set<Airspace> target) {
+		boolean changed = false;
+		Iterator<Airspace> iterator = shown.iterator();
+		while (iterator.hasNext()) {
+			if (!target.contains(iterator.next())) {
+				iterator.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+}
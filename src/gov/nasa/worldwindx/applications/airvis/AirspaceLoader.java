@@ -0,0 +1,271 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams airspace records from OpenAir, CSV or XML sources. Records are handed
+ * to a {@link Listener} as soon as they are parsed; nothing but the record in
+ * progress is kept in memory. Loading runs on the calling thread, so callers on
+ * the EDT should hand it to a background executor.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceLoader {
+
+	public enum Format {
+		OPENAIR, CSV, XML;
+
+		/**
+		 * Guesses the format from a file name or URL path.
+		 */
+		public static Format forPath(String path) {
+			String p = path.toLowerCase();
+			if (p.endsWith(".csv"))
+				return CSV;
+			if (p.endsWith(".xml"))
+				return XML;
+			return OPENAIR;
+		}
+	}
+
+	public interface Listener {
+		void airspaceLoaded(AirspaceRecord record);
+	}
+
+	public static class Statistics {
+
+		protected int records;
+		protected int errors;
+		protected long elapsedNanos;
+
+		public int getRecords() {
+			return this.records;
+		}
+
+		public int getErrors() {
+			return this.errors;
+		}
+
+		public long getElapsedNanos() {
+			return this.elapsedNanos;
+		}
+
+		public double getRecordsPerSecond() {
+			return this.elapsedNanos > 0 ? this.records * 1e9
+					/ this.elapsedNanos : 0.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d records (%d errors) in %.1f ms, %.0f records/s",
+					this.records, this.errors, this.elapsedNanos / 1e6,
+					this.getRecordsPerSecond());
+		}
+	}
+
+	protected static final Logger logger = Logger.getLogger(AirspaceLoader.class
+			.getName());
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Fills in arc azimuths from published boundary points for a record that
+	 * gives none. A PolyArc's arc runs clockwise from the bearing of its
+	 * second location to the bearing of its last, both taken from its first
+	 * location, the arc center. A partial cylinder may give the start and end
+	 * points of its arc as its two locations.
+	 */
+	public static void deriveAzimuths(AirspaceRecord record) {
+		int n = record.getLocationCount();
+		double[] azimuths = new double[2];
+		switch (record.getShape()) {
+		case POLY_ARC:
+			if (n < 3)
+				throw new IllegalArgumentException(
+						"PolyArc needs azimuths or at least three locations");
+			Geodesy.bearings(record.getLatitude(0), record.getLongitude(0),
+					new double[] { record.getLatitude(1),
+							record.getLatitude(n - 1) }, new double[] {
+							record.getLongitude(1), record.getLongitude(n - 1) },
+					azimuths, 2);
+			record.setAzimuths(azimuths[0], azimuths[1]);
+			break;
+		case PARTIAL_CAPPED_CYLINDER:
+			if (n != 2)
+				throw new IllegalArgumentException(
+						"Partial cylinder needs azimuths or arc end locations");
+			Geodesy.bearings(record.getCenterLatitude(),
+					record.getCenterLongitude(), new double[] {
+							record.getLatitude(0), record.getLatitude(1) },
+					new double[] { record.getLongitude(0),
+							record.getLongitude(1) }, azimuths, 2);
+			record.setAzimuths(azimuths[0], azimuths[1]);
+			record.setLocations(null);
+			break;
+		default:
+			break;
+		}
+	}
+
+	public static AirspaceRecordReader openReader(Reader reader, Format format)
+			throws IOException {
+		switch (format) {
+		case CSV:
+			return new CsvAirspaceReader(reader);
+		case XML:
+			return new XmlAirspaceReader(reader);
+		default:
+			return new OpenAirReader(reader);
+		}
+	}
+
+	public static Statistics load(URL url, Format format, Listener listener)
+			throws IOException {
+		InputStream stream = url.openStream();
+		try {
+			Reader reader = new BufferedReader(new InputStreamReader(stream,
+					UTF8));
+			return load(openReader(reader, format), listener);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Reads every record and passes it to the listener. Malformed records are
+	 * logged, counted and skipped. Loading stops early if the thread is
+	 * interrupted.
+	 */
+	public static Statistics load(AirspaceRecordReader reader, Listener listener)
+			throws IOException {
+		Statistics stats = new Statistics();
+		long start = System.nanoTime();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				AirspaceRecord record;
+				try {
+					record = reader.next();
+				} catch (IllegalArgumentException e) {
+					stats.errors++;
+					logger.log(Level.WARNING, "Skipping airspace record: "
+							+ e.getMessage());
+					continue;
+				}
+				if (record == null)
+					break;
+
+				stats.records++;
+				listener.airspaceLoaded(record);
+			}
+		} finally {
+			stats.elapsedNanos = System.nanoTime() - start;
+			reader.close();
+		}
+		return stats;
+	}
+
+	/**
+	 * Parses an altitude such as "SFC", "GND", "1500", "1500ft MSL",
+	 * "2500 AGL", "FL180" or "UNL". Bare numbers are feet above mean sea level
+	 * unless the reference says otherwise.
+	 *
+	 * @param reference
+	 *            "MSL", "AGL", "SFC" or null when the text carries its own.
+	 * @param result
+	 *            receives the altitude in meters at [0] and 1.0 at [1] when the
+	 *            altitude is above ground level.
+	 */
+	public static void parseAltitude(String text, String reference,
+			double[] result) {
+		String s = text.trim().toUpperCase();
+		String ref = reference != null ? reference.trim().toUpperCase() : "";
+
+		if (s.equals("SFC") || s.equals("GND")) {
+			result[0] = 0.0;
+			result[1] = 1.0;
+			return;
+		}
+		if (s.startsWith("UNL")) {
+			result[0] = 60000.0 * AirspaceRecord.FEET_TO_METERS;
+			result[1] = 0.0;
+			return;
+		}
+		if (s.startsWith("FL")) {
+			result[0] = Double.parseDouble(s.substring(2).trim()) * 100.0
+					* AirspaceRecord.FEET_TO_METERS;
+			result[1] = 0.0;
+			return;
+		}
+
+		boolean agl = ref.equals("AGL") || ref.equals("SFC")
+				|| ref.equals("GND");
+		if (s.endsWith("AGL") || s.endsWith("GND") || s.endsWith("SFC")) {
+			agl = true;
+			s = s.substring(0, s.length() - 3).trim();
+		} else if (s.endsWith("AMSL")) {
+			s = s.substring(0, s.length() - 4).trim();
+		} else if (s.endsWith("MSL")) {
+			s = s.substring(0, s.length() - 3).trim();
+		}
+
+		double scale = AirspaceRecord.FEET_TO_METERS;
+		if (s.endsWith("FT")) {
+			s = s.substring(0, s.length() - 2).trim();
+		} else if (s.endsWith("M")) {
+			s = s.substring(0, s.length() - 1).trim();
+			scale = 1.0;
+		}
+
+		result[0] = Double.parseDouble(s) * scale;
+		result[1] = agl ? 1.0 : 0.0;
+	}
+
+	/**
+	 * Parses a color given as "#RRGGBB", "0xRRGGBB" or "r,g,b".
+	 *
+	 * @return the color as 0xRRGGBB.
+	 */
+	public static int parseColor(String text) {
+		String s = text.trim();
+		if (s.startsWith("#"))
+			return Integer.parseInt(s.substring(1), 16);
+		if (s.startsWith("0x") || s.startsWith("0X"))
+			return Integer.parseInt(s.substring(2), 16);
+
+		String[] rgb = s.split("[,\\s]+");
+		if (rgb.length != 3)
+			throw new IllegalArgumentException("Bad color " + text);
+		return (Integer.parseInt(rgb[0]) & 0xFF) << 16
+				| (Integer.parseInt(rgb[1]) & 0xFF) << 8
+				| (Integer.parseInt(rgb[2]) & 0xFF);
+	}
+
+	/**
+	 * Parses a whitespace separated list of "lat lon" pairs separated by
+	 * semicolons, for example "38.93 -77.46; 39.09 -77.30".
+	 *
+	 * @return interleaved latitude/longitude pairs.
+	 */
+	public static double[] parseLocations(String text) {
+		String[] pairs = text.trim().split("\\s*;\\s*");
+		double[] locations = new double[pairs.length * 2];
+		for (int i = 0; i < pairs.length; i++) {
+			String[] latLon = pairs[i].trim().split("[\\s/]+");
+			if (latLon.length != 2)
+				throw new IllegalArgumentException("Bad location " + pairs[i]);
+			locations[2 * i] = Double.parseDouble(latLon[0]);
+			locations[2 * i + 1] = Double.parseDouble(latLon[1]);
+		}
+		return locations;
+	}
+}
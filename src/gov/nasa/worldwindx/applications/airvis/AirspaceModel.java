@@ -0,0 +1,815 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The airspace set without any display: registered records by group, which
+ * groups are enabled, groups mapped from a cache but not read yet, and the
+ * containment and incursion queries over all of them. Airspaces with an
+ * {@link AirspaceSchedule} show only while active at the model's time.
+ * Nothing here touches AWT, Swing, JOGL or World Wind, so the model can run
+ * in batch jobs.
+ * <p>
+ * A display binds to the model as a {@link Listener} and turns records into
+ * shapes as they are shown. The model is not thread safe and the application
+ * changes and queries it from the EDT only. The exceptions are
+ * {@link #prepare(Collection)} and {@link #storeLocations(Collection)},
+ * which a loader calls on its own thread for records not registered yet,
+ * and {@link IndexBuild#get()} and {@link #getIndexSnapshot()}, which any
+ * thread may call.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceModel {
+
+	protected static final Logger logger = Logger.getLogger(AirspaceModel.class
+			.getName());
+
+	public interface Listener {
+
+		/**
+		 * Called when records are registered or removed, whether or not their
+		 * group is enabled. A replaced record is reported as removed and its
+		 * replacement as added.
+		 */
+		void airspacesChanged(Collection<AirspaceRecord> added,
+				Collection<AirspaceRecord> removed);
+
+		/**
+		 * Called when records of enabled groups should appear or disappear,
+		 * as groups are switched or scheduled airspaces change activity.
+		 */
+		void visibilityChanged(Collection<AirspaceRecord> shown,
+				Collection<AirspaceRecord> hidden);
+	}
+
+	protected final AirspaceRegistry<AirspaceRecord> airspaces = new AirspaceRegistry<AirspaceRecord>();
+	// Groups registered from a cache whose records are not read yet.
+	protected final HashMap<String, AirspaceCache> pendingGroups = new HashMap<String, AirspaceCache>();
+	protected final List<Listener> listeners = new ArrayList<Listener>();
+	// Volumes of registered records, mostly made by the loader before the
+	// records are handed over, and shared by listeners and the index.
+	protected final ConcurrentHashMap<AirspaceRecord, AirspaceVolume> volumes = new ConcurrentHashMap<AirspaceRecord, AirspaceVolume>();
+	// Build of the containment index over every registered airspace for
+	// the current registry, or null until one is asked for.
+	protected IndexBuild indexBuild;
+	protected int indexGeneration;
+	// Builds the index on the workers whenever the registry changes, for
+	// displays reading the snapshot.
+	protected boolean backgroundIndex;
+	protected final AtomicReference<IndexBuild> queuedBuild = new AtomicReference<IndexBuild>();
+	// Latest index built, published for any thread, and its generation.
+	protected volatile AirspaceIndex indexSnapshot;
+	protected int snapshotGeneration = -1;
+	protected final Object snapshotLock = new Object();
+	protected ForkJoinPool workers;
+	// Ground elevations for terrain conforming altitudes, or null for sea
+	// level.
+	protected TerrainTileCache terrain;
+	// Activation periods of time-activated airspaces, or null to show every
+	// airspace of an enabled group.
+	protected AirspaceSchedule schedule;
+	protected long time;
+	// Scheduled airspaces active at the time, and a spare set for the next.
+	protected HashSet<String> active = new HashSet<String>();
+	protected HashSet<String> nextActive = new HashSet<String>();
+	// Band of altitudes above mean sea level airspaces must meet to be
+	// shown, unbounded by default, and the index that finds the airspaces
+	// entering or leaving it, rebuilt on demand after the registry changes.
+	protected double minAltitude = Double.NEGATIVE_INFINITY;
+	protected double maxAltitude = Double.POSITIVE_INFINITY;
+	protected AirspaceAltitudeIndex altitudeIndex;
+	// Interns the locations of registered records, if set.
+	protected AirspaceCoordinateStore coordinates;
+
+	public void addListener(Listener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		this.listeners.remove(listener);
+	}
+
+	public AirspaceRegistry<AirspaceRecord> getRegistry() {
+		return this.airspaces;
+	}
+
+	public AirspaceRecord get(String airspaceId) {
+		return this.airspaces.get(airspaceId);
+	}
+
+	public int size() {
+		return this.airspaces.size();
+	}
+
+	public void addGroup(String groupId, AirspaceClass airspaceClass) {
+		this.airspaces.addGroup(groupId, airspaceClass);
+	}
+
+	public boolean isGroupEnabled(String groupId) {
+		return this.airspaces.isGroupEnabled(groupId);
+	}
+
+	public boolean isEnabled(String airspaceId) {
+		return this.airspaces.isEnabled(airspaceId);
+	}
+
+	/**
+	 * @return true if the airspace is not scheduled or active at the model's
+	 *         time.
+	 */
+	public boolean isActive(String airspaceId) {
+		return this.schedule == null || !this.schedule.isScheduled(airspaceId)
+				|| this.active.contains(airspaceId);
+	}
+
+	/**
+	 * @return true if the airspace meets the model's altitude band.
+	 */
+	public boolean isInBand(AirspaceRecord record) {
+		if (this.minAltitude == Double.NEGATIVE_INFINITY
+				&& this.maxAltitude == Double.POSITIVE_INFINITY)
+			return true;
+		double ground = AirspaceAltitudeIndex.groundOf(record, this.terrain);
+		return AirspaceAltitudeIndex.intersects(
+				AirspaceAltitudeIndex.floorOf(record, ground),
+				AirspaceAltitudeIndex.ceilingOf(record, ground),
+				this.minAltitude, this.maxAltitude);
+	}
+
+	/**
+	 * @return true if the airspace's group is enabled and the airspace is
+	 *         active and meets the altitude band.
+	 */
+	public boolean isShown(String airspaceId) {
+		return this.airspaces.isEnabled(airspaceId)
+				&& this.isActive(airspaceId)
+				&& this.isInBand(this.airspaces.get(airspaceId));
+	}
+
+	public double getMinAltitude() {
+		return this.minAltitude;
+	}
+
+	public double getMaxAltitude() {
+		return this.maxAltitude;
+	}
+
+	/**
+	 * Shows only the airspaces meeting a band of altitudes above mean sea
+	 * level, unbounded on either side with an infinity. Only the airspaces
+	 * with a floor or ceiling in the ground the band moved across are
+	 * visited, so dragging a slider costs little per step.
+	 */
+	public void setAltitudeBand(double minAltitude, double maxAltitude) {
+		if (minAltitude == this.minAltitude && maxAltitude == this.maxAltitude)
+			return;
+		ArrayList<AirspaceRecord> entered = new ArrayList<AirspaceRecord>();
+		ArrayList<AirspaceRecord> left = new ArrayList<AirspaceRecord>();
+		this.getAltitudeIndex().findChanges(this.minAltitude,
+				this.maxAltitude, minAltitude, maxAltitude, entered, left);
+		this.minAltitude = minAltitude;
+		this.maxAltitude = maxAltitude;
+
+		ArrayList<AirspaceRecord> shown = new ArrayList<AirspaceRecord>();
+		ArrayList<AirspaceRecord> hidden = new ArrayList<AirspaceRecord>();
+		for (AirspaceRecord record : entered) {
+			if (this.airspaces.isEnabled(record.getId())
+					&& this.isActive(record.getId()))
+				shown.add(record);
+		}
+		for (AirspaceRecord record : left) {
+			if (this.airspaces.isEnabled(record.getId())
+					&& this.isActive(record.getId()))
+				hidden.add(record);
+		}
+		if (!shown.isEmpty() || !hidden.isEmpty())
+			this.fireVisibilityChanged(shown, hidden);
+	}
+
+	/**
+	 * @return the altitude index over every registered airspace.
+	 */
+	protected AirspaceAltitudeIndex getAltitudeIndex() {
+		if (this.altitudeIndex == null) {
+			long start = System.nanoTime();
+			this.altitudeIndex = new AirspaceAltitudeIndex(
+					this.airspaces.getAll(), this.terrain);
+			Metrics.getDefault().histogram("index.altitude.build")
+					.recordSince(start);
+		}
+		return this.altitudeIndex;
+	}
+
+	public AirspaceSchedule getSchedule() {
+		return this.schedule;
+	}
+
+	/**
+	 * Sets the activation periods of time-activated airspaces, or null to
+	 * show airspaces regardless of time.
+	 */
+	public void setSchedule(AirspaceSchedule schedule) {
+		HashSet<String> ids = new HashSet<String>();
+		if (this.schedule != null)
+			ids.addAll(this.schedule.getScheduledIds());
+		if (schedule != null)
+			ids.addAll(schedule.getScheduledIds());
+		HashSet<String> wasActive = new HashSet<String>();
+		for (String id : ids) {
+			if (this.isActive(id))
+				wasActive.add(id);
+		}
+
+		this.schedule = schedule;
+		this.active.clear();
+		if (schedule != null)
+			schedule.getActive(this.time, this.active);
+
+		ArrayList<String> changed = new ArrayList<String>();
+		for (String id : ids) {
+			if (this.isActive(id) != wasActive.contains(id))
+				changed.add(id);
+		}
+		this.fireActivityChanged(changed);
+	}
+
+	/**
+	 * @return the instant the schedule is evaluated at, ms since the epoch.
+	 */
+	public long getTime() {
+		return this.time;
+	}
+
+	/**
+	 * Moves the model to an instant, showing and hiding only the airspaces
+	 * whose activity changed. The cost follows the number of active periods,
+	 * not the size of the schedule.
+	 */
+	public void setTime(long time) {
+		this.time = time;
+		if (this.schedule == null)
+			return;
+
+		HashSet<String> next = this.nextActive;
+		next.clear();
+		this.schedule.getActive(time, next);
+		ArrayList<String> changed = new ArrayList<String>();
+		for (String id : next) {
+			if (!this.active.contains(id))
+				changed.add(id);
+		}
+		for (String id : this.active) {
+			if (!next.contains(id))
+				changed.add(id);
+		}
+		this.nextActive = this.active;
+		this.active = next;
+		this.fireActivityChanged(changed);
+	}
+
+	/**
+	 * Enables or disables a group, reading it first if it is still pending
+	 * in a cache.
+	 */
+	public void setGroupEnabled(String groupId, boolean enabled) {
+		// Copied, since reading a pending group adds to the live view.
+		List<AirspaceRecord> changed = new ArrayList<AirspaceRecord>();
+		for (AirspaceRecord record : this.airspaces.setGroupEnabled(groupId,
+				enabled)) {
+			if (this.isActive(record.getId()) && this.isInBand(record))
+				changed.add(record);
+		}
+		if (enabled)
+			this.readPendingGroup(groupId);
+		if (changed.isEmpty())
+			return;
+
+		if (enabled) {
+			this.fireVisibilityChanged(changed,
+					Collections.<AirspaceRecord> emptyList());
+		} else {
+			this.fireVisibilityChanged(
+					Collections.<AirspaceRecord> emptyList(), changed);
+		}
+	}
+
+	/**
+	 * Removes a group and all of its airspaces.
+	 *
+	 * @return the removed records.
+	 */
+	public Collection<AirspaceRecord> removeGroup(String groupId) {
+		if (this.pendingGroups.remove(groupId) != null)
+			this.invalidateIndex();
+		Collection<AirspaceRecord> removed = this.airspaces
+				.removeGroup(groupId);
+		if (!removed.isEmpty()) {
+			for (AirspaceRecord record : removed)
+				this.volumes.remove(record);
+			this.invalidateIndex();
+			this.altitudeIndex = null;
+			this.fireAirspacesChanged(
+					Collections.<AirspaceRecord> emptyList(), removed);
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes every group and airspace, hiding those shown first.
+	 *
+	 * @return the removed records.
+	 */
+	public Collection<AirspaceRecord> clear() {
+		ArrayList<AirspaceRecord> removed = new ArrayList<AirspaceRecord>(
+				this.airspaces.getAll());
+		ArrayList<AirspaceRecord> hidden = new ArrayList<AirspaceRecord>();
+		for (AirspaceRecord record : removed) {
+			if (this.isShown(record.getId()))
+				hidden.add(record);
+		}
+		this.airspaces.clear();
+		this.pendingGroups.clear();
+		this.volumes.clear();
+		this.invalidateIndex();
+		this.altitudeIndex = null;
+		if (!hidden.isEmpty())
+			this.fireVisibilityChanged(
+					Collections.<AirspaceRecord> emptyList(), hidden);
+		if (!removed.isEmpty())
+			this.fireAirspacesChanged(
+					Collections.<AirspaceRecord> emptyList(), removed);
+		return removed;
+	}
+
+	/**
+	 * Adds records to the registry, creating their groups as needed. Records
+	 * whose group is enabled are shown.
+	 */
+	public void registerAirspaces(Collection<AirspaceRecord> loaded,
+			boolean enableNewGroups) {
+		ArrayList<AirspaceRecord> added = new ArrayList<AirspaceRecord>();
+		ArrayList<AirspaceRecord> removed = new ArrayList<AirspaceRecord>();
+		ArrayList<AirspaceRecord> shown = new ArrayList<AirspaceRecord>();
+		this.prepare(loaded);
+		for (AirspaceRecord record : loaded) {
+			AirspaceRegistry.Group<AirspaceRecord> group = this.airspaces
+					.getGroup(record.getGroupId());
+			if (group == null) {
+				group = this.airspaces.addGroup(record.getGroupId(),
+						record.getAirspaceClass());
+				if (enableNewGroups)
+					this.airspaces.setGroupEnabled(group.getId(), true);
+			}
+
+			AirspaceRecord previous = this.airspaces.add(group.getId(),
+					record.getId(), record);
+			if (previous != null) {
+				this.volumes.remove(previous);
+				// A record replaced within this batch was never reported.
+				if (added.remove(previous))
+					shown.remove(previous);
+				else
+					removed.add(previous);
+			}
+			added.add(record);
+			if (group.isEnabled() && this.isActive(record.getId())
+					&& this.isInBand(record))
+				shown.add(record);
+		}
+
+		this.invalidateIndex();
+		this.altitudeIndex = null;
+		this.fireAirspacesChanged(added, removed);
+		if (!shown.isEmpty())
+			this.fireVisibilityChanged(shown,
+					Collections.<AirspaceRecord> emptyList());
+	}
+
+	public AirspaceCoordinateStore getCoordinateStore() {
+		return this.coordinates;
+	}
+
+	/**
+	 * Sets the store that the locations of records registered from now on
+	 * are moved into, or null to leave them in the records.
+	 */
+	public void setCoordinateStore(AirspaceCoordinateStore coordinates) {
+		this.coordinates = coordinates;
+	}
+
+	/**
+	 * Moves the locations of records into the coordinate store, if any.
+	 * Registering does this too; a loader that still reads the records on
+	 * another thread calls it there first, before handing them over.
+	 */
+	public void storeLocations(Collection<AirspaceRecord> records) {
+		AirspaceCoordinateStore coordinates = this.coordinates;
+		if (coordinates == null)
+			return;
+		for (AirspaceRecord record : records)
+			record.storeLocations(coordinates);
+	}
+
+	/**
+	 * Stores the locations of records and makes their volumes, so that
+	 * registering them only looks the volumes up. Registering does this too;
+	 * a loader calls it on its own thread first, before handing the records
+	 * over.
+	 */
+	public void prepare(Collection<AirspaceRecord> records) {
+		this.storeLocations(records);
+		for (AirspaceRecord record : records) {
+			if (!this.volumes.containsKey(record))
+				this.volumes.put(record, new AirspaceVolume(record));
+		}
+	}
+
+	/**
+	 * @return the volume of a record, made now if it was not prepared.
+	 */
+	public AirspaceVolume getVolume(AirspaceRecord record) {
+		AirspaceVolume volume = this.volumes.get(record);
+		return volume != null ? volume : new AirspaceVolume(record);
+	}
+
+	/**
+	 * Registers the groups of a mapped cache without reading any records. A
+	 * group's records are read the first time it is enabled.
+	 */
+	public void registerCache(AirspaceCache cache, boolean enableNewGroups) {
+		for (String groupId : cache.getGroupIds()) {
+			boolean known = this.airspaces.getGroup(groupId) != null;
+			this.airspaces.addGroup(groupId, cache.getGroupClass(groupId));
+			this.pendingGroups.put(groupId, cache);
+			this.invalidateIndex();
+			if (this.airspaces.isGroupEnabled(groupId)) {
+				this.readPendingGroup(groupId);
+			} else if (enableNewGroups && !known) {
+				this.setGroupEnabled(groupId, true);
+			}
+		}
+	}
+
+	/**
+	 * @return the cache holding a group that has not been read yet, or null.
+	 */
+	public AirspaceCache getPendingGroup(String groupId) {
+		return this.pendingGroups.get(groupId);
+	}
+
+	/**
+	 * @return the cache holding a group that has not been read yet, no
+	 *         longer pending, or null.
+	 */
+	public AirspaceCache takePendingGroup(String groupId) {
+		return this.pendingGroups.remove(groupId);
+	}
+
+	/**
+	 * Reads a pending group from its cache and registers its records. Reads
+	 * on the calling thread; a display may override this to read in the
+	 * background and register the records later.
+	 */
+	protected void readPendingGroup(String groupId) {
+		AirspaceCache cache = this.takePendingGroup(groupId);
+		if (cache != null)
+			this.registerAirspaces(cache.getGroupRecords(groupId), false);
+	}
+
+	/**
+	 * Loads an airspace file on the calling thread, mapping its cache if the
+	 * cache is current and writing a new cache otherwise.
+	 *
+	 * @return the load statistics, or null if the cache was used.
+	 */
+	public AirspaceLoader.Statistics load(URL url, AirspaceLoader.Format format,
+			boolean enableNewGroups) throws IOException {
+		File cacheFile = AirspaceCache.getCacheFile(url);
+		long fingerprint = AirspaceCache.fingerprint(url);
+		AirspaceCache cache = AirspaceCache.open(cacheFile, fingerprint);
+		if (cache != null) {
+			this.registerCache(cache, enableNewGroups);
+			return null;
+		}
+
+		final ArrayList<AirspaceRecord> records = new ArrayList<AirspaceRecord>();
+		AirspaceLoader.Statistics stats = AirspaceLoader.load(url, format,
+				new AirspaceLoader.Listener() {
+					@Override
+					public void airspaceLoaded(AirspaceRecord record) {
+						records.add(record);
+					}
+				});
+		this.registerAirspaces(records, enableNewGroups);
+
+		try {
+			AirspaceCache.write(cacheFile, records, fingerprint);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to write airspace cache "
+					+ cacheFile, e);
+		}
+		return stats;
+	}
+
+	/**
+	 * Captures the airspaces an index covers, so it can be built on any
+	 * thread, and builds it once.
+	 */
+	public static class IndexBuild {
+
+		protected final AirspaceModel model;
+		protected final int generation;
+		protected List<AirspaceRecord> records;
+		protected List<Map.Entry<String, AirspaceCache>> pending;
+		protected AirspaceIndex index;
+
+		protected IndexBuild(AirspaceModel model, int generation,
+				List<AirspaceRecord> records,
+				List<Map.Entry<String, AirspaceCache>> pending) {
+			this.model = model;
+			this.generation = generation;
+			this.records = records;
+			this.pending = pending;
+		}
+
+		/**
+		 * Builds the index on the calling thread unless it is built already,
+		 * waiting for a build in progress elsewhere, and publishes it as the
+		 * model's snapshot.
+		 */
+		public synchronized AirspaceIndex get() {
+			if (this.index == null) {
+				long start = System.nanoTime();
+				ArrayList<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>();
+				for (AirspaceRecord record : this.records) {
+					volumes.add(this.model.getVolume(record));
+				}
+				for (Map.Entry<String, AirspaceCache> e : this.pending) {
+					for (AirspaceRecord record : e.getValue().getGroupRecords(
+							e.getKey())) {
+						volumes.add(new AirspaceVolume(record));
+					}
+				}
+				this.index = new AirspaceIndex(volumes);
+				this.records = null;
+				this.pending = null;
+				Metrics.getDefault().histogram("index.build").recordSince(start);
+				this.model.publishIndex(this.index, this.generation);
+			}
+			return this.index;
+		}
+	}
+
+	/**
+	 * @return the containment index over all registered airspaces,
+	 *         including cached groups not read yet, built on the calling
+	 *         thread if needed.
+	 */
+	public AirspaceIndex getAirspaceIndex() {
+		return this.getIndexBuild().get();
+	}
+
+	/**
+	 * @return the build of the index over the airspaces registered now, to
+	 *         be finished on another thread. The same build is returned
+	 *         until the registry changes.
+	 */
+	public IndexBuild getIndexBuild() {
+		if (this.indexBuild == null) {
+			List<AirspaceRecord> records = new ArrayList<AirspaceRecord>(
+					this.airspaces.getAll());
+			List<Map.Entry<String, AirspaceCache>> pending = new ArrayList<Map.Entry<String, AirspaceCache>>();
+			for (Map.Entry<String, AirspaceCache> e : this.pendingGroups
+					.entrySet()) {
+				pending.add(new java.util.AbstractMap.SimpleImmutableEntry<String, AirspaceCache>(
+						e));
+			}
+			this.indexBuild = new IndexBuild(this, this.indexGeneration,
+					records, pending);
+		}
+		return this.indexBuild;
+	}
+
+	/**
+	 * @return the latest index built on any thread, or null before the
+	 *         first. It may not cover airspaces registered since; readers on
+	 *         a display thread use it so they never wait for a build.
+	 */
+	public AirspaceIndex getIndexSnapshot() {
+		return this.indexSnapshot;
+	}
+
+	public boolean isIndexBuiltInBackground() {
+		return this.backgroundIndex;
+	}
+
+	/**
+	 * Sets whether the index is rebuilt on the workers as soon as the
+	 * registry changes, so that {@link #getIndexSnapshot()} catches up
+	 * without anyone asking for the index. Builds asked for while one waits
+	 * to start are merged into it.
+	 */
+	public void setIndexBuiltInBackground(boolean backgroundIndex) {
+		this.backgroundIndex = backgroundIndex;
+		if (backgroundIndex)
+			this.queueIndexBuild();
+	}
+
+	protected void invalidateIndex() {
+		this.indexBuild = null;
+		this.indexGeneration++;
+		if (this.backgroundIndex)
+			this.queueIndexBuild();
+	}
+
+	protected void queueIndexBuild() {
+		if (this.queuedBuild.getAndSet(this.getIndexBuild()) != null)
+			return;
+		this.getWorkers().execute(new Runnable() {
+			@Override
+			public void run() {
+				IndexBuild build = queuedBuild.getAndSet(null);
+				if (build != null)
+					build.get();
+			}
+		});
+	}
+
+	/**
+	 * Publishes a built index unless a later one is published already.
+	 */
+	protected void publishIndex(AirspaceIndex index, int generation) {
+		synchronized (this.snapshotLock) {
+			if (generation > this.snapshotGeneration) {
+				this.snapshotGeneration = generation;
+				this.indexSnapshot = index;
+			}
+		}
+	}
+
+	public TerrainTileCache getTerrain() {
+		return this.terrain;
+	}
+
+	/**
+	 * Sets the ground elevations used by queries for terrain conforming
+	 * floors and ceilings, or null to take them relative to sea level. Set
+	 * it before narrowing the altitude band.
+	 */
+	public void setTerrain(TerrainTileCache terrain) {
+		this.terrain = terrain;
+		this.altitudeIndex = null;
+	}
+
+	/**
+	 * Checks recorded tracks against every registered airspace, scanning the
+	 * tracks in parallel.
+	 */
+	public IncursionDetector.Result detectIncursions(
+			List<IncursionDetector.Track> tracks) {
+		IncursionDetector detector = new IncursionDetector(
+				this.getAirspaceIndex(), this.getWorkers());
+		detector.setTerrain(this.terrain);
+		IncursionDetector.Result result = detector.detect(tracks);
+		logger.info("Incursion check: " + result);
+		return result;
+	}
+
+	/**
+	 * Finds up to k airspaces of some classes, or of all with null, within
+	 * <code>maxDistance</code> meters of each sample, searching in parallel.
+	 */
+	public ProximityDetector.Result detectProximity(double[] lats,
+			double[] lons, double[] altitudes, int k, double maxDistance,
+			Set<AirspaceClass> classes) {
+		ProximityDetector detector = new ProximityDetector(
+				this.getAirspaceIndex(), this.getWorkers());
+		detector.setTerrain(this.terrain);
+		detector.setClasses(classes);
+		ProximityDetector.Result result = detector.detect(lats, lons,
+				altitudes, k, maxDistance);
+		logger.fine("Proximity check: " + result);
+		return result;
+	}
+
+	/**
+	 * Cuts the registered airspaces of some groups, or of all with null,
+	 * along a route of great circle legs for a side view.
+	 *
+	 * @param altitudes
+	 *            the route's altitudes at its waypoints, or null.
+	 */
+	public AirspaceProfiler.Profile profileRoute(double[] lats,
+			double[] lons, double[] altitudes, Set<String> groupIds) {
+		AirspaceProfiler profiler = new AirspaceProfiler(
+				this.getAirspaceIndex());
+		profiler.setTerrain(this.terrain);
+		profiler.setGroupIds(groupIds);
+		AirspaceProfiler.Profile profile = profiler.profile(lats, lons,
+				altitudes);
+		logger.fine("Route profile: " + profile);
+		return profile;
+	}
+
+	/**
+	 * Finds every pair of registered airspaces sharing some volume, checking
+	 * in parallel.
+	 */
+	public AirspaceOverlapDetector.Result detectOverlaps() {
+		AirspaceOverlapDetector.Result result = new AirspaceOverlapDetector(
+				this.getWorkers()).detect(this.getAirspaceIndex());
+		logger.info("Overlap check: " + result);
+		return result;
+	}
+
+	/**
+	 * Builds an occupancy raster of every registered airspace over a region,
+	 * in parallel. The raster is not kept; it goes stale when airspaces are
+	 * registered or removed.
+	 */
+	public AirspaceRaster buildRaster(AirspaceRaster.Region region) {
+		AirspaceRaster raster = new AirspaceRaster(region, this
+				.getAirspaceIndex().getVolumes(), this.getWorkers());
+		logger.info("Airspace raster over " + region + ": " + raster);
+		return raster;
+	}
+
+	/**
+	 * @return the pool the parallel queries run on.
+	 */
+	public ForkJoinPool getWorkers() {
+		if (this.workers == null)
+			this.workers = new ForkJoinPool();
+		return this.workers;
+	}
+
+	/**
+	 * @return the records of every registered airspace containing the
+	 *         point, with terrain conforming altitudes taken relative to the
+	 *         model's terrain, or else to sea level.
+	 */
+	public List<AirspaceRecord> findAirspaces(double lat, double lon,
+			double altitude) {
+		AirspaceIndex index = this.getAirspaceIndex();
+		AirspaceIndex.Hits hits = new AirspaceIndex.Hits();
+		index.findContaining(lat, lon, altitude, this.terrain != null ? this.terrain
+				.getElevation(lat, lon) : 0.0, hits);
+		List<AirspaceRecord> found = new ArrayList<AirspaceRecord>();
+		for (int i = 0; i < hits.size(); i++)
+			found.add(index.getVolume(hits.get(i)).getRecord());
+		return found;
+	}
+
+	/**
+	 * Shows or hides the records of enabled groups meeting the altitude band
+	 * among airspaces whose activity changed.
+	 */
+	protected void fireActivityChanged(Collection<String> airspaceIds) {
+		ArrayList<AirspaceRecord> shown = new ArrayList<AirspaceRecord>();
+		ArrayList<AirspaceRecord> hidden = new ArrayList<AirspaceRecord>();
+		for (String id : airspaceIds) {
+			if (!this.airspaces.isEnabled(id)
+					|| !this.isInBand(this.airspaces.get(id)))
+				continue;
+			if (this.isActive(id))
+				shown.add(this.airspaces.get(id));
+			else
+				hidden.add(this.airspaces.get(id));
+		}
+		if (!shown.isEmpty() || !hidden.isEmpty())
+			this.fireVisibilityChanged(shown, hidden);
+	}
+
+	protected void fireAirspacesChanged(Collection<AirspaceRecord> added,
+			Collection<AirspaceRecord> removed) {
+		for (Listener listener : this.listeners) {
+			listener.airspacesChanged(added, removed);
+		}
+	}
+
+	protected void fireVisibilityChanged(Collection<AirspaceRecord> shown,
+			Collection<AirspaceRecord> hidden) {
+		for (Listener listener : this.listeners) {
+			listener.visibilityChanged(shown, hidden);
+		}
+	}
+}
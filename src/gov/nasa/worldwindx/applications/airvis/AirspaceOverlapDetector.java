@@ -0,0 +1,685 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the pairs of airspaces whose volumes overlap and the altitude band
+ * they share. Footprint bounds are sorted by western edge and swept
+ * eastward, so only pairs whose bounds overlap in longitude, latitude and
+ * altitude reach the exact test. The sweep is split across a fork-join pool
+ * by range of sorted bounds, each leaf testing its own candidates.
+ * <p>
+ * The exact test looks for a point of either boundary inside the other or a
+ * pair of crossing edges. Points count as inside only when they are more
+ * than {@link #TOUCH_TOLERANCE} within the other footprint, and crossings
+ * only when a point beside them is inside both, so neighbours sharing a
+ * border, whose arcs are sampled as chords cutting slightly into each
+ * other, do not overlap. Curtains are walls, so they only overlap where
+ * their path enters another footprint.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceOverlapDetector {
+
+	// Sorted bounds swept per fork-join leaf.
+	protected static final int LEAF_SIZE = 256;
+	// Boundary vertices tested for containment before edges are crossed.
+	protected static final int VERTEX_SAMPLES = 4;
+	// Cells along each side of the grid edges are bucketed in.
+	protected static final int GRID = 16;
+	// How far inside a footprint a point must be to count, meters.
+	protected static final double TOUCH_TOLERANCE = 5.0;
+	// Steps from a crossing into both footprints, meters.
+	protected static final double[] CROSSING_STEPS = { 20.0, 200.0, 2000.0 };
+	protected static final double METERS_PER_DEGREE = Geodesy.EARTH_RADIUS
+			* Math.PI / 180.0;
+
+	public static class Overlap {
+
+		protected final AirspaceRecord first, second;
+		protected final double floor, ceiling;
+		protected final boolean lowerAgl, upperAgl;
+		protected final boolean exact;
+
+		public Overlap(AirspaceRecord first, AirspaceRecord second,
+				double floor, double ceiling, boolean lowerAgl,
+				boolean upperAgl, boolean exact) {
+			this.first = first;
+			this.second = second;
+			this.floor = floor;
+			this.ceiling = ceiling;
+			this.lowerAgl = lowerAgl;
+			this.upperAgl = upperAgl;
+			this.exact = exact;
+		}
+
+		public AirspaceRecord getFirst() {
+			return this.first;
+		}
+
+		public AirspaceRecord getSecond() {
+			return this.second;
+		}
+
+		/**
+		 * @return the bottom of the shared band, in meters, above ground if
+		 *         {@link #isFloorTerrainConforming()}.
+		 */
+		public double getFloor() {
+			return this.floor;
+		}
+
+		public double getCeiling() {
+			return this.ceiling;
+		}
+
+		public boolean isFloorTerrainConforming() {
+			return this.lowerAgl;
+		}
+
+		public boolean isCeilingTerrainConforming() {
+			return this.upperAgl;
+		}
+
+		/**
+		 * @return false if the airspaces mix altitude datums or one is a
+		 *         sphere, so the band is bounded above sea level over the
+		 *         assumed terrain range and may not be shared everywhere.
+		 */
+		public boolean isExact() {
+			return this.exact;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s / %s: %.0f%s to %.0f%s m%s",
+					this.first.getId(), this.second.getId(), this.floor,
+					this.lowerAgl ? " AGL" : "", this.ceiling,
+					this.upperAgl ? " AGL" : "", this.exact ? ""
+							: " (approximate)");
+		}
+	}
+
+	public static class Result {
+
+		protected List<Overlap> overlaps;
+		protected int airspaces;
+		protected long candidates;
+		protected long elapsedNanos;
+
+		public List<Overlap> getOverlaps() {
+			return this.overlaps;
+		}
+
+		public int getAirspaces() {
+			return this.airspaces;
+		}
+
+		/**
+		 * @return the pairs passing the bounds test, each tested exactly.
+		 */
+		public long getCandidates() {
+			return this.candidates;
+		}
+
+		public long getElapsedNanos() {
+			return this.elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d airspaces, %d candidate pairs, %d overlaps in %.1f ms",
+					this.airspaces, this.candidates, this.overlaps.size(),
+					this.elapsedNanos / 1e6);
+		}
+	}
+
+	protected final ForkJoinPool pool;
+
+	public AirspaceOverlapDetector() {
+		this(new ForkJoinPool());
+	}
+
+	public AirspaceOverlapDetector(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Checks every airspace of an index against every other.
+	 */
+	public Result detect(AirspaceIndex index) {
+		List<AirspaceVolume> volumes = new ArrayList<AirspaceVolume>(
+				index.size());
+		for (int i = 0; i < index.size(); i++)
+			volumes.add(index.getVolume(i));
+		return this.detect(volumes);
+	}
+
+	public Result detect(Collection<AirspaceVolume> volumes) {
+		long start = System.nanoTime();
+		Sweep sweep = new Sweep(volumes.toArray(new AirspaceVolume[volumes
+				.size()]));
+		List<Overlap> found = this.pool.invoke(new SweepTask(sweep, 0,
+				sweep.size));
+
+		// A pair of dateline crossing volumes may meet on both sides.
+		List<Overlap> overlaps = new ArrayList<Overlap>(found.size());
+		HashSet<List<String>> seen = new HashSet<List<String>>();
+		for (Overlap o : found) {
+			if (sweep.isSplit(o.first) && sweep.isSplit(o.second)
+					&& !seen.add(Arrays.asList(o.first.getId(),
+							o.second.getId())))
+				continue;
+			overlaps.add(o);
+		}
+
+		Result result = new Result();
+		result.overlaps = Collections.unmodifiableList(overlaps);
+		result.airspaces = volumes.size();
+		result.candidates = sweep.candidates;
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Tests two airspaces exactly.
+	 *
+	 * @return their overlap, or null if they do not share any volume.
+	 */
+	public static Overlap test(AirspaceVolume a, AirspaceVolume b) {
+		double floor, ceiling;
+		boolean lowerAgl = false, upperAgl = false, exact;
+		if (a.getShape() != AirspaceRecord.Shape.SPHERE
+				&& b.getShape() != AirspaceRecord.Shape.SPHERE
+				&& a.isLowerTerrainConforming() == b.isLowerTerrainConforming()
+				&& a.isUpperTerrainConforming() == b.isUpperTerrainConforming()) {
+			floor = Math.max(a.getLowerAltitude(), b.getLowerAltitude());
+			ceiling = Math.min(a.getUpperAltitude(), b.getUpperAltitude());
+			lowerAgl = a.isLowerTerrainConforming();
+			upperAgl = a.isUpperTerrainConforming();
+			exact = true;
+		} else {
+			floor = Math.max(a.getMinAltitude(), b.getMinAltitude());
+			ceiling = Math.min(a.getMaxAltitude(), b.getMaxAltitude());
+			exact = false;
+		}
+		// Stacked airspaces only touching do not overlap.
+		if (!(floor < ceiling) || !footprintsOverlap(a, b))
+			return null;
+		return new Overlap(a.getRecord(), b.getRecord(), floor, ceiling,
+				lowerAgl, upperAgl, exact);
+	}
+
+	protected static boolean footprintsOverlap(AirspaceVolume a,
+			AirspaceVolume b) {
+		boolean aWall = a.getShape() == AirspaceRecord.Shape.CURTAIN;
+		boolean bWall = b.getShape() == AirspaceRecord.Shape.CURTAIN;
+		if (isDisc(a) && isDisc(b)) {
+			AirspaceRecord ra = a.getRecord(), rb = b.getRecord();
+			return Geodesy.distance(ra.getCenterLatitude(),
+					ra.getCenterLongitude(), rb.getCenterLatitude(),
+					rb.getCenterLongitude()) < ra.getOuterRadius()
+					+ rb.getOuterRadius();
+		}
+		if (insideHole(a, b) || insideHole(b, a))
+			return false;
+
+		// Longitude and latitude serve as plane coordinates: any continuous
+		// one-to-one mapping keeps whether two boundaries meet. Only pairs
+		// near the dateline need their longitudes unwrapped.
+		double[] ax = a.getRingLongitudes(), ay = a.getRingLatitudes();
+		double[] bx = b.getRingLongitudes(), by = b.getRingLatitudes();
+		if (a.getBoxCount() > 1 || b.getBoxCount() > 1) {
+			ax = unwrap(ax, ax[0]);
+			bx = unwrap(bx, ax[0]);
+		}
+
+		if (!aWall && anyInside(a, bx, by, !bWall))
+			return true;
+		if (!bWall && anyInside(b, ax, ay, !aWall))
+			return true;
+		return edgesCross(a, ax, ay, b, bx, by);
+	}
+
+	/**
+	 * @return longitudes within 180 degrees of a reference longitude.
+	 */
+	protected static double[] unwrap(double[] lons, double reference) {
+		double[] result = new double[lons.length];
+		for (int i = 0; i < lons.length; i++)
+			result[i] = reference + Geodesy.normalizeLongitude(lons[i] - reference);
+		return result;
+	}
+
+	/**
+	 * Tests an interior point of a closed boundary and a few of its vertices
+	 * against a footprint. Vertices alone miss a footprint whose boundary
+	 * lies along the other's, such as a duplicate.
+	 */
+	protected static boolean anyInside(AirspaceVolume v, double[] xs,
+			double[] ys, boolean closed) {
+		if (closed) {
+			double[] p = interiorPoint(xs, ys);
+			if (p != null && isInside(v, p[0], p[1]))
+				return true;
+		}
+		int step = Math.max(1, xs.length / VERTEX_SAMPLES);
+		for (int i = 0; i < xs.length; i += step) {
+			if (isInside(v, xs[i], ys[i]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if a point is more than {@link #TOUCH_TOLERANCE} inside a
+	 *         footprint. Every point is inside a curtain's wall.
+	 */
+	protected static boolean isInside(AirspaceVolume v, double lon, double lat) {
+		return v.getShape() == AirspaceRecord.Shape.CURTAIN
+				|| v.lateralDistance(lat, lon) < -TOUCH_TOLERANCE;
+	}
+
+	/**
+	 * @return the centroid of a polygon if it lies inside, otherwise null.
+	 */
+	protected static double[] interiorPoint(double[] xs, double[] ys) {
+		double area = 0.0, cx = 0.0, cy = 0.0;
+		for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+			double f = xs[j] * ys[i] - xs[i] * ys[j];
+			area += f;
+			cx += (xs[j] + xs[i]) * f;
+			cy += (ys[j] + ys[i]) * f;
+		}
+		if (area == 0.0)
+			return null;
+		cx /= 3.0 * area;
+		cy /= 3.0 * area;
+		return AirspaceVolume.pointInPolygon(xs, ys, cx, cy) ? new double[] {
+				cx, cy } : null;
+	}
+
+	/**
+	 * @return true if the footprint is a whole circle.
+	 */
+	protected static boolean isDisc(AirspaceVolume v) {
+		return (v.getShape() == AirspaceRecord.Shape.CAPPED_CYLINDER || v
+				.getShape() == AirspaceRecord.Shape.SPHERE)
+				&& v.getRecord().getInnerRadius() <= 0.0;
+	}
+
+	/**
+	 * @return true if <code>outer</code> is a full cylinder with a hole and
+	 *         every boundary point of <code>inner</code> lies in the hole.
+	 *         The rings of full cylinders, partial ones sweeping a whole
+	 *         circle included, leave their holes out.
+	 */
+	protected static boolean insideHole(AirspaceVolume outer,
+			AirspaceVolume inner) {
+		AirspaceRecord r = outer.getRecord();
+		boolean full = outer.getShape() == AirspaceRecord.Shape.CAPPED_CYLINDER
+				|| (outer.getShape() == AirspaceRecord.Shape.PARTIAL_CAPPED_CYLINDER
+						&& outer.getSweep() >= 360.0);
+		if (!full || r.getInnerRadius() <= 0.0)
+			return false;
+		// The hole's latitude span must hold the inner footprint's.
+		double delta = Math.toDegrees(r.getInnerRadius() / Geodesy.EARTH_RADIUS);
+		double[] box = inner.getBoxes();
+		if (box[0] < r.getCenterLatitude() - delta
+				|| box[1] > r.getCenterLatitude() + delta)
+			return false;
+
+		double[] lats = inner.getRingLatitudes();
+		double[] d = new double[lats.length];
+		Geodesy.distances(r.getCenterLatitude(), r.getCenterLongitude(), lats,
+				inner.getRingLongitudes(), d, lats.length);
+		for (double distance : d) {
+			if (distance >= r.getInnerRadius())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Looks for a crossing between the edges of two boundaries. The edges of
+	 * the second within the region where both bounding boxes meet are
+	 * bucketed into a GRID by GRID grid, so each edge of the first is only
+	 * tested against the few edges sharing its cells.
+	 */
+	protected static boolean edgesCross(AirspaceVolume a, double[] ax,
+			double[] ay, AirspaceVolume b, double[] bx, double[] by) {
+		boolean bClosed = b.getShape() != AirspaceRecord.Shape.CURTAIN;
+		double[] aBox = bounds(ax, ay), bBox = bounds(bx, by);
+		double x0 = Math.max(aBox[0], bBox[0]), x1 = Math.min(aBox[1], bBox[1]);
+		double y0 = Math.max(aBox[2], bBox[2]), y1 = Math.min(aBox[3], bBox[3]);
+		if (x0 > x1 || y0 > y1)
+			return false;
+		double sx = GRID / Math.max(x1 - x0, 1e-12);
+		double sy = GRID / Math.max(y1 - y0, 1e-12);
+
+		int m = bx.length;
+		int bEdges = bClosed ? m : m - 1;
+		// Two passes over the second boundary's edges: count per cell, then
+		// fill.
+		int[] cellStart = new int[GRID * GRID + 1];
+		int[] cells = new int[4];
+		for (int pass = 0; pass < 2; pass++) {
+			int[] items = pass == 1 ? new int[cellStart[GRID * GRID]] : null;
+			int[] fill = pass == 1 ? Arrays.copyOf(cellStart, GRID * GRID)
+					: null;
+			for (int j = 0; j < bEdges; j++) {
+				int j2 = (j + 1) % m;
+				if (!cellRange(bx[j], by[j], bx[j2], by[j2], x0, x1, y0, y1, sx,
+						sy, cells))
+					continue;
+				for (int r = cells[2]; r <= cells[3]; r++) {
+					for (int c = cells[0]; c <= cells[1]; c++) {
+						if (pass == 0)
+							cellStart[r * GRID + c + 1]++;
+						else
+							items[fill[r * GRID + c]++] = j;
+					}
+				}
+			}
+			if (pass == 0) {
+				for (int k = 0; k < GRID * GRID; k++)
+					cellStart[k + 1] += cellStart[k];
+			} else {
+				return crossesBucketed(a, ax, ay, b, bx, by, x0, x1, y0, y1,
+						sx, sy, cellStart, items);
+			}
+		}
+		return false;
+	}
+
+	protected static boolean crossesBucketed(AirspaceVolume a, double[] ax,
+			double[] ay, AirspaceVolume b, double[] bx, double[] by,
+			double x0, double x1, double y0, double y1, double sx, double sy,
+			int[] cellStart, int[] items) {
+		boolean aClosed = a.getShape() != AirspaceRecord.Shape.CURTAIN;
+		// Which side of its edges each interior lies on, 0 for walls.
+		double aSide = aClosed ? Math.signum(area(ax, ay)) : 0.0;
+		double bSide = b.getShape() != AirspaceRecord.Shape.CURTAIN ? Math
+				.signum(area(bx, by)) : 0.0;
+		int n = ax.length, m = bx.length;
+		int aEdges = aClosed ? n : n - 1;
+		int[] cells = new int[4];
+		for (int i = 0; i < aEdges; i++) {
+			int i2 = (i + 1) % n;
+			if (!cellRange(ax[i], ay[i], ax[i2], ay[i2], x0, x1, y0, y1, sx, sy,
+					cells))
+				continue;
+			for (int r = cells[2]; r <= cells[3]; r++) {
+				for (int c = cells[0]; c <= cells[1]; c++) {
+					for (int k = cellStart[r * GRID + c]; k < cellStart[r
+							* GRID + c + 1]; k++) {
+						int j = items[k];
+						int j2 = (j + 1) % m;
+						if (segmentsCross(ax[i], ay[i], ax[i2], ay[i2], bx[j],
+								by[j], bx[j2], by[j2])
+								&& crossingOverlaps(a, ax[i], ay[i], ax[i2],
+										ay[i2], aSide, b, bx[j], by[j], bx[j2],
+										by[j2], bSide))
+							return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Confirms that two crossing edges enclose shared area rather than
+	 * follow one border. Steps from the crossing into both footprints, along
+	 * the sum of the edges' inward normals, or along a wall's edge, and
+	 * tests the points against the volumes.
+	 *
+	 * @param aSide
+	 *            the sign of the first boundary's area, or 0 for a wall.
+	 */
+	protected static boolean crossingOverlaps(AirspaceVolume a, double ax1,
+			double ay1, double ax2, double ay2, double aSide, AirspaceVolume b,
+			double bx1, double by1, double bx2, double by2, double bSide) {
+		if (aSide == 0.0 && bSide == 0.0)
+			return true;
+		double ex = ax2 - ax1, ey = ay2 - ay1;
+		double fx = bx2 - bx1, fy = by2 - by1;
+		double t = ((bx1 - ax1) * fy - (by1 - ay1) * fx) / (ex * fy - ey * fx);
+		double px = ax1 + t * ex, py = ay1 + t * ey;
+
+		double dx, dy;
+		if (aSide == 0.0 || bSide == 0.0) {
+			// Along the wall, both ways.
+			dx = aSide == 0.0 ? ex : fx;
+			dy = aSide == 0.0 ? ey : fy;
+		} else {
+			// The interior lies left of the edges of a counterclockwise
+			// boundary.
+			double ea = Math.hypot(ex, ey), fa = Math.hypot(fx, fy);
+			dx = -aSide * ey / ea - bSide * fy / fa;
+			dy = aSide * ex / ea + bSide * fx / fa;
+		}
+		double length = Math.hypot(dx, dy);
+		if (!(length > 0.0))
+			return false;
+		dx /= length;
+		dy /= length;
+		for (double step : CROSSING_STEPS) {
+			double d = step / METERS_PER_DEGREE;
+			if (isInside(a, px + d * dx, py + d * dy)
+					&& isInside(b, px + d * dx, py + d * dy))
+				return true;
+			if ((aSide == 0.0 || bSide == 0.0)
+					&& isInside(a, px - d * dx, py - d * dy)
+					&& isInside(b, px - d * dx, py - d * dy))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return twice the signed area of a closed boundary, positive when
+	 *         counterclockwise.
+	 */
+	protected static double area(double[] xs, double[] ys) {
+		double area = 0.0;
+		for (int i = 0, j = xs.length - 1; i < xs.length; j = i++)
+			area += xs[j] * ys[i] - xs[i] * ys[j];
+		return area;
+	}
+
+	/**
+	 * Finds the grid cells covered by the bounding box of an edge, as first
+	 * and last column then first and last row.
+	 *
+	 * @return false if the edge misses the grid.
+	 */
+	protected static boolean cellRange(double xa, double ya, double xb,
+			double yb, double x0, double x1, double y0, double y1, double sx,
+			double sy, int[] cells) {
+		double minX = Math.min(xa, xb), maxX = Math.max(xa, xb);
+		double minY = Math.min(ya, yb), maxY = Math.max(ya, yb);
+		if (maxX < x0 || minX > x1 || maxY < y0 || minY > y1)
+			return false;
+		cells[0] = cell(minX, x0, sx);
+		cells[1] = cell(maxX, x0, sx);
+		cells[2] = cell(minY, y0, sy);
+		cells[3] = cell(maxY, y0, sy);
+		return true;
+	}
+
+	protected static int cell(double v, double origin, double scale) {
+		int c = (int) ((v - origin) * scale);
+		return c < 0 ? 0 : c >= GRID ? GRID - 1 : c;
+	}
+
+	protected static double[] bounds(double[] xs, double[] ys) {
+		double[] box = { Double.MAX_VALUE, -Double.MAX_VALUE,
+				Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int i = 0; i < xs.length; i++) {
+			box[0] = Math.min(box[0], xs[i]);
+			box[1] = Math.max(box[1], xs[i]);
+			box[2] = Math.min(box[2], ys[i]);
+			box[3] = Math.max(box[3], ys[i]);
+		}
+		return box;
+	}
+
+	/**
+	 * @return true if the segments properly cross; segments only touching
+	 *         or lying along each other, as shared borders do, do not.
+	 */
+	protected static boolean segmentsCross(double x1, double y1, double x2,
+			double y2, double x3, double y3, double x4, double y4) {
+		double d1 = cross(x3, y3, x4, y4, x1, y1);
+		double d2 = cross(x3, y3, x4, y4, x2, y2);
+		double d3 = cross(x1, y1, x2, y2, x3, y3);
+		double d4 = cross(x1, y1, x2, y2, x4, y4);
+		return ((d1 > 0.0 && d2 < 0.0) || (d1 < 0.0 && d2 > 0.0))
+				&& ((d3 > 0.0 && d4 < 0.0) || (d3 < 0.0 && d4 > 0.0));
+	}
+
+	protected static double cross(double ox, double oy, double ax, double ay,
+			double bx, double by) {
+		return (ax - ox) * (by - oy) - (ay - oy) * (bx - ox);
+	}
+
+	/**
+	 * Footprint bounds of every volume, one entry per box, sorted by western
+	 * edge.
+	 */
+	protected static class Sweep {
+
+		protected final AirspaceVolume[] volumes;
+		protected final int size;
+		protected final double[] minLon, maxLon, minLat, maxLat;
+		protected final int[] volume;
+		// Records of volumes split at the dateline.
+		protected final IdentityHashMap<AirspaceRecord, Boolean> split = new IdentityHashMap<AirspaceRecord, Boolean>();
+		protected long candidates;
+
+		public Sweep(AirspaceVolume[] volumes) {
+			this.volumes = volumes;
+			int entries = 0;
+			for (AirspaceVolume v : volumes)
+				entries += v.getBoxCount();
+			this.size = entries;
+
+			final double[] west = new double[entries];
+			int[] unsorted = new int[entries];
+			Integer[] order = new Integer[entries];
+			double[] boxes = new double[entries * 4];
+			int e = 0;
+			for (int i = 0; i < volumes.length; i++) {
+				double[] b = volumes[i].getBoxes();
+				if (b.length > 4)
+					this.split.put(volumes[i].getRecord(), Boolean.TRUE);
+				for (int k = 0; k < b.length; k += 4) {
+					System.arraycopy(b, k, boxes, e * 4, 4);
+					west[e] = b[k + 2];
+					unsorted[e] = i;
+					order[e] = e;
+					e++;
+				}
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(west[a], west[b]);
+				}
+			});
+
+			this.minLat = new double[entries];
+			this.maxLat = new double[entries];
+			this.minLon = new double[entries];
+			this.maxLon = new double[entries];
+			this.volume = new int[entries];
+			for (int i = 0; i < entries; i++) {
+				int o = order[i] * 4;
+				this.minLat[i] = boxes[o];
+				this.maxLat[i] = boxes[o + 1];
+				this.minLon[i] = boxes[o + 2];
+				this.maxLon[i] = boxes[o + 3];
+				this.volume[i] = unsorted[order[i]];
+			}
+		}
+
+		protected boolean isSplit(AirspaceRecord record) {
+			return this.split.containsKey(record);
+		}
+
+		protected synchronized void addCandidates(long count) {
+			this.candidates += count;
+		}
+	}
+
+	/**
+	 * Sweeps a range of the sorted entries, each against the entries after
+	 * it, splitting the range in half down to LEAF_SIZE entries.
+	 */
+	protected static class SweepTask extends RecursiveTask<List<Overlap>> {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final Sweep sweep;
+		protected final int lo, hi;
+
+		public SweepTask(Sweep sweep, int lo, int hi) {
+			this.sweep = sweep;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected List<Overlap> compute() {
+			if (this.hi - this.lo > LEAF_SIZE) {
+				int mid = (this.lo + this.hi) >>> 1;
+				SweepTask left = new SweepTask(this.sweep, this.lo, mid);
+				left.fork();
+				List<Overlap> right = new SweepTask(this.sweep, mid, this.hi)
+						.compute();
+				List<Overlap> result = left.join();
+				result.addAll(right);
+				return result;
+			}
+
+			Sweep s = this.sweep;
+			List<Overlap> result = new ArrayList<Overlap>();
+			long candidates = 0;
+			for (int i = this.lo; i < this.hi; i++) {
+				AirspaceVolume a = s.volumes[s.volume[i]];
+				for (int j = i + 1; j < s.size && s.minLon[j] <= s.maxLon[i]; j++) {
+					if (s.volume[j] == s.volume[i] || s.minLat[j] > s.maxLat[i]
+							|| s.maxLat[j] < s.minLat[i])
+						continue;
+					AirspaceVolume b = s.volumes[s.volume[j]];
+					if (b.getMinAltitude() >= a.getMaxAltitude()
+							|| b.getMaxAltitude() <= a.getMinAltitude())
+						continue;
+
+					candidates++;
+					// Keep pairs in input order.
+					Overlap o = s.volume[i] < s.volume[j] ? test(a, b) : test(
+							b, a);
+					if (o != null)
+						result.add(o);
+				}
+			}
+			s.addCandidates(candidates);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.swing.JPanel;
+
+/**
+ * Draws an {@link AirspaceProfiler.Profile} as a side view: distance along
+ * the route across, in nautical miles, and altitude up, in feet. Each
+ * airspace is filled in its color between its floor and ceiling, following
+ * the ground where they are terrain conforming, over the ground profile and
+ * under the route's altitudes. Hovering lists the airspaces under the
+ * cursor.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceProfilePanel extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+
+	protected static final int MARGIN_LEFT = 56, MARGIN_RIGHT = 12;
+	protected static final int MARGIN_TOP = 12, MARGIN_BOTTOM = 32;
+	// Lowest top of the altitude axis, feet.
+	protected static final double MIN_TOP = 5000.0;
+	protected static final Color GROUND = new Color(139, 115, 85);
+	protected static final Color GRID = new Color(0, 0, 0, 40);
+	protected static final Color ROUTE = new Color(230, 190, 0);
+
+	protected AirspaceProfiler.Profile profile;
+	// Axis extents: meters along the route, feet up.
+	protected double length;
+	protected double top;
+
+	public AirspaceProfilePanel() {
+		this.setBackground(Color.WHITE);
+		this.setPreferredSize(new Dimension(720, 260));
+		// Registers the panel for tool tips.
+		this.setToolTipText("");
+	}
+
+	public AirspaceProfiler.Profile getProfile() {
+		return this.profile;
+	}
+
+	public void setProfile(AirspaceProfiler.Profile profile) {
+		this.profile = profile;
+		if (profile != null) {
+			this.length = profile.getLength();
+			double top = MIN_TOP * AirspaceRecord.FEET_TO_METERS;
+			for (int i = 0; i < profile.size(); i++)
+				top = Math.max(top, Math.max(
+						profile.getCeiling(i, profile.getStart(i)),
+						profile.getCeiling(i, profile.getEnd(i))));
+			double[] altitudes = profile.getWaypointAltitudes();
+			if (altitudes != null) {
+				for (double a : altitudes)
+					top = Math.max(top, a);
+			}
+			this.top = niceStep(top / AirspaceRecord.FEET_TO_METERS * 1.1 / 5) * 5;
+		}
+		this.repaint();
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		if (this.profile == null || this.length <= 0.0)
+			return;
+		Graphics2D g2 = (Graphics2D) g.create();
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		this.paintGrid(g2);
+		this.paintAirspaces(g2);
+		this.paintGround(g2);
+		this.paintRoute(g2);
+		g2.dispose();
+	}
+
+	protected void paintGrid(Graphics2D g2) {
+		FontMetrics fm = g2.getFontMetrics();
+		int x0 = MARGIN_LEFT, x1 = this.getWidth() - MARGIN_RIGHT;
+		int y0 = MARGIN_TOP, y1 = this.getHeight() - MARGIN_BOTTOM;
+
+		double nm = this.length / AirspaceRecord.NAUTICAL_MILES_TO_METERS;
+		double step = niceStep(nm / 8);
+		for (double d = 0.0; d <= nm + 1e-9; d += step) {
+			int x = this.x(d * AirspaceRecord.NAUTICAL_MILES_TO_METERS);
+			g2.setColor(GRID);
+			g2.drawLine(x, y0, x, y1);
+			g2.setColor(Color.DARK_GRAY);
+			String label = String.format("%.0f", d);
+			g2.drawString(label, x - fm.stringWidth(label) / 2,
+					y1 + fm.getAscent() + 2);
+		}
+		String axis = "NM";
+		g2.drawString(axis, x1 - fm.stringWidth(axis), y1 + 2 * fm.getHeight());
+
+		step = niceStep(this.top / 5);
+		for (double ft = 0.0; ft <= this.top + 1e-9; ft += step) {
+			int y = this.y(ft * AirspaceRecord.FEET_TO_METERS);
+			g2.setColor(GRID);
+			g2.drawLine(x0, y, x1, y);
+			g2.setColor(Color.DARK_GRAY);
+			String label = String.format("%,.0f", ft);
+			g2.drawString(label, x0 - fm.stringWidth(label) - 4,
+					y + fm.getAscent() / 2);
+		}
+		g2.drawRect(x0, y0, x1 - x0, y1 - y0);
+	}
+
+	protected void paintAirspaces(Graphics2D g2) {
+		AirspaceProfiler.Profile p = this.profile;
+		for (int i = 0; i < p.size(); i++) {
+			int rgb = p.getAirspace(i).getColor();
+			Color fill = new Color((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF,
+					rgb & 0xFF, 70);
+			Color edge = new Color(rgb);
+			int flags = p.getFlags(i);
+			double start = p.getStart(i), end = p.getEnd(i);
+
+			if ((flags & AirspaceProfiler.WALL) != 0) {
+				int x = this.x(start);
+				g2.setColor(edge);
+				g2.setStroke(new BasicStroke(2.0f));
+				g2.drawLine(x, this.y(p.getCeiling(i, start)), x,
+						this.y(p.getFloor(i, start)));
+				g2.setStroke(new BasicStroke(1.0f));
+				continue;
+			}
+			if ((flags & AirspaceProfiler.ROUND) != 0) {
+				double mid = 0.5 * (start + end);
+				double x = this.x(start), y = this.y(p.getCeiling(i, mid));
+				Ellipse2D disc = new Ellipse2D.Double(x, y, this.x(end) - x,
+						this.y(p.getFloor(i, mid)) - y);
+				g2.setColor(fill);
+				g2.fill(disc);
+				g2.setColor(edge);
+				g2.draw(disc);
+				continue;
+			}
+
+			// Trace the ceiling forward and the floor back, through the
+			// ground samples in between when either follows the terrain.
+			Path2D.Double shape = new Path2D.Double();
+			boolean agl = (flags & (AirspaceProfiler.LOWER_AGL | AirspaceProfiler.UPPER_AGL)) != 0;
+			ArrayList<Double> at = this.breaks(start, end, agl);
+			for (int k = 0; k < at.size(); k++) {
+				double d = at.get(k);
+				if (k == 0)
+					shape.moveTo(this.x(d), this.y(p.getCeiling(i, d)));
+				else
+					shape.lineTo(this.x(d), this.y(p.getCeiling(i, d)));
+			}
+			for (int k = at.size() - 1; k >= 0; k--) {
+				double d = at.get(k);
+				shape.lineTo(this.x(d), this.y(p.getFloor(i, d)));
+			}
+			shape.closePath();
+			g2.setColor(fill);
+			g2.fill(shape);
+			g2.setColor(edge);
+			g2.draw(shape);
+		}
+	}
+
+	// Distances to draw an interval's edges through.
+	protected ArrayList<Double> breaks(double start, double end,
+			boolean terrain) {
+		ArrayList<Double> at = new ArrayList<Double>();
+		at.add(start);
+		if (terrain) {
+			double[] d = this.profile.getSampleDistances();
+			int n = this.profile.getSampleCount();
+			int k = Arrays.binarySearch(d, 0, n, start);
+			for (k = k < 0 ? -k - 1 : k + 1; k < n && d[k] < end; k++)
+				at.add(d[k]);
+		}
+		at.add(end);
+		return at;
+	}
+
+	protected void paintGround(Graphics2D g2) {
+		AirspaceProfiler.Profile p = this.profile;
+		double[] d = p.getSampleDistances(), ground = p.getGrounds();
+		int bottom = this.getHeight() - MARGIN_BOTTOM;
+		Path2D.Double shape = new Path2D.Double();
+		shape.moveTo(this.x(0.0), bottom);
+		for (int k = 0; k < p.getSampleCount(); k++)
+			shape.lineTo(this.x(d[k]), Math.min(bottom, this.y(ground[k])));
+		shape.lineTo(this.x(this.length), bottom);
+		shape.closePath();
+		g2.setColor(GROUND);
+		g2.fill(shape);
+	}
+
+	protected void paintRoute(Graphics2D g2) {
+		double[] d = this.profile.getWaypointDistances();
+		double[] altitudes = this.profile.getWaypointAltitudes();
+		if (altitudes == null)
+			return;
+		g2.setColor(ROUTE);
+		g2.setStroke(new BasicStroke(2.5f));
+		for (int k = 1; k < d.length; k++)
+			g2.drawLine(this.x(d[k - 1]), this.y(altitudes[k - 1]),
+					this.x(d[k]), this.y(altitudes[k]));
+		g2.setStroke(new BasicStroke(1.0f));
+	}
+
+	@Override
+	public String getToolTipText(MouseEvent e) {
+		if (this.profile == null || this.length <= 0.0)
+			return null;
+		AirspaceProfiler.Profile p = this.profile;
+		double d = this.length * (e.getX() - MARGIN_LEFT) / this.plotWidth();
+		double altitude = this.top * AirspaceRecord.FEET_TO_METERS
+				* (this.getHeight() - MARGIN_BOTTOM - e.getY())
+				/ this.plotHeight();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < p.size() && p.getStart(i) <= d; i++) {
+			if (d > p.getEnd(i) || altitude < p.getFloor(i, d)
+					|| altitude > p.getCeiling(i, d))
+				continue;
+			AirspaceRecord record = p.getAirspace(i);
+			sb.append(sb.length() == 0 ? "<html>" : "<br>");
+			sb.append(record.getName() != null ? record.getName() : record
+					.getId());
+			sb.append(String.format(" %,.0f-%,.0f ft",
+					p.getFloor(i, d) / AirspaceRecord.FEET_TO_METERS,
+					p.getCeiling(i, d) / AirspaceRecord.FEET_TO_METERS));
+		}
+		return sb.length() > 0 ? sb.append("</html>").toString() : String
+				.format("%.1f NM, %,.0f ft", d
+						/ AirspaceRecord.NAUTICAL_MILES_TO_METERS, altitude
+						/ AirspaceRecord.FEET_TO_METERS);
+	}
+
+	protected int plotWidth() {
+		return Math.max(1, this.getWidth() - MARGIN_LEFT - MARGIN_RIGHT);
+	}
+
+	protected int plotHeight() {
+		return Math.max(1, this.getHeight() - MARGIN_TOP - MARGIN_BOTTOM);
+	}
+
+	// Screen x of a distance along the route, meters.
+	protected int x(double distance) {
+		return MARGIN_LEFT + (int) Math.round(distance / this.length
+				* this.plotWidth());
+	}
+
+	// Screen y of an altitude, meters.
+	protected int y(double altitude) {
+		return this.getHeight()
+				- MARGIN_BOTTOM
+				- (int) Math.round(altitude / AirspaceRecord.FEET_TO_METERS
+						/ this.top * this.plotHeight());
+	}
+
+	// Rounds up to 1, 2 or 5 times a power of ten.
+	protected static double niceStep(double raw) {
+		if (raw <= 0.0)
+			return 1.0;
+		double power = Math.pow(10.0, Math.floor(Math.log10(raw)));
+		double f = raw / power;
+		return (f <= 1.0 ? 1.0 : f <= 2.0 ? 2.0 : f <= 5.0 ? 5.0 : 10.0)
+				* power;
+	}
+}
@@ -0,0 +1,689 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * Cuts the indexed airspaces along a route for a side view: where along the
+ * route each airspace begins and ends, and its floor and ceiling there. The
+ * route is walked once, leg by leg, in chunks of great circle samples; only
+ * the volumes whose bounds meet a chunk's bounds are tested, so the cost
+ * follows the route's length and the airspace near it, not the number
+ * loaded.
+ * <p>
+ * Entries and exits are found between samples by bisection to within a
+ * meter. Where two samples outside a footprint are both nearer to it than
+ * the step, the route between them is marched in moves shorter than the
+ * distance to the boundary, so a cut across a corner shorter than the step
+ * is still found; only cuts shorter than about a meter can be missed.
+ * Curtains are crossed rather than entered, so they give walls of no length
+ * where the route crosses their path.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceProfiler {
+
+	// Default distance between route samples, meters.
+	public static final double DEFAULT_STEP = 250.0;
+	// Samples per chunk looked up in the index.
+	protected static final int CHUNK_SAMPLES = 64;
+	// Entries and exits are refined to this length, meters.
+	protected static final double TOLERANCE = 1.0;
+	// Share of the distance to a boundary that may be skipped at once,
+	// allowing for the error of the projected distance.
+	protected static final double SKIP_MARGIN = 0.9;
+
+	// Interval flags.
+	public static final int LOWER_AGL = 1;
+	public static final int UPPER_AGL = 2;
+	// A sphere, drawn as the disc inscribed in its interval.
+	public static final int ROUND = 4;
+	// A curtain crossing, of no length.
+	public static final int WALL = 8;
+
+	/**
+	 * Airspace intervals along a route, in parallel arrays ordered by where
+	 * they begin, and the route's ground profile. Distances are meters from
+	 * the route's start. Floors and ceilings are meters above sea level, or
+	 * above the ground where flagged {@link #LOWER_AGL} or
+	 * {@link #UPPER_AGL}.
+	 */
+	public static class Profile {
+
+		protected final AirspaceIndex index;
+		protected int size;
+		protected int[] volumes = new int[64];
+		protected int[] flags = new int[64];
+		protected double[] starts = new double[64];
+		protected double[] ends = new double[64];
+		protected double[] lowers = new double[64];
+		protected double[] uppers = new double[64];
+		protected int samples;
+		protected double[] sampleDistances = new double[256];
+		protected double[] grounds = new double[256];
+		protected double[] waypointDistances, waypointAltitudes;
+		protected int tested;
+		protected long elapsedNanos;
+
+		public Profile(AirspaceIndex index) {
+			this.index = index;
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		public AirspaceIndex getIndex() {
+			return this.index;
+		}
+
+		public int getVolume(int i) {
+			return this.volumes[i];
+		}
+
+		public AirspaceRecord getAirspace(int i) {
+			return this.index.getVolume(this.volumes[i]).getRecord();
+		}
+
+		public int getFlags(int i) {
+			return this.flags[i];
+		}
+
+		public double getStart(int i) {
+			return this.starts[i];
+		}
+
+		public double getEnd(int i) {
+			return this.ends[i];
+		}
+
+		public double getLower(int i) {
+			return this.lowers[i];
+		}
+
+		public double getUpper(int i) {
+			return this.uppers[i];
+		}
+
+		/**
+		 * @return the floor of an interval at a distance along the route,
+		 *         meters above sea level.
+		 */
+		public double getFloor(int i, double distance) {
+			return this.lowers[i]
+					+ ((this.flags[i] & LOWER_AGL) != 0 ? this
+							.getGround(distance) : 0.0);
+		}
+
+		public double getCeiling(int i, double distance) {
+			return this.uppers[i]
+					+ ((this.flags[i] & UPPER_AGL) != 0 ? this
+							.getGround(distance) : 0.0);
+		}
+
+		/**
+		 * @return the interval arrays, for callers scanning them directly;
+		 *         only the first {@link #size()} entries are used.
+		 */
+		public int[] getVolumes() {
+			return this.volumes;
+		}
+
+		public int[] getFlags() {
+			return this.flags;
+		}
+
+		public double[] getStarts() {
+			return this.starts;
+		}
+
+		public double[] getEnds() {
+			return this.ends;
+		}
+
+		public double[] getLowers() {
+			return this.lowers;
+		}
+
+		public double[] getUppers() {
+			return this.uppers;
+		}
+
+		/**
+		 * @return the number of route samples; their distances and ground
+		 *         elevations are the first entries of
+		 *         {@link #getSampleDistances()} and {@link #getGrounds()}.
+		 */
+		public int getSampleCount() {
+			return this.samples;
+		}
+
+		public double[] getSampleDistances() {
+			return this.sampleDistances;
+		}
+
+		public double[] getGrounds() {
+			return this.grounds;
+		}
+
+		/**
+		 * @return the ground elevation at a distance along the route,
+		 *         interpolated between samples, or 0 without terrain.
+		 */
+		public double getGround(double distance) {
+			int i = Arrays.binarySearch(this.sampleDistances, 0, this.samples,
+					distance);
+			if (i >= 0)
+				return this.grounds[i];
+			i = -i - 1;
+			if (i == 0)
+				return this.samples > 0 ? this.grounds[0] : 0.0;
+			if (i >= this.samples)
+				return this.grounds[this.samples - 1];
+			double d0 = this.sampleDistances[i - 1], d1 = this.sampleDistances[i];
+			double t = d1 > d0 ? (distance - d0) / (d1 - d0) : 0.0;
+			return this.grounds[i - 1] + t
+					* (this.grounds[i] - this.grounds[i - 1]);
+		}
+
+		public double[] getWaypointDistances() {
+			return this.waypointDistances;
+		}
+
+		/**
+		 * @return the route's altitudes at its waypoints, or null when it was
+		 *         profiled without them.
+		 */
+		public double[] getWaypointAltitudes() {
+			return this.waypointAltitudes;
+		}
+
+		/**
+		 * @return the route's length, meters.
+		 */
+		public double getLength() {
+			return this.waypointDistances[this.waypointDistances.length - 1];
+		}
+
+		/**
+		 * @return the volumes tested against route samples, summed over
+		 *         chunks.
+		 */
+		public int getTested() {
+			return this.tested;
+		}
+
+		public long getElapsedNanos() {
+			return this.elapsedNanos;
+		}
+
+		protected void add(int volume, int flags, double start, double end,
+				double lower, double upper) {
+			if (this.size == this.volumes.length) {
+				int n = this.size * 2;
+				this.volumes = Arrays.copyOf(this.volumes, n);
+				this.flags = Arrays.copyOf(this.flags, n);
+				this.starts = Arrays.copyOf(this.starts, n);
+				this.ends = Arrays.copyOf(this.ends, n);
+				this.lowers = Arrays.copyOf(this.lowers, n);
+				this.uppers = Arrays.copyOf(this.uppers, n);
+			}
+			this.volumes[this.size] = volume;
+			this.flags[this.size] = flags;
+			this.starts[this.size] = start;
+			this.ends[this.size] = end;
+			this.lowers[this.size] = lower;
+			this.uppers[this.size] = upper;
+			this.size++;
+		}
+
+		protected void addSample(double distance, double ground) {
+			if (this.samples == this.sampleDistances.length) {
+				int n = this.samples * 2;
+				this.sampleDistances = Arrays.copyOf(this.sampleDistances, n);
+				this.grounds = Arrays.copyOf(this.grounds, n);
+			}
+			this.sampleDistances[this.samples] = distance;
+			this.grounds[this.samples] = ground;
+			this.samples++;
+		}
+
+		// Orders the intervals by start.
+		protected void sort() {
+			Integer[] order = new Integer[this.size];
+			for (int i = 0; i < this.size; i++)
+				order[i] = i;
+			final double[] keys = this.starts;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(keys[a], keys[b]);
+				}
+			});
+			int[] volumes = new int[this.size], flags = new int[this.size];
+			double[] starts = new double[this.size], ends = new double[this.size];
+			double[] lowers = new double[this.size], uppers = new double[this.size];
+			for (int i = 0; i < this.size; i++) {
+				int j = order[i];
+				volumes[i] = this.volumes[j];
+				flags[i] = this.flags[j];
+				starts[i] = this.starts[j];
+				ends[i] = this.ends[j];
+				lowers[i] = this.lowers[j];
+				uppers[i] = this.uppers[j];
+			}
+			this.volumes = volumes;
+			this.flags = flags;
+			this.starts = starts;
+			this.ends = ends;
+			this.lowers = lowers;
+			this.uppers = uppers;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d intervals over %.1f NM, %d samples, %d volume tests in %.1f ms",
+					this.size, this.getLength()
+							/ AirspaceRecord.NAUTICAL_MILES_TO_METERS,
+					this.samples, this.tested, this.elapsedNanos / 1e6);
+		}
+	}
+
+	protected final AirspaceIndex index;
+	protected double step = DEFAULT_STEP;
+	protected TerrainTileCache terrain;
+	protected Set<String> groupIds;
+
+	public AirspaceProfiler(AirspaceIndex index) {
+		this.index = index;
+	}
+
+	public double getStep() {
+		return this.step;
+	}
+
+	/**
+	 * Sets the longest distance between route samples, meters.
+	 */
+	public void setStep(double step) {
+		if (step <= 0.0)
+			throw new IllegalArgumentException("Step must be positive");
+		this.step = step;
+	}
+
+	public TerrainTileCache getTerrain() {
+		return this.terrain;
+	}
+
+	/**
+	 * Sets the ground elevations of the profile, or null for sea level.
+	 */
+	public void setTerrain(TerrainTileCache terrain) {
+		this.terrain = terrain;
+	}
+
+	public Set<String> getGroupIds() {
+		return this.groupIds;
+	}
+
+	/**
+	 * Limits the profile to airspaces of some groups, or to all with null.
+	 */
+	public void setGroupIds(Set<String> groupIds) {
+		this.groupIds = groupIds;
+	}
+
+	/**
+	 * Cuts the airspaces along a route of great circle legs. Not thread
+	 * safe; use a profiler per thread.
+	 *
+	 * @param altitudes
+	 *            the route's altitudes at its waypoints, meters above sea
+	 *            level, kept for display; may be null.
+	 */
+	public Profile profile(double[] lats, double[] lons, double[] altitudes) {
+		int n = lats.length;
+		if (n < 2 || lons.length != n
+				|| (altitudes != null && altitudes.length != n))
+			throw new IllegalArgumentException("Route needs matching arrays of at least two waypoints");
+
+		long start = System.nanoTime();
+		Profile profile = new Profile(this.index);
+		profile.waypointDistances = new double[n];
+		for (int i = 1; i < n; i++)
+			profile.waypointDistances[i] = profile.waypointDistances[i - 1]
+					+ Geodesy.distance(lats[i - 1], lons[i - 1], lats[i],
+							lons[i]);
+		profile.waypointAltitudes = altitudes;
+
+		Walk walk = new Walk(profile);
+		for (int i = 1; i < n; i++)
+			walk.leg(lats[i - 1], lons[i - 1], lats[i], lons[i],
+					profile.waypointDistances[i - 1],
+					profile.waypointDistances[i]);
+		walk.finish(profile.getLength());
+
+		profile.sort();
+		profile.elapsedNanos = System.nanoTime() - start;
+		return profile;
+	}
+
+	/**
+	 * State of one pass along a route: the chunk of samples being tested and
+	 * where each open interval began.
+	 */
+	protected class Walk {
+
+		protected final Profile profile;
+		protected final AirspaceIndex.Hits hits = new AirspaceIndex.Hits();
+		protected final double[] lats = new double[CHUNK_SAMPLES + 1];
+		protected final double[] lons = new double[CHUNK_SAMPLES + 1];
+		protected final double[] distances = new double[CHUNK_SAMPLES + 1];
+		protected final double[] grounds = new double[CHUNK_SAMPLES + 1];
+		protected final double[] xs = new double[CHUNK_SAMPLES + 1];
+		protected final double[] ys = new double[CHUNK_SAMPLES + 1];
+		protected final double[] point = new double[2];
+		// Start of each volume's open interval, or NaN, and the chunk it was
+		// last tested in.
+		protected final double[] opened;
+		protected final int[] lastChunk;
+		protected int[] open = new int[16];
+		protected int openCount;
+		protected int chunk;
+
+		public Walk(Profile profile) {
+			this.profile = profile;
+			this.opened = new double[index.size()];
+			this.lastChunk = new int[index.size()];
+			Arrays.fill(this.opened, Double.NaN);
+			Arrays.fill(this.lastChunk, -1);
+		}
+
+		public void leg(double lat0, double lon0, double lat1, double lon1,
+				double start, double end) {
+			double length = end - start;
+			double bearing = Geodesy.bearing(lat0, lon0, lat1, lon1);
+			int steps = Math.max(1, (int) Math.ceil(length / step));
+			for (int first = 0; first < steps; first += CHUNK_SAMPLES) {
+				int last = Math.min(steps, first + CHUNK_SAMPLES);
+				int count = last - first + 1;
+				for (int j = 0; j < count; j++) {
+					double s = length * (first + j) / steps;
+					Geodesy.destination(lat0, lon0, bearing, s, this.point);
+					this.lats[j] = this.point[0];
+					this.lons[j] = this.point[1];
+					this.distances[j] = start + s;
+				}
+				// Land exactly on the waypoint rather than near it.
+				if (last == steps) {
+					this.lats[count - 1] = lat1;
+					this.lons[count - 1] = lon1;
+				}
+				if (terrain != null)
+					terrain.getElevations(this.lats, this.lons, 0, count,
+							this.grounds);
+				// Chunks share their end samples; record each once.
+				for (int j = this.profile.samples == 0 ? 0 : 1; j < count; j++)
+					this.profile.addSample(this.distances[j],
+							terrain != null ? this.grounds[j] : 0.0);
+				this.test(lat0, lon0, bearing, start, count);
+			}
+		}
+
+		protected void test(double lat0, double lon0, double bearing,
+				double legStart, int count) {
+			// Unwrap longitudes from the first sample so a chunk across the
+			// dateline gets a box with minLon > maxLon.
+			double minLat = this.lats[0], maxLat = minLat;
+			double minLon = 0.0, maxLon = 0.0;
+			for (int j = 1; j < count; j++) {
+				minLat = Math.min(minLat, this.lats[j]);
+				maxLat = Math.max(maxLat, this.lats[j]);
+				double dLon = Geodesy.normalizeLongitude(this.lons[j]
+						- this.lons[0]);
+				minLon = Math.min(minLon, dLon);
+				maxLon = Math.max(maxLon, dLon);
+			}
+			index.search(minLat, maxLat,
+					Geodesy.normalizeLongitude(this.lons[0] + minLon),
+					Geodesy.normalizeLongitude(this.lons[0] + maxLon),
+					-Double.MAX_VALUE, Double.MAX_VALUE, this.hits);
+
+			for (int h = 0; h < this.hits.size(); h++) {
+				int v = this.hits.get(h);
+				AirspaceVolume volume = index.getVolume(v);
+				if (groupIds != null
+						&& !groupIds.contains(volume.getRecord().getGroupId()))
+					continue;
+				this.profile.tested++;
+				if (volume.getShape() == AirspaceRecord.Shape.CURTAIN)
+					this.cross(v, volume, count);
+				else
+					this.scan(v, volume, lat0, lon0, bearing, legStart, count);
+				this.lastChunk[v] = this.chunk;
+			}
+
+			// An interval open at a chunk's end contains the next chunk's
+			// first sample, so its volume is always tested again; close any
+			// that was not.
+			for (int k = 0; k < this.openCount;) {
+				int v = this.open[k];
+				if (this.lastChunk[v] != this.chunk)
+					this.close(v, this.distances[0]);
+				else
+					k++;
+			}
+			this.chunk++;
+		}
+
+		// Follows a footprint across the samples, refining each change
+		// between inside and outside. Samples nearer the start than the
+		// boundary is to the last one tested cannot differ from it and are
+		// skipped, so a long run through a large airspace tests few.
+		protected void scan(int v, AirspaceVolume volume, double lat0,
+				double lon0, double bearing, double legStart, int count) {
+			double spacing = this.distances[1] - this.distances[0];
+			double d = clearance(volume, this.lats[0], this.lons[0]);
+			boolean inside = d < 0.0;
+			boolean wasOpen = !Double.isNaN(this.opened[v]);
+			if (inside && !wasOpen)
+				this.openAt(v, this.distances[0]);
+			else if (!inside && wasOpen)
+				this.close(v, this.distances[0]);
+
+			int j = 0;
+			while (j < count - 1) {
+				int prev = j;
+				double dPrev = d;
+				j = Math.min(count - 1,
+						j + Math.max(1, (int) (Math.abs(d) * SKIP_MARGIN / spacing)));
+				d = clearance(volume, this.lats[j], this.lons[j]);
+				boolean in = d < 0.0;
+				double lo = this.distances[prev] - legStart;
+				double hi = this.distances[j] - legStart;
+				if (in == inside) {
+					// Two samples outside, both nearer the boundary than the
+					// step, may hide a cut across a corner or along an edge.
+					if (!inside
+							&& (dPrev + d) * SKIP_MARGIN < hi - lo
+							&& (dPrev != Double.MIN_VALUE
+									|| d != Double.MIN_VALUE || crossesBounds(
+										volume, this.lats[prev],
+										this.lons[prev], this.lats[j],
+										this.lons[j])))
+						this.probe(v, volume, lat0, lon0, bearing, legStart,
+								lo, hi);
+					continue;
+				}
+				double at = legStart
+						+ this.bisect(volume, lat0, lon0, bearing, lo, hi,
+								inside);
+				if (in)
+					this.openAt(v, at);
+				else
+					this.close(v, at);
+				inside = in;
+			}
+		}
+
+		// Marches from one sample outside a footprint to the next, each move
+		// shorter than the distance to the boundary, and adds the interval
+		// of any cut found between them.
+		protected void probe(int v, AirspaceVolume volume, double lat0,
+				double lon0, double bearing, double legStart, double lo,
+				double hi) {
+			double at = lo;
+			while (true) {
+				Geodesy.destination(lat0, lon0, bearing, at, this.point);
+				double d = volume.lateralDistance(this.point[0], this.point[1]);
+				if (d < 0.0)
+					break;
+				lo = at;
+				at += Math.max(d * SKIP_MARGIN, TOLERANCE);
+				if (at >= hi)
+					return;
+			}
+			this.openAt(v, legStart
+					+ this.bisect(volume, lat0, lon0, bearing, lo, at, false));
+			this.close(v, legStart
+					+ this.bisect(volume, lat0, lon0, bearing, at, hi, true));
+		}
+
+		// Refines a change between inside and outside to within the
+		// tolerance, keeping the end on the given side at lo.
+		protected double bisect(AirspaceVolume volume, double lat0,
+				double lon0, double bearing, double lo, double hi,
+				boolean insideAtLo) {
+			while (hi - lo > TOLERANCE) {
+				double mid = 0.5 * (lo + hi);
+				Geodesy.destination(lat0, lon0, bearing, mid, this.point);
+				if (inside(volume, this.point[0], this.point[1]) == insideAtLo)
+					lo = mid;
+				else
+					hi = mid;
+			}
+			return 0.5 * (lo + hi);
+		}
+
+		// Finds where the route's segments cross a curtain's path, in the
+		// curtain's projected plane.
+		protected void cross(int v, AirspaceVolume volume, int count) {
+			Geodesy.project(volume.refLat, volume.refLon, this.lats,
+					this.lons, this.xs, this.ys, count);
+			double[] cx = volume.xs, cy = volume.ys;
+			for (int j = 1; j < count; j++) {
+				double x0 = this.xs[j - 1], y0 = this.ys[j - 1];
+				double dx = this.xs[j] - x0, dy = this.ys[j] - y0;
+				for (int c = 1; c < cx.length; c++) {
+					double ex = cx[c] - cx[c - 1], ey = cy[c] - cy[c - 1];
+					double denom = dx * ey - dy * ex;
+					if (denom == 0.0)
+						continue;
+					double qx = cx[c - 1] - x0, qy = cy[c - 1] - y0;
+					double t = (qx * ey - qy * ex) / denom;
+					double u = (qx * dy - qy * dx) / denom;
+					if (t < 0.0 || t >= 1.0 || u < 0.0 || u > 1.0)
+						continue;
+					double at = this.distances[j - 1] + t
+							* (this.distances[j] - this.distances[j - 1]);
+					this.add(v, volume, at, at, WALL);
+				}
+			}
+		}
+
+		protected void openAt(int v, double distance) {
+			this.opened[v] = distance;
+			if (this.openCount == this.open.length)
+				this.open = Arrays.copyOf(this.open, this.openCount * 2);
+			this.open[this.openCount++] = v;
+		}
+
+		protected void close(int v, double distance) {
+			double start = this.opened[v];
+			this.opened[v] = Double.NaN;
+			for (int k = 0; k < this.openCount; k++) {
+				if (this.open[k] == v) {
+					this.open[k] = this.open[--this.openCount];
+					break;
+				}
+			}
+			AirspaceVolume volume = index.getVolume(v);
+			this.add(v, volume, start, distance,
+					volume.getShape() == AirspaceRecord.Shape.SPHERE ? ROUND
+							: 0);
+		}
+
+		protected void add(int v, AirspaceVolume volume, double start,
+				double end, int flags) {
+			if (volume.isLowerTerrainConforming())
+				flags |= LOWER_AGL;
+			if (volume.isUpperTerrainConforming())
+				flags |= UPPER_AGL;
+			double lower = volume.getLowerAltitude();
+			double upper = volume.getUpperAltitude();
+			if ((flags & ROUND) != 0) {
+				// The route's vertical plane cuts the sphere in a disc as
+				// wide as it is tall, centered at the sphere's altitude.
+				double half = 0.5 * (end - start);
+				upper = lower + half;
+				lower -= half;
+				if ((flags & LOWER_AGL) != 0)
+					flags |= UPPER_AGL;
+			}
+			this.profile.add(v, flags, start, end, lower, upper);
+		}
+
+		public void finish(double length) {
+			while (this.openCount > 0)
+				this.close(this.open[this.openCount - 1], length);
+		}
+	}
+
+	/**
+	 * @return the signed distance from a location to a footprint, negative
+	 *         inside, or the least positive value outside its bounds.
+	 */
+	protected static double clearance(AirspaceVolume volume, double lat,
+			double lon) {
+		double[] boxes = volume.getBoxes();
+		for (int b = 0; b < boxes.length; b += 4) {
+			if (lat >= boxes[b] && lat <= boxes[b + 1] && lon >= boxes[b + 2]
+					&& lon <= boxes[b + 3])
+				return volume.lateralDistance(lat, lon);
+		}
+		return Double.MIN_VALUE;
+	}
+
+	/**
+	 * @return whether the segment between two locations outside a
+	 *         footprint's bounds may pass through them.
+	 */
+	protected static boolean crossesBounds(AirspaceVolume volume,
+			double lat1, double lon1, double lat2, double lon2) {
+		double[] boxes = volume.getBoxes();
+		for (int b = 0; b < boxes.length; b += 4) {
+			if (Math.max(lat1, lat2) >= boxes[b]
+					&& Math.min(lat1, lat2) <= boxes[b + 1]
+					&& Math.max(lon1, lon2) >= boxes[b + 2]
+					&& Math.min(lon1, lon2) <= boxes[b + 3])
+				return true;
+		}
+		return false;
+	}
+
+	protected static boolean inside(AirspaceVolume volume, double lat,
+			double lon) {
+		double[] boxes = volume.getBoxes();
+		for (int b = 0; b < boxes.length; b += 4) {
+			if (lat >= boxes[b] && lat <= boxes[b + 1] && lon >= boxes[b + 2]
+					&& lon <= boxes[b + 3])
+				return volume.containsLateral(lat, lon);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,772 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Precomputed occupancy of a latitude, longitude and altitude region by
+ * airspace groups, for classifying points in constant time. Each cell holds
+ * an index into a palette of distinct cell contents: the groups whose
+ * airspaces fill the whole cell, and the airspaces whose boundary passes
+ * through it. Only points in boundary cells fall back to the exact
+ * {@link AirspaceVolume} tests.
+ * <p>
+ * Cell indices live in a direct buffer, off the Java heap; the palette is
+ * usually a few thousand entries even for a continental raster. The raster
+ * is built in parallel, is immutable, and may be queried from several
+ * threads.
+ * <p>
+ * Terrain conforming floors and ceilings are resolved for the
+ * {@link Region}'s terrain range: a query's ground elevation must lie in that
+ * range for its answer to be exact.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceRaster {
+
+	// Degrees added around the sampled boundary, covering its departure from
+	// the exact one between samples.
+	protected static final double MARGIN = 0.002;
+	// Volumes rasterized, and rows filled, per task.
+	protected static final int VOLUME_CHUNK = 64;
+	protected static final int ROW_CHUNK = 8;
+
+	public static class Region {
+
+		protected final double minLat, maxLat, minLon, maxLon;
+		protected final double minAltitude, maxAltitude;
+		protected final double cellDegrees, cellMeters;
+		protected final double minTerrain, maxTerrain;
+
+		/**
+		 * A region for airspaces at sea level, or with terrain conforming
+		 * altitudes taken relative to sea level.
+		 */
+		public Region(double minLat, double maxLat, double minLon,
+				double maxLon, double minAltitude, double maxAltitude,
+				double cellDegrees, double cellMeters) {
+			this(minLat, maxLat, minLon, maxLon, minAltitude, maxAltitude,
+					cellDegrees, cellMeters, 0.0, 0.0);
+		}
+
+		/**
+		 * @param minTerrain
+		 *            lowest ground elevation queries will pass, meters.
+		 * @param maxTerrain
+		 *            highest ground elevation queries will pass, meters.
+		 */
+		public Region(double minLat, double maxLat, double minLon,
+				double maxLon, double minAltitude, double maxAltitude,
+				double cellDegrees, double cellMeters, double minTerrain,
+				double maxTerrain) {
+			if (!(minLat < maxLat && minLon < maxLon
+					&& minAltitude < maxAltitude && cellDegrees > 0.0
+					&& cellMeters > 0.0 && minTerrain <= maxTerrain))
+				throw new IllegalArgumentException("Empty raster region");
+			this.minLat = minLat;
+			this.maxLat = maxLat;
+			this.minLon = minLon;
+			this.maxLon = maxLon;
+			this.minAltitude = minAltitude;
+			this.maxAltitude = maxAltitude;
+			this.cellDegrees = cellDegrees;
+			this.cellMeters = cellMeters;
+			this.minTerrain = minTerrain;
+			this.maxTerrain = maxTerrain;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%.2f..%.2f, %.2f..%.2f, %.0f..%.0f m by %.3f deg, %.0f m",
+					this.minLat, this.maxLat, this.minLon, this.maxLon,
+					this.minAltitude, this.maxAltitude, this.cellDegrees,
+					this.cellMeters);
+		}
+	}
+
+	/**
+	 * Contents shared by any number of cells.
+	 */
+	protected static class Cell {
+
+		protected final BitSet inside;
+		protected final int[] boundary;
+		protected final int hash;
+
+		public Cell(BitSet inside, int[] boundary) {
+			this.inside = inside;
+			this.boundary = boundary;
+			this.hash = 31 * inside.hashCode() + Arrays.hashCode(boundary);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Cell))
+				return false;
+			Cell c = (Cell) o;
+			return this.hash == c.hash && this.inside.equals(c.inside)
+					&& Arrays.equals(this.boundary, c.boundary);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+
+	/**
+	 * The columns one volume touches, each outside, on its boundary or
+	 * inside, and the layers it may or surely fills.
+	 */
+	protected static class Footprint {
+
+		protected static final byte OUTSIDE = 0, BOUNDARY = 1, INSIDE = 2;
+
+		protected int row0, col0, rows, cols;
+		protected byte[] states;
+		protected int mayLo, mayHi, insideLo, insideHi;
+
+		public byte get(int row, int col) {
+			return this.states[(row - this.row0) * this.cols + col - this.col0];
+		}
+	}
+
+	protected final Region region;
+	protected final AirspaceVolume[] volumes;
+	protected final int[] volumeGroups;
+	protected final List<String> groupIds = new ArrayList<String>();
+	protected final int rows, cols, layers;
+	protected final double centerLon;
+	protected final IntBuffer cells;
+	protected BitSet[] paletteInside;
+	protected int[][] paletteBoundary;
+	protected long boundaryCells, occupiedCells;
+	protected long elapsedNanos;
+
+	// Build state, dropped once the palette is flattened.
+	protected Footprint[] footprints;
+	protected Map<Cell, Integer> paletteIndex = new ConcurrentHashMap<Cell, Integer>();
+	protected List<Cell> palette = new ArrayList<Cell>();
+
+	public AirspaceRaster(Region region, Collection<AirspaceVolume> volumes,
+			ForkJoinPool pool) {
+		long start = System.nanoTime();
+		this.region = region;
+		this.volumes = volumes.toArray(new AirspaceVolume[volumes.size()]);
+		this.volumeGroups = new int[this.volumes.length];
+		Map<String, Integer> groups = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < this.volumes.length; i++) {
+			String groupId = this.volumes[i].getRecord().getGroupId();
+			Integer g = groups.get(groupId);
+			if (g == null) {
+				g = groups.size();
+				groups.put(groupId, g);
+				this.groupIds.add(groupId);
+			}
+			this.volumeGroups[i] = g;
+		}
+
+		this.rows = (int) Math.ceil((region.maxLat - region.minLat)
+				/ region.cellDegrees);
+		this.cols = (int) Math.ceil((region.maxLon - region.minLon)
+				/ region.cellDegrees);
+		this.layers = (int) Math.ceil((region.maxAltitude - region.minAltitude)
+				/ region.cellMeters);
+		long count = (long) this.rows * this.cols * this.layers;
+		if (count > Integer.MAX_VALUE / 4)
+			throw new IllegalArgumentException("Raster of " + count
+					+ " cells is too large");
+		this.centerLon = (region.minLon + region.maxLon) / 2.0;
+		this.cells = ByteBuffer.allocateDirect((int) count * 4)
+				.order(ByteOrder.nativeOrder()).asIntBuffer();
+
+		// Index 0 is the empty cell, which the zeroed buffer already holds.
+		this.intern(new Cell(new BitSet(), new int[0]));
+		this.footprints = new Footprint[this.volumes.length];
+		pool.invoke(new FootprintTask(0, this.volumes.length));
+		pool.invoke(new FillTask(this.rowVolumes(), 0, this.rows));
+
+		this.paletteInside = new BitSet[this.palette.size()];
+		this.paletteBoundary = new int[this.palette.size()][];
+		for (int i = 0; i < this.palette.size(); i++) {
+			this.paletteInside[i] = this.palette.get(i).inside;
+			this.paletteBoundary[i] = this.palette.get(i).boundary;
+		}
+		this.footprints = null;
+		this.paletteIndex = null;
+		this.palette = null;
+		this.elapsedNanos = System.nanoTime() - start;
+	}
+
+	public Region getRegion() {
+		return this.region;
+	}
+
+	public int getGroupCount() {
+		return this.groupIds.size();
+	}
+
+	/**
+	 * @return the group whose bit is set at a position by
+	 *         {@link #findGroups(double, double, double, double, BitSet)}.
+	 */
+	public String getGroupId(int group) {
+		return this.groupIds.get(group);
+	}
+
+	public boolean contains(double lat, double lon, double altitude) {
+		return this.cellAt(lat, lon, altitude) >= 0;
+	}
+
+	/**
+	 * @return the bit of a group, or -1 if it has no airspace here.
+	 */
+	public int getGroupIndex(String groupId) {
+		return this.groupIds.indexOf(groupId);
+	}
+
+	public int getRows() {
+		return this.rows;
+	}
+
+	public int getCols() {
+		return this.cols;
+	}
+
+	public int getLayers() {
+		return this.layers;
+	}
+
+	/**
+	 * @return the latitude of the center of a row of cells.
+	 */
+	public double getLatitude(int row) {
+		return this.region.minLat + (row + 0.5) * this.region.cellDegrees;
+	}
+
+	public double getLongitude(int col) {
+		return this.region.minLon + (col + 0.5) * this.region.cellDegrees;
+	}
+
+	public double getAltitude(int layer) {
+		return this.region.minAltitude + (layer + 0.5) * this.region.cellMeters;
+	}
+
+	/**
+	 * @return the cells some airspace of the groups may occupy, by the index
+	 *         <code>(row * cols + col) * layers + layer</code>.
+	 */
+	public BitSet findOccupied(BitSet groups) {
+		boolean[] occupied = new boolean[this.paletteInside.length];
+		for (int p = 1; p < occupied.length; p++) {
+			occupied[p] = this.paletteInside[p].intersects(groups);
+			for (int v : this.paletteBoundary[p])
+				occupied[p] |= groups.get(this.volumeGroups[v]);
+		}
+		BitSet cells = new BitSet(this.getCellCount());
+		for (int i = 0; i < this.getCellCount(); i++) {
+			if (occupied[this.cells.get(i)])
+				cells.set(i);
+		}
+		return cells;
+	}
+
+	public int getCellCount() {
+		return this.cells.capacity();
+	}
+
+	public int getPaletteSize() {
+		return this.paletteInside.length;
+	}
+
+	/**
+	 * @return the off-heap size of the cells, in bytes.
+	 */
+	public long getBytes() {
+		return 4L * this.cells.capacity();
+	}
+
+	/**
+	 * Tests whether a point is inside the raster, with terrain conforming
+	 * altitudes taken relative to sea level.
+	 */
+	public boolean findGroups(double lat, double lon, double altitude,
+			BitSet groups) {
+		return this.findGroups(lat, lon, altitude, 0.0, groups);
+	}
+
+	/**
+	 * Sets the bits of the groups with an airspace containing a point.
+	 *
+	 * @param groundElevation
+	 *            terrain elevation at the point, within the region's terrain
+	 *            range.
+	 * @return false, leaving the groups alone, if the point is outside the
+	 *         raster and must be looked up in an {@link AirspaceIndex}.
+	 */
+	public boolean findGroups(double lat, double lon, double altitude,
+			double groundElevation, BitSet groups) {
+		int cell = this.cellAt(lat, lon, altitude);
+		if (cell < 0)
+			return false;
+
+		int p = this.cells.get(cell);
+		if (p == 0)
+			return true;
+		groups.or(this.paletteInside[p]);
+		for (int v : this.paletteBoundary[p]) {
+			int g = this.volumeGroups[v];
+			if (!groups.get(g)
+					&& this.volumes[v].contains(lat, lon, altitude,
+							groundElevation))
+				groups.set(g);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the cell holding a point, or -1 if outside.
+	 */
+	protected int cellAt(double lat, double lon, double altitude) {
+		Region r = this.region;
+		lon = this.centerLon + Geodesy.normalizeLongitude(lon - this.centerLon);
+		if (!(lat >= r.minLat && lat < r.maxLat && lon >= r.minLon
+				&& lon < r.maxLon && altitude >= r.minAltitude && altitude < r.maxAltitude))
+			return -1;
+		int row = Math.min(this.rows - 1,
+				(int) ((lat - r.minLat) / r.cellDegrees));
+		int col = Math.min(this.cols - 1,
+				(int) ((lon - r.minLon) / r.cellDegrees));
+		int layer = Math.min(this.layers - 1,
+				(int) ((altitude - r.minAltitude) / r.cellMeters));
+		return (row * this.cols + col) * this.layers + layer;
+	}
+
+	/**
+	 * @return the palette index of some cell contents, adding them if they
+	 *         are new. Nearly every cell repeats contents already seen, which
+	 *         the fill tasks look up without locking; only new contents take
+	 *         the palette lock.
+	 */
+	protected int intern(Cell cell) {
+		Integer index = this.paletteIndex.get(cell);
+		if (index != null)
+			return index;
+		synchronized (this.palette) {
+			index = this.paletteIndex.get(cell);
+			if (index == null) {
+				index = this.palette.size();
+				this.palette.add(cell);
+				this.paletteIndex.put(cell, index);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Classifies the columns and layers a volume touches. Columns crossed by
+	 * the sampled boundary, widened by {@link #MARGIN}, are boundary
+	 * columns; between them a row is all inside or all outside, so one exact
+	 * test settles each run.
+	 */
+	protected Footprint makeFootprint(AirspaceVolume v) {
+		Region r = this.region;
+		AirspaceRecord.Shape shape = v.getShape();
+		if (shape == AirspaceRecord.Shape.CURTAIN)
+			return null;
+
+		Footprint f = new Footprint();
+		double floorLow = v.getLowerAltitude()
+				+ (v.isLowerTerrainConforming() ? r.minTerrain : 0.0);
+		double floorHigh = v.getLowerAltitude()
+				+ (v.isLowerTerrainConforming() ? r.maxTerrain : 0.0);
+		double ceilingLow = v.getUpperAltitude()
+				+ (v.isUpperTerrainConforming() ? r.minTerrain : 0.0);
+		double ceilingHigh = v.getUpperAltitude()
+				+ (v.isUpperTerrainConforming() ? r.maxTerrain : 0.0);
+		boolean sphere = shape == AirspaceRecord.Shape.SPHERE;
+		if (sphere) {
+			floorLow -= v.getRecord().getOuterRadius();
+			ceilingHigh = floorHigh + v.getRecord().getOuterRadius();
+		}
+		f.mayLo = Math.max(0,
+				(int) Math.floor((floorLow - r.minAltitude) / r.cellMeters));
+		f.mayHi = Math.min(this.layers - 1,
+				(int) Math.floor((ceilingHigh - r.minAltitude) / r.cellMeters));
+		if (sphere) {
+			// The sphere's height varies across its footprint, so no layer
+			// is inside across a whole column; every cell takes the exact
+			// test.
+			f.insideLo = f.mayHi + 1;
+			f.insideHi = f.mayHi;
+		} else {
+			f.insideLo = Math.max(f.mayLo,
+					(int) Math.ceil((floorHigh - r.minAltitude) / r.cellMeters));
+			f.insideHi = Math.min(f.mayHi,
+					(int) Math.floor((ceilingLow - r.minAltitude) / r.cellMeters) - 1);
+		}
+		if (f.mayLo > f.mayHi)
+			return null;
+
+		// Ring longitudes unwrapped about the region's center.
+		double[] lats = v.getRingLatitudes();
+		double[] lons = new double[lats.length];
+		double[] ringLons = v.getRingLongitudes();
+		lons[0] = this.centerLon
+				+ Geodesy.normalizeLongitude(ringLons[0] - this.centerLon);
+		double minLat = lats[0], maxLat = lats[0];
+		double minLon = lons[0], maxLon = lons[0];
+		for (int i = 1; i < lats.length; i++) {
+			lons[i] = lons[i - 1]
+					+ Geodesy.normalizeLongitude(ringLons[i] - ringLons[i - 1]);
+			minLat = Math.min(minLat, lats[i]);
+			maxLat = Math.max(maxLat, lats[i]);
+			minLon = Math.min(minLon, lons[i]);
+			maxLon = Math.max(maxLon, lons[i]);
+		}
+		boolean polar = v.getBoxCount() == 1 && v.getBoxes()[2] <= -180.0
+				&& v.getBoxes()[3] >= 180.0;
+		if (polar) {
+			minLat = v.getBoxes()[0];
+			maxLat = v.getBoxes()[1];
+			minLon = r.minLon;
+			maxLon = r.maxLon;
+		}
+
+		f.row0 = Math.max(0, this.row(minLat - MARGIN));
+		f.col0 = Math.max(0, this.col(minLon - MARGIN));
+		int row1 = Math.min(this.rows - 1, this.row(maxLat + MARGIN));
+		int col1 = Math.min(this.cols - 1, this.col(maxLon + MARGIN));
+		if (f.row0 > row1 || f.col0 > col1)
+			return null;
+		f.rows = row1 - f.row0 + 1;
+		f.cols = col1 - f.col0 + 1;
+		f.states = new byte[f.rows * f.cols];
+
+		if (polar) {
+			// The ring does not enclose the pole; leave it to the exact test.
+			Arrays.fill(f.states, Footprint.BOUNDARY);
+		} else {
+			int n = lats.length;
+			for (int i = 0; i < n; i++) {
+				int j = (i + 1) % n;
+				this.markEdge(f, lats[i], lons[i], lats[j], lons[j]);
+			}
+			this.markHole(f, v);
+			this.fillRuns(f, v);
+		}
+		return f;
+	}
+
+	protected int row(double lat) {
+		return (int) Math.floor((lat - this.region.minLat)
+				/ this.region.cellDegrees);
+	}
+
+	protected int col(double lon) {
+		return (int) Math.floor((lon - this.region.minLon)
+				/ this.region.cellDegrees);
+	}
+
+	/**
+	 * Marks the columns within {@link #MARGIN} of an edge, row by row.
+	 */
+	protected void markEdge(Footprint f, double lat0, double lon0,
+			double lat1, double lon1) {
+		Region r = this.region;
+		int r0 = Math.max(f.row0, this.row(Math.min(lat0, lat1) - MARGIN));
+		int r1 = Math.min(f.row0 + f.rows - 1,
+				this.row(Math.max(lat0, lat1) + MARGIN));
+		for (int row = r0; row <= r1; row++) {
+			// The part of the edge within the row, widened by the margin.
+			double t0 = 0.0, t1 = 1.0;
+			if (lat0 != lat1) {
+				double south = r.minLat + row * r.cellDegrees - MARGIN;
+				double north = south + r.cellDegrees + 2.0 * MARGIN;
+				double a = (south - lat0) / (lat1 - lat0);
+				double b = (north - lat0) / (lat1 - lat0);
+				t0 = Math.max(0.0, Math.min(a, b));
+				t1 = Math.min(1.0, Math.max(a, b));
+				if (t0 > t1)
+					continue;
+			}
+			double lonA = lon0 + t0 * (lon1 - lon0);
+			double lonB = lon0 + t1 * (lon1 - lon0);
+			int c0 = Math.max(f.col0, this.col(Math.min(lonA, lonB) - MARGIN));
+			int c1 = Math.min(f.col0 + f.cols - 1,
+					this.col(Math.max(lonA, lonB) + MARGIN));
+			int o = (row - f.row0) * f.cols - f.col0;
+			for (int col = c0; col <= c1; col++)
+				f.states[o + col] = Footprint.BOUNDARY;
+		}
+	}
+
+	/**
+	 * Marks the edge of the hole of a full circle with an inner radius,
+	 * which the volume's ring leaves out.
+	 */
+	protected void markHole(Footprint f, AirspaceVolume v) {
+		AirspaceRecord record = v.getRecord();
+		double radius = record.getInnerRadius();
+		if (radius <= 0.0)
+			return;
+		switch (v.getShape()) {
+		case CAPPED_CYLINDER:
+		case SPHERE:
+			break;
+		case PARTIAL_CAPPED_CYLINDER:
+			if (v.getSweep() >= 360.0)
+				break;
+			return;
+		default:
+			return;
+		}
+
+		int n = (int) Math.ceil(360.0 / AirspaceVolume.ARC_STEP);
+		double[] lats = new double[n + 1], lons = new double[n + 1];
+		Geodesy.arc(record.getCenterLatitude(), record.getCenterLongitude(),
+				radius, 0.0, 360.0, lats, lons, n + 1);
+		lons[0] = this.centerLon
+				+ Geodesy.normalizeLongitude(lons[0] - this.centerLon);
+		for (int i = 1; i <= n; i++) {
+			double lon = lons[i - 1]
+					+ Geodesy.normalizeLongitude(lons[i] - lons[i - 1]);
+			this.markEdge(f, lats[i - 1], lons[i - 1], lats[i], lon);
+			lons[i] = lon;
+		}
+	}
+
+	/**
+	 * Settles each run of columns between boundary columns with one exact
+	 * test at the center of its first column.
+	 */
+	protected void fillRuns(Footprint f, AirspaceVolume v) {
+		Region r = this.region;
+		for (int row = 0; row < f.rows; row++) {
+			double lat = r.minLat + (f.row0 + row + 0.5) * r.cellDegrees;
+			int o = row * f.cols;
+			byte run = -1;
+			for (int col = 0; col < f.cols; col++) {
+				if (f.states[o + col] == Footprint.BOUNDARY) {
+					run = -1;
+					continue;
+				}
+				if (run < 0) {
+					double lon = r.minLon + (f.col0 + col + 0.5)
+							* r.cellDegrees;
+					run = v.containsLateral(lat, lon) ? Footprint.INSIDE
+							: Footprint.OUTSIDE;
+				}
+				f.states[o + col] = run;
+			}
+		}
+	}
+
+	/**
+	 * @return for each row, the volumes whose footprint covers it, in index
+	 *         order.
+	 */
+	protected int[][] rowVolumes() {
+		int[] counts = new int[this.rows];
+		for (Footprint f : this.footprints) {
+			if (f == null)
+				continue;
+			for (int row = f.row0; row < f.row0 + f.rows; row++)
+				counts[row]++;
+		}
+		int[][] result = new int[this.rows][];
+		for (int row = 0; row < this.rows; row++)
+			result[row] = new int[counts[row]];
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < this.footprints.length; i++) {
+			Footprint f = this.footprints[i];
+			if (f == null)
+				continue;
+			for (int row = f.row0; row < f.row0 + f.rows; row++)
+				result[row][counts[row]++] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the palette index of every cell in a row.
+	 *
+	 * @return the number of occupied and of boundary cells.
+	 */
+	protected long[] fillRow(int row, int[] rowVolumes) {
+		long occupied = 0, boundary = 0;
+		// Volumes touching each column, in index order.
+		int[][] columns = new int[this.cols][];
+		int[] counts = new int[this.cols];
+		for (int v : rowVolumes) {
+			Footprint f = this.footprints[v];
+			for (int col = f.col0; col < f.col0 + f.cols; col++) {
+				if (f.get(row, col) != Footprint.OUTSIDE)
+					counts[col]++;
+			}
+		}
+		for (int col = 0; col < this.cols; col++) {
+			if (counts[col] > 0)
+				columns[col] = new int[counts[col]];
+			counts[col] = 0;
+		}
+		for (int v : rowVolumes) {
+			Footprint f = this.footprints[v];
+			for (int col = f.col0; col < f.col0 + f.cols; col++) {
+				if (f.get(row, col) != Footprint.OUTSIDE)
+					columns[col][counts[col]++] = v;
+			}
+		}
+
+		int[] scratch = new int[rowVolumes.length];
+		// Layers where some touching volume starts or stops; the cell
+		// contents only change there.
+		boolean[] changes = new boolean[this.layers + 1];
+		for (int col = 0; col < this.cols; col++) {
+			int[] touching = columns[col];
+			if (touching == null)
+				continue;
+			int base = (row * this.cols + col) * this.layers;
+			Arrays.fill(changes, false);
+			changes[0] = true;
+			for (int v : touching) {
+				Footprint f = this.footprints[v];
+				changes[f.mayLo] = true;
+				changes[f.mayHi + 1] = true;
+				if (f.insideLo <= f.insideHi) {
+					changes[f.insideLo] = true;
+					changes[f.insideHi + 1] = true;
+				}
+			}
+			int index = 0;
+			boolean isBoundary = false;
+			for (int layer = 0; layer < this.layers; layer++) {
+				if (!changes[layer]) {
+					if (index != 0) {
+						this.cells.put(base + layer, index);
+						occupied++;
+						if (isBoundary)
+							boundary++;
+					}
+					continue;
+				}
+
+				BitSet inside = new BitSet();
+				int n = 0;
+				for (int v : touching) {
+					Footprint f = this.footprints[v];
+					if (layer < f.mayLo || layer > f.mayHi)
+						continue;
+					if (f.get(row, col) == Footprint.INSIDE
+							&& layer >= f.insideLo && layer <= f.insideHi)
+						inside.set(this.volumeGroups[v]);
+					else
+						scratch[n++] = v;
+				}
+				if (inside.isEmpty() && n == 0) {
+					index = 0;
+					continue;
+				}
+
+				// A boundary airspace of a group filling the cell is moot.
+				int kept = 0;
+				for (int i = 0; i < n; i++) {
+					if (!inside.get(this.volumeGroups[scratch[i]]))
+						scratch[kept++] = scratch[i];
+				}
+				index = this.intern(new Cell(inside, Arrays.copyOf(scratch, kept)));
+				isBoundary = kept > 0;
+				this.cells.put(base + layer, index);
+				occupied++;
+				if (isBoundary)
+					boundary++;
+			}
+		}
+		return new long[] { occupied, boundary };
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d cells (%d MB off heap), %d occupied, %d on a boundary,"
+						+ " %d distinct, built in %.1f ms",
+				this.getCellCount(), this.getBytes() >> 20,
+				this.occupiedCells, this.boundaryCells, this.getPaletteSize(),
+				this.elapsedNanos / 1e6);
+	}
+
+	protected class FootprintTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final int lo, hi;
+
+		public FootprintTask(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.hi - this.lo > VOLUME_CHUNK) {
+				int mid = (this.lo + this.hi) >>> 1;
+				invokeAll(new FootprintTask(this.lo, mid), new FootprintTask(
+						mid, this.hi));
+				return;
+			}
+			for (int i = this.lo; i < this.hi; i++)
+				footprints[i] = makeFootprint(volumes[i]);
+		}
+	}
+
+	protected class FillTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final int[][] rowVolumes;
+		protected final int lo, hi;
+
+		public FillTask(int[][] rowVolumes, int lo, int hi) {
+			this.rowVolumes = rowVolumes;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.hi - this.lo > ROW_CHUNK) {
+				int mid = (this.lo + this.hi) >>> 1;
+				invokeAll(new FillTask(this.rowVolumes, this.lo, mid),
+						new FillTask(this.rowVolumes, mid, this.hi));
+				return;
+			}
+			long occupied = 0, boundary = 0;
+			for (int row = this.lo; row < this.hi; row++) {
+				if (this.rowVolumes[row].length == 0)
+					continue;
+				long[] counts = fillRow(row, this.rowVolumes[row]);
+				occupied += counts[0];
+				boundary += counts[1];
+			}
+			synchronized (AirspaceRaster.this) {
+				occupiedCells += occupied;
+				boundaryCells += boundary;
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Intersection;
+import gov.nasa.worldwind.geom.Line;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+
+import java.util.Arrays;
+
+/**
+ * Finds the airspace under the cursor without a GL pick pass. The ray from
+ * the eye through the cursor is clipped to the altitudes an airspace can
+ * reach, then sampled from the eye outward; the first sample inside an
+ * accepted volume of an {@link AirspaceIndex} names the picked airspace.
+ * The cost depends on the length of the clipped ray and the index depth,
+ * not on how many airspaces are drawn.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceRayPicker {
+
+	// Longest step between samples along the ray, meters.
+	protected static final double MAX_STEP = 100.0;
+	// Grazing rays are sampled more coarsely rather than without bound.
+	protected static final int MAX_SAMPLES = 4096;
+
+	public interface Filter {
+		boolean accept(AirspaceVolume volume);
+	}
+
+	protected final AirspaceIndex.Hits hits = new AirspaceIndex.Hits();
+	protected int samples;
+
+	/**
+	 * @return the index in <code>index</code> of the first accepted volume
+	 *         along the ray, or -1 if the ray meets none before the ground.
+	 */
+	public int pick(AirspaceIndex index, Globe globe, Line ray, Filter filter) {
+		this.samples = 0;
+		double ceiling = index.getMaxAltitude();
+		if (index.size() == 0 || ceiling == Double.NEGATIVE_INFINITY)
+			return -1;
+
+		Vec4 origin = ray.getOrigin();
+		Vec4 direction = ray.getDirection().normalize3();
+		double[] top = ahead(globe.intersect(ray, ceiling), origin, direction);
+
+		// Start where the ray descends through the ceiling, unless the eye
+		// is already below it.
+		double start = 0.0;
+		if (globe.computePositionFromPoint(origin).getElevation() > ceiling) {
+			if (top.length == 0)
+				return -1;
+			start = top[0];
+		}
+
+		// End at the ellipsoid, or where the ray climbs back out.
+		double[] ground = ahead(globe.intersect(ray, 0.0), origin, direction);
+		double end;
+		if (ground.length > 0)
+			end = ground[0];
+		else if (top.length > 0)
+			end = top[top.length - 1];
+		else
+			return -1;
+
+		double length = end - start;
+		int steps = (int) Math.min(MAX_SAMPLES, Math.ceil(length / MAX_STEP));
+		for (int k = 0; k <= steps; k++) {
+			double t = steps > 0 ? start + length * k / steps : start;
+			Position p = globe.computePositionFromPoint(origin.add3(direction
+					.multiply3(t)));
+			Angle lat = p.getLatitude(), lon = p.getLongitude();
+			double groundElevation = globe.getElevation(lat, lon);
+			this.samples++;
+			// Terrain hides anything beyond.
+			if (p.getElevation() < groundElevation)
+				return -1;
+
+			int n = index.findContaining(lat.degrees, lon.degrees,
+					p.getElevation(), groundElevation, this.hits);
+			for (int i = 0; i < n; i++) {
+				int v = this.hits.get(i);
+				if (filter == null || filter.accept(index.getVolume(v)))
+					return v;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of points sampled by the last pick.
+	 */
+	public int getSampleCount() {
+		return this.samples;
+	}
+
+	/**
+	 * @return the distances along the ray of the intersections in front of
+	 *         its origin, nearest first.
+	 */
+	protected static double[] ahead(Intersection[] intersections, Vec4 origin,
+			Vec4 direction) {
+		if (intersections == null)
+			return new double[0];
+
+		double[] t = new double[intersections.length];
+		int n = 0;
+		for (Intersection x : intersections) {
+			double d = x.getIntersectionPoint().subtract3(origin)
+					.dot3(direction);
+			if (d >= 0.0)
+				t[n++] = d;
+		}
+		if (n == 2 && t[1] < t[0]) {
+			double swap = t[0];
+			t[0] = t[1];
+			t[1] = swap;
+		}
+		return n == t.length ? t : Arrays.copyOf(t, n);
+	}
+}
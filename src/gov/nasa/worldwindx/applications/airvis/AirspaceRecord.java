@@ -0,0 +1,291 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.Arrays;
+
+/**
+ * Plain description of one airspace volume, independent of World Wind. Lengths
+ * are in meters, angles in degrees and locations are stored as interleaved
+ * latitude/longitude pairs, or as a run of an {@link AirspaceCoordinateStore}.
+ * {@link AirspaceFactory} turns a record into the matching World Wind
+ * airspace shape.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceRecord {
+
+	public enum Shape {
+		CAPPED_CYLINDER, PARTIAL_CAPPED_CYLINDER, POLY_ARC, POLYGON, CURTAIN, SPHERE
+	}
+
+	public static final double FEET_TO_METERS = 0.3048;
+	public static final double NAUTICAL_MILES_TO_METERS = 1852.0;
+
+	protected String id;
+	protected String groupId;
+	protected AirspaceClass airspaceClass = AirspaceClass.OTHER;
+	protected String name;
+	protected Shape shape;
+	protected double centerLatitude;
+	protected double centerLongitude;
+	protected double innerRadius;
+	protected double outerRadius;
+	protected double leftAzimuth;
+	protected double rightAzimuth;
+	protected double[] locations;
+	// Run of vertices holding the locations instead, when stored.
+	protected AirspaceCoordinateStore store;
+	protected int locationOffset;
+	protected int locationCount;
+	protected double lowerAltitude;
+	protected double upperAltitude;
+	protected boolean lowerTerrainConforming;
+	protected boolean upperTerrainConforming;
+	protected boolean rhumbLine;
+	protected int color = 0x808080;
+
+	public AirspaceRecord() {
+	}
+
+	public AirspaceRecord(String id, String groupId,
+			AirspaceClass airspaceClass, Shape shape) {
+		this.id = id;
+		this.groupId = groupId;
+		this.airspaceClass = airspaceClass;
+		this.shape = shape;
+	}
+
+	/**
+	 * Copies another record, sharing its locations or their stored run.
+	 */
+	public AirspaceRecord(AirspaceRecord other) {
+		this.id = other.id;
+		this.groupId = other.groupId;
+		this.airspaceClass = other.airspaceClass;
+		this.name = other.name;
+		this.shape = other.shape;
+		this.centerLatitude = other.centerLatitude;
+		this.centerLongitude = other.centerLongitude;
+		this.innerRadius = other.innerRadius;
+		this.outerRadius = other.outerRadius;
+		this.leftAzimuth = other.leftAzimuth;
+		this.rightAzimuth = other.rightAzimuth;
+		this.locations = other.locations;
+		this.store = other.store;
+		this.locationOffset = other.locationOffset;
+		this.locationCount = other.locationCount;
+		this.lowerAltitude = other.lowerAltitude;
+		this.upperAltitude = other.upperAltitude;
+		this.lowerTerrainConforming = other.lowerTerrainConforming;
+		this.upperTerrainConforming = other.upperTerrainConforming;
+		this.rhumbLine = other.rhumbLine;
+		this.color = other.color;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getGroupId() {
+		return this.groupId;
+	}
+
+	public void setGroupId(String groupId) {
+		this.groupId = groupId;
+	}
+
+	public AirspaceClass getAirspaceClass() {
+		return this.airspaceClass;
+	}
+
+	public void setAirspaceClass(AirspaceClass airspaceClass) {
+		this.airspaceClass = airspaceClass;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Shape getShape() {
+		return this.shape;
+	}
+
+	public void setShape(Shape shape) {
+		this.shape = shape;
+	}
+
+	public double getCenterLatitude() {
+		return this.centerLatitude;
+	}
+
+	public double getCenterLongitude() {
+		return this.centerLongitude;
+	}
+
+	public void setCenter(double latitude, double longitude) {
+		this.centerLatitude = latitude;
+		this.centerLongitude = longitude;
+	}
+
+	public double getInnerRadius() {
+		return this.innerRadius;
+	}
+
+	public double getOuterRadius() {
+		return this.outerRadius;
+	}
+
+	/**
+	 * Sets the outer radius of a cylinder or sphere, or the arc radius of a
+	 * PolyArc.
+	 */
+	public void setRadius(double radius) {
+		this.innerRadius = 0.0;
+		this.outerRadius = radius;
+	}
+
+	public void setRadii(double innerRadius, double outerRadius) {
+		this.innerRadius = innerRadius;
+		this.outerRadius = outerRadius;
+	}
+
+	public double getLeftAzimuth() {
+		return this.leftAzimuth;
+	}
+
+	public double getRightAzimuth() {
+		return this.rightAzimuth;
+	}
+
+	public void setAzimuths(double leftAzimuth, double rightAzimuth) {
+		this.leftAzimuth = leftAzimuth;
+		this.rightAzimuth = rightAzimuth;
+	}
+
+	/**
+	 * @return interleaved latitude/longitude pairs, or null for shapes defined
+	 *         by a center. Stored locations are copied out of the store.
+	 */
+	public double[] getLocations() {
+		if (this.store != null)
+			return this.store.getLocations(this.locationOffset,
+					this.locationCount);
+		return this.locations;
+	}
+
+	public void setLocations(double[] locations) {
+		this.locations = locations;
+		this.store = null;
+	}
+
+	/**
+	 * Moves the locations into a coordinate store, dropping the record's own
+	 * array. Records without locations, or already stored, are unchanged.
+	 */
+	public void storeLocations(AirspaceCoordinateStore store) {
+		if (this.locations == null || this.store != null)
+			return;
+		this.locationOffset = store.add(this.locations);
+		this.locationCount = this.locations.length / 2;
+		this.store = store;
+		this.locations = null;
+	}
+
+	/**
+	 * @return the store holding the locations, or null if the record holds
+	 *         them.
+	 */
+	public AirspaceCoordinateStore getCoordinateStore() {
+		return this.store;
+	}
+
+	public int getLocationCount() {
+		if (this.store != null)
+			return this.locationCount;
+		return this.locations != null ? this.locations.length / 2 : 0;
+	}
+
+	public double getLatitude(int index) {
+		if (this.store != null)
+			return this.store.getLatitude(this.store.getVertex(
+					this.locationOffset, index));
+		return this.locations[2 * index];
+	}
+
+	public double getLongitude(int index) {
+		if (this.store != null)
+			return this.store.getLongitude(this.store.getVertex(
+					this.locationOffset, index));
+		return this.locations[2 * index + 1];
+	}
+
+	public double getLowerAltitude() {
+		return this.lowerAltitude;
+	}
+
+	public double getUpperAltitude() {
+		return this.upperAltitude;
+	}
+
+	public void setAltitudes(double lowerAltitude, double upperAltitude) {
+		this.lowerAltitude = lowerAltitude;
+		this.upperAltitude = upperAltitude;
+	}
+
+	public boolean isLowerTerrainConforming() {
+		return this.lowerTerrainConforming;
+	}
+
+	public boolean isUpperTerrainConforming() {
+		return this.upperTerrainConforming;
+	}
+
+	public void setTerrainConforming(boolean lower, boolean upper) {
+		this.lowerTerrainConforming = lower;
+		this.upperTerrainConforming = upper;
+	}
+
+	/**
+	 * @return true when both altitudes are above mean sea level.
+	 */
+	public boolean isAmsl() {
+		return !this.lowerTerrainConforming && !this.upperTerrainConforming;
+	}
+
+	public boolean isRhumbLine() {
+		return this.rhumbLine;
+	}
+
+	public void setRhumbLine(boolean rhumbLine) {
+		this.rhumbLine = rhumbLine;
+	}
+
+	/**
+	 * @return the display color as 0xRRGGBB.
+	 */
+	public int getColor() {
+		return this.color;
+	}
+
+	public void setColor(int color) {
+		this.color = color & 0xFFFFFF;
+	}
+
+	@Override
+	public String toString() {
+		return this.id + " " + this.shape + " " + this.name + " ["
+				+ this.lowerAltitude + ", " + this.upperAltitude + "]"
+				+ (this.getLocationCount() > 0 ? " "
+						+ Arrays.toString(this.getLocations()) : "");
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Pulls airspace records from a source one at a time, so a data set never has
+ * to be held in memory as a whole.
+ *
+ * @author mmatarazzo
+ */
+public interface AirspaceRecordReader extends Closeable {
+
+	/**
+	 * @return the next record, or null at the end of the input.
+	 * @throws IllegalArgumentException
+	 *             if the next record is malformed. The reader stays positioned
+	 *             after that record, so reading may continue.
+	 */
+	AirspaceRecord next() throws IOException;
+}
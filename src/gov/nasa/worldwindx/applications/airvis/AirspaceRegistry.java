@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Airspaces indexed by group and by airspace id. Each airspace belongs to
+ * exactly one group (for example "IAD" for the Dulles Class B sectors), and
+ * each group has an {@link AirspaceClass}. Enabling, disabling or removing a
+ * group costs the size of that group, not the size of the registry.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceRegistry<T> {
+
+	public static class Group<T> {
+
+		protected final String id;
+		protected final AirspaceClass airspaceClass;
+		protected final Map<String, T> members = new LinkedHashMap<String, T>();
+		protected boolean enabled;
+
+		public Group(String id, AirspaceClass airspaceClass) {
+			this.id = id;
+			this.airspaceClass = airspaceClass;
+		}
+
+		public String getId() {
+			return this.id;
+		}
+
+		public AirspaceClass getAirspaceClass() {
+			return this.airspaceClass;
+		}
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public int size() {
+			return this.members.size();
+		}
+
+		public boolean isEmpty() {
+			return this.members.isEmpty();
+		}
+
+		public Map<String, T> getMembers() {
+			return Collections.unmodifiableMap(this.members);
+		}
+	}
+
+	protected Map<String, Group<T>> groups = new LinkedHashMap<String, Group<T>>();
+	protected Map<String, Group<T>> groupsByAirspace = new HashMap<String, Group<T>>();
+	protected Map<AirspaceClass, Set<Group<T>>> groupsByClass = new EnumMap<AirspaceClass, Set<Group<T>>>(
+			AirspaceClass.class);
+
+	public AirspaceRegistry() {
+		for (AirspaceClass c : AirspaceClass.values()) {
+			this.groupsByClass.put(c, new LinkedHashSet<Group<T>>());
+		}
+	}
+
+	/**
+	 * Returns the group with the given id, creating it (disabled) if needed.
+	 */
+	public Group<T> addGroup(String groupId, AirspaceClass airspaceClass) {
+		Group<T> group = this.groups.get(groupId);
+		if (group == null) {
+			group = new Group<T>(groupId, airspaceClass);
+			this.groups.put(groupId, group);
+			this.groupsByClass.get(airspaceClass).add(group);
+		}
+		return group;
+	}
+
+	public Group<T> getGroup(String groupId) {
+		return this.groups.get(groupId);
+	}
+
+	public Collection<Group<T>> getGroups() {
+		return Collections.unmodifiableCollection(this.groups.values());
+	}
+
+	public Collection<Group<T>> getGroups(AirspaceClass airspaceClass) {
+		return Collections.unmodifiableCollection(this.groupsByClass
+				.get(airspaceClass));
+	}
+
+	/**
+	 * Adds or replaces an airspace in a group that must already exist.
+	 *
+	 * @return the airspace previously registered under the id, or null.
+	 */
+	public T add(String groupId, String airspaceId, T airspace) {
+		Group<T> group = this.groups.get(groupId);
+		if (group == null)
+			throw new IllegalArgumentException("Unknown group " + groupId);
+
+		T previous = this.remove(airspaceId);
+		group.members.put(airspaceId, airspace);
+		this.groupsByAirspace.put(airspaceId, group);
+		return previous;
+	}
+
+	public void addAll(String groupId, Map<String, ? extends T> airspaces) {
+		for (Map.Entry<String, ? extends T> entry : airspaces.entrySet()) {
+			this.add(groupId, entry.getKey(), entry.getValue());
+		}
+	}
+
+	public T remove(String airspaceId) {
+		Group<T> group = this.groupsByAirspace.remove(airspaceId);
+		return group != null ? group.members.remove(airspaceId) : null;
+	}
+
+	/**
+	 * Removes a group and all of its airspaces.
+	 *
+	 * @return the removed airspaces.
+	 */
+	public Collection<T> removeGroup(String groupId) {
+		Group<T> group = this.groups.remove(groupId);
+		if (group == null)
+			return Collections.emptyList();
+
+		this.groupsByClass.get(group.airspaceClass).remove(group);
+		for (String id : group.members.keySet()) {
+			this.groupsByAirspace.remove(id);
+		}
+		List<T> removed = new ArrayList<T>(group.members.values());
+		group.members.clear();
+		return removed;
+	}
+
+	/**
+	 * Enables or disables a group.
+	 *
+	 * @return the group's airspaces if its state changed, otherwise an empty
+	 *         collection.
+	 */
+	public Collection<T> setGroupEnabled(String groupId, boolean enabled) {
+		Group<T> group = this.groups.get(groupId);
+		if (group == null || group.enabled == enabled)
+			return Collections.emptyList();
+
+		group.enabled = enabled;
+		return Collections.unmodifiableCollection(group.members.values());
+	}
+
+	public boolean isGroupEnabled(String groupId) {
+		Group<T> group = this.groups.get(groupId);
+		return group != null && group.enabled;
+	}
+
+	public T get(String airspaceId) {
+		Group<T> group = this.groupsByAirspace.get(airspaceId);
+		return group != null ? group.members.get(airspaceId) : null;
+	}
+
+	public Group<T> getGroupOf(String airspaceId) {
+		return this.groupsByAirspace.get(airspaceId);
+	}
+
+	public boolean isEnabled(String airspaceId) {
+		Group<T> group = this.groupsByAirspace.get(airspaceId);
+		return group != null && group.enabled;
+	}
+
+	/**
+	 * Returns the airspaces of every enabled group.
+	 */
+	public List<T> getEnabled() {
+		List<T> enabled = new ArrayList<T>();
+		for (Group<T> group : this.groups.values()) {
+			if (group.enabled)
+				enabled.addAll(group.members.values());
+		}
+		return enabled;
+	}
+
+	public Collection<T> getAll() {
+		List<T> all = new ArrayList<T>(this.groupsByAirspace.size());
+		for (Group<T> group : this.groups.values()) {
+			all.addAll(group.members.values());
+		}
+		return all;
+	}
+
+	public int size() {
+		return this.groupsByAirspace.size();
+	}
+
+	public void clear() {
+		this.groups.clear();
+		this.groupsByAirspace.clear();
+		for (Set<Group<T>> set : this.groupsByClass.values()) {
+			set.clear();
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Plans routes that stay out of a set of airspace groups, for example around
+ * the DC SFRA and under the IAD Class B shelves. The obstacles are the cells
+ * of an {@link AirspaceRaster} any of the groups may occupy, found once when
+ * the planner is made, so the search itself never tests a shape.
+ * <p>
+ * The search is A* over the raster's cells, moving to the eight neighbors in
+ * a layer or one layer up or down. Climbs and descents cost extra, so routes
+ * go around or under an airspace before they go over it. The cell path is
+ * then straightened wherever a direct leg stays clear. A planner may be used
+ * from several threads.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceRoutePlanner {
+
+	// Cost of a meter climbed or descended relative to a meter flown level.
+	protected static final double CLIMB_WEIGHT = 3.0;
+	protected static final double METERS_PER_DEGREE = Geodesy.EARTH_RADIUS
+			* Math.PI / 180.0;
+	// Fraction of a cell between the samples of a straightened leg.
+	protected static final double LEG_STEP = 0.25;
+
+	public static class Route {
+
+		protected final double[] lats, lons, altitudes;
+		protected final double length;
+		protected final int expanded;
+		protected final long elapsedNanos;
+
+		public Route(double[] lats, double[] lons, double[] altitudes,
+				int expanded, long elapsedNanos) {
+			this.lats = lats;
+			this.lons = lons;
+			this.altitudes = altitudes;
+			this.expanded = expanded;
+			this.elapsedNanos = elapsedNanos;
+			double length = 0.0;
+			for (int i = 1; i < lats.length; i++) {
+				double d = Geodesy.distance(lats[i - 1], lons[i - 1], lats[i],
+						lons[i]);
+				double h = altitudes[i] - altitudes[i - 1];
+				length += Math.sqrt(d * d + h * h);
+			}
+			this.length = length;
+		}
+
+		public int size() {
+			return this.lats.length;
+		}
+
+		public double getLatitude(int i) {
+			return this.lats[i];
+		}
+
+		public double getLongitude(int i) {
+			return this.lons[i];
+		}
+
+		/**
+		 * @return the altitude of a waypoint above mean sea level, meters.
+		 */
+		public double getAltitude(int i) {
+			return this.altitudes[i];
+		}
+
+		/**
+		 * @return the flown length, meters.
+		 */
+		public double getLength() {
+			return this.length;
+		}
+
+		/**
+		 * @return the number of cells the search expanded.
+		 */
+		public int getExpanded() {
+			return this.expanded;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d waypoints, %.1f NM, %d cells expanded in %.1f ms",
+					this.lats.length, this.length
+							/ AirspaceRecord.NAUTICAL_MILES_TO_METERS,
+					this.expanded, this.elapsedNanos / 1e6);
+		}
+	}
+
+	protected final AirspaceRaster raster;
+	protected final BitSet blocked;
+	protected final int rows, cols, layers;
+	// Cell sizes in meters; the east-west size shrinks toward the poles.
+	protected final double[] cellWidths;
+	protected final double cellHeight, cellDepth;
+	// Narrowest cell, used by the heuristic so it never overestimates.
+	protected final double minCellWidth;
+
+	/**
+	 * @param avoidGroupIds
+	 *            groups whose airspaces the routes must stay out of.
+	 */
+	public AirspaceRoutePlanner(AirspaceRaster raster,
+			Collection<String> avoidGroupIds) {
+		this.raster = raster;
+		this.rows = raster.getRows();
+		this.cols = raster.getCols();
+		this.layers = raster.getLayers();
+
+		BitSet groups = new BitSet();
+		for (String groupId : avoidGroupIds) {
+			int g = raster.getGroupIndex(groupId);
+			if (g >= 0)
+				groups.set(g);
+		}
+		this.blocked = raster.findOccupied(groups);
+
+		double cellDegrees = raster.getRegion().cellDegrees;
+		this.cellHeight = cellDegrees * METERS_PER_DEGREE;
+		this.cellDepth = raster.getRegion().cellMeters;
+		this.cellWidths = new double[this.rows];
+		double min = Double.MAX_VALUE;
+		for (int row = 0; row < this.rows; row++) {
+			double lat = raster.getLatitude(row);
+			double south = Math.cos(Math.toRadians(lat - cellDegrees / 2.0));
+			double north = Math.cos(Math.toRadians(lat + cellDegrees / 2.0));
+			this.cellWidths[row] = this.cellHeight
+					* Math.cos(Math.toRadians(lat));
+			min = Math.min(min, this.cellHeight * Math.min(south, north));
+		}
+		this.minCellWidth = min;
+	}
+
+	public AirspaceRaster getRaster() {
+		return this.raster;
+	}
+
+	/**
+	 * @return true if the point is outside the raster or in a cell an
+	 *         avoided airspace may occupy.
+	 */
+	public boolean isBlocked(double lat, double lon, double altitude) {
+		int cell = this.raster.cellAt(lat, lon, altitude);
+		return cell < 0 || this.blocked.get(cell);
+	}
+
+	/**
+	 * Plans a route between two points, altitudes above mean sea level.
+	 *
+	 * @return the route, or null if either end is blocked or no route stays
+	 *         clear within the raster.
+	 */
+	public Route plan(double lat0, double lon0, double alt0, double lat1,
+			double lon1, double alt1) {
+		long start = System.nanoTime();
+		if (this.isBlocked(lat0, lon0, alt0)
+				|| this.isBlocked(lat1, lon1, alt1))
+			return null;
+		int source = this.raster.cellAt(lat0, lon0, alt0);
+		int target = this.raster.cellAt(lat1, lon1, alt1);
+
+		int n = this.raster.getCellCount();
+		float[] costs = new float[n];
+		Arrays.fill(costs, Float.POSITIVE_INFINITY);
+		int[] parents = new int[n];
+		BitSet closed = new BitSet(n);
+		Heap open = new Heap();
+
+		int targetRow = target / this.layers / this.cols;
+		int targetCol = target / this.layers % this.cols;
+		int targetLayer = target % this.layers;
+		costs[source] = 0.0f;
+		parents[source] = -1;
+		open.add(source, (float) this.estimate(source, targetRow, targetCol,
+				targetLayer));
+
+		int expanded = 0;
+		while (!open.isEmpty()) {
+			int node = open.poll();
+			if (closed.get(node))
+				continue;
+			closed.set(node);
+			expanded++;
+			if (node == target)
+				break;
+
+			int layer = node % this.layers;
+			int col = node / this.layers % this.cols;
+			int row = node / this.layers / this.cols;
+			float cost = costs[node];
+			for (int dr = -1; dr <= 1; dr++) {
+				for (int dc = -1; dc <= 1; dc++) {
+					if (dr == 0 && dc == 0)
+						continue;
+					int r = row + dr, c = col + dc;
+					if (r < 0 || r >= this.rows || c < 0 || c >= this.cols)
+						continue;
+					// No cutting the corner of a blocked cell.
+					if (dr != 0 && dc != 0
+							&& (this.blocked.get(this.node(row, c, layer)) || this.blocked
+									.get(this.node(r, col, layer))))
+						continue;
+					double w = this.cellWidths[row] * dc;
+					double h = this.cellHeight * dr;
+					this.relax(node, this.node(r, c, layer),
+							cost + Math.sqrt(w * w + h * h), costs, parents,
+							closed, open, targetRow, targetCol, targetLayer);
+				}
+			}
+			double climb = this.cellDepth * CLIMB_WEIGHT;
+			if (layer > 0)
+				this.relax(node, node - 1, cost + climb, costs, parents,
+						closed, open, targetRow, targetCol, targetLayer);
+			if (layer < this.layers - 1)
+				this.relax(node, node + 1, cost + climb, costs, parents,
+						closed, open, targetRow, targetCol, targetLayer);
+		}
+		if (!closed.get(target))
+			return null;
+
+		List<Integer> cells = new ArrayList<Integer>();
+		for (int node = target; node != -1; node = parents[node])
+			cells.add(0, node);
+		return this.makeRoute(this.straighten(cells), lat0, lon0, alt0,
+				lat1, lon1, alt1, expanded, System.nanoTime() - start);
+	}
+
+	protected void relax(int from, int to, double cost, float[] costs,
+			int[] parents, BitSet closed, Heap open, int targetRow,
+			int targetCol, int targetLayer) {
+		if (closed.get(to) || this.blocked.get(to) || cost >= costs[to])
+			return;
+		costs[to] = (float) cost;
+		parents[to] = from;
+		open.add(to, (float) (cost + this.estimate(to, targetRow, targetCol,
+				targetLayer)));
+	}
+
+	protected int node(int row, int col, int layer) {
+		return (row * this.cols + col) * this.layers + layer;
+	}
+
+	/**
+	 * @return a straight-line distance to the target no longer than any
+	 *         route to it.
+	 */
+	protected double estimate(int node, int targetRow, int targetCol,
+			int targetLayer) {
+		double w = this.minCellWidth * (node / this.layers % this.cols - targetCol);
+		double h = this.cellHeight * (node / this.layers / this.cols - targetRow);
+		double d = this.cellDepth * (node % this.layers - targetLayer);
+		return Math.sqrt(w * w + h * h + d * d);
+	}
+
+	/**
+	 * Drops the cells a direct leg from the last kept cell can skip,
+	 * stretching each leg until the next cell would not be clear.
+	 */
+	protected List<Integer> straighten(List<Integer> cells) {
+		List<Integer> kept = new ArrayList<Integer>();
+		int anchor = 0;
+		kept.add(cells.get(0));
+		while (anchor < cells.size() - 1) {
+			int next = anchor + 1;
+			while (next + 1 < cells.size()
+					&& this.isClear(cells.get(anchor), cells.get(next + 1)))
+				next++;
+			kept.add(cells.get(next));
+			anchor = next;
+		}
+		return kept;
+	}
+
+	/**
+	 * Tests a leg between cell centers by sampling the cells it passes.
+	 */
+	protected boolean isClear(int from, int to) {
+		double r0 = from / this.layers / this.cols, r1 = to / this.layers
+				/ this.cols;
+		double c0 = from / this.layers % this.cols, c1 = to / this.layers
+				% this.cols;
+		double l0 = from % this.layers, l1 = to % this.layers;
+		double span = Math.max(Math.abs(r1 - r0),
+				Math.max(Math.abs(c1 - c0), Math.abs(l1 - l0)));
+		int samples = (int) Math.ceil(span / LEG_STEP);
+		for (int s = 1; s < samples; s++) {
+			double t = (double) s / samples;
+			int node = this.node((int) Math.round(r0 + t * (r1 - r0)),
+					(int) Math.round(c0 + t * (c1 - c0)),
+					(int) Math.round(l0 + t * (l1 - l0)));
+			if (this.blocked.get(node))
+				return false;
+		}
+		return true;
+	}
+
+	protected Route makeRoute(List<Integer> cells, double lat0, double lon0,
+			double alt0, double lat1, double lon1, double alt1, int expanded,
+			long elapsedNanos) {
+		int n = cells.size();
+		double[] lats = new double[n], lons = new double[n], alts = new double[n];
+		for (int i = 0; i < n; i++) {
+			int node = cells.get(i);
+			lats[i] = this.raster.getLatitude(node / this.layers / this.cols);
+			lons[i] = this.raster.getLongitude(node / this.layers % this.cols);
+			alts[i] = this.raster.getAltitude(node % this.layers);
+		}
+		// The route starts and ends at the given points, not cell centers.
+		lats[0] = lat0;
+		lons[0] = lon0;
+		alts[0] = alt0;
+		if (n > 1) {
+			lats[n - 1] = lat1;
+			lons[n - 1] = lon1;
+			alts[n - 1] = alt1;
+		}
+		return new Route(lats, lons, alts, expanded, elapsedNanos);
+	}
+
+	/**
+	 * Binary min-heap of cells by estimated route cost. A cell whose cost
+	 * drops is added again, and its stale entries are skipped when polled.
+	 */
+	protected static class Heap {
+
+		protected int[] nodes = new int[1024];
+		protected float[] keys = new float[1024];
+		protected int size;
+
+		public boolean isEmpty() {
+			return this.size == 0;
+		}
+
+		public void add(int node, float key) {
+			if (this.size == this.nodes.length) {
+				this.nodes = Arrays.copyOf(this.nodes, this.size * 2);
+				this.keys = Arrays.copyOf(this.keys, this.size * 2);
+			}
+			int i = this.size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (this.keys[parent] <= key)
+					break;
+				this.nodes[i] = this.nodes[parent];
+				this.keys[i] = this.keys[parent];
+				i = parent;
+			}
+			this.nodes[i] = node;
+			this.keys[i] = key;
+		}
+
+		public int poll() {
+			int result = this.nodes[0];
+			int node = this.nodes[--this.size];
+			float key = this.keys[this.size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= this.size)
+					break;
+				if (child + 1 < this.size
+						&& this.keys[child + 1] < this.keys[child])
+					child++;
+				if (this.keys[child] >= key)
+					break;
+				this.nodes[i] = this.nodes[child];
+				this.keys[i] = this.keys[child];
+				i = child;
+			}
+			this.nodes[i] = node;
+			this.keys[i] = key;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Activation periods of time-activated airspaces such as TFRs and restricted
+ * areas, indexed for "what is active at this instant" queries. An airspace
+ * with no period here is not scheduled and counts as always active.
+ * <p>
+ * Periods are sorted by start in primitive arrays and searched as an implicit
+ * balanced tree, each node holding the latest end below it, so a query costs
+ * O(log n + k) for k active periods. The schedule is immutable and may be
+ * queried from several threads.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceSchedule {
+
+	public static class Period {
+
+		protected final String airspaceId;
+		protected final long start;
+		protected final long end;
+
+		/**
+		 * @param start
+		 *            first active instant, ms since the epoch.
+		 * @param end
+		 *            first instant no longer active, ms since the epoch.
+		 */
+		public Period(String airspaceId, long start, long end) {
+			if (!(start < end))
+				throw new IllegalArgumentException("Empty period for "
+						+ airspaceId);
+			this.airspaceId = airspaceId;
+			this.start = start;
+			this.end = end;
+		}
+
+		public String getAirspaceId() {
+			return this.airspaceId;
+		}
+
+		public long getStart() {
+			return this.start;
+		}
+
+		public long getEnd() {
+			return this.end;
+		}
+	}
+
+	protected final String[] ids;
+	protected final long[] starts;
+	protected final long[] ends;
+	// Latest end among the periods of the subtree rooted at each position.
+	protected final long[] maxEnds;
+	protected final Set<String> scheduled = new HashSet<String>();
+
+	public AirspaceSchedule(Collection<Period> periods) {
+		Period[] sorted = periods.toArray(new Period[periods.size()]);
+		Arrays.sort(sorted, new Comparator<Period>() {
+			@Override
+			public int compare(Period a, Period b) {
+				return a.start < b.start ? -1 : a.start > b.start ? 1 : 0;
+			}
+		});
+
+		int n = sorted.length;
+		this.ids = new String[n];
+		this.starts = new long[n];
+		this.ends = new long[n];
+		this.maxEnds = new long[n];
+		for (int i = 0; i < n; i++) {
+			this.ids[i] = sorted[i].airspaceId;
+			this.starts[i] = sorted[i].start;
+			this.ends[i] = sorted[i].end;
+			this.scheduled.add(sorted[i].airspaceId);
+		}
+		this.buildMaxEnds(0, n - 1);
+	}
+
+	protected long buildMaxEnds(int lo, int hi) {
+		if (lo > hi)
+			return Long.MIN_VALUE;
+		int mid = (lo + hi) >>> 1;
+		long max = Math.max(this.ends[mid],
+				Math.max(this.buildMaxEnds(lo, mid - 1),
+						this.buildMaxEnds(mid + 1, hi)));
+		this.maxEnds[mid] = max;
+		return max;
+	}
+
+	public int size() {
+		return this.ids.length;
+	}
+
+	/**
+	 * @return true if the airspace has any activation period.
+	 */
+	public boolean isScheduled(String airspaceId) {
+		return this.scheduled.contains(airspaceId);
+	}
+
+	public Set<String> getScheduledIds() {
+		return Collections.unmodifiableSet(this.scheduled);
+	}
+
+	/**
+	 * @return the start of the earliest period, or Long.MAX_VALUE if there
+	 *         are none.
+	 */
+	public long getFirstStart() {
+		return this.starts.length > 0 ? this.starts[0] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Adds the ids of the scheduled airspaces active at an instant.
+	 */
+	public void getActive(long time, Set<String> active) {
+		this.collect(0, this.ids.length - 1, time, active);
+	}
+
+	protected void collect(int lo, int hi, long time, Set<String> active) {
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			// Nothing below ends after the instant.
+			if (this.maxEnds[mid] <= time)
+				return;
+			this.collect(lo, mid - 1, time, active);
+			// Everything to the right starts later still.
+			if (this.starts[mid] > time)
+				return;
+			if (time < this.ends[mid])
+				active.add(this.ids[mid]);
+			lo = mid + 1;
+		}
+	}
+
+	/**
+	 * Reads a schedule from CSV lines of airspace id, start and end, the
+	 * times in UTC as <code>yyyy-MM-ddTHH:mmZ</code>:
+	 *
+	 * <pre>
+	 * ID,START,END
+	 * IAD-O2E,2014-06-02T13:00Z,2014-06-02T17:00Z
+	 * </pre>
+	 *
+	 * Lines starting with '#' are comments.
+	 */
+	public static AirspaceSchedule read(Reader reader) throws IOException {
+		BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+
+		List<Period> periods = new ArrayList<Period>();
+		boolean header = true;
+		int lineNumber = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#"))
+				continue;
+			if (header) {
+				header = false;
+				continue;
+			}
+
+			List<String> fields = CsvAirspaceReader.split(line);
+			try {
+				if (fields.size() < 3)
+					throw new IllegalArgumentException("expected ID,START,END");
+				periods.add(new Period(fields.get(0).trim(), format.parse(
+						fields.get(1).trim()).getTime(), format.parse(
+						fields.get(2).trim()).getTime()));
+			} catch (ParseException e) {
+				throw new IllegalArgumentException("line " + lineNumber + ": "
+						+ e.getMessage(), e);
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("line " + lineNumber + ": "
+						+ e.getMessage(), e);
+			}
+		}
+		return new AirspaceSchedule(periods);
+	}
+
+	public static AirspaceSchedule read(URL url) throws IOException {
+		Reader reader = new InputStreamReader(url.openStream(), "UTF-8");
+		try {
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,323 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A saved display session: every airspace, which groups are shown and the
+ * layer render options. Sessions are streamed with StAX, the airspaces in
+ * the {@link XmlAirspaceReader} format, so neither saving nor restoring
+ * holds the document in memory:
+ *
+ * <pre>
+ * &lt;Session&gt;
+ *   &lt;Render antialias="false" depthOffset="true" wireframe="false" extents="false"/&gt;
+ *   &lt;Group id="IAD" class="CLASS_B" enabled="true"/&gt;
+ *   &lt;Airspaces&gt;
+ *     &lt;Airspace id="IAD-M1" group="IAD" class="CLASS_B" shape="PARTIAL_CAPPED_CYLINDER" color="#0000FF"&gt;
+ *       ...
+ *     &lt;/Airspace&gt;
+ *   &lt;/Airspaces&gt;
+ * &lt;/Session&gt;
+ * </pre>
+ *
+ * Altitudes are written in meters and radii in nautical miles.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceSession {
+
+	protected boolean antialias;
+	protected boolean depthOffset;
+	protected boolean wireframe;
+	protected boolean extents;
+	protected final LinkedHashMap<String, AirspaceClass> groups = new LinkedHashMap<String, AirspaceClass>();
+	protected final LinkedHashMap<String, Boolean> enabled = new LinkedHashMap<String, Boolean>();
+	// Airspaces to write, by group: held records, or the cache of a group not
+	// read yet.
+	protected final HashMap<String, Collection<AirspaceRecord>> records = new HashMap<String, Collection<AirspaceRecord>>();
+	protected final HashMap<String, AirspaceCache> caches = new HashMap<String, AirspaceCache>();
+	protected AirspaceLoader.Statistics statistics;
+
+	public boolean isAntialias() {
+		return this.antialias;
+	}
+
+	public void setAntialias(boolean antialias) {
+		this.antialias = antialias;
+	}
+
+	public boolean isDepthOffset() {
+		return this.depthOffset;
+	}
+
+	public void setDepthOffset(boolean depthOffset) {
+		this.depthOffset = depthOffset;
+	}
+
+	public boolean isWireframe() {
+		return this.wireframe;
+	}
+
+	public void setWireframe(boolean wireframe) {
+		this.wireframe = wireframe;
+	}
+
+	public boolean isExtents() {
+		return this.extents;
+	}
+
+	public void setExtents(boolean extents) {
+		this.extents = extents;
+	}
+
+	public void addGroup(String groupId, AirspaceClass airspaceClass,
+			boolean enabled) {
+		this.groups.put(groupId, airspaceClass);
+		this.enabled.put(groupId, enabled);
+	}
+
+	public Set<String> getGroupIds() {
+		return Collections.unmodifiableSet(this.groups.keySet());
+	}
+
+	public AirspaceClass getGroupClass(String groupId) {
+		return this.groups.get(groupId);
+	}
+
+	public boolean isGroupEnabled(String groupId) {
+		Boolean b = this.enabled.get(groupId);
+		return b != null && b;
+	}
+
+	/**
+	 * Captures the groups and airspaces of a model for writing. Only the
+	 * record references are copied, so this is cheap enough for the EDT, and
+	 * groups still pending in a cache are read one at a time while writing.
+	 */
+	public void addGroups(AirspaceModel model) {
+		for (AirspaceRegistry.Group<AirspaceRecord> group : model
+				.getRegistry().getGroups()) {
+			String id = group.getId();
+			this.addGroup(id, group.getAirspaceClass(), group.isEnabled());
+			AirspaceCache cache = model.getPendingGroup(id);
+			if (cache != null)
+				this.caches.put(id, cache);
+			else
+				this.records.put(id, new ArrayList<AirspaceRecord>(group
+						.getMembers().values()));
+		}
+	}
+
+	/**
+	 * @return the statistics of the airspaces read by {@link #read}, or null
+	 *         for a session made in memory.
+	 */
+	public AirspaceLoader.Statistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Writes the session's options and groups, then the airspaces of the
+	 * groups added from a model one at a time. The writer is not closed.
+	 */
+	public void write(Writer out) throws IOException {
+		try {
+			XMLStreamWriter xml = XMLOutputFactory.newInstance()
+					.createXMLStreamWriter(out);
+			xml.writeStartDocument("UTF-8", "1.0");
+			newline(xml, 0);
+			xml.writeStartElement("Session");
+
+			newline(xml, 1);
+			xml.writeEmptyElement("Render");
+			xml.writeAttribute("antialias", String.valueOf(this.antialias));
+			xml.writeAttribute("depthOffset", String.valueOf(this.depthOffset));
+			xml.writeAttribute("wireframe", String.valueOf(this.wireframe));
+			xml.writeAttribute("extents", String.valueOf(this.extents));
+
+			for (String groupId : this.groups.keySet()) {
+				newline(xml, 1);
+				xml.writeEmptyElement("Group");
+				xml.writeAttribute("id", groupId);
+				xml.writeAttribute("class", this.groups.get(groupId).name());
+				xml.writeAttribute("enabled",
+						String.valueOf(this.isGroupEnabled(groupId)));
+			}
+
+			newline(xml, 1);
+			xml.writeStartElement("Airspaces");
+			for (String groupId : this.groups.keySet()) {
+				AirspaceCache cache = this.caches.get(groupId);
+				Collection<AirspaceRecord> records = cache != null ? cache
+						.getGroupRecords(groupId) : this.records.get(groupId);
+				if (records == null)
+					continue;
+				for (AirspaceRecord record : records)
+					writeAirspace(xml, record);
+			}
+			newline(xml, 1);
+			xml.writeEndElement();
+
+			newline(xml, 0);
+			xml.writeEndElement();
+			xml.writeEndDocument();
+			newline(xml, 0);
+			xml.flush();
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	protected static void writeAirspace(XMLStreamWriter xml,
+			AirspaceRecord record) throws XMLStreamException {
+		AirspaceRecord.Shape shape = record.getShape();
+		newline(xml, 2);
+		xml.writeStartElement("Airspace");
+		xml.writeAttribute("id", record.getId());
+		xml.writeAttribute("group", record.getGroupId());
+		xml.writeAttribute("class", record.getAirspaceClass().name());
+		xml.writeAttribute("shape", shape.name());
+		xml.writeAttribute("color",
+				String.format("#%06X", record.getColor() & 0xFFFFFF));
+		if (record.isRhumbLine())
+			xml.writeAttribute("path", "RHUMB");
+
+		if (record.getName() != null) {
+			newline(xml, 3);
+			xml.writeStartElement("Name");
+			xml.writeCharacters(record.getName());
+			xml.writeEndElement();
+		}
+		writeAltitude(xml, "Lower", record.getLowerAltitude(),
+				record.isLowerTerrainConforming());
+		writeAltitude(xml, "Upper", record.getUpperAltitude(),
+				record.isUpperTerrainConforming());
+
+		if (shape == AirspaceRecord.Shape.CAPPED_CYLINDER
+				|| shape == AirspaceRecord.Shape.PARTIAL_CAPPED_CYLINDER
+				|| shape == AirspaceRecord.Shape.SPHERE) {
+			newline(xml, 3);
+			xml.writeEmptyElement("Center");
+			xml.writeAttribute("lat",
+					String.valueOf(record.getCenterLatitude()));
+			xml.writeAttribute("lon",
+					String.valueOf(record.getCenterLongitude()));
+		}
+		if (shape != AirspaceRecord.Shape.POLYGON
+				&& shape != AirspaceRecord.Shape.CURTAIN) {
+			newline(xml, 3);
+			xml.writeEmptyElement("Radii");
+			xml.writeAttribute("inner", String.valueOf(record.getInnerRadius()
+					/ AirspaceRecord.NAUTICAL_MILES_TO_METERS));
+			xml.writeAttribute("outer", String.valueOf(record.getOuterRadius()
+					/ AirspaceRecord.NAUTICAL_MILES_TO_METERS));
+		}
+		if (shape == AirspaceRecord.Shape.PARTIAL_CAPPED_CYLINDER
+				|| shape == AirspaceRecord.Shape.POLY_ARC) {
+			newline(xml, 3);
+			xml.writeEmptyElement("Azimuths");
+			xml.writeAttribute("left", String.valueOf(record.getLeftAzimuth()));
+			xml.writeAttribute("right",
+					String.valueOf(record.getRightAzimuth()));
+		}
+		for (int i = 0; i < record.getLocationCount(); i++) {
+			newline(xml, 3);
+			xml.writeEmptyElement("Location");
+			xml.writeAttribute("lat", String.valueOf(record.getLatitude(i)));
+			xml.writeAttribute("lon", String.valueOf(record.getLongitude(i)));
+		}
+
+		newline(xml, 2);
+		xml.writeEndElement();
+	}
+
+	protected static void writeAltitude(XMLStreamWriter xml, String name,
+			double meters, boolean agl) throws XMLStreamException {
+		newline(xml, 3);
+		xml.writeStartElement(name);
+		xml.writeAttribute("ref", agl ? "AGL" : "MSL");
+		xml.writeCharacters(meters + "M");
+		xml.writeEndElement();
+	}
+
+	protected static void newline(XMLStreamWriter xml, int depth)
+			throws XMLStreamException {
+		xml.writeCharacters("\n");
+		for (int i = 0; i < depth; i++)
+			xml.writeCharacters("  ");
+	}
+
+	/**
+	 * Reads a session's options and groups, then passes each airspace to the
+	 * listener as it is parsed. Malformed airspaces are logged and skipped.
+	 * The reader is closed.
+	 */
+	public static AirspaceSession read(Reader in,
+			AirspaceLoader.Listener listener) throws IOException {
+		AirspaceSession session = new AirspaceSession();
+		XMLStreamReader xml;
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			xml = factory.createXMLStreamReader(in);
+		} catch (XMLStreamException e) {
+			in.close();
+			throw new IOException(e);
+		}
+
+		try {
+			while (xml.hasNext()) {
+				if (xml.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String name = xml.getLocalName();
+				if (name.equals("Airspaces")) {
+					break;
+				} else if (name.equals("Render")) {
+					session.antialias = flag(xml, "antialias");
+					session.depthOffset = flag(xml, "depthOffset");
+					session.wireframe = flag(xml, "wireframe");
+					session.extents = flag(xml, "extents");
+				} else if (name.equals("Group")) {
+					String id = xml.getAttributeValue(null, "id");
+					if (id == null)
+						throw new IOException("Group at line "
+								+ xml.getLocation().getLineNumber()
+								+ " has no id");
+					session.addGroup(id, AirspaceClass.parse(xml
+							.getAttributeValue(null, "class")), flag(xml,
+							"enabled"));
+				}
+			}
+		} catch (XMLStreamException e) {
+			in.close();
+			throw new IOException(e);
+		}
+
+		session.statistics = AirspaceLoader.load(new XmlAirspaceReader(xml,
+				in), listener);
+		return session;
+	}
+
+	protected static boolean flag(XMLStreamReader xml, String name) {
+		return Boolean.parseBoolean(xml.getAttributeValue(null, name));
+	}
+}
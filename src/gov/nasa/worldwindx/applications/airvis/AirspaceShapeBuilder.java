@@ -0,0 +1,184 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.render.airspaces.Airspace;
+import gov.nasa.worldwind.util.Logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Builds the World Wind shapes for batches of {@link AirspaceRecord}s on a
+ * pool of worker threads. A batch is split into chunks built in parallel;
+ * progress is reported after each chunk and the finished batch is handed
+ * over once, both through a handoff executor such as the EDT. A cancelled
+ * batch stops between shapes and is never handed over.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceShapeBuilder {
+
+	// Shapes built per task, so progress moves and cancellation is prompt.
+	protected static final int CHUNK_SIZE = 32;
+
+	public interface Listener {
+
+		/**
+		 * Called on the handoff executor after each chunk.
+		 */
+		void buildProgress(Build build);
+
+		/**
+		 * Called on the handoff executor once every shape of a batch not
+		 * cancelled is built.
+		 */
+		void buildFinished(Build build);
+	}
+
+	public class Build {
+
+		protected final String groupId;
+		protected final List<AirspaceRecord> records;
+		protected final Airspace[] shapes;
+		protected final Listener listener;
+		protected final AtomicInteger built = new AtomicInteger();
+		protected final AtomicInteger chunksLeft;
+		protected final List<Future<?>> futures = new ArrayList<Future<?>>();
+		protected volatile boolean cancelled;
+
+		protected Build(String groupId, List<AirspaceRecord> records,
+				Listener listener) {
+			this.groupId = groupId;
+			this.records = records;
+			this.shapes = new Airspace[records.size()];
+			this.listener = listener;
+			this.chunksLeft = new AtomicInteger((records.size() + CHUNK_SIZE - 1)
+					/ CHUNK_SIZE);
+		}
+
+		public String getGroupId() {
+			return this.groupId;
+		}
+
+		public List<AirspaceRecord> getRecords() {
+			return this.records;
+		}
+
+		/**
+		 * @return the shape built for the record at the same position, or
+		 *         null if the build was cancelled first.
+		 */
+		public Airspace getShape(int i) {
+			return this.shapes[i];
+		}
+
+		public int getBuiltCount() {
+			return this.built.get();
+		}
+
+		public int size() {
+			return this.records.size();
+		}
+
+		public boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		/**
+		 * Stops building. Shapes being built finish, but no more are started
+		 * and the listener hears nothing further.
+		 */
+		public void cancel() {
+			this.cancelled = true;
+			synchronized (this.futures) {
+				for (Future<?> f : this.futures)
+					f.cancel(false);
+			}
+		}
+
+		protected void buildChunk(int from, int to) {
+			Metrics.Histogram buildTime = Metrics.getDefault().histogram(
+					"shapes.build");
+			for (int i = from; i < to && !this.cancelled; i++) {
+				long start = System.nanoTime();
+				try {
+					this.shapes[i] = AirspaceFactory.createAirspace(this.records
+							.get(i));
+				} catch (RuntimeException e) {
+					// Leave the shape out rather than stall the batch.
+					Logging.logger().log(Level.WARNING,
+							"Unable to build airspace "
+									+ this.records.get(i).getId(), e);
+				}
+				buildTime.recordSince(start);
+				this.built.incrementAndGet();
+			}
+			final boolean last = this.chunksLeft.decrementAndGet() == 0;
+			if (this.cancelled)
+				return;
+			handoff.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (cancelled)
+						return;
+					if (last)
+						listener.buildFinished(Build.this);
+					else
+						listener.buildProgress(Build.this);
+				}
+			});
+		}
+	}
+
+	protected final ExecutorService workers;
+	protected final Executor handoff;
+
+	/**
+	 * @param workers
+	 *            builds the shapes.
+	 * @param handoff
+	 *            runs the listener callbacks, in order.
+	 */
+	public AirspaceShapeBuilder(ExecutorService workers, Executor handoff) {
+		this.workers = workers;
+		this.handoff = handoff;
+	}
+
+	/**
+	 * Starts building shapes for records, returning at once.
+	 */
+	public Build build(String groupId, List<AirspaceRecord> records,
+			Listener listener) {
+		final Build build = new Build(groupId, new ArrayList<AirspaceRecord>(
+				records), listener);
+		synchronized (build.futures) {
+			for (int from = 0; from < build.size(); from += CHUNK_SIZE) {
+				final int start = from;
+				final int end = Math.min(build.size(), from + CHUNK_SIZE);
+				build.futures.add(this.workers.submit(new Runnable() {
+					@Override
+					public void run() {
+						build.buildChunk(start, end);
+					}
+				}));
+			}
+		}
+		if (build.size() == 0) {
+			this.handoff.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!build.isCancelled())
+						build.listener.buildFinished(build);
+				}
+			});
+		}
+		return build;
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * Partitions airspaces into fixed size latitude/longitude tiles and tracks
+ * which tiles are loaded for the current view. Tiles within a small margin
+ * of the view are loaded. They stay loaded until they fall outside a larger
+ * margin, so small pans do not thrash. An airspace is loaded while any of
+ * its tiles is; airspaces spanning too many tiles to be worth culling are
+ * always loaded.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceTiles<T> {
+
+	// Airspaces covering more tiles than this are never culled.
+	protected static final int MAX_TILES_PER_ITEM = 256;
+
+	protected final double tileSize;
+	protected final int rows, cols;
+	protected final int loadMargin, evictMargin;
+
+	protected final HashMap<Integer, ArrayList<T>> tiles = new HashMap<Integer, ArrayList<T>>();
+	protected final IdentityHashMap<T, int[]> itemTiles = new IdentityHashMap<T, int[]>();
+	// Number of loaded tiles holding each item.
+	protected final IdentityHashMap<T, int[]> loadCounts = new IdentityHashMap<T, int[]>();
+	protected final HashSet<Integer> loadedTiles = new HashSet<Integer>();
+
+	// Last requested view, as row and unwrapped column ranges.
+	protected int viewRow0 = -1, viewRow1 = -1, viewCol0, viewCol1;
+
+	/**
+	 * @param tileSize
+	 *            tile edge in degrees.
+	 * @param loadMargin
+	 *            tiles around the view to load.
+	 * @param evictMargin
+	 *            tiles around the view to keep loaded once loaded; at least
+	 *            the load margin.
+	 */
+	public AirspaceTiles(double tileSize, int loadMargin, int evictMargin) {
+		this.tileSize = tileSize;
+		this.rows = (int) Math.ceil(180.0 / tileSize);
+		this.cols = (int) Math.ceil(360.0 / tileSize);
+		this.loadMargin = loadMargin;
+		this.evictMargin = Math.max(loadMargin, evictMargin);
+	}
+
+	/**
+	 * @param boxes
+	 *            footprint bounds as minLat, maxLat, minLon, maxLon in
+	 *            degrees, as from {@link AirspaceVolume#getBoxes()}.
+	 * @return true if the item is loaded for the current view.
+	 */
+	public boolean add(T item, double[] boxes) {
+		this.remove(item);
+
+		HashSet<Integer> keys = new HashSet<Integer>();
+		for (int b = 0; b < boxes.length && keys.size() <= MAX_TILES_PER_ITEM; b += 4) {
+			int r0 = this.row(boxes[b]), r1 = this.row(boxes[b + 1]);
+			int c0 = this.col(boxes[b + 2]), c1 = this.col(boxes[b + 3]);
+			for (int r = r0; r <= r1 && keys.size() <= MAX_TILES_PER_ITEM; r++) {
+				for (int c = c0; c <= c1; c++)
+					keys.add(this.key(r, c));
+			}
+		}
+
+		if (keys.size() > MAX_TILES_PER_ITEM) {
+			this.itemTiles.put(item, new int[0]);
+			this.loadCounts.put(item, new int[] { 1 });
+			return true;
+		}
+
+		int[] itemKeys = new int[keys.size()];
+		int i = 0, loaded = 0;
+		for (Integer key : keys) {
+			itemKeys[i++] = key;
+			ArrayList<T> tile = this.tiles.get(key);
+			if (tile == null) {
+				tile = new ArrayList<T>();
+				this.tiles.put(key, tile);
+			}
+			tile.add(item);
+			if (this.loadedTiles.contains(key))
+				loaded++;
+		}
+		this.itemTiles.put(item, itemKeys);
+		this.loadCounts.put(item, new int[] { loaded });
+		return loaded > 0;
+	}
+
+	public void remove(T item) {
+		int[] keys = this.itemTiles.remove(item);
+		if (keys == null)
+			return;
+		this.loadCounts.remove(item);
+		for (int key : keys) {
+			ArrayList<T> tile = this.tiles.get(key);
+			for (int i = tile.size() - 1; i >= 0; i--) {
+				if (tile.get(i) == item)
+					tile.remove(i);
+			}
+			if (tile.isEmpty())
+				this.tiles.remove(key);
+		}
+	}
+
+	public boolean isLoaded(T item) {
+		int[] count = this.loadCounts.get(item);
+		return count != null && count[0] > 0;
+	}
+
+	/**
+	 * Updates the loaded tiles for a view region. A region with
+	 * <code>minLon &gt; maxLon</code> crosses the dateline.
+	 *
+	 * @param loaded
+	 *            receives items that became loaded.
+	 * @param evicted
+	 *            receives items that are no longer loaded.
+	 * @return true if any tile was loaded or evicted.
+	 */
+	public boolean setView(double minLat, double maxLat, double minLon,
+			double maxLon, Collection<T> loaded, Collection<T> evicted) {
+		int r0 = this.row(minLat), r1 = this.row(maxLat);
+		int c0 = this.col(minLon), c1 = this.col(maxLon);
+		if (c1 < c0 || (c1 == c0 && minLon > maxLon))
+			c1 += this.cols;
+		if (r0 == this.viewRow0 && r1 == this.viewRow1 && c0 == this.viewCol0
+				&& c1 == this.viewCol1)
+			return false;
+		this.viewRow0 = r0;
+		this.viewRow1 = r1;
+		this.viewCol0 = c0;
+		this.viewCol1 = c1;
+
+		boolean changed = false;
+		for (Iterator<Integer> it = this.loadedTiles.iterator(); it.hasNext();) {
+			int key = it.next();
+			if (!this.inView(key, this.evictMargin)) {
+				it.remove();
+				changed = true;
+				ArrayList<T> tile = this.tiles.get(key);
+				if (tile == null)
+					continue;
+				for (T item : tile) {
+					if (--this.loadCounts.get(item)[0] == 0)
+						evicted.add(item);
+				}
+			}
+		}
+
+		int m = this.loadMargin;
+		int lr0 = Math.max(0, r0 - m), lr1 = Math.min(this.rows - 1, r1 + m);
+		int lc0 = c0 - m, lc1 = Math.min(c1 + m, lc0 + this.cols - 1);
+		for (int r = lr0; r <= lr1; r++) {
+			for (int c = lc0; c <= lc1; c++) {
+				int key = this.key(r, c);
+				if (!this.loadedTiles.add(key))
+					continue;
+				changed = true;
+				ArrayList<T> tile = this.tiles.get(key);
+				if (tile == null)
+					continue;
+				for (T item : tile) {
+					if (this.loadCounts.get(item)[0]++ == 0)
+						loaded.add(item);
+				}
+			}
+		}
+
+		return changed;
+	}
+
+	protected boolean inView(int key, int margin) {
+		int r = key / this.cols, c = key % this.cols;
+		if (r < this.viewRow0 - margin || r > this.viewRow1 + margin)
+			return false;
+		int span = this.viewCol1 - this.viewCol0 + 2 * margin;
+		if (span >= this.cols - 1)
+			return true;
+		int offset = ((c - (this.viewCol0 - margin)) % this.cols + this.cols)
+				% this.cols;
+		return offset <= span;
+	}
+
+	protected int row(double lat) {
+		return Math.max(0,
+				Math.min(this.rows - 1, (int) Math.floor((lat + 90.0)
+						/ this.tileSize)));
+	}
+
+	protected int col(double lon) {
+		return Math.max(0,
+				Math.min(this.cols - 1, (int) Math.floor((lon + 180.0)
+						/ this.tileSize)));
+	}
+
+	protected int key(int row, int col) {
+		return row * this.cols + ((col % this.cols) + this.cols) % this.cols;
+	}
+
+	public int getTileCount() {
+		return this.tiles.size();
+	}
+
+	public int getLoadedTileCount() {
+		return this.loadedTiles.size();
+	}
+
+	public int size() {
+		return this.itemTiles.size();
+	}
+}
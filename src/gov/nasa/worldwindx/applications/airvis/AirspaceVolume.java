@@ -0,0 +1,631 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.Arrays;
+
+/**
+ * Geometry of one {@link AirspaceRecord} prepared for fast point containment
+ * tests. Cylinders are tested by distance and azimuth from their center.
+ * PolyArc and Polygon boundaries are projected once onto an azimuthal
+ * equidistant plane around their first location, where the PolyArc's arc is
+ * an exact circle; each test then projects the query point and runs a
+ * crossing-number test.
+ * <p>
+ * Footprint bounds are kept as latitude/longitude boxes. A footprint that
+ * crosses the dateline is split into two boxes, one on each side.
+ * <p>
+ * Signed distances to the boundary, negative inside, are measured on the
+ * same plane: exactly against the arcs and radial edges of cylinders and
+ * the arc of a PolyArc, and against the boundary points elsewhere.
+ *
+ * @author mmatarazzo
+ */
+public class AirspaceVolume {
+
+	// Angular step used to break arcs into boundary points.
+	protected static final double ARC_STEP = 0.5;
+	// Longest boundary edge, in meters, before it is subdivided.
+	protected static final double MAX_EDGE = 50000.0;
+	// Terrain range assumed when bounding terrain conforming altitudes.
+	protected static final double MIN_TERRAIN = -500.0;
+	protected static final double MAX_TERRAIN = 9000.0;
+	// Padding added to bounds, in degrees, to cover arc sampling error.
+	protected static final double BOUNDS_PAD = 1e-5;
+
+	protected final AirspaceRecord record;
+	protected final AirspaceRecord.Shape shape;
+	protected final double centerLat, centerLon;
+	protected final double innerRadius, outerRadius;
+	protected final double leftAzimuth, sweep;
+	protected final double lowerAltitude, upperAltitude;
+	protected final boolean lowerAgl, upperAgl;
+
+	// Boundary in geographic coordinates. Closed implicitly except for
+	// curtains.
+	protected double[] ringLats, ringLons;
+	// Projection origin: the center of circular shapes, otherwise the first
+	// location. PolyArc, Polygon and curtain boundaries are projected about
+	// it.
+	protected double refLat, refLon;
+	protected double sinRefLat, cosRefLat;
+	protected double[] xs, ys;
+	// PolyArc boundary points [0, arcPoints) lie on its arc.
+	protected int arcPoints;
+	// Unit vectors, east and north, of the left and right azimuths.
+	protected double leftX, leftY, rightX, rightY;
+
+	protected double[] boxes;
+	protected double minAltitude, maxAltitude;
+
+	public AirspaceVolume(AirspaceRecord record) {
+		this.record = record;
+		this.shape = record.getShape();
+		this.centerLat = record.getCenterLatitude();
+		this.centerLon = record.getCenterLongitude();
+		this.innerRadius = record.getInnerRadius();
+		this.outerRadius = record.getOuterRadius();
+		this.lowerAltitude = record.getLowerAltitude();
+		this.upperAltitude = record.getUpperAltitude();
+		this.lowerAgl = record.isLowerTerrainConforming();
+		this.upperAgl = record.isUpperTerrainConforming();
+
+		double s = Geodesy.clockwiseSweep(record.getLeftAzimuth(),
+				record.getRightAzimuth());
+		this.leftAzimuth = Geodesy.normalizeAzimuth(record.getLeftAzimuth());
+		this.sweep = s == 0.0 ? 360.0 : s;
+
+		this.refLat = this.centerLat;
+		this.refLon = this.centerLon;
+		Ring ring = new Ring();
+		switch (this.shape) {
+		case CAPPED_CYLINDER:
+		case SPHERE:
+			ring.arc(this.centerLat, this.centerLon, this.outerRadius, 0.0,
+					360.0);
+			break;
+		case PARTIAL_CAPPED_CYLINDER:
+			ring.arc(this.centerLat, this.centerLon, this.outerRadius,
+					this.leftAzimuth, this.sweep);
+			if (this.sweep < 360.0) {
+				if (this.innerRadius > 0.0) {
+					ring.arc(this.centerLat, this.centerLon, this.innerRadius,
+							this.leftAzimuth + this.sweep, -this.sweep);
+				} else {
+					ring.add(this.centerLat, this.centerLon);
+				}
+			}
+			break;
+		case POLY_ARC: {
+			int n = record.getLocationCount();
+			this.refLat = record.getLatitude(0);
+			this.refLon = record.getLongitude(0);
+			ring.arc(this.refLat, this.refLon, this.outerRadius,
+					this.leftAzimuth, this.sweep);
+			this.arcPoints = ring.size;
+			for (int i = n - 1; i >= 1; i--) {
+				ring.lineTo(record.getLatitude(i), record.getLongitude(i), false);
+			}
+			ring.closeLine(false);
+			break;
+		}
+		case POLYGON:
+		case CURTAIN: {
+			int n = record.getLocationCount();
+			this.refLat = record.getLatitude(0);
+			this.refLon = record.getLongitude(0);
+			boolean rhumb = this.shape == AirspaceRecord.Shape.CURTAIN
+					&& record.isRhumbLine();
+			ring.add(this.refLat, this.refLon);
+			for (int i = 1; i < n; i++) {
+				ring.lineTo(record.getLatitude(i), record.getLongitude(i), rhumb);
+			}
+			if (this.shape == AirspaceRecord.Shape.POLYGON)
+				ring.closeLine(false);
+			break;
+		}
+		}
+		this.ringLats = ring.lats();
+		this.ringLons = ring.lons();
+
+		this.sinRefLat = Math.sin(Math.toRadians(this.refLat));
+		this.cosRefLat = Math.cos(Math.toRadians(this.refLat));
+		if (this.shape == AirspaceRecord.Shape.POLY_ARC
+				|| this.shape == AirspaceRecord.Shape.POLYGON
+				|| this.shape == AirspaceRecord.Shape.CURTAIN) {
+			int n = this.ringLats.length;
+			this.xs = new double[n];
+			this.ys = new double[n];
+			Geodesy.project(this.refLat, this.refLon, this.ringLats,
+					this.ringLons, this.xs, this.ys, n);
+		}
+
+		double left = Math.toRadians(this.leftAzimuth);
+		double right = Math.toRadians(this.leftAzimuth + this.sweep);
+		this.leftX = Math.sin(left);
+		this.leftY = Math.cos(left);
+		this.rightX = Math.sin(right);
+		this.rightY = Math.cos(right);
+
+		this.computeBounds();
+	}
+
+	public AirspaceRecord getRecord() {
+		return this.record;
+	}
+
+	public AirspaceRecord.Shape getShape() {
+		return this.shape;
+	}
+
+	/**
+	 * @return the clockwise sweep of a partial cylinder or PolyArc in
+	 *         degrees, 360 for a full circle.
+	 */
+	public double getSweep() {
+		return this.sweep;
+	}
+
+	/**
+	 * @return one or two boxes as minLat, maxLat, minLon, maxLon in degrees.
+	 */
+	public double[] getBoxes() {
+		return this.boxes;
+	}
+
+	public int getBoxCount() {
+		return this.boxes.length / 4;
+	}
+
+	/**
+	 * @return the lowest altitude above mean sea level the volume can reach,
+	 *         allowing for terrain when the floor is terrain conforming.
+	 */
+	public double getMinAltitude() {
+		return this.minAltitude;
+	}
+
+	public double getMaxAltitude() {
+		return this.maxAltitude;
+	}
+
+	public double getLowerAltitude() {
+		return this.lowerAltitude;
+	}
+
+	public double getUpperAltitude() {
+		return this.upperAltitude;
+	}
+
+	public boolean isLowerTerrainConforming() {
+		return this.lowerAgl;
+	}
+
+	public boolean isUpperTerrainConforming() {
+		return this.upperAgl;
+	}
+
+	/**
+	 * @return boundary latitudes; the ring closes back to its first point
+	 *         unless the volume is a curtain.
+	 */
+	public double[] getRingLatitudes() {
+		return this.ringLats;
+	}
+
+	public double[] getRingLongitudes() {
+		return this.ringLons;
+	}
+
+	/**
+	 * Tests containment with terrain conforming altitudes taken relative to
+	 * sea level.
+	 */
+	public boolean contains(double lat, double lon, double altitude) {
+		return this.contains(lat, lon, altitude, 0.0);
+	}
+
+	/**
+	 * @param groundElevation
+	 *            terrain elevation at the point, used for terrain conforming
+	 *            floors and ceilings.
+	 */
+	public boolean contains(double lat, double lon, double altitude,
+			double groundElevation) {
+		if (this.shape == AirspaceRecord.Shape.SPHERE)
+			return this.sphereContains(lat, lon, altitude, groundElevation);
+
+		return this.containsAltitude(altitude, groundElevation)
+				&& this.containsLateral(lat, lon);
+	}
+
+	public boolean containsAltitude(double altitude, double groundElevation) {
+		double floor = this.lowerAltitude
+				+ (this.lowerAgl ? groundElevation : 0.0);
+		double ceiling = this.upperAltitude
+				+ (this.upperAgl ? groundElevation : 0.0);
+		return altitude >= floor && altitude <= ceiling;
+	}
+
+	/**
+	 * Tests whether a location lies inside the footprint.
+	 */
+	public boolean containsLateral(double lat, double lon) {
+		if (this.shape == AirspaceRecord.Shape.CURTAIN)
+			return false;
+
+		// Distance and bearing from the projection origin, sharing one set of
+		// trigonometric terms; see Geodesy.project.
+		double phi = Math.toRadians(lat);
+		double dLambda = Math.toRadians(lon - this.refLon);
+		double sinPhi = Math.sin(phi), cosPhi = Math.cos(phi);
+		double cosDLambda = Math.cos(dLambda);
+		double x = cosPhi * Math.sin(dLambda);
+		double y = this.cosRefLat * sinPhi - this.sinRefLat * cosPhi
+				* cosDLambda;
+		double z = this.sinRefLat * sinPhi + this.cosRefLat * cosPhi
+				* cosDLambda;
+		double sinC = Math.sqrt(x * x + y * y);
+		double d = Geodesy.EARTH_RADIUS * Math.atan2(sinC, z);
+
+		switch (this.shape) {
+		case CAPPED_CYLINDER:
+		case SPHERE:
+			return d <= this.outerRadius && d >= this.innerRadius;
+		case PARTIAL_CAPPED_CYLINDER: {
+			if (d > this.outerRadius || d < this.innerRadius)
+				return false;
+			if (this.sweep >= 360.0)
+				return true;
+			double az = Math.toDegrees(Math.atan2(x, y));
+			return Geodesy.clockwiseSweep(this.leftAzimuth, az) <= this.sweep;
+		}
+		default: {
+			double k = sinC > 0.0 ? d / sinC : Geodesy.EARTH_RADIUS;
+			return pointInPolygon(this.xs, this.ys, k * x, k * y);
+		}
+		}
+	}
+
+	/**
+	 * @return the horizontal distance in meters from a location to the
+	 *         footprint boundary, negative inside. Curtains have no inside.
+	 */
+	public double lateralDistance(double lat, double lon) {
+		// Distance and bearing from the projection origin, as in
+		// containsLateral.
+		double phi = Math.toRadians(lat);
+		double dLambda = Math.toRadians(lon - this.refLon);
+		double sinPhi = Math.sin(phi), cosPhi = Math.cos(phi);
+		double cosDLambda = Math.cos(dLambda);
+		double x = cosPhi * Math.sin(dLambda);
+		double y = this.cosRefLat * sinPhi - this.sinRefLat * cosPhi
+				* cosDLambda;
+		double z = this.sinRefLat * sinPhi + this.cosRefLat * cosPhi
+				* cosDLambda;
+		double sinC = Math.sqrt(x * x + y * y);
+		double d = Geodesy.EARTH_RADIUS * Math.atan2(sinC, z);
+		double k = sinC > 0.0 ? d / sinC : Geodesy.EARTH_RADIUS;
+		double px = k * x, py = k * y;
+
+		switch (this.shape) {
+		case CAPPED_CYLINDER:
+		case SPHERE:
+			return this.innerRadius > 0.0 ? Math.max(d - this.outerRadius,
+					this.innerRadius - d) : d - this.outerRadius;
+		case PARTIAL_CAPPED_CYLINDER: {
+			if (this.sweep >= 360.0)
+				return this.innerRadius > 0.0 ? Math.max(d - this.outerRadius,
+						this.innerRadius - d) : d - this.outerRadius;
+			boolean inSweep = Geodesy.clockwiseSweep(this.leftAzimuth,
+					Math.toDegrees(Math.atan2(x, y))) <= this.sweep;
+			double dist = Math.min(
+					this.arcDistance(px, py, d, inSweep, this.outerRadius),
+					Math.min(
+							segmentDistance(px, py, this.innerRadius
+									* this.leftX, this.innerRadius * this.leftY,
+									this.outerRadius * this.leftX,
+									this.outerRadius * this.leftY),
+							segmentDistance(px, py, this.innerRadius
+									* this.rightX, this.innerRadius
+									* this.rightY, this.outerRadius
+									* this.rightX, this.outerRadius
+									* this.rightY)));
+			if (this.innerRadius > 0.0)
+				dist = Math.min(dist, this.arcDistance(px, py, d, inSweep,
+						this.innerRadius));
+			boolean inside = inSweep && d <= this.outerRadius
+					&& d >= this.innerRadius;
+			return inside ? -dist : dist;
+		}
+		case POLY_ARC: {
+			boolean inSweep = Geodesy.clockwiseSweep(this.leftAzimuth,
+					Math.toDegrees(Math.atan2(x, y))) <= this.sweep;
+			double dist = Math.min(
+					this.arcDistance(px, py, d, inSweep, this.outerRadius),
+					polylineDistance(this.xs, this.ys, this.arcPoints - 1, px,
+							py, true));
+			return pointInPolygon(this.xs, this.ys, px, py) ? -dist : dist;
+		}
+		case POLYGON: {
+			double dist = polylineDistance(this.xs, this.ys, 0, px, py, true);
+			return pointInPolygon(this.xs, this.ys, px, py) ? -dist : dist;
+		}
+		default:
+			return polylineDistance(this.xs, this.ys, 0, px, py, false);
+		}
+	}
+
+	/**
+	 * @return the vertical distance in meters from an altitude to the floor
+	 *         or ceiling, negative between them. For a sphere, the distance
+	 *         to its top or bottom.
+	 */
+	public double verticalDistance(double altitude, double groundElevation) {
+		if (this.shape == AirspaceRecord.Shape.SPHERE)
+			return Math.abs(altitude - this.lowerAltitude
+					- (this.lowerAgl ? groundElevation : 0.0))
+					- this.outerRadius;
+		double floor = this.lowerAltitude
+				+ (this.lowerAgl ? groundElevation : 0.0);
+		double ceiling = this.upperAltitude
+				+ (this.upperAgl ? groundElevation : 0.0);
+		return Math.max(floor - altitude, altitude - ceiling);
+	}
+
+	/**
+	 * @return the distance in meters from a point to the nearest face of the
+	 *         volume, negative inside.
+	 */
+	public double distance(double lat, double lon, double altitude,
+			double groundElevation) {
+		if (this.shape == AirspaceRecord.Shape.SPHERE) {
+			double centerAltitude = this.lowerAltitude
+					+ (this.lowerAgl ? groundElevation : 0.0);
+			double a = Geodesy.EARTH_RADIUS + centerAltitude;
+			double b = Geodesy.EARTH_RADIUS + altitude;
+			double gamma = Geodesy.distance(this.centerLat, this.centerLon,
+					lat, lon) / Geodesy.EARTH_RADIUS;
+			return Math.sqrt(Math.max(0.0,
+					a * a + b * b - 2.0 * a * b * Math.cos(gamma)))
+					- this.outerRadius;
+		}
+		return combine(this.lateralDistance(lat, lon),
+				this.verticalDistance(altitude, groundElevation));
+	}
+
+	/**
+	 * Combines signed lateral and vertical distances into the distance to
+	 * the nearest face of a prism.
+	 */
+	public static double combine(double lateral, double vertical) {
+		if (lateral > 0.0 && vertical > 0.0)
+			return Math.sqrt(lateral * lateral + vertical * vertical);
+		return Math.max(lateral, vertical);
+	}
+
+	/**
+	 * Distance on the plane to the arc of a radius between the left and
+	 * right azimuths, for a point at distance d from the center.
+	 */
+	protected double arcDistance(double px, double py, double d,
+			boolean inSweep, double radius) {
+		if (inSweep)
+			return Math.abs(d - radius);
+		return Math.min(
+				Math.hypot(px - radius * this.leftX, py - radius * this.leftY),
+				Math.hypot(px - radius * this.rightX, py - radius * this.rightY));
+	}
+
+	/**
+	 * Distance on the plane to the edges of a boundary from point
+	 * <code>first</code> to the last, then back to point 0 if closed.
+	 */
+	protected static double polylineDistance(double[] xs, double[] ys,
+			int first, double x, double y, boolean closed) {
+		int n = xs.length;
+		double best = Double.MAX_VALUE;
+		for (int i = first; i < n - 1; i++)
+			best = Math.min(best,
+					segmentDistance2(x, y, xs[i], ys[i], xs[i + 1], ys[i + 1]));
+		if (closed)
+			best = Math.min(best,
+					segmentDistance2(x, y, xs[n - 1], ys[n - 1], xs[0], ys[0]));
+		if (n == 1)
+			best = (x - xs[0]) * (x - xs[0]) + (y - ys[0]) * (y - ys[0]);
+		return Math.sqrt(best);
+	}
+
+	protected static double segmentDistance(double x, double y, double x0,
+			double y0, double x1, double y1) {
+		return Math.sqrt(segmentDistance2(x, y, x0, y0, x1, y1));
+	}
+
+	protected static double segmentDistance2(double x, double y, double x0,
+			double y0, double x1, double y1) {
+		double dx = x1 - x0, dy = y1 - y0;
+		double length2 = dx * dx + dy * dy;
+		double t = length2 > 0.0 ? ((x - x0) * dx + (y - y0) * dy) / length2
+				: 0.0;
+		t = Math.max(0.0, Math.min(1.0, t));
+		double ex = x0 + t * dx - x, ey = y0 + t * dy - y;
+		return ex * ex + ey * ey;
+	}
+
+	protected boolean sphereContains(double lat, double lon, double altitude,
+			double groundElevation) {
+		double centerAltitude = this.lowerAltitude
+				+ (this.lowerAgl ? groundElevation : 0.0);
+		double a = Geodesy.EARTH_RADIUS + centerAltitude;
+		double b = Geodesy.EARTH_RADIUS + altitude;
+		double gamma = Geodesy.distance(this.centerLat, this.centerLon, lat,
+				lon) / Geodesy.EARTH_RADIUS;
+		double d2 = a * a + b * b - 2.0 * a * b * Math.cos(gamma);
+		return d2 <= this.outerRadius * this.outerRadius;
+	}
+
+	protected static boolean pointInPolygon(double[] xs, double[] ys, double x,
+			double y) {
+		boolean inside = false;
+		int n = xs.length;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			if ((ys[i] > y) != (ys[j] > y)
+					&& x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i])
+							+ xs[i])
+				inside = !inside;
+		}
+		return inside;
+	}
+
+	protected void computeBounds() {
+		if (this.shape == AirspaceRecord.Shape.SPHERE) {
+			double center = this.lowerAltitude;
+			this.minAltitude = center - this.outerRadius
+					+ (this.lowerAgl ? MIN_TERRAIN : 0.0);
+			this.maxAltitude = center + this.outerRadius
+					+ (this.lowerAgl ? MAX_TERRAIN : 0.0);
+		} else {
+			this.minAltitude = this.lowerAltitude
+					+ (this.lowerAgl ? MIN_TERRAIN : 0.0);
+			this.maxAltitude = this.upperAltitude
+					+ (this.upperAgl ? MAX_TERRAIN : 0.0);
+		}
+
+		// Circles around a pole cover every longitude.
+		if ((this.shape == AirspaceRecord.Shape.CAPPED_CYLINDER || this.shape == AirspaceRecord.Shape.SPHERE)
+				&& this.coversPole()) {
+			double delta = Math.toDegrees(this.outerRadius
+					/ Geodesy.EARTH_RADIUS);
+			this.boxes = new double[] {
+					Math.max(-90.0, this.centerLat - delta),
+					Math.min(90.0, this.centerLat + delta), -180.0, 180.0 };
+			return;
+		}
+
+		// Unwrap longitudes along the ring so a footprint crossing the
+		// dateline gets a continuous range, then split it at +/-180.
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		double lon = this.ringLons[0];
+		for (int i = 0; i < this.ringLats.length; i++) {
+			if (i > 0)
+				lon += Geodesy.normalizeLongitude(this.ringLons[i]
+						- this.ringLons[i - 1]);
+			minLat = Math.min(minLat, this.ringLats[i]);
+			maxLat = Math.max(maxLat, this.ringLats[i]);
+			minLon = Math.min(minLon, lon);
+			maxLon = Math.max(maxLon, lon);
+		}
+		minLat = Math.max(-90.0, minLat - BOUNDS_PAD);
+		maxLat = Math.min(90.0, maxLat + BOUNDS_PAD);
+		minLon -= BOUNDS_PAD;
+		maxLon += BOUNDS_PAD;
+
+		if (maxLon - minLon >= 360.0) {
+			this.boxes = new double[] { minLat, maxLat, -180.0, 180.0 };
+		} else if (minLon < -180.0) {
+			this.boxes = new double[] { minLat, maxLat, minLon + 360.0, 180.0,
+					minLat, maxLat, -180.0, maxLon };
+		} else if (maxLon > 180.0) {
+			this.boxes = new double[] { minLat, maxLat, minLon, 180.0, minLat,
+					maxLat, -180.0, maxLon - 360.0 };
+		} else {
+			this.boxes = new double[] { minLat, maxLat, minLon, maxLon };
+		}
+	}
+
+	protected boolean coversPole() {
+		double delta = Math.toDegrees(this.outerRadius / Geodesy.EARTH_RADIUS);
+		return this.centerLat + delta >= 90.0 || this.centerLat - delta <= -90.0;
+	}
+
+	/**
+	 * Accumulates boundary points, subdividing arcs and long edges.
+	 */
+	protected static class Ring {
+
+		protected double[] lats = new double[64];
+		protected double[] lons = new double[64];
+		protected int size;
+		protected final double[] point = new double[2];
+
+		public void add(double lat, double lon) {
+			this.ensureCapacity(this.size + 1);
+			this.lats[this.size] = lat;
+			this.lons[this.size] = lon;
+			this.size++;
+		}
+
+		protected void ensureCapacity(int capacity) {
+			if (capacity > this.lats.length) {
+				int length = Math.max(capacity, this.lats.length * 2);
+				this.lats = Arrays.copyOf(this.lats, length);
+				this.lons = Arrays.copyOf(this.lons, length);
+			}
+		}
+
+		/**
+		 * Adds points along an arc. A negative sweep runs counterclockwise.
+		 */
+		public void arc(double centerLat, double centerLon, double radius,
+				double fromAzimuth, double sweep) {
+			int steps = Math.max(1, (int) Math.ceil(Math.abs(sweep) / ARC_STEP));
+			// A full circle does not repeat its first point.
+			int count = Math.abs(sweep) >= 360.0 ? steps : steps + 1;
+			this.ensureCapacity(this.size + steps + 1);
+			double[] lats = new double[steps + 1];
+			double[] lons = new double[steps + 1];
+			Geodesy.arc(centerLat, centerLon, radius, fromAzimuth, sweep, lats,
+					lons, steps + 1);
+			System.arraycopy(lats, 0, this.lats, this.size, count);
+			System.arraycopy(lons, 0, this.lons, this.size, count);
+			this.size += count;
+		}
+
+		/**
+		 * Adds a straight edge from the last point, as a great circle or a
+		 * rhumb line.
+		 */
+		public void lineTo(double lat, double lon, boolean rhumb) {
+			double lat0 = this.lats[this.size - 1];
+			double lon0 = this.lons[this.size - 1];
+			double length = Geodesy.distance(lat0, lon0, lat, lon);
+			int steps = (int) Math.ceil(length / MAX_EDGE);
+			double dLon = Geodesy.normalizeLongitude(lon - lon0);
+			double bearing = Geodesy.bearing(lat0, lon0, lat, lon);
+			for (int i = 1; i < steps; i++) {
+				double t = (double) i / steps;
+				if (rhumb) {
+					// Rhumb lines are straight in Mercator; interpolating
+					// latitude and longitude is close enough for bounds.
+					this.add(lat0 + (lat - lat0) * t,
+							Geodesy.normalizeLongitude(lon0 + dLon * t));
+				} else {
+					Geodesy.destination(lat0, lon0, bearing, length * t,
+							this.point);
+					this.add(this.point[0], this.point[1]);
+				}
+			}
+			this.add(lat, lon);
+		}
+
+		/**
+		 * Subdivides the implicit closing edge back to the first point.
+		 */
+		public void closeLine(boolean rhumb) {
+			double lat = this.lats[0];
+			double lon = this.lons[0];
+			this.lineTo(lat, lon, rhumb);
+			this.size--;
+		}
+
+		public double[] lats() {
+			return Arrays.copyOf(this.lats, this.size);
+		}
+
+		public double[] lons() {
+			return Arrays.copyOf(this.lons, this.size);
+		}
+	}
+}
@@ -3,27 +3,34 @@
  */
 package gov.nasa.worldwindx.applications.airvis;
 
+import gov.nasa.worldwind.WorldWind;
 import gov.nasa.worldwind.WorldWindow;
 import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.event.RenderingEvent;
+import gov.nasa.worldwind.event.RenderingListener;
 import gov.nasa.worldwind.event.SelectEvent;
 import gov.nasa.worldwind.event.SelectListener;
 import gov.nasa.worldwind.geom.Angle;
 import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.geom.Line;
 import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Sector;
 import gov.nasa.worldwind.layers.AirspaceLayer;
+import gov.nasa.worldwind.layers.RenderableLayer;
 import gov.nasa.worldwind.pick.PickedObjectList;
 import gov.nasa.worldwind.render.Annotation;
+import gov.nasa.worldwind.render.BasicShapeAttributes;
 import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.render.Path;
 import gov.nasa.worldwind.render.airspaces.Airspace;
-import gov.nasa.worldwind.render.airspaces.AirspaceAttributes;
-import gov.nasa.worldwind.render.airspaces.BasicAirspaceAttributes;
 import gov.nasa.worldwind.render.airspaces.CappedCylinder;
 import gov.nasa.worldwind.render.airspaces.Curtain;
 import gov.nasa.worldwind.render.airspaces.PartialCappedCylinder;
 import gov.nasa.worldwind.render.airspaces.PolyArc;
 import gov.nasa.worldwind.render.airspaces.SphereAirspace;
 import gov.nasa.worldwind.util.BasicDragger;
-import gov.nasa.worldwind.util.WWUtil;
+import gov.nasa.worldwind.util.Logging;
+import gov.nasa.worldwind.util.PerformanceStatistic;
 import gov.nasa.worldwind.view.orbit.BasicOrbitView;
 import gov.nasa.worldwindx.examples.ApplicationTemplate;
 import gov.nasa.worldwindx.examples.FlatWorldPanel;
@@ -31,26 +38,57 @@ import gov.nasa.worldwindx.examples.LayerPanel;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Frame;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import javax.management.JMException;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.EventListenerList;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  * @author mmatarazzo
@@ -65,11 +103,17 @@ public class AirspacesGA extends ApplicationTemplate {
 	public static final String ACTION_COMMAND_ANTIALIAS = "gov.nasa.worldwind.avkey.ActionCommandAntialias";
 	public static final String ACTION_COMMAND_DEPTH_OFFSET = "gov.nasa.worldwind.avkey.ActionCommandDepthOffset";
 	public static final String ACTION_COMMAND_DRAW_EXTENT = "gov.nasa.worldwind.avkey.ActionCommandDrawExtent";
+	public static final String ACTION_COMMAND_CPU_PICKING = "ActionCommandCpuPicking";
+	public static final String ACTION_COMMAND_SHOW_METRICS = "ActionCommandShowMetrics";
+	public static final String ACTION_COMMAND_USE_SCHEDULES = "ActionCommandUseSchedules";
+	public static final String ACTION_COMMAND_SET_TIME = "ActionCommandSetTime";
+	public static final String ACTION_COMMAND_SET_ALTITUDE_BAND = "ActionCommandSetAltitudeBand";
 	public static final String ACTION_COMMAND_DRAW_WIREFRAME = "gov.nasa.worldwind.avkey.ActionCommandDrawWireframe";
 	public static final String ACTION_COMMAND_LOAD_DATELINE_CROSSING_AIRSPACES = "ActionCommandLoadDatelineCrossingAirspaces";
 	public static final String ACTION_COMMAND_LOAD_DEMO_AIRSPACES = "ActionCommandLoadDemoAirspaces";
 	public static final String ACTION_COMMAND_LOAD_INTERSECTING_AIRSPACES = "ActionCommandLoadIntersectingAirspaces";
 	public static final String ACTION_COMMAND_ZOOM_TO_DEMO_AIRSPACES = "ActionCommandZoomToDemoAirspaces";
+	public static final String ACTION_COMMAND_PLAN_ROUTE = "ActionCommandPlanRoute";
 	public static final String ACTION_COMMAND_SAVE_AIRSPACES = "ActionCommandSaveAirspaces";
 	public static final String ACTION_COMMAND_READ_AIRSPACES = "ActionCommandReadAirspaces";
 
@@ -77,6 +121,48 @@ public class AirspacesGA extends ApplicationTemplate {
 	public static final String ACTION_COMMAND_DRAW_IADCLASSB = "ActionCommandDrawIADCLASSB";
 	public static final String ACTION_COMMAND_DRAW_HEFCLASSD = "ActionCommandDrawHEFCLASSD";
 
+	public static final String DEFAULT_AIRSPACES = "data/dc-airspaces.csv";
+	public static final String AIRSPACES_PROPERTY = "gov.nasa.worldwindx.applications.airvis.AirspaceFiles";
+	public static final String DEFAULT_SCHEDULES = "data/dc-schedules.csv";
+	public static final String SCHEDULES_PROPERTY = "gov.nasa.worldwindx.applications.airvis.ScheduleFile";
+	// Traffic feed file or host:port, and replay speed for files.
+	public static final String TRAFFIC_PROPERTY = "gov.nasa.worldwindx.applications.airvis.TrafficFeed";
+	public static final String TRAFFIC_SPEED_PROPERTY = "gov.nasa.worldwindx.applications.airvis.TrafficSpeed";
+	// Directory of SRTM tiles for terrain conforming altitudes.
+	public static final String TERRAIN_PROPERTY = "gov.nasa.worldwindx.applications.airvis.TerrainDirectory";
+	// Memory budget for built airspace shapes, in megabytes.
+	public static final String SHAPE_BUDGET_PROPERTY = "gov.nasa.worldwindx.applications.airvis.ShapeBudget";
+
+	// Used to report startup time to data and to first frame.
+	protected static final long START_TIME = System.nanoTime();
+
+	public static final String GROUP_DC_SFRA = "DCSFRA";
+	public static final String GROUP_IAD_CLASS_B = "IAD";
+	public static final String GROUP_HEF_CLASS_D = "HEF";
+	public static final String GROUP_DEMO = "DEMO";
+	public static final String GROUP_DATELINE = "DATELINE";
+	public static final String GROUP_INTERSECTING = "INTERSECTING";
+
+	// Edge of the tiles used to cull airspaces far from the view, degrees.
+	public static final double TILE_SIZE = 1.0;
+
+	protected static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+	// Routes are planned at this altitude, MSL, through a raster reaching
+	// ROUTE_MARGIN degrees beyond their ends, over ground up to
+	// ROUTE_TERRAIN meters.
+	public static final double ROUTE_ALTITUDE = 2000.0 * AirspaceRecord.FEET_TO_METERS;
+	public static final double ROUTE_MIN_ALTITUDE = 1000.0 * AirspaceRecord.FEET_TO_METERS;
+	public static final double ROUTE_MAX_ALTITUDE = 12500.0 * AirspaceRecord.FEET_TO_METERS;
+	public static final double ROUTE_CELL_DEGREES = 0.01;
+	public static final double ROUTE_CELL_METERS = 250.0 * AirspaceRecord.FEET_TO_METERS;
+	public static final double ROUTE_MARGIN = 0.5;
+	public static final double ROUTE_TERRAIN = 600.0;
+
+	// Altitude band slider range and step, feet MSL.
+	public static final int BAND_MAX_FEET = 60000;
+	public static final int BAND_STEP_FEET = 500;
+
 	public static class AppFrame extends ApplicationTemplate.AppFrame {
 
 		protected AirspacesController controller;
@@ -99,6 +185,18 @@ public class AirspacesGA extends ApplicationTemplate {
 			box.add(this.flatWorldPanel);
 			this.getLayerPanel().add(box, BorderLayout.SOUTH);
 
+			this.getWwd().addRenderingListener(new RenderingListener() {
+				@Override
+				public void stageChanged(RenderingEvent event) {
+					if (event.getStage().equals(RenderingEvent.AFTER_BUFFER_SWAP)) {
+						getWwd().removeRenderingListener(this);
+						Logging.logger().info(
+								"First frame " + elapsedSinceStart()
+										+ " ms after start");
+					}
+				}
+			});
+
 			this.pack();
 			// this.setLocationByPlatform(true);
 			this.setExtendedState(Frame.MAXIMIZED_BOTH);
@@ -114,6 +212,13 @@ public class AirspacesGA extends ApplicationTemplate {
 	public static class AirspacesPanel extends JPanel implements ActionListener {
 
 		protected EventListenerList eventListeners = new EventListenerList();
+		protected JProgressBar buildProgress;
+		protected JLabel timeLabel;
+		protected JSlider timeline;
+		protected JCheckBox bandUsed;
+		protected JLabel bandLabel;
+		protected JSlider bandFloor;
+		protected JSlider bandCeiling;
 
 		public AirspacesPanel() {
 			this.makePanel();
@@ -132,7 +237,7 @@ public class AirspacesGA extends ApplicationTemplate {
 			btn = new JButton("Load Intersecting Airspaces");
 			btn.setActionCommand(ACTION_COMMAND_LOAD_INTERSECTING_AIRSPACES);
 			btn.addActionListener(this);
-			// this.add(btn);
+			this.add(btn);
 
 			btn = new JButton("Load Dateline Crossing Airspaces");
 			btn.setActionCommand(ACTION_COMMAND_LOAD_DATELINE_CROSSING_AIRSPACES);
@@ -144,6 +249,11 @@ public class AirspacesGA extends ApplicationTemplate {
 			btn.addActionListener(this);
 			this.add(btn);
 
+			btn = new JButton("Plan Route");
+			btn.setActionCommand(ACTION_COMMAND_PLAN_ROUTE);
+			btn.addActionListener(this);
+			this.add(btn);
+
 			btn = new JButton("Save Airspaces");
 			btn.setActionCommand(ACTION_COMMAND_SAVE_AIRSPACES);
 			btn.addActionListener(this);
@@ -174,6 +284,16 @@ public class AirspacesGA extends ApplicationTemplate {
 			cb.addActionListener(this);
 			this.add(cb);
 
+			cb = new JCheckBox("CPU Picking", false);
+			cb.setActionCommand(ACTION_COMMAND_CPU_PICKING);
+			cb.addActionListener(this);
+			this.add(cb);
+
+			cb = new JCheckBox("Show Metrics", false);
+			cb.setActionCommand(ACTION_COMMAND_SHOW_METRICS);
+			cb.addActionListener(this);
+			this.add(cb);
+
 			cb = new JCheckBox("DC SFRA", false);
 			cb.setActionCommand(ACTION_COMMAND_DRAW_DCSFRA);
 			cb.addActionListener(this);
@@ -189,6 +309,128 @@ public class AirspacesGA extends ApplicationTemplate {
 			cb.addActionListener(this);
 			this.add(cb);
 			
+			cb = new JCheckBox("Use Schedules", false);
+			cb.setActionCommand(ACTION_COMMAND_USE_SCHEDULES);
+			cb.addActionListener(this);
+			this.add(cb);
+
+			// Minutes into the schedule's day, UTC. Every move is passed on
+			// while dragging, so the airspaces follow the thumb.
+			this.timeLabel = new JLabel();
+			this.add(this.timeLabel);
+			this.timeline = new JSlider(0, 24 * 60 - 1, 0);
+			this.timeline.addChangeListener(new ChangeListener() {
+				@Override
+				public void stateChanged(ChangeEvent e) {
+					updateTimeLabel();
+					callActionListeners(new ActionEvent(timeline,
+							ActionEvent.ACTION_PERFORMED,
+							ACTION_COMMAND_SET_TIME));
+				}
+			});
+			this.updateTimeLabel();
+			this.add(this.timeline);
+
+			// Floor and ceiling of the altitude band, in steps of
+			// BAND_STEP_FEET. Each slider pushes the other along rather than
+			// cross it, and every move is passed on while dragging.
+			ChangeListener bandListener = new ChangeListener() {
+				@Override
+				public void stateChanged(ChangeEvent e) {
+					if (e.getSource() == bandFloor
+							&& bandCeiling.getValue() < bandFloor.getValue())
+						bandCeiling.setValue(bandFloor.getValue());
+					else if (e.getSource() == bandCeiling
+							&& bandFloor.getValue() > bandCeiling.getValue())
+						bandFloor.setValue(bandCeiling.getValue());
+					updateBandLabel();
+					if (bandUsed.isSelected())
+						callActionListeners(new ActionEvent(AirspacesPanel.this,
+								ActionEvent.ACTION_PERFORMED,
+								ACTION_COMMAND_SET_ALTITUDE_BAND));
+				}
+			};
+			this.bandUsed = new JCheckBox("Altitude Band", false);
+			this.bandUsed.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					callActionListeners(new ActionEvent(AirspacesPanel.this,
+							ActionEvent.ACTION_PERFORMED,
+							ACTION_COMMAND_SET_ALTITUDE_BAND));
+				}
+			});
+			this.add(this.bandUsed);
+			this.bandLabel = new JLabel();
+			this.add(this.bandLabel);
+			int steps = BAND_MAX_FEET / BAND_STEP_FEET;
+			this.bandFloor = new JSlider(0, steps, 3000 / BAND_STEP_FEET);
+			this.bandFloor.addChangeListener(bandListener);
+			this.add(this.bandFloor);
+			this.bandCeiling = new JSlider(0, steps, 5000 / BAND_STEP_FEET);
+			this.bandCeiling.addChangeListener(bandListener);
+			this.add(this.bandCeiling);
+			this.updateBandLabel();
+
+			this.buildProgress = new JProgressBar();
+			this.buildProgress.setStringPainted(true);
+			this.setBuildProgress(0, 0);
+			this.add(this.buildProgress);
+		}
+
+		protected void updateTimeLabel() {
+			int minutes = this.timeline.getValue();
+			this.timeLabel.setText(String.format("Time %02d:%02dZ",
+					minutes / 60, minutes % 60));
+		}
+
+		protected void updateBandLabel() {
+			this.bandLabel.setText(String.format("%,d - %,d ft MSL",
+					this.getBandFloor(), this.getBandCeiling()));
+		}
+
+		public boolean isAltitudeBandUsed() {
+			return this.bandUsed.isSelected();
+		}
+
+		/**
+		 * @return the bottom of the altitude band, feet MSL.
+		 */
+		public int getBandFloor() {
+			return this.bandFloor.getValue() * BAND_STEP_FEET;
+		}
+
+		public int getBandCeiling() {
+			return this.bandCeiling.getValue() * BAND_STEP_FEET;
+		}
+
+		/**
+		 * Shows how many of the shapes being built in the background are
+		 * done; a total of zero means none are being built.
+		 */
+		public void setBuildProgress(int built, int total) {
+			if (total == 0) {
+				this.buildProgress.setMaximum(1);
+				this.buildProgress.setValue(0);
+				this.buildProgress.setString("");
+			} else {
+				this.buildProgress.setMaximum(total);
+				this.buildProgress.setValue(built);
+				this.buildProgress.setString("Building " + built + " of "
+						+ total + " shapes");
+			}
+		}
+
+		/**
+		 * Checks or unchecks the checkbox sending an action command, without
+		 * sending it.
+		 */
+		public void setSelected(String actionCommand, boolean selected) {
+			for (Component c : this.getComponents()) {
+				if (c instanceof JCheckBox
+						&& actionCommand.equals(((JCheckBox) c)
+								.getActionCommand()))
+					((JCheckBox) c).setSelected(selected);
+			}
 		}
 
 		public void addActionListener(ActionListener listener) {
@@ -216,7 +458,9 @@ public class AirspacesGA extends ApplicationTemplate {
 		}
 	}
 
-	public static class AirspacesController implements ActionListener {
+	public static class AirspacesController implements ActionListener,
+			TrafficLayer.IndexProvider, AirspaceModel.Listener,
+			AirspaceShapeBuilder.Listener {
 
 		protected AppFrame frame;
 		// AWT/Swing stuff.
@@ -224,12 +468,80 @@ public class AirspacesGA extends ApplicationTemplate {
 		// World Wind stuff.
 		protected AirspaceLayer aglAirspaces;
 		protected AirspaceLayer amslAirspaces;
-		protected Airspace lastHighlit;
-		protected AirspaceAttributes lastAttrs;
+		protected AirspaceLayers layers;
+		protected AirspaceHighlighter highlighter = new AirspaceHighlighter();
+		// Rollover picks either by the GL pick pass or by casting rays
+		// against the airspace index.
+		protected boolean cpuPicking;
+		protected AirspaceRayPicker rayPicker = new AirspaceRayPicker();
+		protected Metrics.Histogram glPickTime;
+		protected Metrics.Histogram cpuPickTime;
+		// Set when the cursor moved, so the next frame's pick time is kept.
+		protected boolean glPickPending;
 		protected Annotation lastAnnotation;
 		protected BasicDragger dragger;
-
-		protected HashMap<String, Airspace> airspaces;
+		// Timings of frames, picks and loads; shown by the metrics layer and
+		// published over JMX.
+		protected Metrics metrics = Metrics.getDefault();
+		protected Metrics.Histogram layersUpdateTime;
+		protected Metrics.Histogram scheduleUpdateTime;
+		protected Metrics.Histogram bandUpdateTime;
+		// Activation periods of TFRs and special use airspace, and the UTC
+		// midnight the timeline starts at.
+		protected AirspaceSchedule schedule;
+		protected long scheduleDay;
+		// Route ends clicked so far, and the planner kept for the next route
+		// while the airspaces and the avoided groups stay the same.
+		protected RenderableLayer routeLayer;
+		protected List<Position> routeEnds = new ArrayList<Position>();
+		protected boolean routePicking;
+		protected AirspaceRoutePlanner routePlanner;
+		protected AirspaceModel.IndexBuild routeIndex;
+		protected Set<String> routeAvoided;
+		// Side view of the last route, in a window opened with the first.
+		protected JDialog profileDialog;
+		protected AirspaceProfilePanel profilePanel;
+		protected MetricsLayer metricsLayer;
+
+		// Airspace records, groups and queries; this controller only shows
+		// them.
+		protected AirspaceModel model;
+		// Shapes built from the registered records, under a memory budget.
+		protected AirspaceCatalog catalog = new AirspaceCatalog(Long.getLong(
+				SHAPE_BUDGET_PROPERTY, AirspaceCatalog.DEFAULT_BUDGET >> 20) << 20);
+		protected TrafficLayer traffic;
+		// Only airspaces in tiles near the view are put in the layers.
+		protected AirspaceTiles<AirspaceRecord> tiles = new AirspaceTiles<AirspaceRecord>(
+				TILE_SIZE, 1, 3);
+		protected ExecutorService loader = Executors
+				.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Airspace loader");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// Shapes are built in parallel off the EDT and handed back to it in
+		// one step per batch.
+		protected AirspaceShapeBuilder shapeBuilder = new AirspaceShapeBuilder(
+				Executors.newFixedThreadPool(Runtime.getRuntime()
+						.availableProcessors(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Airspace builder");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}), new Executor() {
+					@Override
+					public void execute(Runnable r) {
+						SwingUtilities.invokeLater(r);
+					}
+				});
+		protected ArrayList<AirspaceShapeBuilder.Build> builds = new ArrayList<AirspaceShapeBuilder.Build>();
+		// Records whose shapes are being built, so they are built once.
+		protected HashMap<String, AirspaceRecord> building = new HashMap<String, AirspaceRecord>();
 
 		public AirspacesController(AppFrame appFrame) {
 			this.frame = appFrame;
@@ -243,10 +555,63 @@ public class AirspacesGA extends ApplicationTemplate {
 			this.amslAirspaces.setEnableBatchPicking(false);
 			insertBeforePlacenames(this.frame.getWwd(), this.aglAirspaces);
 			insertBeforePlacenames(this.frame.getWwd(), this.amslAirspaces);
+			this.layers = new AirspaceLayers(this.aglAirspaces,
+					this.amslAirspaces);
 
-			this.airspaces = new HashMap<String, Airspace>();
-			
+			this.model = new AirspaceModel() {
+				@Override
+				protected void readPendingGroup(String groupId) {
+					AirspacesController.this.readPendingGroup(groupId);
+				}
+			};
+			this.model.addListener(this);
+			this.model.setCoordinateStore(new AirspaceCoordinateStore());
+			// Traffic reads the index every frame, so keep it built off the
+			// EDT.
+			this.model.setIndexBuiltInBackground(true);
+
+			this.initializeMetrics();
+			this.initializeSchedules();
+			this.initializeTerrain();
+			this.routeLayer = new RenderableLayer();
+			this.routeLayer.setName("Route");
+			this.routeLayer.setPickEnabled(false);
+			insertBeforePlacenames(this.frame.getWwd(), this.routeLayer);
 			this.initializeSelectionMonitoring();
+			this.getWwd().addRenderingListener(new RenderingListener() {
+				@Override
+				public void stageChanged(RenderingEvent event) {
+					if (event.getStage().equals(RenderingEvent.AFTER_BUFFER_SWAP)) {
+						updateVisibleTiles();
+						recordGlPickTime();
+					}
+				}
+			});
+
+			// Bundled D.C. area airspaces, shown by the group checkboxes, and
+			// any extra data files, shown as soon as they load.
+			this.loadAirspaces(AirspacesGA.class.getResource(DEFAULT_AIRSPACES),
+					AirspaceLoader.Format.CSV, false);
+			String extra = System.getProperty(AIRSPACES_PROPERTY);
+			if (extra != null) {
+				for (String path : extra.split(File.pathSeparator)) {
+					try {
+						this.loadAirspaces(new File(path).toURI().toURL(),
+								AirspaceLoader.Format.forPath(path), true);
+					} catch (MalformedURLException e) {
+						Logging.logger().warning("Bad airspace file " + path);
+					}
+				}
+			}
+
+			String feed = System.getProperty(TRAFFIC_PROPERTY);
+			if (feed != null) {
+				this.traffic = new TrafficLayer(this.getWwd(), this);
+				this.traffic.setTerrain(this.model.getTerrain());
+				insertBeforePlacenames(this.frame.getWwd(), this.traffic);
+				this.traffic.start(feed, Double.parseDouble(System.getProperty(
+						TRAFFIC_SPEED_PROPERTY, "1")));
+			}
 		}
 
 		public WorldWindow getWwd() {
@@ -263,16 +628,19 @@ public class AirspacesGA extends ApplicationTemplate {
 				// this.doLoadDatelineCrossingAirspaces();
 			} else if (ACTION_COMMAND_LOAD_INTERSECTING_AIRSPACES
 					.equalsIgnoreCase(e.getActionCommand())) {
-				// this.doLoadIntersectingAirspaces();
+				this.doLoadIntersectingAirspaces();
 			} else if (ACTION_COMMAND_ZOOM_TO_DEMO_AIRSPACES.equalsIgnoreCase(e
 					.getActionCommand())) {
 				this.doZoomToAirspaces();
+			} else if (ACTION_COMMAND_PLAN_ROUTE.equalsIgnoreCase(e
+					.getActionCommand())) {
+				this.doPlanRoute();
 			} else if (ACTION_COMMAND_SAVE_AIRSPACES.equalsIgnoreCase(e
 					.getActionCommand())) {
-				// this.doSaveAirspaces(e);
+				this.doSaveAirspaces(e);
 			} else if (ACTION_COMMAND_READ_AIRSPACES.equalsIgnoreCase(e
 					.getActionCommand())) {
-				// this.doReadAirspaces(e);
+				this.doReadAirspaces(e);
 			} else if (ACTION_COMMAND_ANTIALIAS.equalsIgnoreCase(e
 					.getActionCommand())) {
 				JCheckBox cb = (JCheckBox) e.getSource();
@@ -297,6 +665,28 @@ public class AirspacesGA extends ApplicationTemplate {
 				this.aglAirspaces.setDrawExtents(cb.isSelected());
 				this.amslAirspaces.setDrawExtents(cb.isSelected());
 				this.getWwd().redraw();
+			} else if (ACTION_COMMAND_CPU_PICKING.equalsIgnoreCase(e
+					.getActionCommand())) {
+				JCheckBox cb = (JCheckBox) e.getSource();
+				this.setCpuPicking(cb.isSelected());
+			} else if (ACTION_COMMAND_SHOW_METRICS.equalsIgnoreCase(e
+					.getActionCommand())) {
+				JCheckBox cb = (JCheckBox) e.getSource();
+				this.metricsLayer.setEnabled(cb.isSelected());
+				this.getWwd().redraw();
+			} else if (ACTION_COMMAND_USE_SCHEDULES.equalsIgnoreCase(e
+					.getActionCommand())) {
+				JCheckBox cb = (JCheckBox) e.getSource();
+				this.setSchedulesUsed(cb.isSelected());
+			} else if (ACTION_COMMAND_SET_TIME.equalsIgnoreCase(e
+					.getActionCommand())) {
+				JSlider slider = (JSlider) e.getSource();
+				this.setTimeOfDay(slider.getValue());
+			} else if (ACTION_COMMAND_SET_ALTITUDE_BAND.equalsIgnoreCase(e
+					.getActionCommand())) {
+				AirspacesPanel panel = (AirspacesPanel) e.getSource();
+				this.setAltitudeBand(panel.isAltitudeBandUsed(),
+						panel.getBandFloor(), panel.getBandCeiling());
 			} else if (ACTION_COMMAND_DRAW_DCSFRA.equalsIgnoreCase(
 					e.getActionCommand())) {
 				JCheckBox cb = (JCheckBox) e.getSource();
@@ -325,38 +715,753 @@ public class AirspacesGA extends ApplicationTemplate {
 		}
 
 		public void setAirspaces(Collection<Airspace> airspaces) {
-			this.aglAirspaces.removeAllAirspaces();
-			this.amslAirspaces.removeAllAirspaces();
-
-			if (airspaces != null) {
-				for (Airspace a : airspaces) {
-					if (a == null)
-						continue;
-
-					if (a.getAltitudeDatum()[0]
-							.equals(AVKey.ABOVE_MEAN_SEA_LEVEL)
-							&& a.getAltitudeDatum()[1]
-									.equals(AVKey.ABOVE_MEAN_SEA_LEVEL)) {
-						this.amslAirspaces.addAirspace(a);
-					} else {
-						this.aglAirspaces.addAirspace(a);
+			long start = System.nanoTime();
+			boolean changed = this.layers.setAirspaces(airspaces);
+			this.layersUpdateTime.recordSince(start);
+			if (changed)
+				this.getWwd().redraw();
+		}
+
+		public void addAirspaces(Collection<Airspace> airspaces) {
+			long start = System.nanoTime();
+			boolean changed = this.layers.addAirspaces(airspaces);
+			this.layersUpdateTime.recordSince(start);
+			if (changed)
+				this.getWwd().redraw();
+		}
+
+		public void removeAirspaces(Collection<Airspace> airspaces) {
+			long start = System.nanoTime();
+			boolean changed = this.layers.removeAirspaces(airspaces);
+			this.layersUpdateTime.recordSince(start);
+			if (changed)
+				this.getWwd().redraw();
+		}
+
+		public AirspaceModel getModel() {
+			return this.model;
+		}
+
+		public void setGroupEnabled(String groupId, boolean enabled) {
+			this.model.setGroupEnabled(groupId, enabled);
+		}
+
+		/**
+		 * Tracks the footprints of registered records and drops the shapes
+		 * of removed ones.
+		 */
+		@Override
+		public void airspacesChanged(Collection<AirspaceRecord> added,
+				Collection<AirspaceRecord> removed) {
+			ArrayList<Airspace> shapes = new ArrayList<Airspace>();
+			for (AirspaceRecord record : removed) {
+				this.tiles.remove(record);
+				Airspace shape = this.catalog.remove(record.getId());
+				if (shape != null)
+					shapes.add(shape);
+			}
+			for (AirspaceRecord record : added) {
+				this.tiles.add(record, this.model.getVolume(record).getBoxes());
+			}
+			this.removeAirspaces(shapes);
+		}
+
+		@Override
+		public void visibilityChanged(Collection<AirspaceRecord> shown,
+				Collection<AirspaceRecord> hidden) {
+			// Stop building shapes for groups switched off.
+			HashSet<String> disabled = new HashSet<String>();
+			for (AirspaceRecord record : hidden) {
+				if (!this.model.isGroupEnabled(record.getGroupId()))
+					disabled.add(record.getGroupId());
+			}
+			for (String groupId : disabled)
+				this.cancelBuilds(groupId);
+
+			this.hide(hidden);
+			this.show(shown);
+		}
+
+		/**
+		 * Adds the shapes of records in loaded tiles to the layers. Shapes
+		 * held by the catalog are added at once; the rest are built in the
+		 * background, one batch per group, and added when done.
+		 */
+		protected void show(Collection<AirspaceRecord> records) {
+			ArrayList<Airspace> shapes = new ArrayList<Airspace>();
+			LinkedHashMap<String, List<AirspaceRecord>> unbuilt = new LinkedHashMap<String, List<AirspaceRecord>>();
+			for (AirspaceRecord record : records) {
+				if (!this.tiles.isLoaded(record))
+					continue;
+				if (this.catalog.contains(record)) {
+					shapes.add(this.catalog.acquire(record));
+				} else if (!this.isBuilding(record)) {
+					List<AirspaceRecord> group = unbuilt.get(record
+							.getGroupId());
+					if (group == null) {
+						group = new ArrayList<AirspaceRecord>();
+						unbuilt.put(record.getGroupId(), group);
 					}
+					group.add(record);
+				}
+			}
+			this.addAirspaces(shapes);
+
+			for (Map.Entry<String, List<AirspaceRecord>> e : unbuilt.entrySet()) {
+				AirspaceShapeBuilder.Build build = this.shapeBuilder.build(
+						e.getKey(), e.getValue(), this);
+				this.builds.add(build);
+				for (AirspaceRecord record : e.getValue())
+					this.building.put(record.getId(), record);
+			}
+			if (!unbuilt.isEmpty())
+				this.updateBuildProgress();
+		}
+
+		protected boolean isBuilding(AirspaceRecord record) {
+			return this.building.get(record.getId()) == record;
+		}
+
+		/**
+		 * Cancels the shape builds of a group still in flight.
+		 */
+		protected void cancelBuilds(String groupId) {
+			boolean cancelled = false;
+			for (int i = this.builds.size() - 1; i >= 0; i--) {
+				AirspaceShapeBuilder.Build build = this.builds.get(i);
+				if (build.getGroupId().equals(groupId)) {
+					build.cancel();
+					this.endBuild(build);
+					cancelled = true;
 				}
 			}
+			if (cancelled)
+				this.updateBuildProgress();
+		}
+
+		protected void endBuild(AirspaceShapeBuilder.Build build) {
+			this.builds.remove(build);
+			for (AirspaceRecord record : build.getRecords()) {
+				if (this.building.get(record.getId()) == record)
+					this.building.remove(record.getId());
+			}
+		}
+
+		@Override
+		public void buildProgress(AirspaceShapeBuilder.Build build) {
+			this.updateBuildProgress();
+		}
+
+		/**
+		 * Puts the shapes of a finished batch in the catalog and adds those
+		 * still wanted to the layers in one step. Shapes of records replaced,
+		 * switched off or scrolled out of view meanwhile are left idle.
+		 */
+		@Override
+		public void buildFinished(AirspaceShapeBuilder.Build build) {
+			this.endBuild(build);
+			ArrayList<Airspace> shapes = new ArrayList<Airspace>();
+			for (int i = 0; i < build.size(); i++) {
+				AirspaceRecord record = build.getRecords().get(i);
+				Airspace shape = build.getShape(i);
+				if (shape == null || this.model.get(record.getId()) != record
+						|| this.catalog.getAcquired(record.getId()) != null)
+					continue;
+				this.catalog.put(record, shape);
+				if (this.model.isShown(record.getId())
+						&& this.tiles.isLoaded(record))
+					shapes.add(this.catalog.acquire(record));
+			}
+			this.addAirspaces(shapes);
+			this.updateBuildProgress();
+		}
+
+		protected void updateBuildProgress() {
+			int built = 0, total = 0;
+			for (AirspaceShapeBuilder.Build build : this.builds) {
+				built += build.getBuiltCount();
+				total += build.size();
+			}
+			if (this.frame.airspacesPanel != null)
+				this.frame.airspacesPanel.setBuildProgress(built, total);
+		}
+
+		/**
+		 * Removes the shapes of records from the layers, leaving them idle in
+		 * the catalog.
+		 */
+		protected void hide(Collection<AirspaceRecord> records) {
+			ArrayList<Airspace> shapes = new ArrayList<Airspace>();
+			for (AirspaceRecord record : records) {
+				Airspace a = this.catalog.release(record.getId());
+				if (a != null)
+					shapes.add(a);
+			}
+			this.removeAirspaces(shapes);
+		}
 
+		public AirspaceCatalog getCatalog() {
+			return this.catalog;
+		}
+
+		protected void registerCache(AirspaceCache cache, boolean enableNewGroups) {
+			this.model.registerCache(cache, enableNewGroups);
+			Logging.logger().info(
+					cache.getGroupIds().size() + " airspace groups ready "
+							+ elapsedSinceStart() + " ms after start");
+		}
+
+		/**
+		 * Reads a pending group on the loader thread and registers it on the
+		 * EDT.
+		 */
+		protected void readPendingGroup(final String groupId) {
+			final AirspaceCache cache = this.model.takePendingGroup(groupId);
+			if (cache == null)
+				return;
+
+			this.loader.submit(new Runnable() {
+				@Override
+				public void run() {
+					final List<AirspaceRecord> records = cache
+							.getGroupRecords(groupId);
+					model.prepare(records);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							registerAirspaces(records, false);
+						}
+					});
+				}
+			});
+		}
+
+		/**
+		 * Parses an airspace file on the loader thread and hands the records
+		 * to the EDT in batches.
+		 */
+		public Future<?> loadAirspaces(URL url, AirspaceLoader.Format format,
+				boolean enableNewGroups) {
+			return this.loader.submit(new LoadTask(url, format, enableNewGroups));
+		}
+
+		protected class LoadTask implements Runnable, AirspaceLoader.Listener {
+
+			protected static final int BATCH_SIZE = 256;
+
+			protected URL url;
+			protected AirspaceLoader.Format format;
+			protected boolean enableNewGroups;
+			protected ArrayList<AirspaceRecord> batch = new ArrayList<AirspaceRecord>();
+			protected ArrayList<AirspaceRecord> records;
+
+			public LoadTask(URL url, AirspaceLoader.Format format,
+					boolean enableNewGroups) {
+				this.url = url;
+				this.format = format;
+				this.enableNewGroups = enableNewGroups;
+			}
+
+			@Override
+			public void run() {
+				File cacheFile = AirspaceCache.getCacheFile(this.url);
+				long fingerprint;
+				try {
+					fingerprint = AirspaceCache.fingerprint(this.url);
+					long start = System.nanoTime();
+					final AirspaceCache cache = AirspaceCache.open(cacheFile,
+							fingerprint);
+					if (cache != null) {
+						Logging.logger().info(
+								String.format("Mapped %d airspaces from %s in %.1f ms",
+										cache.size(), cacheFile,
+										(System.nanoTime() - start) / 1e6));
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								registerCache(cache, enableNewGroups);
+							}
+						});
+						return;
+					}
+
+					this.records = new ArrayList<AirspaceRecord>();
+					AirspaceLoader.Statistics stats = AirspaceLoader.load(
+							this.url, this.format, this);
+					this.publish();
+					Logging.logger().info(
+							"Loaded " + this.url + ": " + stats + ", "
+									+ elapsedSinceStart() + " ms after start");
+					Logging.logger().info(
+							"Locations of " + this.url + ": "
+									+ AirspaceCoordinateStore.Footprint.of(
+											this.records,
+											model.getCoordinateStore()));
+				} catch (IOException e) {
+					Logging.logger().log(Level.SEVERE,
+							"Unable to load airspaces from " + this.url, e);
+					return;
+				}
+
+				try {
+					AirspaceCache.write(cacheFile, this.records, fingerprint);
+				} catch (IOException e) {
+					Logging.logger().log(Level.WARNING,
+							"Unable to write airspace cache " + cacheFile, e);
+				}
+			}
+
+			@Override
+			public void airspaceLoaded(AirspaceRecord record) {
+				this.records.add(record);
+				this.batch.add(record);
+				if (this.batch.size() >= BATCH_SIZE)
+					this.publish();
+			}
+
+			protected void publish() {
+				final ArrayList<AirspaceRecord> loaded = this.batch;
+				this.batch = new ArrayList<AirspaceRecord>();
+				model.prepare(loaded);
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						registerAirspaces(loaded, enableNewGroups);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Adds loaded airspaces to the model, which shows those whose group is
+		 * enabled. Must run on the EDT.
+		 */
+		protected void registerAirspaces(Collection<AirspaceRecord> loaded,
+				boolean enableNewGroups) {
+			this.model.registerAirspaces(loaded, enableNewGroups);
+		}
+
+		/**
+		 * Asks for a file and saves the session to it.
+		 */
+		public void doSaveAirspaces(ActionEvent e) {
+			JFileChooser chooser = this.getFileChooser();
+			if (chooser.showSaveDialog(this.frame) != JFileChooser.APPROVE_OPTION)
+				return;
+			File file = chooser.getSelectedFile();
+			if (!file.getName().contains("."))
+				file = new File(file.getPath() + ".xml");
+			this.saveSession(file);
+		}
+
+		/**
+		 * Asks for a saved session and restores it.
+		 */
+		public void doReadAirspaces(ActionEvent e) {
+			JFileChooser chooser = this.getFileChooser();
+			if (chooser.showOpenDialog(this.frame) != JFileChooser.APPROVE_OPTION)
+				return;
+			this.readSession(chooser.getSelectedFile());
+		}
+
+		protected JFileChooser getFileChooser() {
+			if (this.fileChooser == null) {
+				this.fileChooser = new JFileChooser();
+				this.fileChooser.setFileFilter(new FileNameExtensionFilter(
+						"Airspace sessions (*.xml)", "xml"));
+			}
+			return this.fileChooser;
+		}
+
+		/**
+		 * Saves every airspace, the group visibility and the render options.
+		 * The session is captured on the EDT and streamed to the file on the
+		 * loader thread.
+		 */
+		public Future<?> saveSession(final File file) {
+			final AirspaceSession session = new AirspaceSession();
+			session.setAntialias(this.amslAirspaces.isEnableAntialiasing());
+			session.setDepthOffset(this.amslAirspaces.isEnableDepthOffset());
+			session.setWireframe(this.amslAirspaces.isDrawWireframe());
+			session.setExtents(this.amslAirspaces.isDrawExtents());
+			session.addGroups(this.model);
+
+			return this.loader.submit(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					try {
+						Writer out = new BufferedWriter(new OutputStreamWriter(
+								new FileOutputStream(file), "UTF-8"));
+						try {
+							session.write(out);
+						} finally {
+							out.close();
+						}
+						Logging.logger().info(
+								String.format("Saved session to %s in %.1f ms",
+										file, (System.nanoTime() - start) / 1e6));
+					} catch (IOException e) {
+						Logging.logger().log(Level.SEVERE,
+								"Unable to save session to " + file, e);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Streams a saved session in on the loader thread, then replaces the
+		 * airspaces, group visibility and render options on the EDT in one
+		 * batch.
+		 */
+		public Future<?> readSession(final File file) {
+			return this.loader.submit(new Runnable() {
+				@Override
+				public void run() {
+					final ArrayList<AirspaceRecord> records = new ArrayList<AirspaceRecord>();
+					final AirspaceSession session;
+					try {
+						session = AirspaceSession.read(new InputStreamReader(
+								new FileInputStream(file), "UTF-8"),
+								new AirspaceLoader.Listener() {
+									@Override
+									public void airspaceLoaded(
+											AirspaceRecord record) {
+										records.add(record);
+									}
+								});
+					} catch (IOException e) {
+						Logging.logger().log(Level.SEVERE,
+								"Unable to read session from " + file, e);
+						return;
+					}
+					Logging.logger().info(
+							"Read session " + file + ": "
+									+ session.getStatistics());
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							restoreSession(session, records);
+						}
+					});
+				}
+			});
+		}
+
+		/**
+		 * Replaces the model's airspaces with a session's. The groups are
+		 * set up empty, so registering the records shows the enabled ones
+		 * in a single layer update.
+		 */
+		protected void restoreSession(AirspaceSession session,
+				Collection<AirspaceRecord> records) {
+			long start = System.nanoTime();
+			this.model.clear();
+			for (String groupId : session.getGroupIds()) {
+				this.model.addGroup(groupId, session.getGroupClass(groupId));
+				this.model.setGroupEnabled(groupId,
+						session.isGroupEnabled(groupId));
+			}
+			this.registerAirspaces(records, false);
+
+			for (AirspaceLayer layer : Arrays.asList(this.aglAirspaces,
+					this.amslAirspaces)) {
+				layer.setEnableAntialiasing(session.isAntialias());
+				layer.setEnableDepthOffset(session.isDepthOffset());
+				layer.setDrawWireframe(session.isWireframe());
+				layer.setDrawExtents(session.isExtents());
+			}
+			AirspacesPanel panel = this.frame.airspacesPanel;
+			if (panel != null) {
+				panel.setSelected(ACTION_COMMAND_ANTIALIAS, session.isAntialias());
+				panel.setSelected(ACTION_COMMAND_DEPTH_OFFSET,
+						session.isDepthOffset());
+				panel.setSelected(ACTION_COMMAND_DRAW_WIREFRAME,
+						session.isWireframe());
+				panel.setSelected(ACTION_COMMAND_DRAW_EXTENT,
+						session.isExtents());
+				panel.setSelected(ACTION_COMMAND_DRAW_DCSFRA,
+						session.isGroupEnabled(GROUP_DC_SFRA));
+				panel.setSelected(ACTION_COMMAND_DRAW_IADCLASSB,
+						session.isGroupEnabled(GROUP_IAD_CLASS_B));
+				panel.setSelected(ACTION_COMMAND_DRAW_HEFCLASSD,
+						session.isGroupEnabled(GROUP_HEF_CLASS_D));
+			}
 			this.getWwd().redraw();
+			Logging.logger().info(
+					String.format("Restored %d airspaces in %.1f ms",
+							records.size(), (System.nanoTime() - start) / 1e6));
+		}
+
+		/**
+		 * Loads tiles coming into view and evicts those well outside it,
+		 * adding and removing their enabled airspaces. Runs after each frame,
+		 * once the visible sector is known.
+		 */
+		protected void updateVisibleTiles() {
+			Sector sector = this.getWwd().getSceneController().getDrawContext()
+					.getVisibleSector();
+			if (sector == null)
+				return;
+
+			ArrayList<AirspaceRecord> loaded = new ArrayList<AirspaceRecord>();
+			ArrayList<AirspaceRecord> evicted = new ArrayList<AirspaceRecord>();
+			if (!this.tiles.setView(sector.getMinLatitude().degrees,
+					sector.getMaxLatitude().degrees,
+					sector.getMinLongitude().degrees,
+					sector.getMaxLongitude().degrees, loaded, evicted))
+				return;
+
+			ArrayList<AirspaceRecord> shown = new ArrayList<AirspaceRecord>();
+			for (AirspaceRecord record : loaded) {
+				if (this.model.isShown(record.getId()))
+					shown.add(record);
+			}
+			this.hide(evicted);
+			this.show(shown);
+			Logging.logger().fine("Airspace shapes: " + this.catalog);
+		}
+
+		/**
+		 * Registers hand-built shapes as an enabled group, describing each one
+		 * with a record so it is indexed like loaded airspaces.
+		 */
+		protected void registerGroup(String groupId, AirspaceClass cls,
+				List<Airspace> shapes) {
+			this.model.addGroup(groupId, cls);
+			ArrayList<AirspaceRecord> records = new ArrayList<AirspaceRecord>();
+			for (int i = 0; i < shapes.size(); i++) {
+				Airspace a = shapes.get(i);
+				AirspaceRecord record = AirspaceFactory.createRecord(a, groupId
+						+ "-" + i, groupId, cls);
+				a.setValue(AirspaceFactory.AIRSPACE_ID, record.getId());
+				a.setValue(AirspaceFactory.AIRSPACE_RECORD, record);
+				records.add(record);
+			}
+			this.registerAirspaces(records, false);
+			// Keep the hand-built shapes rather than rebuilding them.
+			for (int i = 0; i < records.size(); i++) {
+				if (this.catalog.getAcquired(records.get(i).getId()) == null)
+					this.catalog.put(records.get(i), shapes.get(i));
+			}
+			this.setGroupEnabled(groupId, true);
+		}
+
+		@Override
+		public AirspaceIndex getIndexSnapshot() {
+			return this.model.getIndexSnapshot();
+		}
+
+		public IncursionDetector.Result detectIncursions(
+				List<IncursionDetector.Track> tracks) {
+			return this.model.detectIncursions(tracks);
+		}
+
+		public List<AirspaceRecord> findAirspaces(double lat, double lon,
+				double altitude) {
+			return this.model.findAirspaces(lat, lon, altitude);
+		}
+
+		/**
+		 * Reads the activation periods of time-activated airspaces, from the
+		 * file named by {@link #SCHEDULES_PROPERTY} or else the bundled D.C.
+		 * schedule, and starts the model at the day of the first period.
+		 */
+		protected void initializeSchedules() {
+			this.scheduleUpdateTime = this.metrics.histogram("schedule.update");
+			String path = System.getProperty(SCHEDULES_PROPERTY);
+			try {
+				URL url = path != null ? new File(path).toURI().toURL()
+						: AirspacesGA.class.getResource(DEFAULT_SCHEDULES);
+				this.schedule = AirspaceSchedule.read(url);
+			} catch (IOException e) {
+				Logging.logger().log(Level.WARNING, "Unable to read schedule "
+						+ (path != null ? path : DEFAULT_SCHEDULES), e);
+			} catch (IllegalArgumentException e) {
+				Logging.logger().log(Level.WARNING, "Unable to read schedule "
+						+ (path != null ? path : DEFAULT_SCHEDULES), e);
+			}
+			if (this.schedule == null)
+				this.schedule = new AirspaceSchedule(
+						new ArrayList<AirspaceSchedule.Period>());
+
+			long first = this.schedule.getFirstStart();
+			if (first == Long.MAX_VALUE)
+				first = System.currentTimeMillis();
+			this.scheduleDay = first - first % MILLIS_PER_DAY;
+			this.model.setTime(this.scheduleDay);
+		}
+
+		/**
+		 * Shows time-activated airspaces only while active, or always.
+		 */
+		public void setSchedulesUsed(boolean used) {
+			long start = System.nanoTime();
+			this.model.setSchedule(used ? this.schedule : null);
+			this.scheduleUpdateTime.recordSince(start);
+		}
+
+		/**
+		 * Moves the model to a minute of the schedule's day, updating the
+		 * layers with only the airspaces that became active or inactive.
+		 */
+		public void setTimeOfDay(int minutes) {
+			long start = System.nanoTime();
+			this.model.setTime(this.scheduleDay + minutes * 60000L);
+			this.scheduleUpdateTime.recordSince(start);
+		}
+
+		/**
+		 * Shows only the airspaces meeting a band of altitudes, in feet above
+		 * mean sea level, or every airspace when the band is not used. Only
+		 * the airspaces entering or leaving the band are added to or removed
+		 * from the layers.
+		 */
+		public void setAltitudeBand(boolean used, int floorFeet,
+				int ceilingFeet) {
+			long start = System.nanoTime();
+			if (used)
+				this.model.setAltitudeBand(floorFeet
+						* AirspaceRecord.FEET_TO_METERS, ceilingFeet
+						* AirspaceRecord.FEET_TO_METERS);
+			else
+				this.model.setAltitudeBand(Double.NEGATIVE_INFINITY,
+						Double.POSITIVE_INFINITY);
+			this.bandUpdateTime.recordSince(start);
+		}
+
+		/**
+		 * Opens the terrain tiles in the directory named by
+		 * {@link #TERRAIN_PROPERTY}, if any. Without them terrain conforming
+		 * altitudes are taken relative to sea level.
+		 */
+		protected void initializeTerrain() {
+			String path = System.getProperty(TERRAIN_PROPERTY);
+			if (path == null)
+				return;
+			try {
+				final TerrainTileCache terrain = new TerrainTileCache(new File(
+						path));
+				this.model.setTerrain(terrain);
+				this.metrics.gauge("terrain.tiles", new Metrics.Gauge() {
+					@Override
+					public long getValue() {
+						return terrain.getTileCount();
+					}
+				});
+			} catch (IllegalArgumentException e) {
+				Logging.logger().log(Level.WARNING,
+						"Unable to open terrain " + path, e);
+			}
+		}
+
+		/**
+		 * Adds the metrics overlay, hidden until asked for, gauges over the
+		 * layers, the coordinate store and the shape catalog, and the JMX
+		 * bean.
+		 */
+		protected void initializeMetrics() {
+			this.glPickTime = this.metrics.histogram("pick.gl");
+			this.cpuPickTime = this.metrics.histogram("pick.cpu");
+			this.layersUpdateTime = this.metrics.histogram("layers.update");
+			this.bandUpdateTime = this.metrics.histogram("band.update");
+
+			this.metrics.gauge("layers.agl", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return layers.getAglCount();
+				}
+			});
+			this.metrics.gauge("layers.amsl", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return layers.getAmslCount();
+				}
+			});
+			final AirspaceCoordinateStore coordinates = this.model
+					.getCoordinateStore();
+			this.metrics.gauge("coordinates.vertices", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return coordinates.getVertexCount();
+				}
+			});
+			this.metrics.gauge("coordinates.bytes", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return coordinates.getOffHeapBytes();
+				}
+			});
+			this.metrics.gauge("shapes.bytes", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return catalog.getBytes();
+				}
+			});
+			this.metrics.gauge("shapes.hits", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return catalog.getHits();
+				}
+			});
+			this.metrics.gauge("shapes.misses", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return catalog.getMisses();
+				}
+			});
+			this.metrics.gauge("shapes.evictions", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return catalog.getEvictions();
+				}
+			});
+
+			this.metricsLayer = new MetricsLayer(this.getWwd(), this.metrics);
+			this.metricsLayer.setEnabled(false);
+			insertBeforeCompass(this.getWwd(), this.metricsLayer);
+			this.getWwd().addRenderingListener(this.metricsLayer);
+
+			try {
+				this.metrics.registerMBean(Metrics.DEFAULT_OBJECT_NAME);
+			} catch (JMException e) {
+				Logging.logger().log(Level.WARNING,
+						"Unable to publish metrics over JMX", e);
+			}
 		}
 
 		public void initializeSelectionMonitoring() {
 			this.dragger = new BasicDragger(this.getWwd());
+			this.getWwd().setPerFrameStatisticsKeys(
+					new HashSet<String>(Arrays
+							.asList(PerformanceStatistic.PICK_TIME)));
+			this.getWwd().getInputHandler()
+					.addMouseMotionListener(new MouseAdapter() {
+						@Override
+						public void mouseMoved(MouseEvent e) {
+							if (!cpuPicking)
+								glPickPending = true;
+							else if (!dragger.isDragging())
+								cpuPick(e.getX(), e.getY());
+						}
+					});
 			this.getWwd().addSelectListener(new SelectListener() {
 				@Override
 				public void selected(SelectEvent event) {
+					// Have clicks pick the ends of a route being planned.
+					if (routePicking
+							&& event.getEventAction().equals(
+									SelectEvent.LEFT_CLICK)) {
+						Position position = getWwd().getCurrentPosition();
+						if (position != null)
+							addRouteEnd(position);
+					}
 					// Have rollover events highlight the rolled-over object.
-					if (event.getEventAction().equals(SelectEvent.ROLLOVER)
+					else if (event.getEventAction().equals(SelectEvent.ROLLOVER)
 							&& !dragger.isDragging()) {
-						if (AirspacesController.this.highlight(event
-								.getTopObject()))
+						if (!cpuPicking
+								&& AirspacesController.this.highlight(event
+										.getTopObject()))
 							AirspacesController.this.getWwd().redraw();
 					}
 					// Have drag events drag the selected object.
@@ -370,7 +1475,8 @@ public class AirspacesGA extends ApplicationTemplate {
 						// highlight any under the cursor now,
 						// or de-highlight the dragged shape if it's no longer
 						// under the cursor.
-						if (event.getEventAction().equals(SelectEvent.DRAG_END)) {
+						if (event.getEventAction().equals(SelectEvent.DRAG_END)
+								&& !cpuPicking) {
 							PickedObjectList pol = AirspacesController.this
 									.getWwd().getObjectsAtCurrentPosition();
 							if (pol != null) {
@@ -385,38 +1491,75 @@ public class AirspacesGA extends ApplicationTemplate {
 		}
 
 		protected boolean highlight(Object o) {
-			if (this.lastHighlit == o)
-				return false; // Same thing selected
+			return this.highlighter.highlight(o);
+		}
+
+		/**
+		 * Switches rollover between the GL pick pass and rays cast against
+		 * the airspace index. The airspace layers are left out of the pick
+		 * pass while rays are used.
+		 */
+		public void setCpuPicking(boolean enabled) {
+			Logging.logger().info(
+					"Rollover latency, GL pick " + this.glPickTime.toMillisString()
+							+ "; CPU pick " + this.cpuPickTime.toMillisString());
+			this.cpuPicking = enabled;
+			this.aglAirspaces.setPickEnabled(!enabled);
+			this.amslAirspaces.setPickEnabled(!enabled);
+			this.highlight(null);
+			this.getWwd().redraw();
+		}
 
-			// Turn off highlight if on.
-			if (this.lastHighlit != null) {
-				this.lastHighlit.setAttributes(this.lastAttrs);
-				this.lastHighlit = null;
-				this.lastAttrs = null;
+		protected void cpuPick(int x, int y) {
+			long start = System.nanoTime();
+			Airspace picked = null;
+			Line ray = this.getWwd().getView().computeRayFromScreenPoint(x, y);
+			// Picks from the last index built rather than build one on the
+			// EDT; airspaces loaded since become pickable once it catches up.
+			AirspaceIndex index = this.model.getIndexSnapshot();
+			if (ray != null && index != null) {
+				int v = this.rayPicker.pick(index, this.getWwd().getModel()
+						.getGlobe(), ray, new AirspaceRayPicker.Filter() {
+					@Override
+					public boolean accept(AirspaceVolume volume) {
+						return catalog.getAcquired(volume.getRecord().getId()) != null;
+					}
+				});
+				if (v >= 0)
+					picked = this.catalog.getAcquired(index.getVolume(v)
+							.getRecord().getId());
 			}
+			this.cpuPickTime.recordSince(start);
+			if (this.highlight(picked))
+				this.getWwd().redraw();
+		}
 
-			// Turn on highlight if selected object is a SurfaceImage.
-			if (o instanceof Airspace) {
-				this.lastHighlit = (Airspace) o;
-				this.lastAttrs = this.lastHighlit.getAttributes();
-				BasicAirspaceAttributes highlitAttrs = new BasicAirspaceAttributes(
-						this.lastAttrs);
-				highlitAttrs.setMaterial(Material.WHITE);
-				this.lastHighlit.setAttributes(highlitAttrs);
+		/**
+		 * Keeps the pick pass time of a frame drawn after the cursor moved.
+		 */
+		protected void recordGlPickTime() {
+			if (!this.glPickPending || this.cpuPicking)
+				return;
+			this.glPickPending = false;
+			Collection<PerformanceStatistic> stats = this.getWwd()
+					.getPerFrameStatistics();
+			if (stats == null)
+				return;
+			for (PerformanceStatistic stat : stats) {
+				// Reported in whole milliseconds.
+				if (PerformanceStatistic.PICK_TIME.equals(stat.getKey())
+						&& stat.getValue() instanceof Number)
+					this.glPickTime.record((long) (((Number) stat
+							.getValue()).doubleValue() * 1e6));
 			}
+		}
 
-			return true;
+		public Metrics getMetrics() {
+			return this.metrics;
 		}
 
 		protected void setupDefaultMaterial(Airspace a, Color color) {
-			a.getAttributes().setDrawOutline(true);
-			a.getAttributes().setMaterial(new Material(color));
-			a.getAttributes().setOutlineMaterial(
-					new Material(WWUtil.makeColorBrighter(color)));
-			// Down from 0.8/0.9 for better vis
-			a.getAttributes().setOpacity(0.4);
-			a.getAttributes().setOutlineOpacity(0.8);
-			a.getAttributes().setOutlineWidth(3.0);
+			AirspaceFactory.applyDefaultMaterial(a, color);
 		}
 
 		public void doLoadDatelineCrossingAirspaces() {
@@ -455,7 +1598,7 @@ public class AirspacesGA extends ApplicationTemplate {
 			this.setupDefaultMaterial(sphere, Color.RED);
 			airspaces.add(sphere);
 
-			this.setAirspaces(airspaces);
+			this.registerGroup(GROUP_DATELINE, AirspaceClass.OTHER, airspaces);
 		}
 
 		public void doLoadDemoAirspaces() {
@@ -512,234 +1655,271 @@ public class AirspacesGA extends ApplicationTemplate {
 			this.setupDefaultMaterial(polyArc, Color.GRAY);
 			airspaces.add(polyArc);
 
-			this.setAirspaces(airspaces);
+			this.registerGroup(GROUP_DEMO, AirspaceClass.OTHER, airspaces);
 		}
 
-		public void doDrawIadClassB() {
-			// Dulles Class B Inner
-			CappedCylinder iadInnerCyl = new CappedCylinder();
-			iadInnerCyl.setCenter(LatLon.fromDegrees(38.934722, -77.466667));
-			iadInnerCyl.setRadius(12964.0);
-			iadInnerCyl.setAltitudes(0.0, 3048.0);
-			iadInnerCyl.setTerrainConforming(true, true);
-			iadInnerCyl.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Inner - SFC to 10,000 ft. MSL");
-			this.setupDefaultMaterial(iadInnerCyl, Color.BLUE);
-			airspaces.put("IAD-I", iadInnerCyl);
-
-			// Dulles Class B Mid 1
-			PartialCappedCylinder iadMid1PartCyl = new PartialCappedCylinder();
-			iadMid1PartCyl.setCenter(LatLon.fromDegrees(38.934722, -77.466667));
-			iadMid1PartCyl.setAltitudes(457.2, 3048.0);
-			iadMid1PartCyl.setTerrainConforming(false, false);
-			iadMid1PartCyl.setRadii(12964.0, 22224.0);
-			// TODO use method
-			iadMid1PartCyl.setAzimuths(Angle.fromDegrees(144.05), Angle.fromDegrees(38.97));
-			iadMid1PartCyl.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Middle - 1,500 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadMid1PartCyl, Color.BLUE);
-			airspaces.put("IAD-M1", iadMid1PartCyl);
-
-			// Dulles Class B Mid 2
-			PolyArc iadMid2PolyArc = new PolyArc();
-			iadMid2PolyArc.setLocations(Arrays.asList(
-					LatLon.fromDegrees(38.934722, -77.466667),
-					LatLon.fromDegrees(39.09, -77.304722),
-					LatLon.fromDegrees(38.772778, -77.316111)));
-			iadMid2PolyArc.setAltitudes(457.2, 3048.0);
-			iadMid2PolyArc.setRadius(12964.0);
-			// TODO use method
-			iadMid2PolyArc.setAzimuths(Angle.fromDegrees(38.97), Angle.fromDegrees(144.05));
-			iadMid2PolyArc.setTerrainConforming(false, false);
-			iadMid2PolyArc.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Middle - 1,500 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadMid2PolyArc, Color.BLUE);
-			airspaces.put("IAD-M2", iadMid2PolyArc);
-
-			// Dulles Class B Outer 1A
-			PartialCappedCylinder iadOuter1APartCyl = new PartialCappedCylinder();
-			iadOuter1APartCyl.setCenter(LatLon.fromDegrees(38.934722, -77.466667));
-			iadOuter1APartCyl.setAltitudes(762.0, 3048.0);
-			iadOuter1APartCyl.setTerrainConforming(false, false);
-			iadOuter1APartCyl.setRadii(22224.0, 27780.0);
-			// TODO use methods
-			iadOuter1APartCyl.setAzimuths(Angle.fromDegrees(152.37), Angle.fromDegrees(30.58));
-			iadOuter1APartCyl.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 2,500 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter1APartCyl, Color.BLUE);
-			airspaces.put("IAD-O1A", iadOuter1APartCyl);
-
-			// Dulles Class B Outer 1B
-			PolyArc iadOuter1BPolyArc = new PolyArc();
-			iadOuter1BPolyArc.setLocations(Arrays.asList(
-					LatLon.fromDegrees(38.934722, -77.466667),
-					LatLon.fromDegrees(39.149722, -77.302778)));
-			iadOuter1BPolyArc.setAltitudes(762.0, 3048.0);
-			iadOuter1BPolyArc.setRadius(22224.0);
-			// TODO use method
-			iadOuter1BPolyArc.setAzimuths(Angle.fromDegrees(30.58), Angle.fromDegrees(38.97));
-			iadOuter1BPolyArc.setTerrainConforming(false, false);
-			iadOuter1BPolyArc.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 2,500 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter1BPolyArc, Color.BLUE);
-			airspaces.put("IAD-O1B", iadOuter1BPolyArc);
-			
-			// Dulles Class B Outer 1C
-			PolyArc iadOuter1CPolyArc = new PolyArc();
-			iadOuter1CPolyArc.setLocations(Arrays.asList(
-					LatLon.fromDegrees(38.934722, -77.466667),
-					LatLon.fromDegrees(38.713056, -77.318056)));
-			iadOuter1CPolyArc.setAltitudes(762.0, 3048.0);
-			iadOuter1CPolyArc.setRadius(22224.0);
-			// TODO use method
-			iadOuter1CPolyArc.setAzimuths(Angle.fromDegrees(144.05), Angle.fromDegrees(152.37));
-			iadOuter1CPolyArc.setTerrainConforming(false, false);
-			iadOuter1CPolyArc.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 2,500 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter1CPolyArc, Color.BLUE);
-			airspaces.put("IAD-O1C", iadOuter1CPolyArc);
-
-			// Dulles Class B Outer 2A
-			PartialCappedCylinder iadOuter2APartCyl = new PartialCappedCylinder();
-			iadOuter2APartCyl.setCenter(LatLon.fromDegrees(38.934722, -77.466667));
-			iadOuter2APartCyl.setAltitudes(1371.6, 3048.0);
-			iadOuter2APartCyl.setTerrainConforming(false, false);
-			iadOuter2APartCyl.setRadii(27780.0, 37040.0);
-			// TODO use method
-			iadOuter2APartCyl.setAzimuths(Angle.fromDegrees(211.89), Angle.fromDegrees(329.09));
-			iadOuter2APartCyl.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 4,500 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter2APartCyl, Color.BLUE);
-			airspaces.put("IAD-O2A", iadOuter2APartCyl);
-
-			// Dulles Class B Outer 2B
-			PartialCappedCylinder iadOuter2BPartCyl = new PartialCappedCylinder();
-			iadOuter2BPartCyl.setCenter(LatLon.fromDegrees(38.934722, -77.466667));
-			iadOuter2BPartCyl.setAltitudes(914.4, 3048.0);
-			iadOuter2BPartCyl.setTerrainConforming(false, false);
-			iadOuter2BPartCyl.setRadii(27780.0, 37040.0);
-			iadOuter2BPartCyl.setAzimuths(Angle.fromDegrees(193.77), Angle.fromDegrees(211.89));
-			iadOuter2BPartCyl.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 3,000 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter2BPartCyl, Color.BLUE);
-			airspaces.put("IAD-O2B", iadOuter2BPartCyl);
-
-			// Dulles Class B Outer 2C
-			PartialCappedCylinder iadOuter2CPartCyl = new PartialCappedCylinder();
-			iadOuter2CPartCyl.setCenter(LatLon.fromDegrees(38.934722, -77.466667));
-			iadOuter2CPartCyl.setAltitudes(914.4, 3048.0);
-			iadOuter2CPartCyl.setTerrainConforming(false, false);
-			iadOuter2CPartCyl.setRadii(27780.0, 37040.0);
-			// TODO use method
-			iadOuter2CPartCyl.setAzimuths(Angle.fromDegrees(329.09), Angle.fromDegrees(9.47));
-			iadOuter2CPartCyl.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 3,000 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter2CPartCyl, Color.BLUE);
-			airspaces.put("IAD-O2C", iadOuter2CPartCyl);
-
-			// Dulles Class B Outer 2D
-			PolyArc iadOuter2DPolyArc = new PolyArc();
-			iadOuter2DPolyArc.setLocations(Arrays.asList(
-					LatLon.fromDegrees(38.934722, -77.466667),
-					LatLon.fromDegrees(39.263611, -77.395833),
-					LatLon.fromDegrees(39.275556, -77.347222)));
-			iadOuter2DPolyArc.setAltitudes(914.4, 3048.0);
-			iadOuter2DPolyArc.setRadius(27780.0);
-			// TODO use method
-			iadOuter2DPolyArc.setAzimuths(Angle.fromDegrees(9.47), Angle.fromDegrees(30.58));
-			iadOuter2DPolyArc.setTerrainConforming(false, false);
-			iadOuter2DPolyArc.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 3,000 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter2DPolyArc, Color.BLUE);
-			airspaces.put("IAD-O2D", iadOuter2DPolyArc);
-			
-			// Dulles Class B Outer 2E - R6608A
-			PolyArc iadOuter2EPolyArc = new PolyArc();
-			iadOuter2EPolyArc.setLocations(Arrays.asList(
-					LatLon.fromDegrees(38.934722, -77.466667),
-					LatLon.fromDegrees(38.610556, -77.568333),
-					LatLon.fromDegrees(38.618333, -77.564167),
-					LatLon.fromDegrees(38.630833, -77.5345),
-					LatLon.fromDegrees(38.618333, -77.422333),
-					LatLon.fromDegrees(38.603056, -77.418611)));
-			iadOuter2EPolyArc.setAltitudes(914.4, 3048.0);
-			iadOuter2EPolyArc.setRadius(27780.0);
-			iadOuter2EPolyArc.setAzimuths(Angle.fromDegrees(173.54), Angle.fromDegrees(193.77));
-			iadOuter2EPolyArc.setTerrainConforming(false, false);
-			iadOuter2EPolyArc.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 3,000 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter2EPolyArc, Color.BLUE);
-			airspaces.put("IAD-O2E", iadOuter2EPolyArc);
-			
-			//F, G, H, I
-			// Dulles Class B Outer 2F
-			PartialCappedCylinder iadOuter2FPartCyl = new PartialCappedCylinder();	
-			iadOuter2FPartCyl.setCenter(LatLon.fromDegrees(38.934722, -77.466667));
-			iadOuter2FPartCyl.setAltitudes(914.4, 3048.0);
-			iadOuter2FPartCyl.setTerrainConforming(false, false);
-			iadOuter2FPartCyl.setRadii(27780.0, 37040.0);
-			iadOuter2FPartCyl.setAzimuths(Angle.fromDegrees(161.45), Angle.fromDegrees(173.54));
-			iadOuter2FPartCyl.setValue(AVKey.DISPLAY_NAME, "Dulles Class B Outer - 3,000 to 10,000 ft. MSL.");
-			this.setupDefaultMaterial(iadOuter2FPartCyl, Color.BLUE);
-			airspaces.put("IAD-O2F", iadOuter2FPartCyl);
-			
-			this.setAirspaces(airspaces.values());
+		/**
+		 * Checks all registered airspaces for overlaps in the background,
+		 * then shows each overlap as its altitude band over the footprint of
+		 * one of the pair.
+		 */
+		public void doLoadIntersectingAirspaces() {
+			this.model.removeGroup(GROUP_INTERSECTING);
+			final AirspaceModel.IndexBuild build = this.model.getIndexBuild();
+			final AirspaceOverlapDetector detector = new AirspaceOverlapDetector(
+					this.model.getWorkers());
+			this.loader.submit(new Runnable() {
+				@Override
+				public void run() {
+					final AirspaceOverlapDetector.Result result = detector
+							.detect(build.get());
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							showOverlaps(result);
+						}
+					});
+				}
+			});
 		}
 
-		public void doRemoveIadClassB() {
-			Iterator<Map.Entry<String, Airspace>> iterator = airspaces
-					.entrySet().iterator();
-			while (iterator.hasNext()) {
-				Map.Entry<String, Airspace> entry = iterator.next();
-				if (entry.getKey().contains("IAD")) {
-					iterator.remove();
-				}
+		protected void showOverlaps(AirspaceOverlapDetector.Result result) {
+			Logging.logger().info("Overlap check: " + result);
+			ArrayList<AirspaceRecord> records = new ArrayList<AirspaceRecord>();
+			for (AirspaceOverlapDetector.Overlap o : result.getOverlaps()) {
+				Logging.logger().fine("Overlap " + o);
+				AirspaceRecord footprint = o.getFirst();
+				if (!hasFootprint(footprint))
+					footprint = o.getSecond();
+				if (!hasFootprint(footprint))
+					continue;
+
+				AirspaceRecord band = new AirspaceRecord(footprint);
+				band.setId(GROUP_INTERSECTING + "-" + records.size());
+				band.setGroupId(GROUP_INTERSECTING);
+				band.setName(o.getFirst().getId() + " / "
+						+ o.getSecond().getId());
+				band.setAltitudes(o.getFloor(), o.getCeiling());
+				band.setTerrainConforming(o.isFloorTerrainConforming(),
+						o.isCeilingTerrainConforming());
+				band.setColor(0xFF0000);
+				records.add(band);
 			}
+			this.model.addGroup(GROUP_INTERSECTING, AirspaceClass.OTHER);
+			this.registerAirspaces(records, false);
+			this.setGroupEnabled(GROUP_INTERSECTING, true);
+		}
 
-			this.setAirspaces(airspaces.values());
+		/**
+		 * Starts picking a route: the next two clicks on the globe set its
+		 * start and end.
+		 */
+		public void doPlanRoute() {
+			this.routeEnds.clear();
+			this.routeLayer.removeAllRenderables();
+			this.routePicking = true;
+			this.getWwd().redraw();
+			Logging.logger().info("Click the start and the end of the route");
 		}
 
-		public void doDrawDcSfra() {
-			// DC SFRA main
-			CappedCylinder sfraCyl = new CappedCylinder();
-			sfraCyl.setCenter(LatLon.fromDegrees(38.8522, -77.0378));
-			sfraCyl.setRadius(55560.0);
-			sfraCyl.setAltitudes(0.0, 5486.4);
-			sfraCyl.setTerrainConforming(true, true);
-			sfraCyl.setValue(AVKey.DISPLAY_NAME, "DC SFRA. SFC - 18,000FT MSL.");
-			this.setupDefaultMaterial(sfraCyl, Color.RED);
-			airspaces.put("DCSFRA-MAIN", sfraCyl);
+		protected void addRouteEnd(Position position) {
+			this.routeEnds.add(position);
+			if (this.routeEnds.size() < 2)
+				return;
+			this.routePicking = false;
+			Position a = this.routeEnds.get(0), b = this.routeEnds.get(1);
+			this.planRoute(a.getLatitude().degrees, a.getLongitude().degrees,
+					b.getLatitude().degrees, b.getLongitude().degrees);
+		}
 
-			this.setAirspaces(airspaces.values());
+		/**
+		 * Plans a route at {@link #ROUTE_ALTITUDE} around the airspaces of
+		 * every enabled group, in the background. The occupancy raster is
+		 * built only when the airspaces or the enabled groups changed, or the
+		 * ends fall outside the last one.
+		 */
+		public void planRoute(final double lat0, final double lon0,
+				final double lat1, final double lon1) {
+			final AirspaceModel.IndexBuild build = this.model.getIndexBuild();
+			final Set<String> avoided = this.getEnabledGroupIds();
+			AirspaceRoutePlanner planner = this.routePlanner;
+			if (planner == null || this.routeIndex != build
+					|| !avoided.equals(this.routeAvoided)
+					|| !planner.getRaster().contains(lat0, lon0, ROUTE_ALTITUDE)
+					|| !planner.getRaster().contains(lat1, lon1, ROUTE_ALTITUDE))
+				planner = null;
+
+			final AirspaceRoutePlanner cached = planner;
+			final Metrics.Histogram planTime = this.metrics
+					.histogram("route.plan");
+			this.loader.submit(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					AirspaceRoutePlanner planner = cached;
+					if (planner == null) {
+						AirspaceRaster raster = new AirspaceRaster(
+								new AirspaceRaster.Region(Math
+										.min(lat0, lat1) - ROUTE_MARGIN, Math
+										.max(lat0, lat1) + ROUTE_MARGIN, Math
+										.min(lon0, lon1) - ROUTE_MARGIN, Math
+										.max(lon0, lon1) + ROUTE_MARGIN,
+										ROUTE_MIN_ALTITUDE, ROUTE_MAX_ALTITUDE,
+										ROUTE_CELL_DEGREES, ROUTE_CELL_METERS,
+										0.0, ROUTE_TERRAIN), build.get()
+										.getVolumes(), model.getWorkers());
+						Logging.logger().info("Route raster: " + raster);
+						planner = new AirspaceRoutePlanner(raster, avoided);
+					}
+					final AirspaceRoutePlanner used = planner;
+					final AirspaceRoutePlanner.Route route = planner.plan(lat0,
+							lon0, ROUTE_ALTITUDE, lat1, lon1, ROUTE_ALTITUDE);
+					planTime.recordSince(start);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							routePlanner = used;
+							routeIndex = build;
+							routeAvoided = avoided;
+							showRoute(route);
+						}
+					});
+				}
+			});
 		}
 
-		public void doRemoveDcSfra() {
-			Iterator<Map.Entry<String, Airspace>> iterator = airspaces
-					.entrySet().iterator();
-			while (iterator.hasNext()) {
-				Map.Entry<String, Airspace> entry = iterator.next();
-				if (entry.getKey().contains("DCSFRA")) {
-					iterator.remove();
+		protected Set<String> getEnabledGroupIds() {
+			Set<String> ids = new HashSet<String>();
+			for (AirspaceRegistry.Group<AirspaceRecord> group : this.model
+					.getRegistry().getGroups()) {
+				if (group.isEnabled())
+					ids.add(group.getId());
+			}
+			return ids;
+		}
+
+		/**
+		 * Shows a planned route and its side view, or without a route the
+		 * side view of the direct leg between the clicked ends.
+		 */
+		protected void showRoute(AirspaceRoutePlanner.Route route) {
+			this.routeLayer.removeAllRenderables();
+			if (route == null) {
+				Logging.logger().warning(
+						"No route clear of the enabled airspaces");
+				if (this.routeEnds.size() == 2) {
+					Position a = this.routeEnds.get(0), b = this.routeEnds
+							.get(1);
+					this.profileRoute(new double[] { a.getLatitude().degrees,
+							b.getLatitude().degrees }, new double[] {
+							a.getLongitude().degrees, b.getLongitude().degrees },
+							new double[] { ROUTE_ALTITUDE, ROUTE_ALTITUDE });
+				}
+				return;
+			}
+			Logging.logger().info("Route: " + route);
+
+			ArrayList<Position> positions = new ArrayList<Position>();
+			double[] lats = new double[route.size()];
+			double[] lons = new double[route.size()];
+			double[] altitudes = new double[route.size()];
+			for (int i = 0; i < route.size(); i++) {
+				lats[i] = route.getLatitude(i);
+				lons[i] = route.getLongitude(i);
+				altitudes[i] = route.getAltitude(i);
+				positions.add(Position.fromDegrees(lats[i], lons[i],
+						altitudes[i]));
+			}
+			BasicShapeAttributes attrs = new BasicShapeAttributes();
+			attrs.setOutlineMaterial(Material.YELLOW);
+			attrs.setOutlineWidth(3.0);
+			Path path = new Path(positions);
+			path.setAltitudeMode(WorldWind.ABSOLUTE);
+			path.setAttributes(attrs);
+			this.routeLayer.addRenderable(path);
+			this.getWwd().redraw();
+			this.profileRoute(lats, lons, altitudes);
+		}
+
+		/**
+		 * Cuts the airspaces of every enabled group along a route in the
+		 * background, then shows the side view.
+		 */
+		public void profileRoute(final double[] lats, final double[] lons,
+				final double[] altitudes) {
+			final AirspaceModel.IndexBuild build = this.model.getIndexBuild();
+			final TerrainTileCache terrain = this.model.getTerrain();
+			final Set<String> groupIds = this.getEnabledGroupIds();
+			final Metrics.Histogram profileTime = this.metrics
+					.histogram("route.profile");
+			this.loader.submit(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					AirspaceProfiler profiler = new AirspaceProfiler(build.get());
+					profiler.setTerrain(terrain);
+					profiler.setGroupIds(groupIds);
+					final AirspaceProfiler.Profile profile = profiler.profile(
+							lats, lons, altitudes);
+					profileTime.recordSince(start);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							showProfile(profile);
+						}
+					});
 				}
+			});
+		}
+
+		protected void showProfile(AirspaceProfiler.Profile profile) {
+			Logging.logger().info("Route profile: " + profile);
+			if (this.profileDialog == null) {
+				this.profilePanel = new AirspaceProfilePanel();
+				this.profileDialog = new JDialog(this.frame, "Route Profile");
+				this.profileDialog.getContentPane().add(this.profilePanel,
+						BorderLayout.CENTER);
+				this.profileDialog.pack();
+				this.profileDialog.setLocationRelativeTo(this.frame);
 			}
+			this.profilePanel.setProfile(profile);
+			this.profileDialog.setVisible(true);
+		}
+
+		// Spheres and curtains cannot be cut down to an altitude band.
+		protected static boolean hasFootprint(AirspaceRecord record) {
+			return record.getShape() != AirspaceRecord.Shape.SPHERE
+					&& record.getShape() != AirspaceRecord.Shape.CURTAIN;
+		}
 
-			this.setAirspaces(airspaces.values());
+		public void doDrawIadClassB() {
+			this.model.addGroup(GROUP_IAD_CLASS_B, AirspaceClass.CLASS_B);
+			this.setGroupEnabled(GROUP_IAD_CLASS_B, true);
+		}
+
+
+		public void doRemoveIadClassB() {
+			this.setGroupEnabled(GROUP_IAD_CLASS_B, false);
+		}
+
+		public void doDrawDcSfra() {
+			this.model.addGroup(GROUP_DC_SFRA, AirspaceClass.SFRA);
+			this.setGroupEnabled(GROUP_DC_SFRA, true);
+		}
+
+
+		public void doRemoveDcSfra() {
+			this.setGroupEnabled(GROUP_DC_SFRA, false);
 		}
 		
 		public void doDrawHefClassD() {
-			// Manassas Regional Class D
-			CappedCylinder hefClassDCyl = new CappedCylinder();
-			hefClassDCyl.setCenter(LatLon.fromDegrees(38.7277, -77.5188));
-			hefClassDCyl.setRadius(7408.0);
-			hefClassDCyl.setAltitudes(0.0, 609.5999);
-			hefClassDCyl.setTerrainConforming(true, true);
-			hefClassDCyl.setValue(AVKey.DISPLAY_NAME, "Manassass Regional (HEF) Class D. SFC - (not including) 2,000FT MSL.");
-			this.setupDefaultMaterial(hefClassDCyl, Color.decode("#4B0082"));
-			airspaces.put("HEF-D", hefClassDCyl);
-			
-			this.setAirspaces(airspaces.values());	
+			this.model.addGroup(GROUP_HEF_CLASS_D, AirspaceClass.CLASS_D);
+			this.setGroupEnabled(GROUP_HEF_CLASS_D, true);
 		}
-		
-		public void doRemoveHefClassD() {
-			Iterator<Map.Entry<String, Airspace>> iterator = airspaces
-					.entrySet().iterator();
-			while (iterator.hasNext()) {
-				Map.Entry<String, Airspace> entry = iterator.next();
-				if (entry.getKey().contains("HEF")) {
-					iterator.remove();
-				}
-			}
 
-			this.setAirspaces(airspaces.values());
+
+		public void doRemoveHefClassD() {
+			this.setGroupEnabled(GROUP_HEF_CLASS_D, false);
 		}
 
 		public void doZoomToAirspaces() {
@@ -757,6 +1937,10 @@ public class AirspacesGA extends ApplicationTemplate {
 		start("General Aviation Airspaces", AppFrame.class);
 	}
 
+	protected static long elapsedSinceStart() {
+		return (System.nanoTime() - START_TIME) / 1000000L;
+	}
+
 	protected static Iterable<LatLon> makeLatLon(double[] src, int offset,
 			int length) {
 		int numCoords = (int) Math.floor(length / 2.0);
@@ -773,16 +1957,10 @@ public class AirspacesGA extends ApplicationTemplate {
 		return makeLatLon(src, 0, src.length);
 	}
 	
-	// Official airspace description does not specify azimuths needed for polyarcs
-	// TODO - implementation not accurate!
+	// Official airspace description does not specify azimuths needed for polyarcs,
+	// so derive them from the boundary points.
 	protected static double makeAngle(double lat1, double lon1, double lat2, double lon2) {
-		double x = Math.cos(lat1)*Math.sin(lat2) - Math.sin(lat1)*Math.cos(lat2) * Math.cos(lon2-lon1);
-		double y = Math.sin(lon2-lon1)*Math.cos(lat2);
-		
-		double theta = Math.atan2(y, x);
-		double degrees = Math.toDegrees(theta);
-		
-		return (degrees < 0.0 ? degrees+360.0 : degrees);
+		return Geodesy.bearing(lat1, lon1, lat2, lon2);
 	}
 
 }
@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads airspaces from a CSV subset modeled on the FAA NASR airspace extracts.
+ * The first non-comment line names the columns; column order is free and
+ * unknown columns are ignored. Altitudes are in feet, radii in nautical miles
+ * and azimuths in degrees:
+ *
+ * <pre>
+ * ID,GROUP,CLASS,SHAPE,NAME,LOWER,LOWER_REF,UPPER,UPPER_REF,CENTER_LAT,CENTER_LON,
+ * INNER_RADIUS,OUTER_RADIUS,LEFT_AZIMUTH,RIGHT_AZIMUTH,LOCATIONS,PATH,COLOR
+ * </pre>
+ *
+ * LOCATIONS holds "lat lon" pairs separated by semicolons. Blank azimuths are
+ * derived from the locations as described in
+ * {@link AirspaceLoader#deriveAzimuths(AirspaceRecord)}. Lines starting with
+ * '#' are comments.
+ *
+ * @author mmatarazzo
+ */
+public class CsvAirspaceReader implements AirspaceRecordReader {
+
+	protected BufferedReader reader;
+	protected Map<String, Integer> columns;
+	protected int lineNumber;
+	protected final double[] altitude = new double[2];
+
+	public CsvAirspaceReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
+	}
+
+	@Override
+	public AirspaceRecord next() throws IOException {
+		String line;
+		while ((line = this.reader.readLine()) != null) {
+			this.lineNumber++;
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#"))
+				continue;
+
+			List<String> fields = split(line);
+			if (this.columns == null) {
+				this.columns = new HashMap<String, Integer>();
+				for (int i = 0; i < fields.size(); i++) {
+					this.columns.put(fields.get(i).trim().toUpperCase(), i);
+				}
+				continue;
+			}
+
+			try {
+				return this.makeRecord(fields);
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("line " + this.lineNumber
+						+ ": " + e.getMessage(), e);
+			}
+		}
+		return null;
+	}
+
+	protected AirspaceRecord makeRecord(List<String> fields) {
+		AirspaceRecord record = new AirspaceRecord();
+		record.setId(this.required(fields, "ID"));
+		record.setAirspaceClass(AirspaceClass.parse(this.field(fields, "CLASS")));
+		String group = this.field(fields, "GROUP");
+		record.setGroupId(group != null ? group : record.getAirspaceClass()
+				.name());
+		record.setShape(AirspaceRecord.Shape.valueOf(this.required(fields,
+				"SHAPE").toUpperCase()));
+		record.setName(this.field(fields, "NAME"));
+
+		AirspaceLoader.parseAltitude(this.required(fields, "LOWER"),
+				this.field(fields, "LOWER_REF"), this.altitude);
+		double lower = this.altitude[0];
+		boolean lowerAgl = this.altitude[1] != 0.0;
+		AirspaceLoader.parseAltitude(this.required(fields, "UPPER"),
+				this.field(fields, "UPPER_REF"), this.altitude);
+		record.setAltitudes(lower, this.altitude[0]);
+		record.setTerrainConforming(lowerAgl, this.altitude[1] != 0.0);
+
+		String lat = this.field(fields, "CENTER_LAT");
+		if (lat != null) {
+			record.setCenter(Double.parseDouble(lat),
+					Double.parseDouble(this.required(fields, "CENTER_LON")));
+		}
+
+		String inner = this.field(fields, "INNER_RADIUS");
+		String outer = this.field(fields, "OUTER_RADIUS");
+		if (outer != null) {
+			record.setRadii(inner != null ? Double.parseDouble(inner)
+					* AirspaceRecord.NAUTICAL_MILES_TO_METERS : 0.0,
+					Double.parseDouble(outer)
+							* AirspaceRecord.NAUTICAL_MILES_TO_METERS);
+		}
+
+		String left = this.field(fields, "LEFT_AZIMUTH");
+		if (left != null) {
+			record.setAzimuths(Double.parseDouble(left),
+					Double.parseDouble(this.required(fields, "RIGHT_AZIMUTH")));
+		}
+
+		String locations = this.field(fields, "LOCATIONS");
+		if (locations != null)
+			record.setLocations(AirspaceLoader.parseLocations(locations));
+		if (left == null)
+			AirspaceLoader.deriveAzimuths(record);
+
+		String path = this.field(fields, "PATH");
+		record.setRhumbLine(path != null && path.toUpperCase().startsWith("RHUMB"));
+
+		String color = this.field(fields, "COLOR");
+		record.setColor(color != null ? AirspaceLoader.parseColor(color)
+				: record.getAirspaceClass().getDefaultColor());
+
+		return record;
+	}
+
+	/**
+	 * @return the trimmed field value, or null if the column is missing or
+	 *         empty.
+	 */
+	protected String field(List<String> fields, String column) {
+		Integer index = this.columns.get(column);
+		if (index == null || index >= fields.size())
+			return null;
+
+		String value = fields.get(index).trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	protected String required(List<String> fields, String column) {
+		String value = this.field(fields, column);
+		if (value == null)
+			throw new IllegalArgumentException("missing " + column);
+		return value;
+	}
+
+	/**
+	 * Splits one CSV line, honoring double quoted fields with "" escapes.
+	 */
+	protected static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"') {
+					if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+						sb.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					sb.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(sb.toString());
+				sb.setLength(0);
+			} else {
+				sb.append(c);
+			}
+		}
+		fields.add(sb.toString());
+		return fields;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+/**
+ * Spherical earth geodesy in degrees and meters. The earth radius matches the
+ * globe radius World Wind uses when it lays out airspace radii, so distances
+ * computed here agree with the rendered shapes.
+ * <p>
+ * The bulk methods work on parallel latitude and longitude arrays from a
+ * single origin. The origin's trigonometry is computed once, and the loops
+ * allocate nothing and branch only to wrap angles back into range.
+ *
+ * @author mmatarazzo
+ */
+public final class Geodesy {
+
+	public static final double EARTH_RADIUS = 6378137.0;
+
+	private Geodesy() {
+	}
+
+	/**
+	 * @return the great circle distance in meters.
+	 */
+	public static double distance(double lat1, double lon1, double lat2,
+			double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double sinDPhi = Math.sin((phi2 - phi1) / 2.0);
+		double sinDLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2.0);
+		double a = sinDPhi * sinDPhi + Math.cos(phi1) * Math.cos(phi2)
+				* sinDLambda * sinDLambda;
+		return 2.0 * EARTH_RADIUS
+				* Math.atan2(Math.sqrt(a), Math.sqrt(Math.max(0.0, 1.0 - a)));
+	}
+
+	/**
+	 * @return the initial great circle bearing from point 1 to point 2 in
+	 *         degrees clockwise from north, in [0, 360).
+	 */
+	public static double bearing(double lat1, double lon1, double lat2,
+			double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double dLambda = Math.toRadians(lon2 - lon1);
+		double y = Math.sin(dLambda) * Math.cos(phi2);
+		double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1)
+				* Math.cos(phi2) * Math.cos(dLambda);
+		return normalizeAzimuth(Math.toDegrees(Math.atan2(y, x)));
+	}
+
+	/**
+	 * Computes the point at a distance and bearing from a start point.
+	 *
+	 * @param result
+	 *            receives latitude and longitude in degrees.
+	 */
+	public static void destination(double lat, double lon, double bearing,
+			double distance, double[] result) {
+		double phi1 = Math.toRadians(lat);
+		double theta = Math.toRadians(bearing);
+		double delta = distance / EARTH_RADIUS;
+		double sinPhi1 = Math.sin(phi1);
+		double cosPhi1 = Math.cos(phi1);
+		double sinDelta = Math.sin(delta);
+		double cosDelta = Math.cos(delta);
+		double sinPhi2 = sinPhi1 * cosDelta + cosPhi1 * sinDelta
+				* Math.cos(theta);
+		double phi2 = Math.asin(sinPhi2);
+		double lambda = Math.atan2(Math.sin(theta) * sinDelta * cosPhi1,
+				cosDelta - sinPhi1 * sinPhi2);
+		result[0] = Math.toDegrees(phi2);
+		result[1] = normalizeLongitude(lon + Math.toDegrees(lambda));
+	}
+
+	/**
+	 * Computes great circle distances in meters from an origin to each point.
+	 */
+	public static void distances(double lat0, double lon0, double[] lats,
+			double[] lons, double[] result, int count) {
+		double phi0 = Math.toRadians(lat0);
+		double sin0 = Math.sin(phi0), cos0 = Math.cos(phi0);
+		for (int i = 0; i < count; i++) {
+			double phi = Math.toRadians(lats[i]);
+			double dLambda = Math.toRadians(lons[i] - lon0);
+			double sinPhi = Math.sin(phi), cosPhi = Math.cos(phi);
+			double cosDLambda = Math.cos(dLambda);
+			double x = cosPhi * Math.sin(dLambda);
+			double y = cos0 * sinPhi - sin0 * cosPhi * cosDLambda;
+			double z = sin0 * sinPhi + cos0 * cosPhi * cosDLambda;
+			result[i] = EARTH_RADIUS * Math.atan2(Math.sqrt(x * x + y * y), z);
+		}
+	}
+
+	/**
+	 * Computes initial great circle bearings in degrees, in [0, 360), from an
+	 * origin to each point.
+	 */
+	public static void bearings(double lat0, double lon0, double[] lats,
+			double[] lons, double[] result, int count) {
+		double phi0 = Math.toRadians(lat0);
+		double sin0 = Math.sin(phi0), cos0 = Math.cos(phi0);
+		for (int i = 0; i < count; i++) {
+			double phi = Math.toRadians(lats[i]);
+			double dLambda = Math.toRadians(lons[i] - lon0);
+			double cosPhi = Math.cos(phi);
+			double x = cosPhi * Math.sin(dLambda);
+			double y = cos0 * Math.sin(phi) - sin0 * cosPhi * Math.cos(dLambda);
+			double degrees = Math.toDegrees(Math.atan2(x, y));
+			result[i] = degrees < 0.0 ? degrees + 360.0 : degrees;
+		}
+	}
+
+	/**
+	 * Projects points onto the azimuthal equidistant plane about an origin:
+	 * x east and y north, in meters. Distances and bearings from the origin
+	 * are preserved exactly, so circles about the origin stay circles.
+	 */
+	public static void project(double lat0, double lon0, double[] lats,
+			double[] lons, double[] xs, double[] ys, int count) {
+		double phi0 = Math.toRadians(lat0);
+		double sin0 = Math.sin(phi0), cos0 = Math.cos(phi0);
+		for (int i = 0; i < count; i++) {
+			double phi = Math.toRadians(lats[i]);
+			double dLambda = Math.toRadians(lons[i] - lon0);
+			double sinPhi = Math.sin(phi), cosPhi = Math.cos(phi);
+			double cosDLambda = Math.cos(dLambda);
+			double x = cosPhi * Math.sin(dLambda);
+			double y = cos0 * sinPhi - sin0 * cosPhi * cosDLambda;
+			double z = sin0 * sinPhi + cos0 * cosPhi * cosDLambda;
+			double sinC = Math.sqrt(x * x + y * y);
+			// Scale from the chord direction to the arc length.
+			double k = sinC > 0.0 ? EARTH_RADIUS * Math.atan2(sinC, z) / sinC
+					: EARTH_RADIUS;
+			xs[i] = k * x;
+			ys[i] = k * y;
+		}
+	}
+
+	/**
+	 * Computes points on a circle about a center, from one azimuth sweeping
+	 * clockwise (or counterclockwise for a negative sweep), with both ends
+	 * included. The azimuth is advanced by rotation rather than a sine and
+	 * cosine per point.
+	 *
+	 * @param count
+	 *            number of points, at least 2.
+	 */
+	public static void arc(double lat0, double lon0, double radius,
+			double fromAzimuth, double sweep, double[] lats, double[] lons,
+			int count) {
+		double phi0 = Math.toRadians(lat0);
+		double sin0 = Math.sin(phi0), cos0 = Math.cos(phi0);
+		double delta = radius / EARTH_RADIUS;
+		double sinDelta = Math.sin(delta), cosDelta = Math.cos(delta);
+		double theta = Math.toRadians(fromAzimuth);
+		double step = Math.toRadians(sweep) / (count - 1);
+		double sinStep = Math.sin(step), cosStep = Math.cos(step);
+		double sinTheta = Math.sin(theta), cosTheta = Math.cos(theta);
+		for (int i = 0; i < count; i++) {
+			double sinPhi = sin0 * cosDelta + cos0 * sinDelta * cosTheta;
+			lats[i] = Math.toDegrees(Math.asin(sinPhi));
+			double lambda = Math.atan2(sinTheta * sinDelta * cos0, cosDelta
+					- sin0 * sinPhi);
+			lons[i] = normalizeLongitude(lon0 + Math.toDegrees(lambda));
+
+			double s = sinTheta * cosStep + cosTheta * sinStep;
+			cosTheta = cosTheta * cosStep - sinTheta * sinStep;
+			sinTheta = s;
+		}
+	}
+
+	/**
+	 * @return the azimuth wrapped into [0, 360).
+	 */
+	public static double normalizeAzimuth(double degrees) {
+		double d = degrees % 360.0;
+		if (d < 0.0) {
+			d += 360.0;
+			// A tiny negative remainder rounds up to 360.
+			if (d == 360.0)
+				d = 0.0;
+		}
+		return d;
+	}
+
+	/**
+	 * @return the longitude wrapped into [-180, 180).
+	 */
+	public static double normalizeLongitude(double degrees) {
+		return normalizeAzimuth(degrees + 180.0) - 180.0;
+	}
+
+	/**
+	 * @return the clockwise sweep from one azimuth to another, in [0, 360).
+	 */
+	public static double clockwiseSweep(double fromAzimuth, double toAzimuth) {
+		return normalizeAzimuth(toAzimuth - fromAzimuth);
+	}
+}
@@ -0,0 +1,348 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds where recorded flight tracks enter and leave airspaces. Tracks are
+ * given as parallel primitive arrays and tested sample by sample against an
+ * {@link AirspaceIndex}, without creating objects per sample.
+ * <p>
+ * Batches are split across a fork-join pool by track, and long tracks are
+ * further split into chunks. Each chunk seeds its state from the sample
+ * before it, so the events match a sequential scan and come back in track
+ * and time order.
+ *
+ * @author mmatarazzo
+ */
+public class IncursionDetector {
+
+	// Samples per chunk of a long track, and per fork-join leaf.
+	protected static final int CHUNK_SIZE = 8192;
+
+	public static class Track {
+
+		protected final String id;
+		protected final double[] times, lats, lons, altitudes;
+		protected double[] groundElevations;
+
+		/**
+		 * @param times
+		 *            sample times, in any unit, in increasing order.
+		 * @param altitudes
+		 *            altitudes above mean sea level, in meters.
+		 */
+		public Track(String id, double[] times, double[] lats, double[] lons,
+				double[] altitudes) {
+			int n = times.length;
+			if (lats.length != n || lons.length != n || altitudes.length != n)
+				throw new IllegalArgumentException("Track " + id
+						+ " arrays differ in length");
+			this.id = id;
+			this.times = times;
+			this.lats = lats;
+			this.lons = lons;
+			this.altitudes = altitudes;
+		}
+
+		public String getId() {
+			return this.id;
+		}
+
+		public int size() {
+			return this.times.length;
+		}
+
+		/**
+		 * Sets the terrain elevation under each sample, used for terrain
+		 * conforming floors and ceilings. Without it they are taken from the
+		 * detector's terrain, or else relative to sea level.
+		 */
+		public void setGroundElevations(double[] groundElevations) {
+			if (groundElevations != null
+					&& groundElevations.length != this.times.length)
+				throw new IllegalArgumentException("Track " + this.id
+						+ " ground elevations differ in length");
+			this.groundElevations = groundElevations;
+		}
+	}
+
+	public static class Event {
+
+		public enum Type {
+			ENTRY, EXIT
+		}
+
+		protected final String trackId;
+		protected final AirspaceRecord airspace;
+		protected final Type type;
+		protected final int sample;
+		protected final double time;
+
+		public Event(String trackId, AirspaceRecord airspace, Type type,
+				int sample, double time) {
+			this.trackId = trackId;
+			this.airspace = airspace;
+			this.type = type;
+			this.sample = sample;
+			this.time = time;
+		}
+
+		public String getTrackId() {
+			return this.trackId;
+		}
+
+		public AirspaceRecord getAirspace() {
+			return this.airspace;
+		}
+
+		public Type getType() {
+			return this.type;
+		}
+
+		/**
+		 * @return the first sample inside the airspace for an entry, or the
+		 *         first sample outside it for an exit.
+		 */
+		public int getSample() {
+			return this.sample;
+		}
+
+		public double getTime() {
+			return this.time;
+		}
+
+		@Override
+		public String toString() {
+			return this.trackId + " " + this.type + " " + this.airspace.getId()
+					+ " at " + this.time;
+		}
+	}
+
+	public static class Result {
+
+		protected List<Event> events;
+		protected int tracks;
+		protected long points;
+		protected long elapsedNanos;
+
+		public List<Event> getEvents() {
+			return this.events;
+		}
+
+		public int getTracks() {
+			return this.tracks;
+		}
+
+		public long getPoints() {
+			return this.points;
+		}
+
+		public long getElapsedNanos() {
+			return this.elapsedNanos;
+		}
+
+		public double getPointsPerSecond() {
+			return this.elapsedNanos > 0 ? this.points * 1e9
+					/ this.elapsedNanos : 0.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d tracks, %d points, %d events in %.1f ms, %.0f points/s",
+					this.tracks, this.points, this.events.size(),
+					this.elapsedNanos / 1e6, this.getPointsPerSecond());
+		}
+	}
+
+	protected final AirspaceIndex index;
+	protected final ForkJoinPool pool;
+	protected TerrainTileCache terrain;
+
+	public IncursionDetector(AirspaceIndex index) {
+		this(index, new ForkJoinPool());
+	}
+
+	public IncursionDetector(AirspaceIndex index, ForkJoinPool pool) {
+		this.index = index;
+		this.pool = pool;
+	}
+
+	public TerrainTileCache getTerrain() {
+		return this.terrain;
+	}
+
+	/**
+	 * Sets the ground elevations for tracks without their own, resolved a
+	 * chunk at a time.
+	 */
+	public void setTerrain(TerrainTileCache terrain) {
+		this.terrain = terrain;
+	}
+
+	/**
+	 * Scans one track on the calling thread.
+	 */
+	public List<Event> detect(Track track) {
+		List<Event> events = new ArrayList<Event>();
+		this.scan(track, 0, track.size(), new AirspaceIndex.Hits(),
+				new AirspaceIndex.Hits(), events);
+		return events;
+	}
+
+	/**
+	 * Scans a batch of tracks in parallel.
+	 */
+	public Result detect(List<Track> tracks) {
+		long start = System.nanoTime();
+
+		// Break the batch into chunks of at most CHUNK_SIZE samples.
+		ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		long points = 0;
+		for (Track track : tracks) {
+			for (int i = 0; i < track.size(); i += CHUNK_SIZE)
+				chunks.add(new Chunk(track, i, Math.min(track.size(), i
+						+ CHUNK_SIZE)));
+			points += track.size();
+		}
+
+		long[] offsets = new long[chunks.size() + 1];
+		for (int i = 0; i < chunks.size(); i++)
+			offsets[i + 1] = offsets[i] + chunks.get(i).end
+					- chunks.get(i).start;
+
+		this.pool.invoke(new ScanTask(chunks, offsets, 0, chunks.size()));
+
+		Result result = new Result();
+		result.events = new ArrayList<Event>();
+		for (Chunk chunk : chunks)
+			result.events.addAll(chunk.events);
+		result.events = Collections.unmodifiableList(result.events);
+		result.tracks = tracks.size();
+		result.points = points;
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Scans samples [start, end) of a track, seeding the state from the
+	 * sample before <code>start</code>.
+	 */
+	protected void scan(Track track, int start, int end,
+			AirspaceIndex.Hits previous, AirspaceIndex.Hits current,
+			List<Event> events) {
+		// Ground under samples [first, end), resolved in bulk if needed.
+		int first = Math.max(0, start - 1);
+		double[] ground = null;
+		if (track.groundElevations == null && this.terrain != null) {
+			ground = new double[end - first];
+			this.terrain.getElevations(track.lats, track.lons, first, end,
+					ground);
+		}
+
+		previous.clear();
+		if (start > 0)
+			this.findContaining(track, start - 1, ground, first, previous);
+
+		for (int i = start; i < end; i++) {
+			this.findContaining(track, i, ground, first, current);
+			for (int k = 0; k < current.size(); k++) {
+				int v = current.get(k);
+				if (!contains(previous, v))
+					events.add(this.event(track, v, Event.Type.ENTRY, i));
+			}
+			for (int k = 0; k < previous.size(); k++) {
+				int v = previous.get(k);
+				if (!contains(current, v))
+					events.add(this.event(track, v, Event.Type.EXIT, i));
+			}
+			AirspaceIndex.Hits swap = previous;
+			previous = current;
+			current = swap;
+		}
+	}
+
+	protected void findContaining(Track track, int i, double[] ground,
+			int first, AirspaceIndex.Hits hits) {
+		double elevation = track.groundElevations != null ? track.groundElevations[i]
+				: ground != null ? ground[i - first] : 0.0;
+		this.index.findContaining(track.lats[i], track.lons[i],
+				track.altitudes[i], elevation, hits);
+	}
+
+	protected Event event(Track track, int volume, Event.Type type, int sample) {
+		return new Event(track.id, this.index.getVolume(volume).getRecord(),
+				type, sample, track.times[sample]);
+	}
+
+	// A point is rarely inside more than a few airspaces, so a linear scan
+	// beats sorting or hashing.
+	protected static boolean contains(AirspaceIndex.Hits hits, int volume) {
+		for (int i = 0; i < hits.size(); i++) {
+			if (hits.get(i) == volume)
+				return true;
+		}
+		return false;
+	}
+
+	protected static class Chunk {
+
+		protected final Track track;
+		protected final int start, end;
+		protected List<Event> events = Collections.emptyList();
+
+		public Chunk(Track track, int start, int end) {
+			this.track = track;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Splits a range of chunks in half until it holds no more than
+	 * CHUNK_SIZE samples or a single chunk.
+	 */
+	protected class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final List<Chunk> chunks;
+		protected final long[] offsets;
+		protected final int lo, hi;
+
+		public ScanTask(List<Chunk> chunks, long[] offsets, int lo, int hi) {
+			this.chunks = chunks;
+			this.offsets = offsets;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.hi - this.lo > 1
+					&& this.offsets[this.hi] - this.offsets[this.lo] > CHUNK_SIZE) {
+				int mid = (this.lo + this.hi) >>> 1;
+				invokeAll(new ScanTask(this.chunks, this.offsets, this.lo, mid),
+						new ScanTask(this.chunks, this.offsets, mid, this.hi));
+				return;
+			}
+
+			AirspaceIndex.Hits previous = new AirspaceIndex.Hits();
+			AirspaceIndex.Hits current = new AirspaceIndex.Hits();
+			for (int i = this.lo; i < this.hi; i++) {
+				Chunk chunk = this.chunks.get(i);
+				ArrayList<Event> events = new ArrayList<Event>();
+				scan(chunk.track, chunk.start, chunk.end, previous, current,
+						events);
+				chunk.events = events;
+			}
+		}
+	}
+}
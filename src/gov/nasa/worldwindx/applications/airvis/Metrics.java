@@ -0,0 +1,345 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named counters, gauges and latency histograms, cheap enough to leave on.
+ * Recording a value costs a few atomic increments and takes no lock, so any
+ * thread may record. A registry can be published over JMX, where every
+ * metric appears as read-only attributes of a single MBean.
+ *
+ * @author mmatarazzo
+ */
+public class Metrics {
+
+	public static final String DEFAULT_OBJECT_NAME = "gov.nasa.worldwindx.applications.airvis:type=Metrics";
+
+	protected static final Metrics DEFAULT = new Metrics();
+
+	public interface Gauge {
+		long getValue();
+	}
+
+	public static class Counter {
+
+		protected final AtomicLong value = new AtomicLong();
+
+		public void increment() {
+			this.value.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			this.value.addAndGet(delta);
+		}
+
+		public long get() {
+			return this.value.get();
+		}
+	}
+
+	/**
+	 * Counts non-negative values in buckets a quarter octave wide, so
+	 * percentiles are reported to within 25%.
+	 */
+	public static class Histogram {
+
+		// Sub-buckets per power of two, as a number of mantissa bits.
+		protected static final int SUB_BITS = 2;
+		protected static final int SUB_COUNT = 1 << SUB_BITS;
+
+		protected final AtomicLongArray buckets = new AtomicLongArray(
+				64 * SUB_COUNT);
+		protected final AtomicLong count = new AtomicLong();
+		protected final AtomicLong sum = new AtomicLong();
+		protected final AtomicLong max = new AtomicLong();
+
+		public void record(long value) {
+			if (value < 0)
+				value = 0;
+			this.buckets.incrementAndGet(bucket(value));
+			this.count.incrementAndGet();
+			this.sum.addAndGet(value);
+			long m;
+			while ((m = this.max.get()) < value
+					&& !this.max.compareAndSet(m, value))
+				;
+		}
+
+		/**
+		 * Records the time elapsed since a {@link System#nanoTime()} reading.
+		 */
+		public void recordSince(long startNanos) {
+			this.record(System.nanoTime() - startNanos);
+		}
+
+		protected static int bucket(long value) {
+			if (value < SUB_COUNT)
+				return (int) value;
+			int exp = 63 - Long.numberOfLeadingZeros(value);
+			int mantissa = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+			return ((exp - SUB_BITS + 1) << SUB_BITS) | mantissa;
+		}
+
+		protected static long upperBound(int bucket) {
+			if (bucket < SUB_COUNT)
+				return bucket;
+			int shift = (bucket >> SUB_BITS) - 1;
+			long lower = (long) (SUB_COUNT | (bucket & (SUB_COUNT - 1))) << shift;
+			return lower + (1L << shift) - 1;
+		}
+
+		public long getCount() {
+			return this.count.get();
+		}
+
+		public double getMean() {
+			long n = this.count.get();
+			return n > 0 ? (double) this.sum.get() / n : 0.0;
+		}
+
+		public long getMax() {
+			return this.max.get();
+		}
+
+		/**
+		 * @param fraction
+		 *            for example 0.99 for the 99th percentile.
+		 * @return an upper bound on the percentile, or 0 if nothing was
+		 *         recorded.
+		 */
+		public long getPercentile(double fraction) {
+			long n = this.count.get();
+			if (n == 0)
+				return 0;
+			long rank = (long) Math.ceil(fraction * n);
+			long seen = 0;
+			for (int i = 0; i < this.buckets.length(); i++) {
+				seen += this.buckets.get(i);
+				if (seen >= rank)
+					return Math.min(upperBound(i), this.max.get());
+			}
+			return this.max.get();
+		}
+
+		public void reset() {
+			for (int i = 0; i < this.buckets.length(); i++)
+				this.buckets.set(i, 0);
+			this.count.set(0);
+			this.sum.set(0);
+			this.max.set(0);
+		}
+
+		/**
+		 * Summarizes values recorded in nanoseconds.
+		 */
+		public String toMillisString() {
+			return String.format("%d, mean %.2f, p50 %.2f, p99 %.2f, max %.2f ms",
+					this.getCount(), this.getMean() / 1e6,
+					this.getPercentile(0.5) / 1e6,
+					this.getPercentile(0.99) / 1e6, this.getMax() / 1e6);
+		}
+	}
+
+	protected final Map<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+	protected final Map<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+	protected final Map<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+
+	/**
+	 * @return the registry shared by the application.
+	 */
+	public static Metrics getDefault() {
+		return DEFAULT;
+	}
+
+	public Counter counter(String name) {
+		Counter c = this.counters.get(name);
+		if (c == null) {
+			synchronized (this.counters) {
+				c = this.counters.get(name);
+				if (c == null) {
+					c = new Counter();
+					this.counters.put(name, c);
+				}
+			}
+		}
+		return c;
+	}
+
+	public Histogram histogram(String name) {
+		Histogram h = this.histograms.get(name);
+		if (h == null) {
+			synchronized (this.histograms) {
+				h = this.histograms.get(name);
+				if (h == null) {
+					h = new Histogram();
+					this.histograms.put(name, h);
+				}
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Adds or replaces a gauge, read whenever the metric is reported.
+	 */
+	public void gauge(String name, Gauge gauge) {
+		this.gauges.put(name, gauge);
+	}
+
+	public void reset() {
+		for (Histogram h : this.histograms.values())
+			h.reset();
+	}
+
+	/**
+	 * Formats every metric, one per line, with histograms in milliseconds.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Histogram> e : this.histograms.entrySet()) {
+			sb.append(e.getKey()).append(": ")
+					.append(e.getValue().toMillisString()).append('\n');
+		}
+		for (Map.Entry<String, Counter> e : this.counters.entrySet()) {
+			sb.append(e.getKey()).append(": ").append(e.getValue().get())
+					.append('\n');
+		}
+		for (Map.Entry<String, Gauge> e : this.gauges.entrySet()) {
+			sb.append(e.getKey()).append(": ")
+					.append(e.getValue().getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Publishes the registry on the platform MBean server, replacing any
+	 * MBean already registered under the name.
+	 */
+	public void registerMBean(String objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(objectName);
+		if (server.isRegistered(name))
+			server.unregisterMBean(name);
+		server.registerMBean(new MetricsMBean(), name);
+	}
+
+	/**
+	 * Exposes counters and gauges as long attributes, and each histogram as
+	 * count, mean, p50, p99 and max attributes in nanoseconds.
+	 */
+	protected class MetricsMBean implements DynamicMBean {
+
+		protected final String[] suffixes = { ".count", ".mean", ".p50",
+				".p99", ".max" };
+
+		@Override
+		public Object getAttribute(String attribute)
+				throws AttributeNotFoundException {
+			Counter c = counters.get(attribute);
+			if (c != null)
+				return c.get();
+			Gauge g = gauges.get(attribute);
+			if (g != null)
+				return g.getValue();
+
+			int dot = attribute.lastIndexOf('.');
+			Histogram h = dot > 0 ? histograms.get(attribute.substring(0, dot))
+					: null;
+			if (h != null) {
+				String suffix = attribute.substring(dot);
+				if (suffix.equals(".count"))
+					return h.getCount();
+				if (suffix.equals(".mean"))
+					return h.getMean();
+				if (suffix.equals(".p50"))
+					return (double) h.getPercentile(0.5);
+				if (suffix.equals(".p99"))
+					return (double) h.getPercentile(0.99);
+				if (suffix.equals(".max"))
+					return (double) h.getMax();
+			}
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String a : attributes) {
+				try {
+					list.add(new Attribute(a, this.getAttribute(a)));
+				} catch (AttributeNotFoundException e) {
+					// Omitted, as the interface allows.
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute)
+				throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(attribute.getName()
+					+ " is read-only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params,
+				String[] signature) {
+			if ("reset".equals(actionName)) {
+				reset();
+				return null;
+			}
+			throw new UnsupportedOperationException(actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+			for (String name : counters.keySet())
+				attributes.add(new MBeanAttributeInfo(name, "long", "Counter",
+						true, false, false));
+			for (String name : gauges.keySet())
+				attributes.add(new MBeanAttributeInfo(name, "long", "Gauge",
+						true, false, false));
+			for (String name : histograms.keySet()) {
+				for (String suffix : this.suffixes) {
+					attributes.add(new MBeanAttributeInfo(name + suffix,
+							suffix.equals(".count") ? "long" : "double",
+							"Histogram, nanoseconds", true, false, false));
+				}
+			}
+			MBeanOperationInfo reset = new MBeanOperationInfo("reset",
+					"Clears all histograms", null, "void",
+					MBeanOperationInfo.ACTION);
+			return new MBeanInfo(Metrics.class.getName(),
+					"Airspace application metrics",
+					attributes.toArray(new MBeanAttributeInfo[attributes
+							.size()]), null,
+					new MBeanOperationInfo[] { reset }, null);
+		}
+	}
+}
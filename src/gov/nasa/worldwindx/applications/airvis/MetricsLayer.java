@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.event.RenderingEvent;
+import gov.nasa.worldwind.event.RenderingListener;
+import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.render.AnnotationAttributes;
+import gov.nasa.worldwind.render.ScreenAnnotation;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * Times every frame of a {@link WorldWindow} into the
+ * <code>frame.time</code> histogram of a {@link Metrics} registry and, while
+ * enabled, shows the registry's report in the lower left corner. The report
+ * is reformatted at most twice a second, so the overlay does not cost a
+ * string per frame.
+ *
+ * @author mmatarazzo
+ */
+public class MetricsLayer extends RenderableLayer implements RenderingListener {
+
+	public static final String FRAME_TIME = "frame.time";
+
+	protected static final long REFRESH_NANOS = 500000000L;
+	protected static final int WIDTH = 420;
+	protected static final int MARGIN = 10;
+
+	protected final WorldWindow wwd;
+	protected final Metrics metrics;
+	protected final Metrics.Histogram frameTime;
+	protected final ScreenAnnotation annotation;
+	protected long frameStart;
+	protected long lastRefresh;
+
+	public MetricsLayer(WorldWindow wwd, Metrics metrics) {
+		this.wwd = wwd;
+		this.metrics = metrics;
+		this.frameTime = metrics.histogram(FRAME_TIME);
+		this.setName("Metrics");
+		this.setPickEnabled(false);
+
+		AnnotationAttributes attrs = new AnnotationAttributes();
+		attrs.setAdjustWidthToText(AVKey.SIZE_FIT_TEXT);
+		attrs.setSize(new Dimension(WIDTH, 0));
+		attrs.setTextAlign(AVKey.LEFT);
+		attrs.setFont(Font.decode("Monospaced-PLAIN-11"));
+		attrs.setTextColor(Color.WHITE);
+		attrs.setBackgroundColor(new Color(0, 0, 0, 160));
+		attrs.setBorderWidth(0);
+		attrs.setCornerRadius(4);
+		attrs.setInsets(new Insets(6, 6, 6, 6));
+		attrs.setDrawOffset(new Point(0, 0));
+		this.annotation = new ScreenAnnotation("", new Point(MARGIN + WIDTH
+				/ 2, MARGIN));
+		this.annotation.setAttributes(attrs);
+		this.addRenderable(this.annotation);
+	}
+
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	@Override
+	public void stageChanged(RenderingEvent event) {
+		if (event.getStage().equals(RenderingEvent.BEFORE_RENDERING)) {
+			this.frameStart = System.nanoTime();
+			if (this.isEnabled()
+					&& this.frameStart - this.lastRefresh > REFRESH_NANOS) {
+				this.lastRefresh = this.frameStart;
+				this.refresh();
+			}
+		} else if (event.getStage().equals(RenderingEvent.AFTER_BUFFER_SWAP)
+				&& this.frameStart != 0) {
+			this.frameTime.recordSince(this.frameStart);
+			this.frameStart = 0;
+		}
+	}
+
+	protected void refresh() {
+		this.annotation.setText(this.metrics.report().trim());
+		// Screen points are measured from the top; the frame grows upward.
+		Rectangle viewport = this.wwd.getView().getViewport();
+		if (viewport != null)
+			this.annotation.setScreenPoint(new Point(MARGIN + WIDTH / 2,
+					viewport.height - MARGIN));
+	}
+}
@@ -0,0 +1,412 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads airspaces in OpenAir format. Supported commands are AC, AN, AL, AH,
+ * SP, SB, V X=, V D=, DP, DC, DA and DB, plus two extensions: AI sets the
+ * airspace id and AG the group id.
+ * <p>
+ * A lone DC becomes a CappedCylinder, two opposing concentric arcs a
+ * PartialCappedCylinder, a single arc joined by points a PolyArc, and anything
+ * else a Polygon with its arcs broken into segments.
+ *
+ * @author mmatarazzo
+ */
+public class OpenAirReader implements AirspaceRecordReader {
+
+	// Angular step used when an arc has to be broken into polygon segments.
+	protected static final double ARC_STEP = 2.0;
+	protected static final double EPSILON = 1e-6;
+	protected static final Pattern COORDINATE = Pattern.compile(
+			"\\s*([0-9:.]+)\\s*([NS])\\s*,?\\s*([0-9:.]+)\\s*([EW])\\s*",
+			Pattern.CASE_INSENSITIVE);
+
+	protected static class Element {
+		// 'P' point, 'C' circle, 'A' arc
+		char type;
+		double lat, lon;
+		double centerLat, centerLon;
+		double radius, start, end;
+		boolean clockwise;
+	}
+
+	protected BufferedReader reader;
+	protected String pendingLine;
+	protected int lineNumber;
+	protected int recordCount;
+
+	// State of the record being read.
+	protected int recordLine;
+	protected String airspaceClass;
+	protected String name;
+	protected String id;
+	protected String groupId;
+	protected String lower;
+	protected String upper;
+	protected Integer color;
+	protected double centerLat = Double.NaN;
+	protected double centerLon = Double.NaN;
+	protected boolean clockwise;
+	protected List<Element> elements = new ArrayList<Element>();
+	protected final double[] coordinate = new double[2];
+
+	public OpenAirReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
+	}
+
+	@Override
+	public AirspaceRecord next() throws IOException {
+		String line = this.pendingLine;
+		this.pendingLine = null;
+		while (line == null || !isCommand(line, "AC")) {
+			line = this.readLine();
+			if (line == null)
+				return null;
+		}
+
+		this.reset();
+		try {
+			this.command(line);
+			while ((line = this.readLine()) != null) {
+				if (isCommand(line, "AC")) {
+					this.pendingLine = line;
+					break;
+				}
+				this.command(line);
+			}
+			return this.makeRecord();
+		} catch (RuntimeException e) {
+			// Skip whatever is left of the bad record.
+			while (this.pendingLine == null && (line = this.readLine()) != null) {
+				if (isCommand(line, "AC"))
+					this.pendingLine = line;
+			}
+			throw new IllegalArgumentException("record at line "
+					+ this.recordLine + ": " + e.getMessage(), e);
+		}
+	}
+
+	protected String readLine() throws IOException {
+		String line;
+		while ((line = this.reader.readLine()) != null) {
+			this.lineNumber++;
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("*"))
+				return line;
+		}
+		return null;
+	}
+
+	protected static boolean isCommand(String line, String command) {
+		return line.length() >= command.length()
+				&& line.regionMatches(true, 0, command, 0, command.length())
+				&& (line.length() == command.length() || Character
+						.isWhitespace(line.charAt(command.length())));
+	}
+
+	protected void reset() {
+		this.recordLine = this.lineNumber;
+		this.airspaceClass = null;
+		this.name = null;
+		this.id = null;
+		this.groupId = null;
+		this.lower = null;
+		this.upper = null;
+		this.color = null;
+		this.centerLat = Double.NaN;
+		this.centerLon = Double.NaN;
+		this.clockwise = true;
+		this.elements.clear();
+	}
+
+	protected void command(String line) {
+		int space = line.indexOf(' ');
+		String cmd = (space < 0 ? line : line.substring(0, space)).toUpperCase();
+		String arg = space < 0 ? "" : line.substring(space + 1).trim();
+
+		if (cmd.equals("AC")) {
+			this.airspaceClass = arg;
+		} else if (cmd.equals("AN")) {
+			this.name = arg;
+		} else if (cmd.equals("AI")) {
+			this.id = arg;
+		} else if (cmd.equals("AG")) {
+			this.groupId = arg;
+		} else if (cmd.equals("AL")) {
+			this.lower = arg;
+		} else if (cmd.equals("AH")) {
+			this.upper = arg;
+		} else if (cmd.equals("SB")) {
+			if (!arg.startsWith("-"))
+				this.color = AirspaceLoader.parseColor(arg);
+		} else if (cmd.equals("SP")) {
+			String[] parts = arg.split("\\s*,\\s*");
+			if (this.color == null && parts.length == 5) {
+				this.color = AirspaceLoader.parseColor(parts[2] + "," + parts[3]
+						+ "," + parts[4]);
+			}
+		} else if (cmd.equals("V")) {
+			this.variable(arg);
+		} else if (cmd.equals("DP")) {
+			Element e = new Element();
+			e.type = 'P';
+			parseCoordinate(arg, this.coordinate);
+			e.lat = this.coordinate[0];
+			e.lon = this.coordinate[1];
+			this.elements.add(e);
+		} else if (cmd.equals("DC")) {
+			Element e = this.centered('C');
+			e.radius = Double.parseDouble(arg)
+					* AirspaceRecord.NAUTICAL_MILES_TO_METERS;
+			this.elements.add(e);
+		} else if (cmd.equals("DA")) {
+			String[] parts = arg.split("\\s*,\\s*");
+			if (parts.length != 3)
+				throw new IllegalArgumentException("bad DA " + arg);
+			Element e = this.centered('A');
+			e.radius = Double.parseDouble(parts[0])
+					* AirspaceRecord.NAUTICAL_MILES_TO_METERS;
+			e.start = Geodesy.normalizeAzimuth(Double.parseDouble(parts[1]));
+			e.end = Geodesy.normalizeAzimuth(Double.parseDouble(parts[2]));
+			this.elements.add(e);
+		} else if (cmd.equals("DB")) {
+			// Split after the first point's longitude hemisphere, since a
+			// comma may also separate a point's latitude and longitude.
+			String[] parts = arg.split("(?<=[EeWw])\\s*,\\s*");
+			if (parts.length != 2)
+				throw new IllegalArgumentException("bad DB " + arg);
+			Element e = this.centered('A');
+			parseCoordinate(parts[0], this.coordinate);
+			e.radius = Geodesy.distance(e.centerLat, e.centerLon,
+					this.coordinate[0], this.coordinate[1]);
+			e.start = Geodesy.bearing(e.centerLat, e.centerLon,
+					this.coordinate[0], this.coordinate[1]);
+			parseCoordinate(parts[1], this.coordinate);
+			e.end = Geodesy.bearing(e.centerLat, e.centerLon,
+					this.coordinate[0], this.coordinate[1]);
+			this.elements.add(e);
+		}
+		// Labels (AT) and other commands are ignored.
+	}
+
+	protected void variable(String arg) {
+		int eq = arg.indexOf('=');
+		if (eq < 0)
+			return;
+
+		String key = arg.substring(0, eq).trim().toUpperCase();
+		String value = arg.substring(eq + 1).trim();
+		if (key.equals("X")) {
+			parseCoordinate(value, this.coordinate);
+			this.centerLat = this.coordinate[0];
+			this.centerLon = this.coordinate[1];
+		} else if (key.equals("D")) {
+			this.clockwise = !value.startsWith("-");
+		}
+	}
+
+	protected Element centered(char type) {
+		if (Double.isNaN(this.centerLat))
+			throw new IllegalArgumentException("arc or circle without V X=");
+
+		Element e = new Element();
+		e.type = type;
+		e.centerLat = this.centerLat;
+		e.centerLon = this.centerLon;
+		e.clockwise = this.clockwise;
+		return e;
+	}
+
+	protected AirspaceRecord makeRecord() {
+		if (this.lower == null || this.upper == null)
+			throw new IllegalArgumentException("missing AL or AH");
+		if (this.elements.isEmpty())
+			throw new IllegalArgumentException("no geometry");
+
+		AirspaceClass cls = AirspaceClass.parse(this.airspaceClass);
+		this.recordCount++;
+		AirspaceRecord record = new AirspaceRecord();
+		record.setAirspaceClass(cls);
+		record.setGroupId(this.groupId != null ? this.groupId : cls.name());
+		record.setId(this.id != null ? this.id : record.getGroupId() + "-"
+				+ this.recordCount);
+		record.setName(this.name);
+		record.setColor(this.color != null ? this.color : cls.getDefaultColor());
+
+		double[] altitude = new double[2];
+		AirspaceLoader.parseAltitude(this.lower, null, altitude);
+		double lowerAltitude = altitude[0];
+		boolean lowerAgl = altitude[1] != 0.0;
+		AirspaceLoader.parseAltitude(this.upper, null, altitude);
+		record.setAltitudes(lowerAltitude, altitude[0]);
+		record.setTerrainConforming(lowerAgl, altitude[1] != 0.0);
+
+		if (this.makeCylinder(record) || this.makePartialCylinder(record)
+				|| this.makePolyArc(record))
+			return record;
+
+		this.makePolygon(record);
+		return record;
+	}
+
+	protected boolean makeCylinder(AirspaceRecord record) {
+		Element first = this.elements.get(0);
+		if (first.type != 'C')
+			return false;
+		if (this.elements.size() != 1)
+			throw new IllegalArgumentException("DC mixed with other geometry");
+
+		record.setShape(AirspaceRecord.Shape.CAPPED_CYLINDER);
+		record.setCenter(first.centerLat, first.centerLon);
+		record.setRadius(first.radius);
+		return true;
+	}
+
+	protected boolean makePartialCylinder(AirspaceRecord record) {
+		if (this.elements.size() != 2)
+			return false;
+
+		Element a = this.elements.get(0);
+		Element b = this.elements.get(1);
+		if (a.type != 'A' || b.type != 'A' || !sameCenter(a, b)
+				|| a.clockwise == b.clockwise
+				|| Math.abs(a.radius - b.radius) < EPSILON
+				|| !sameAzimuth(a.start, b.end) || !sameAzimuth(a.end, b.start))
+			return false;
+
+		Element outer = a.radius > b.radius ? a : b;
+		record.setShape(AirspaceRecord.Shape.PARTIAL_CAPPED_CYLINDER);
+		record.setCenter(a.centerLat, a.centerLon);
+		record.setRadii(Math.min(a.radius, b.radius), outer.radius);
+		if (outer.clockwise) {
+			record.setAzimuths(outer.start, outer.end);
+		} else {
+			record.setAzimuths(outer.end, outer.start);
+		}
+		return true;
+	}
+
+	protected boolean makePolyArc(AirspaceRecord record) {
+		int arcIndex = -1;
+		for (int i = 0; i < this.elements.size(); i++) {
+			if (this.elements.get(i).type != 'P') {
+				if (arcIndex >= 0)
+					return false;
+				arcIndex = i;
+			}
+		}
+		if (arcIndex < 0 || this.elements.size() < 2)
+			return false;
+
+		// Points in ring order following the arc.
+		int n = this.elements.size();
+		Element arc = this.elements.get(arcIndex);
+		double[] locations = new double[2 * n];
+		locations[0] = arc.centerLat;
+		locations[1] = arc.centerLon;
+		for (int k = 1; k < n; k++) {
+			Element p = this.elements.get((arcIndex + k) % n);
+			// A PolyArc joins the arc's right end to its last location, so
+			// clockwise arcs list the following points in reverse.
+			int slot = arc.clockwise ? n - k : k;
+			locations[2 * slot] = p.lat;
+			locations[2 * slot + 1] = p.lon;
+		}
+
+		record.setShape(AirspaceRecord.Shape.POLY_ARC);
+		record.setLocations(locations);
+		record.setRadius(arc.radius);
+		if (arc.clockwise) {
+			record.setAzimuths(arc.start, arc.end);
+		} else {
+			record.setAzimuths(arc.end, arc.start);
+		}
+		return true;
+	}
+
+	protected void makePolygon(AirspaceRecord record) {
+		List<double[]> points = new ArrayList<double[]>();
+		double[] p = new double[2];
+		for (Element e : this.elements) {
+			if (e.type == 'P') {
+				points.add(new double[] { e.lat, e.lon });
+			} else if (e.type == 'A') {
+				double sweep = e.clockwise ? Geodesy.clockwiseSweep(e.start,
+						e.end) : Geodesy.clockwiseSweep(e.end, e.start);
+				if (sweep < EPSILON)
+					sweep = 360.0;
+				int steps = Math.max(1, (int) Math.ceil(sweep / ARC_STEP));
+				for (int i = 0; i <= steps; i++) {
+					double az = e.start + (e.clockwise ? 1 : -1) * sweep * i
+							/ steps;
+					Geodesy.destination(e.centerLat, e.centerLon, az, e.radius, p);
+					points.add(new double[] { p[0], p[1] });
+				}
+			} else {
+				throw new IllegalArgumentException("DC mixed with other geometry");
+			}
+		}
+		if (points.size() < 3)
+			throw new IllegalArgumentException("polygon needs three points");
+
+		double[] locations = new double[2 * points.size()];
+		for (int i = 0; i < points.size(); i++) {
+			locations[2 * i] = points.get(i)[0];
+			locations[2 * i + 1] = points.get(i)[1];
+		}
+		record.setShape(AirspaceRecord.Shape.POLYGON);
+		record.setLocations(locations);
+	}
+
+	protected static boolean sameCenter(Element a, Element b) {
+		return Math.abs(a.centerLat - b.centerLat) < EPSILON
+				&& Math.abs(a.centerLon - b.centerLon) < EPSILON;
+	}
+
+	protected static boolean sameAzimuth(double a, double b) {
+		double d = Geodesy.clockwiseSweep(a, b);
+		return d < 0.01 || d > 359.99;
+	}
+
+	/**
+	 * Parses "38:56:05 N 077:28:00 W", "38:56.08N 77:28.0W" or
+	 * "38.934722 N 77.466667 W".
+	 */
+	public static void parseCoordinate(String text, double[] result) {
+		Matcher m = COORDINATE.matcher(text);
+		if (!m.matches())
+			throw new IllegalArgumentException("bad coordinate " + text);
+
+		double lat = parseSexagesimal(m.group(1));
+		double lon = parseSexagesimal(m.group(3));
+		result[0] = m.group(2).equalsIgnoreCase("S") ? -lat : lat;
+		result[1] = m.group(4).equalsIgnoreCase("W") ? -lon : lon;
+	}
+
+	protected static double parseSexagesimal(String text) {
+		String[] parts = text.split(":");
+		double value = 0.0;
+		double scale = 1.0;
+		for (String part : parts) {
+			value += Double.parseDouble(part) * scale;
+			scale /= 60.0;
+		}
+		return value;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+}
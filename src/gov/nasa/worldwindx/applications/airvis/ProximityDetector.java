@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the airspaces nearest each sample of a batch of positions, such as
+ * one second of a traffic feed, and how far each sample is from their
+ * boundaries horizontally, vertically and overall. Positions are given as
+ * parallel primitive arrays and results come back the same way, k slots per
+ * sample, so a batch creates no objects per sample.
+ * <p>
+ * Samples are split across a fork-join pool in chunks; each leaf reuses one
+ * {@link AirspaceIndex.Nearest}.
+ *
+ * @author mmatarazzo
+ */
+public class ProximityDetector {
+
+	// Samples per fork-join leaf.
+	protected static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * Nearest airspaces of each sample: slots [i * k, i * k + k) belong to
+	 * sample i, nearest first, with unused slots holding volume -1 and NaN
+	 * distances. Distances are in meters, negative inside.
+	 */
+	public static class Result {
+
+		protected final AirspaceIndex index;
+		protected final int k;
+		protected final int[] volumes;
+		protected final double[] distances, laterals, verticals;
+		protected long elapsedNanos;
+
+		public Result(AirspaceIndex index, int samples, int k) {
+			this.index = index;
+			this.k = k;
+			this.volumes = new int[samples * k];
+			this.distances = new double[samples * k];
+			this.laterals = new double[samples * k];
+			this.verticals = new double[samples * k];
+			Arrays.fill(this.volumes, -1);
+			Arrays.fill(this.distances, Double.NaN);
+			Arrays.fill(this.laterals, Double.NaN);
+			Arrays.fill(this.verticals, Double.NaN);
+		}
+
+		public int getSamples() {
+			return this.volumes.length / Math.max(1, this.k);
+		}
+
+		public int getK() {
+			return this.k;
+		}
+
+		/**
+		 * @return the index volume of a slot, or -1.
+		 */
+		public int getVolume(int sample, int rank) {
+			return this.volumes[sample * this.k + rank];
+		}
+
+		/**
+		 * @return the record of a slot, or null.
+		 */
+		public AirspaceRecord getAirspace(int sample, int rank) {
+			int v = this.getVolume(sample, rank);
+			return v >= 0 ? this.index.getVolume(v).getRecord() : null;
+		}
+
+		public double getDistance(int sample, int rank) {
+			return this.distances[sample * this.k + rank];
+		}
+
+		public double getLateralDistance(int sample, int rank) {
+			return this.laterals[sample * this.k + rank];
+		}
+
+		public double getVerticalDistance(int sample, int rank) {
+			return this.verticals[sample * this.k + rank];
+		}
+
+		/**
+		 * @return the slot arrays, for callers scanning them directly.
+		 */
+		public int[] getVolumes() {
+			return this.volumes;
+		}
+
+		public double[] getDistances() {
+			return this.distances;
+		}
+
+		public double[] getLateralDistances() {
+			return this.laterals;
+		}
+
+		public double[] getVerticalDistances() {
+			return this.verticals;
+		}
+
+		public long getElapsedNanos() {
+			return this.elapsedNanos;
+		}
+
+		public double getSamplesPerSecond() {
+			return this.elapsedNanos > 0 ? this.getSamples() * 1e9
+					/ this.elapsedNanos : 0.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d samples, %d nearest in %.1f ms, %.0f samples/s",
+					this.getSamples(), this.k, this.elapsedNanos / 1e6,
+					this.getSamplesPerSecond());
+		}
+	}
+
+	protected final AirspaceIndex index;
+	protected final ForkJoinPool pool;
+	protected TerrainTileCache terrain;
+	protected Set<AirspaceClass> classes;
+
+	public ProximityDetector(AirspaceIndex index) {
+		this(index, new ForkJoinPool());
+	}
+
+	public ProximityDetector(AirspaceIndex index, ForkJoinPool pool) {
+		this.index = index;
+		this.pool = pool;
+	}
+
+	public TerrainTileCache getTerrain() {
+		return this.terrain;
+	}
+
+	/**
+	 * Sets the ground elevations for terrain conforming floors and ceilings,
+	 * or null to take them relative to sea level.
+	 */
+	public void setTerrain(TerrainTileCache terrain) {
+		this.terrain = terrain;
+	}
+
+	public Set<AirspaceClass> getClasses() {
+		return this.classes;
+	}
+
+	/**
+	 * Limits the search to airspaces of some classes, such as SFRA and Class
+	 * B, or to all with null.
+	 */
+	public void setClasses(Set<AirspaceClass> classes) {
+		this.classes = classes;
+	}
+
+	/**
+	 * Finds up to k airspaces within <code>maxDistance</code> meters of each
+	 * sample, in parallel.
+	 *
+	 * @param altitudes
+	 *            altitudes above mean sea level, in meters.
+	 */
+	public Result detect(double[] lats, double[] lons, double[] altitudes,
+			int k, double maxDistance) {
+		int n = lats.length;
+		if (lons.length != n || altitudes.length != n)
+			throw new IllegalArgumentException("Sample arrays differ in length");
+		long start = System.nanoTime();
+		Result result = new Result(this.index, n, k);
+		if (k > 0)
+			this.pool.invoke(new FindTask(lats, lons, altitudes, k,
+					maxDistance, result, 0, n));
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Finds the nearest airspaces of samples [start, end) on the calling
+	 * thread.
+	 */
+	protected void find(double[] lats, double[] lons, double[] altitudes,
+			int k, double maxDistance, Result result, int start, int end,
+			AirspaceIndex.Nearest nearest) {
+		double[] ground = null;
+		if (this.terrain != null) {
+			ground = new double[end - start];
+			this.terrain.getElevations(lats, lons, start, end, ground);
+		}
+
+		for (int i = start; i < end; i++) {
+			int found = this.index.findNearest(lats[i], lons[i], altitudes[i],
+					ground != null ? ground[i - start] : 0.0, k, maxDistance,
+					this.classes, nearest);
+			int o = i * k;
+			for (int r = 0; r < found; r++) {
+				result.volumes[o + r] = nearest.get(r);
+				result.distances[o + r] = nearest.getDistance(r);
+				result.laterals[o + r] = nearest.getLateralDistance(r);
+				result.verticals[o + r] = nearest.getVerticalDistance(r);
+			}
+		}
+	}
+
+	/**
+	 * Splits a range of samples in half until it holds no more than
+	 * CHUNK_SIZE.
+	 */
+	protected class FindTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final double[] lats, lons, altitudes;
+		protected final int k;
+		protected final double maxDistance;
+		protected final Result result;
+		protected final int lo, hi;
+
+		public FindTask(double[] lats, double[] lons, double[] altitudes,
+				int k, double maxDistance, Result result, int lo, int hi) {
+			this.lats = lats;
+			this.lons = lons;
+			this.altitudes = altitudes;
+			this.k = k;
+			this.maxDistance = maxDistance;
+			this.result = result;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.hi - this.lo > CHUNK_SIZE) {
+				int mid = (this.lo + this.hi) >>> 1;
+				invokeAll(new FindTask(this.lats, this.lons, this.altitudes,
+						this.k, this.maxDistance, this.result, this.lo, mid),
+						new FindTask(this.lats, this.lons, this.altitudes,
+								this.k, this.maxDistance, this.result, mid,
+								this.hi));
+				return;
+			}
+			find(this.lats, this.lons, this.altitudes, this.k,
+					this.maxDistance, this.result, this.lo, this.hi,
+					new AirspaceIndex.Nearest());
+		}
+	}
+}
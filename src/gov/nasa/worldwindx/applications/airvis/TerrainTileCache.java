@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ground elevations read from a local directory of one degree SRTM tiles, so
+ * terrain conforming floors and ceilings can be resolved without the network
+ * elevation model. Tiles are named for their south-west corner, as in
+ * <code>N38W078.hgt</code>, and hold a square grid of big endian 16 bit
+ * meters, north row first, at 3 or 1 arc seconds.
+ * <p>
+ * Tiles are memory-mapped when first touched and kept in a least recently
+ * used cache of at most {@link #getCapacity()} tiles; a missing tile is
+ * remembered as sea level. Lookups interpolate between the four surrounding
+ * samples, skipping voids, and may be made from several threads.
+ *
+ * @author mmatarazzo
+ */
+public class TerrainTileCache {
+
+	public static final int DEFAULT_CAPACITY = 64;
+	protected static final short VOID = Short.MIN_VALUE;
+	protected static final Logger logger = Logger
+			.getLogger(TerrainTileCache.class.getName());
+
+	protected static class Tile {
+
+		protected final int key;
+		protected final double south, west;
+		// Samples per side, or 0 for a missing tile.
+		protected final int size;
+		protected final ShortBuffer samples;
+
+		public Tile(int key, double south, double west, int size,
+				ShortBuffer samples) {
+			this.key = key;
+			this.south = south;
+			this.west = west;
+			this.size = size;
+			this.samples = samples;
+		}
+
+		public boolean contains(double lat, double lon) {
+			return lat >= this.south && lat <= this.south + 1.0
+					&& lon >= this.west && lon <= this.west + 1.0;
+		}
+
+		public double getElevation(double lat, double lon) {
+			if (this.size == 0)
+				return 0.0;
+			int last = this.size - 1;
+			double y = (this.south + 1.0 - lat) * last;
+			double x = (lon - this.west) * last;
+			int row = Math.max(0, Math.min(last - 1, (int) y));
+			int col = Math.max(0, Math.min(last - 1, (int) x));
+			double fy = Math.max(0.0, Math.min(1.0, y - row));
+			double fx = Math.max(0.0, Math.min(1.0, x - col));
+
+			int i = row * this.size + col;
+			short s00 = this.samples.get(i);
+			short s01 = this.samples.get(i + 1);
+			short s10 = this.samples.get(i + this.size);
+			short s11 = this.samples.get(i + this.size + 1);
+			if (s00 != VOID && s01 != VOID && s10 != VOID && s11 != VOID)
+				return (1.0 - fy) * ((1.0 - fx) * s00 + fx * s01) + fy
+						* ((1.0 - fx) * s10 + fx * s11);
+
+			// Weigh the valid samples, or failing that average them, so a
+			// point on a void takes its neighbours' elevation.
+			double[] weights = { (1.0 - fy) * (1.0 - fx), (1.0 - fy) * fx,
+					fy * (1.0 - fx), fy * fx };
+			short[] values = { s00, s01, s10, s11 };
+			double sum = 0.0, total = 0.0, plain = 0.0;
+			int valid = 0;
+			for (int k = 0; k < 4; k++) {
+				if (values[k] == VOID)
+					continue;
+				sum += weights[k] * values[k];
+				total += weights[k];
+				plain += values[k];
+				valid++;
+			}
+			return total > 0.0 ? sum / total : valid > 0 ? plain / valid
+					: 0.0;
+		}
+	}
+
+	protected final File directory;
+	protected final int capacity;
+	// Guarded by this cache.
+	protected final LinkedHashMap<Integer, Tile> tiles;
+	protected long lookups;
+	protected long loads;
+
+	public TerrainTileCache(File directory) {
+		this(directory, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            most tiles kept mapped; a 1 arc second tile maps 25 MB of
+	 *            file.
+	 */
+	public TerrainTileCache(File directory, final int capacity) {
+		if (!directory.isDirectory())
+			throw new IllegalArgumentException("Not a directory: " + directory);
+		this.directory = directory;
+		this.capacity = capacity;
+		this.tiles = new LinkedHashMap<Integer, Tile>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			// An evicted tile is unmapped once collected.
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return the ground elevation at a point, in meters above mean sea
+	 *         level.
+	 */
+	public double getElevation(double lat, double lon) {
+		return this.getTile(lat, lon).getElevation(lat, lon);
+	}
+
+	/**
+	 * Resolves the ground elevations of points [start, end) into
+	 * <code>elevations[0, end - start)</code>. Runs of points on the same
+	 * tile, as along a track, look the tile up once.
+	 */
+	public void getElevations(double[] lats, double[] lons, int start,
+			int end, double[] elevations) {
+		Tile tile = null;
+		for (int i = start; i < end; i++) {
+			double lat = lats[i], lon = lons[i];
+			if (tile == null || !tile.contains(lat, lon))
+				tile = this.getTile(lat, lon);
+			elevations[i - start] = tile.getElevation(lat, lon);
+		}
+	}
+
+	public double[] getElevations(double[] lats, double[] lons) {
+		double[] elevations = new double[lats.length];
+		this.getElevations(lats, lons, 0, lats.length, elevations);
+		return elevations;
+	}
+
+	protected synchronized Tile getTile(double lat, double lon) {
+		this.lookups++;
+		int south = (int) Math.floor(Math.max(-90.0, Math.min(89.0, lat)));
+		int west = (int) Math.floor(lon);
+		west = ((west + 180) % 360 + 360) % 360 - 180;
+		int key = (south + 90) * 360 + west + 180;
+		Tile tile = this.tiles.get(key);
+		if (tile == null) {
+			tile = this.loadTile(key, south, west);
+			this.tiles.put(key, tile);
+			this.loads++;
+		}
+		return tile;
+	}
+
+	protected Tile loadTile(int key, int south, int west) {
+		File file = new File(this.directory, tileName(south, west));
+		if (!file.isFile())
+			return new Tile(key, south, west, 0, null);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				long length = raf.length();
+				int size = (int) Math.round(Math.sqrt(length / 2.0));
+				if (size < 2 || 2L * size * size != length)
+					throw new IOException("Not a square grid of 16 bit samples");
+				ShortBuffer samples = raf.getChannel()
+						.map(FileChannel.MapMode.READ_ONLY, 0, length)
+						.asShortBuffer();
+				return new Tile(key, south, west, size, samples);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to read terrain tile " + file, e);
+			return new Tile(key, south, west, 0, null);
+		}
+	}
+
+	/**
+	 * @return the SRTM name of the tile with a south-west corner, such as
+	 *         <code>N38W078.hgt</code>.
+	 */
+	public static String tileName(int south, int west) {
+		return String.format("%c%02d%c%03d.hgt", south < 0 ? 'S' : 'N',
+				Math.abs(south), west < 0 ? 'W' : 'E', Math.abs(west));
+	}
+
+	/**
+	 * @return the number of tiles currently mapped or known missing.
+	 */
+	public synchronized int getTileCount() {
+		return this.tiles.size();
+	}
+
+	public synchronized long getLoads() {
+		return this.loads;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d tiles cached of %d, %d loads for %d lookups",
+				this.tiles.size(), this.capacity, this.loads, this.lookups);
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads position reports from a recorded file or a local socket and offers
+ * them to a {@link TrafficRingBuffer}. Each line holds one report, a reduced
+ * form of a GDL90 traffic report:
+ *
+ * <pre>
+ * time,address,lat,lon,altitude
+ * 12.0,A1B2C3,38.95,-77.45,2500
+ * </pre>
+ *
+ * Time is in seconds, the address is the 24-bit ICAO address in hex and the
+ * altitude is in feet above mean sea level. A file is replayed at its
+ * recorded pace scaled by a speed factor; a socket is read as fast as it
+ * delivers.
+ *
+ * @author mmatarazzo
+ */
+public class TrafficFeed implements Runnable {
+
+	protected static final Logger logger = Logger.getLogger(TrafficFeed.class
+			.getName());
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	protected final File file;
+	protected final String host;
+	protected final int port;
+	protected final double speed;
+	protected final TrafficRingBuffer buffer;
+	protected final Runnable onOffer;
+
+	protected final AtomicLong received = new AtomicLong();
+	protected final AtomicLong malformed = new AtomicLong();
+	protected volatile boolean stopped;
+	protected volatile Socket socket;
+
+	/**
+	 * @param speed
+	 *            replay speed relative to the recording; zero or less replays
+	 *            without pausing.
+	 * @param onOffer
+	 *            run after each accepted report, typically to request a
+	 *            redraw.
+	 */
+	public TrafficFeed(File file, double speed, TrafficRingBuffer buffer,
+			Runnable onOffer) {
+		this(file, null, 0, speed, buffer, onOffer);
+	}
+
+	public TrafficFeed(String host, int port, TrafficRingBuffer buffer,
+			Runnable onOffer) {
+		this(null, host, port, 0.0, buffer, onOffer);
+	}
+
+	protected TrafficFeed(File file, String host, int port, double speed,
+			TrafficRingBuffer buffer, Runnable onOffer) {
+		this.file = file;
+		this.host = host;
+		this.port = port;
+		this.speed = speed;
+		this.buffer = buffer;
+		this.onOffer = onOffer;
+	}
+
+	/**
+	 * Creates a feed from a source description: <code>host:port</code> for a
+	 * socket, otherwise a file path.
+	 */
+	public static TrafficFeed forSource(String source, double speed,
+			TrafficRingBuffer buffer, Runnable onOffer) {
+		int colon = source.lastIndexOf(':');
+		if (colon > 0 && !new File(source).exists()) {
+			try {
+				int port = Integer.parseInt(source.substring(colon + 1));
+				return new TrafficFeed(source.substring(0, colon), port,
+						buffer, onOffer);
+			} catch (NumberFormatException e) {
+				// Not a port; treat the whole source as a path.
+			}
+		}
+		return new TrafficFeed(new File(source), speed, buffer, onOffer);
+	}
+
+	@Override
+	public void run() {
+		BufferedReader reader = null;
+		try {
+			if (this.file != null) {
+				reader = new BufferedReader(new InputStreamReader(
+						new FileInputStream(this.file), UTF8));
+			} else {
+				this.socket = new Socket(this.host, this.port);
+				reader = new BufferedReader(new InputStreamReader(
+						this.socket.getInputStream(), UTF8));
+			}
+			this.read(reader);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			if (!this.stopped)
+				logger.log(Level.WARNING, "Traffic feed failed", e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// Nothing more to read either way.
+				}
+			}
+			logger.info("Traffic feed ended: " + this);
+		}
+	}
+
+	protected void read(BufferedReader reader) throws IOException,
+			InterruptedException {
+		long wallStart = 0;
+		double feedStart = Double.NaN;
+		String line;
+		while (!this.stopped && (line = reader.readLine()) != null) {
+			if (line.isEmpty() || line.charAt(0) == '#')
+				continue;
+
+			String[] fields = line.split(",");
+			double time, lat, lon, altitude;
+			int address;
+			try {
+				time = Double.parseDouble(fields[0].trim());
+				address = Integer.parseInt(fields[1].trim(), 16);
+				lat = Double.parseDouble(fields[2].trim());
+				lon = Double.parseDouble(fields[3].trim());
+				altitude = Double.parseDouble(fields[4].trim())
+						* AirspaceRecord.FEET_TO_METERS;
+			} catch (RuntimeException e) {
+				this.malformed.incrementAndGet();
+				continue;
+			}
+
+			if (this.speed > 0.0) {
+				if (Double.isNaN(feedStart)) {
+					feedStart = time;
+					wallStart = System.nanoTime();
+				}
+				long due = wallStart
+						+ (long) ((time - feedStart) / this.speed * 1e9);
+				long wait = due - System.nanoTime();
+				if (wait > 0)
+					Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+			}
+
+			this.received.incrementAndGet();
+			if (this.buffer.offer(address, time, lat, lon, altitude)
+					&& this.onOffer != null)
+				this.onOffer.run();
+		}
+	}
+
+	public void stop() {
+		this.stopped = true;
+		Socket s = this.socket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				// Closing only unblocks the reader.
+			}
+		}
+	}
+
+	public long getReceived() {
+		return this.received.get();
+	}
+
+	public long getMalformed() {
+		return this.malformed.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d received, %d malformed, %d dropped",
+				this.getReceived(), this.getMalformed(),
+				this.buffer.getDropped());
+	}
+}
@@ -0,0 +1,320 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import gov.nasa.worldwind.WorldWind;
+import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.event.RenderingEvent;
+import gov.nasa.worldwind.event.RenderingListener;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.render.PointPlacemark;
+import gov.nasa.worldwind.render.PointPlacemarkAttributes;
+import gov.nasa.worldwind.util.Logging;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows live traffic targets and alerts when one enters an airspace. A
+ * {@link TrafficFeed} thread queues reports in a {@link TrafficRingBuffer}
+ * and asks for a redraw only if none is pending. The queued reports are
+ * applied once per frame, just before rendering. A target reported several
+ * times within one frame is moved only to its latest position.
+ *
+ * @author mmatarazzo
+ */
+public class TrafficLayer extends RenderableLayer implements RenderingListener,
+		TrafficRingBuffer.Sink {
+
+	public interface IndexProvider {
+		/**
+		 * @return the latest index built, or null if none is built yet.
+		 *         Called every frame, so it must not build one.
+		 */
+		AirspaceIndex getIndexSnapshot();
+	}
+
+	protected static final int BUFFER_CAPACITY = 16384;
+	// Targets not heard from for this long are removed.
+	protected static final long STALE_NANOS = 60000000000L;
+	protected static final long SWEEP_NANOS = 1000000000L;
+
+	protected static class Target {
+
+		protected final int address;
+		protected final PointPlacemark placemark;
+		protected double time, lat, lon, altitude;
+		protected long frame = -1;
+		protected long lastSeen;
+		protected int[] inside = new int[0];
+
+		public Target(int address, PointPlacemark placemark) {
+			this.address = address;
+			this.placemark = placemark;
+		}
+	}
+
+	protected final WorldWindow wwd;
+	protected final IndexProvider indexProvider;
+	protected final TrafficRingBuffer buffer = new TrafficRingBuffer(
+			BUFFER_CAPACITY);
+	protected final AtomicBoolean redrawPending = new AtomicBoolean();
+	protected final AtomicLong redrawsCoalesced = new AtomicLong();
+	protected final Runnable redraw = new Runnable() {
+		@Override
+		public void run() {
+			requestRedraw();
+		}
+	};
+
+	// Touched only on the rendering thread.
+	protected final HashMap<Integer, Target> targets = new HashMap<Integer, Target>();
+	protected final ArrayList<Target> dirty = new ArrayList<Target>();
+	protected final AirspaceIndex.Hits hits = new AirspaceIndex.Hits();
+	protected AirspaceIndex index;
+	protected long frames;
+	protected long applied;
+	protected long updatesCoalesced;
+	protected long alerts;
+	protected long lastSweep;
+	protected final PointPlacemarkAttributes normalAttributes;
+	protected final PointPlacemarkAttributes alertAttributes;
+
+	protected TrafficFeed feed;
+	protected TerrainTileCache terrain;
+
+	public TrafficLayer(WorldWindow wwd, IndexProvider indexProvider) {
+		this.wwd = wwd;
+		this.indexProvider = indexProvider;
+		this.setName("Traffic");
+		this.normalAttributes = makeAttributes(Color.GREEN);
+		this.alertAttributes = makeAttributes(Color.RED);
+	}
+
+	protected static PointPlacemarkAttributes makeAttributes(Color color) {
+		PointPlacemarkAttributes attrs = new PointPlacemarkAttributes();
+		attrs.setUsePointAsDefaultImage(true);
+		attrs.setImageColor(color);
+		attrs.setLineMaterial(new Material(color));
+		attrs.setScale(6.0);
+		return attrs;
+	}
+
+	/**
+	 * Starts replaying a feed on a background thread, replacing any running
+	 * feed.
+	 *
+	 * @param source
+	 *            a file path or <code>host:port</code>.
+	 * @param speed
+	 *            replay speed for files.
+	 */
+	public void start(String source, double speed) {
+		this.stop();
+		this.wwd.addRenderingListener(this);
+		this.feed = TrafficFeed.forSource(source, speed, this.buffer,
+				this.redraw);
+		Thread thread = new Thread(this.feed, "Traffic feed");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		if (this.feed != null) {
+			this.feed.stop();
+			this.feed = null;
+		}
+	}
+
+	public TerrainTileCache getTerrain() {
+		return this.terrain;
+	}
+
+	/**
+	 * Sets the ground elevations for terrain conforming floors and ceilings,
+	 * or null to take them relative to sea level.
+	 */
+	public void setTerrain(TerrainTileCache terrain) {
+		this.terrain = terrain;
+	}
+
+	/**
+	 * Called from the feed thread. Asks for a frame unless one is already
+	 * pending.
+	 */
+	protected void requestRedraw() {
+		if (this.redrawPending.compareAndSet(false, true))
+			this.wwd.redraw();
+		else
+			this.redrawsCoalesced.incrementAndGet();
+	}
+
+	@Override
+	public void stageChanged(RenderingEvent event) {
+		if (event.getStage().equals(RenderingEvent.BEFORE_RENDERING)) {
+			// Clear first so reports arriving while we apply ask for another
+			// frame.
+			this.redrawPending.set(false);
+			this.apply();
+		}
+	}
+
+	protected void apply() {
+		this.frames++;
+
+		AirspaceIndex current = this.indexProvider.getIndexSnapshot();
+		if (current != this.index) {
+			// Volume numbers differ between indices; rebase every target
+			// without raising alerts. This uses the positions of the last
+			// frame, so that reports drained below are still checked for
+			// entries against the new index.
+			this.index = current;
+			for (Target target : this.targets.values()) {
+				this.findContaining(target);
+				target.inside = Arrays.copyOf(this.hits.items, this.hits.size());
+			}
+		}
+
+		this.buffer.drain(this);
+
+		for (Target target : this.dirty) {
+			target.placemark.setPosition(Position.fromDegrees(target.lat,
+					target.lon, target.altitude));
+			this.checkIncursions(target);
+		}
+		this.dirty.clear();
+
+		long now = System.nanoTime();
+		if (now - this.lastSweep > SWEEP_NANOS) {
+			this.lastSweep = now;
+			for (Iterator<Target> it = this.targets.values().iterator(); it
+					.hasNext();) {
+				Target target = it.next();
+				if (now - target.lastSeen > STALE_NANOS) {
+					this.removeRenderable(target.placemark);
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives drained reports on the rendering thread.
+	 */
+	@Override
+	public void update(int address, double time, double lat, double lon,
+			double altitude) {
+		Target target = this.targets.get(address);
+		if (target == null) {
+			PointPlacemark placemark = new PointPlacemark(Position.fromDegrees(
+					lat, lon, altitude));
+			placemark.setAltitudeMode(WorldWind.ABSOLUTE);
+			placemark.setAttributes(this.normalAttributes);
+			placemark.setLabelText(String.format("%06X", address));
+			target = new Target(address, placemark);
+			this.targets.put(address, target);
+			this.addRenderable(placemark);
+		}
+
+		if (target.frame == this.frames) {
+			this.updatesCoalesced++;
+		} else {
+			target.frame = this.frames;
+			this.dirty.add(target);
+		}
+		this.applied++;
+		target.time = time;
+		target.lat = lat;
+		target.lon = lon;
+		target.altitude = altitude;
+		target.lastSeen = System.nanoTime();
+	}
+
+	protected void checkIncursions(Target target) {
+		this.findContaining(target);
+		for (int i = 0; i < this.hits.size(); i++) {
+			int v = this.hits.get(i);
+			if (!contains(target.inside, v)) {
+				this.alerts++;
+				Logging.logger().warning(
+						String.format("Traffic %06X entered %s at %.1f",
+								target.address, this.index.getVolume(v)
+										.getRecord().getId(), target.time));
+			}
+		}
+		target.inside = Arrays.copyOf(this.hits.items, this.hits.size());
+		target.placemark
+				.setAttributes(target.inside.length > 0 ? this.alertAttributes
+						: this.normalAttributes);
+	}
+
+	protected static boolean contains(int[] volumes, int volume) {
+		for (int v : volumes) {
+			if (v == volume)
+				return true;
+		}
+		return false;
+	}
+
+	protected void findContaining(Target target) {
+		if (this.index == null) {
+			this.hits.clear();
+			return;
+		}
+		this.index.findContaining(target.lat, target.lon, target.altitude,
+				this.terrain != null ? this.terrain.getElevation(target.lat,
+						target.lon) : 0.0, this.hits);
+	}
+
+	public int getTargetCount() {
+		return this.targets.size();
+	}
+
+	public long getApplied() {
+		return this.applied;
+	}
+
+	/**
+	 * @return reports dropped because the ring buffer was full.
+	 */
+	public long getDropped() {
+		return this.buffer.getDropped();
+	}
+
+	/**
+	 * @return reports superseded by a later report for the same target
+	 *         within one frame.
+	 */
+	public long getUpdatesCoalesced() {
+		return this.updatesCoalesced;
+	}
+
+	/**
+	 * @return redraw requests absorbed by one already pending.
+	 */
+	public long getRedrawsCoalesced() {
+		return this.redrawsCoalesced.get();
+	}
+
+	public long getAlerts() {
+		return this.alerts;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d targets, %d applied, %d dropped, %d coalesced updates, "
+						+ "%d coalesced redraws, %d alerts in %d frames",
+				this.getTargetCount(), this.applied, this.getDropped(),
+				this.updatesCoalesced, this.getRedrawsCoalesced(),
+				this.alerts, this.frames);
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer, single consumer queue of traffic position
+ * reports. Reports are stored field by field in primitive arrays, so neither
+ * side allocates. The producer never blocks: a report offered to a full
+ * buffer is dropped and counted.
+ *
+ * @author mmatarazzo
+ */
+public class TrafficRingBuffer {
+
+	public interface Sink {
+		void update(int address, double time, double lat, double lon,
+				double altitude);
+	}
+
+	protected final int mask;
+	protected final int[] addresses;
+	protected final double[] times, lats, lons, altitudes;
+
+	// Next slot to read, written only by the consumer.
+	protected final AtomicLong head = new AtomicLong();
+	// Next slot to write, written only by the producer.
+	protected final AtomicLong tail = new AtomicLong();
+	protected final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two.
+	 */
+	public TrafficRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.addresses = new int[size];
+		this.times = new double[size];
+		this.lats = new double[size];
+		this.lons = new double[size];
+		this.altitudes = new double[size];
+	}
+
+	public int capacity() {
+		return this.mask + 1;
+	}
+
+	/**
+	 * Called by the producer thread only.
+	 *
+	 * @return false if the buffer was full and the report dropped.
+	 */
+	public boolean offer(int address, double time, double lat, double lon,
+			double altitude) {
+		long t = this.tail.get();
+		if (t - this.head.get() > this.mask) {
+			this.dropped.incrementAndGet();
+			return false;
+		}
+		int slot = (int) t & this.mask;
+		this.addresses[slot] = address;
+		this.times[slot] = time;
+		this.lats[slot] = lat;
+		this.lons[slot] = lon;
+		this.altitudes[slot] = altitude;
+		// Ordered store publishes the slot contents before the new tail.
+		this.tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Called by the consumer thread only. Hands every queued report to the
+	 * sink.
+	 *
+	 * @return the number of reports drained.
+	 */
+	public int drain(Sink sink) {
+		long h = this.head.get();
+		long t = this.tail.get();
+		for (long i = h; i < t; i++) {
+			int slot = (int) i & this.mask;
+			sink.update(this.addresses[slot], this.times[slot],
+					this.lats[slot], this.lons[slot], this.altitudes[slot]);
+		}
+		this.head.lazySet(t);
+		return (int) (t - h);
+	}
+
+	public int size() {
+		return (int) (this.tail.get() - this.head.get());
+	}
+
+	public long getDropped() {
+		return this.dropped.get();
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ *
+ */
+package gov.nasa.worldwindx.applications.airvis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads airspaces from an XML subset with the same fields and units as
+ * {@link CsvAirspaceReader}, using a StAX cursor so only the current element
+ * is held in memory:
+ *
+ * <pre>
+ * &lt;Airspaces&gt;
+ *   &lt;Airspace id="IAD-M1" group="IAD" class="B" shape="PARTIAL_CAPPED_CYLINDER" color="#0000FF"&gt;
+ *     &lt;Name&gt;Dulles Class B Middle&lt;/Name&gt;
+ *     &lt;Lower ref="MSL"&gt;1500&lt;/Lower&gt;
+ *     &lt;Upper ref="MSL"&gt;10000&lt;/Upper&gt;
+ *     &lt;Center lat="38.934722" lon="-77.466667"/&gt;
+ *     &lt;Radii inner="7" outer="12"/&gt;
+ *     &lt;Azimuths left="144.05" right="38.97"/&gt;
+ *     &lt;Location lat="..." lon="..."/&gt;
+ *   &lt;/Airspace&gt;
+ * &lt;/Airspaces&gt;
+ * </pre>
+ *
+ * @author mmatarazzo
+ */
+public class XmlAirspaceReader implements AirspaceRecordReader {
+
+	protected Reader source;
+	protected XMLStreamReader reader;
+	protected final double[] altitude = new double[2];
+
+	public XmlAirspaceReader(Reader source) throws IOException {
+		this.source = source;
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			this.reader = factory.createXMLStreamReader(source);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Reads the airspaces following a cursor already positioned inside a
+	 * larger document. Closing this reader closes both.
+	 */
+	protected XmlAirspaceReader(XMLStreamReader reader, Reader source) {
+		this.source = source;
+		this.reader = reader;
+	}
+
+	@Override
+	public AirspaceRecord next() throws IOException {
+		try {
+			while (this.reader.hasNext()) {
+				if (this.reader.next() == XMLStreamConstants.START_ELEMENT
+						&& this.reader.getLocalName().equals("Airspace"))
+					return this.readAirspace();
+			}
+			return null;
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	protected AirspaceRecord readAirspace() throws XMLStreamException {
+		int line = this.reader.getLocation().getLineNumber();
+		AirspaceRecord record = new AirspaceRecord();
+		RuntimeException error = null;
+		DoubleList locations = new DoubleList();
+
+		try {
+			record.setId(this.required("id"));
+			record.setAirspaceClass(AirspaceClass.parse(this.attribute("class")));
+			String group = this.attribute("group");
+			record.setGroupId(group != null ? group : record.getAirspaceClass()
+					.name());
+			record.setShape(AirspaceRecord.Shape.valueOf(this.required("shape")
+					.toUpperCase()));
+			String path = this.attribute("path");
+			record.setRhumbLine(path != null
+					&& path.toUpperCase().startsWith("RHUMB"));
+			String color = this.attribute("color");
+			record.setColor(color != null ? AirspaceLoader.parseColor(color)
+					: record.getAirspaceClass().getDefaultColor());
+		} catch (RuntimeException e) {
+			error = e;
+		}
+
+		// Consume child elements up to the matching end tag even if the
+		// record is bad, so the next call starts at the following airspace.
+		boolean lowerAgl = false;
+		boolean azimuths = false;
+		double lower = 0.0;
+		while (this.reader.hasNext()) {
+			int event = this.reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT
+					&& this.reader.getLocalName().equals("Airspace"))
+				break;
+			if (event != XMLStreamConstants.START_ELEMENT || error != null)
+				continue;
+
+			try {
+				String name = this.reader.getLocalName();
+				if (name.equals("Name")) {
+					record.setName(this.reader.getElementText().trim());
+				} else if (name.equals("Lower")) {
+					String ref = this.attribute("ref");
+					AirspaceLoader.parseAltitude(this.reader.getElementText(),
+							ref, this.altitude);
+					lower = this.altitude[0];
+					lowerAgl = this.altitude[1] != 0.0;
+				} else if (name.equals("Upper")) {
+					String ref = this.attribute("ref");
+					AirspaceLoader.parseAltitude(this.reader.getElementText(),
+							ref, this.altitude);
+					record.setAltitudes(lower, this.altitude[0]);
+					record.setTerrainConforming(lowerAgl, this.altitude[1] != 0.0);
+				} else if (name.equals("Center")) {
+					record.setCenter(this.number("lat"), this.number("lon"));
+				} else if (name.equals("Radii")) {
+					String inner = this.attribute("inner");
+					record.setRadii(inner != null ? Double.parseDouble(inner)
+							* AirspaceRecord.NAUTICAL_MILES_TO_METERS : 0.0,
+							this.number("outer")
+									* AirspaceRecord.NAUTICAL_MILES_TO_METERS);
+				} else if (name.equals("Azimuths")) {
+					record.setAzimuths(this.number("left"), this.number("right"));
+					azimuths = true;
+				} else if (name.equals("Location")) {
+					locations.add(this.number("lat"));
+					locations.add(this.number("lon"));
+				}
+			} catch (RuntimeException e) {
+				error = e;
+			}
+		}
+
+		if (error != null)
+			throw new IllegalArgumentException("Airspace at line " + line + ": "
+					+ error.getMessage(), error);
+
+		if (locations.size() > 0)
+			record.setLocations(locations.toArray());
+		if (!azimuths) {
+			try {
+				AirspaceLoader.deriveAzimuths(record);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Airspace at line " + line
+						+ ": " + e.getMessage(), e);
+			}
+		}
+		return record;
+	}
+
+	protected String attribute(String name) {
+		String value = this.reader.getAttributeValue(null, name);
+		return value != null && !value.trim().isEmpty() ? value.trim() : null;
+	}
+
+	protected String required(String name) {
+		String value = this.attribute(name);
+		if (value == null)
+			throw new IllegalArgumentException("missing " + name);
+		return value;
+	}
+
+	protected double number(String name) {
+		return Double.parseDouble(this.required(name));
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			this.source.close();
+		}
+	}
+
+	protected static class DoubleList {
+		protected double[] values = new double[16];
+		protected int size;
+
+		public void add(double value) {
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size++] = value;
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		public double[] toArray() {
+			return Arrays.copyOf(this.values, this.size);
+		}
+	}
+}